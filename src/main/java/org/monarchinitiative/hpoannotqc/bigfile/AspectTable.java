@@ -0,0 +1,78 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+
+/**
+ * The aspect (P, I, C or M) of every HPO term, which is shown in the Aspect column of the big file. The aspects
+ * are computed once from the ancestor bitsets of the {@link HpoTermIndex}, so that writing a line of the big file needs
+ * only a lookup rather than a search of the ontology graph. A term that is below more than one root gets the aspect
+ * of the first root in the order P, I, C, M. The aspects are stored by the dense index of the terms, and so
+ * alternative ids (alt_id) have the aspect of their primary term.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class AspectTable {
+    private static final Logger logger = LogManager.getLogger();
+    /** Returned for terms that are not in the ontology. */
+    static final String UNKNOWN_TERM="?";
+    private static final TermId phenotypeRoot= TermId.constructWithPrefix("HP:0000118");
+    private static final TermId INHERITANCE_TERM_ID =TermId.constructWithPrefix("HP:0000005");
+    private static final TermId CLINICAL_COURSE_ID =TermId.constructWithPrefix("HP:0031797");
+    private static final TermId CLINICAL_MODIFIER_ID =TermId.constructWithPrefix("HP:0012823");
+
+    private final HpoTermIndex ontology;
+    /** The aspect (P, I, C or M) of each term by its dense index (null if the term is not below one of the roots). */
+    private final String[] aspects;
+
+    AspectTable(HpoTermIndex ont) {
+        this.ontology=ont;
+        this.aspects=new String[ont.size()];
+        addSubontology(phenotypeRoot,"P"); // organ/phenotype abnormality
+        addSubontology(INHERITANCE_TERM_ID,"I");
+        addSubontology(CLINICAL_COURSE_ID,"C");
+        addSubontology(CLINICAL_MODIFIER_ID,"M");
+    }
+
+    /**
+     * Assign the aspect to the descendants of the root, unless these already have the aspect of an earlier root. The
+     * root itself does not get an aspect.
+     */
+    private void addSubontology(TermId root, String aspect) {
+        int r = ontology.getIndex(root);
+        if (r<0) {
+            logger.error("Could not find subontology root {}",root.getIdWithPrefix());
+            return;
+        }
+        int n=0;
+        for (int i=0;i<aspects.length;i++) {
+            if (aspects[i]==null && i!=r && ontology.isSubclass(i,r)) {
+                aspects[i]=aspect;
+                n++;
+            }
+        }
+        logger.trace("Aspect {}: {} terms",aspect,n);
+    }
+
+    /**
+     * @param tid An HPO term id (primary or alt_id) for which we want to get the aspect
+     * @return A one-letter String representing the aspect (P,I,C,M), or {@link #UNKNOWN_TERM} if the term is not
+     * in the ontology
+     * @throws HPOException if the term is not below one of the four subontology roots
+     */
+    String getAspect(TermId tid) throws HPOException {
+        int i = ontology.getIndex(tid);
+        if (i<0) {
+            logger.error("Invalid HPO tid="+tid.getIdWithPrefix());
+            return UNKNOWN_TERM;
+        }
+        if (aspects[i]==null) {
+            String msg=String.format("Could not get aspect for term %s [%s]",ontology.getName(i),tid.getIdWithPrefix());
+            throw new HPOException(msg);
+        }
+        return aspects[i];
+    }
+}
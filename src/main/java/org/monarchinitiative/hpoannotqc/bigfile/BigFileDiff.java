@@ -0,0 +1,194 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Compares two big files (e.g., the {@code phenotype.hpoa} of the previous and of the current release) and writes
+ * the annotations that were added, removed or changed. An annotation is identified by its DatabaseID, HPO_ID,
+ * Qualifier and Reference; if these are the same in both files but another field differs (e.g., the frequency,
+ * the onset or the biocuration), the annotation has been changed, and each changed field is written. If several
+ * annotations of a file have the same key, those that are the same in both files are unchanged, and the remaining
+ * ones are paired in the sort order of their lines.
+ * <p>
+ * Both files are read in key order with a {@link SortedAnnotationReader}, which sorts them externally if needed, and
+ * are then joined like in a merge, so that only the annotations of one key are kept in memory. The delta is
+ * tab-separated, and the first field of each line is the kind of record:
+ * </p>
+ * <pre>
+ * added     DatabaseID HPO_ID Qualifier Reference
+ * removed   DatabaseID HPO_ID Qualifier Reference
+ * changed   DatabaseID HPO_ID Qualifier Reference field old new
+ * summary   database added removed changed unchanged
+ * </pre>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class BigFileDiff {
+    private static final Logger logger = LogManager.getLogger();
+    public static final String ADDED="added";
+    public static final String REMOVED="removed";
+    public static final String CHANGED="changed";
+    public static final String SUMMARY="summary";
+    /** Names of the fields of the big file, for the changed fields. */
+    private static final String[] FIELDS = V2BigFile.getHeaderV2().split("\t");
+    /** Indices of the counts of the {@link #summaries}. */
+    private static final int N_ADDED=0, N_REMOVED=1, N_CHANGED=2, N_UNCHANGED=3;
+
+    private final String oldPath;
+    private final String newPath;
+    private int maxLinesInMemory=SortedAnnotationReader.DEFAULT_MAX_LINES_IN_MEMORY;
+    /** Key: database (e.g., OMIM); value: number of added, removed, changed and unchanged annotations. */
+    private final Map<String,int[]> summaries = new TreeMap<>();
+    /** Key: name of a field; value: number of changed annotations in which the field was changed. */
+    private final Map<String,Integer> fieldChangeCounts = new LinkedHashMap<>();
+
+    /**
+     * @param oldPath the big file of the previous release
+     * @param newPath the big file of the current release
+     */
+    public BigFileDiff(String oldPath, String newPath) {
+        this.oldPath=oldPath;
+        this.newPath=newPath;
+        for (String field : FIELDS) {
+            fieldChangeCounts.put(field,0);
+        }
+    }
+
+    /** @param max maximum number of lines of a big file that are sorted in memory (the rest is sorted in temporary files) */
+    public void setMaxLinesInMemory(int max) {
+        this.maxLinesInMemory=max;
+    }
+
+    /** Compare the big files and write the delta followed by the summary per database. */
+    public void diff(Writer writer) throws IOException, HPOException {
+        writer.write(String.format("#%s\tDatabaseID\tHPO_ID\tQualifier\tReference\n",ADDED));
+        writer.write(String.format("#%s\tDatabaseID\tHPO_ID\tQualifier\tReference\n",REMOVED));
+        writer.write(String.format("#%s\tDatabaseID\tHPO_ID\tQualifier\tReference\tfield\told\tnew\n",CHANGED));
+        writer.write(String.format("#%s\tdatabase\t%s\t%s\t%s\tunchanged\n",SUMMARY,ADDED,REMOVED,CHANGED));
+        try (SortedAnnotationReader oldReader = new SortedAnnotationReader(oldPath,maxLinesInMemory);
+             SortedAnnotationReader newReader = new SortedAnnotationReader(newPath,maxLinesInMemory)) {
+            boolean hasOld = oldReader.next();
+            boolean hasNew = newReader.next();
+            List<String> oldLines = new ArrayList<>();
+            List<String> newLines = new ArrayList<>();
+            while (hasOld || hasNew) {
+                String key;
+                if (! hasNew || (hasOld && oldReader.getKey().compareTo(newReader.getKey())<=0)) {
+                    key=oldReader.getKey();
+                } else {
+                    key=newReader.getKey();
+                }
+                while (hasOld && oldReader.getKey().equals(key)) {
+                    oldLines.add(oldReader.getLine());
+                    hasOld=oldReader.next();
+                }
+                while (hasNew && newReader.getKey().equals(key)) {
+                    newLines.add(newReader.getLine());
+                    hasNew=newReader.next();
+                }
+                compareAnnotations(key,oldLines,newLines,writer);
+                oldLines.clear();
+                newLines.clear();
+            }
+            logger.info("Compared {} annotations of {} ({} sorted runs) with {} annotations of {} ({} sorted runs)",
+                    oldReader.getNumberOfLines(),oldPath,oldReader.getNumberOfRuns(),
+                    newReader.getNumberOfLines(),newPath,newReader.getNumberOfRuns());
+        }
+        for (Map.Entry<String,int[]> e : summaries.entrySet()) {
+            int[] n = e.getValue();
+            writer.write(String.format("%s\t%s\t%d\t%d\t%d\t%d\n",SUMMARY,e.getKey(),
+                    n[N_ADDED],n[N_REMOVED],n[N_CHANGED],n[N_UNCHANGED]));
+        }
+    }
+
+    /** Compare the annotations with the same key of the old and of the new big file. */
+    private void compareAnnotations(String key, List<String> oldLines, List<String> newLines, Writer writer) throws IOException {
+        int[] counts = summaries.computeIfAbsent(getDatabase(key),k -> new int[4]);
+        if (oldLines.size()==1 && newLines.size()==1) {
+            // by far the most common case
+            compareAnnotation(key,oldLines.get(0),newLines.get(0),counts,writer);
+            return;
+        }
+        List<String> removed = new ArrayList<>(oldLines);
+        List<String> added = new ArrayList<>();
+        for (String line : newLines) {
+            if (removed.remove(line)) {
+                counts[N_UNCHANGED]++;
+            } else {
+                added.add(line);
+            }
+        }
+        Collections.sort(removed);
+        Collections.sort(added);
+        int n = Math.min(removed.size(),added.size());
+        for (int i=0; i<n; i++) {
+            compareAnnotation(key,removed.get(i),added.get(i),counts,writer);
+        }
+        for (int i=n; i<removed.size(); i++) {
+            writer.write(REMOVED + '\t' + key + '\n');
+            counts[N_REMOVED]++;
+        }
+        for (int i=n; i<added.size(); i++) {
+            writer.write(ADDED + '\t' + key + '\n');
+            counts[N_ADDED]++;
+        }
+    }
+
+    /** Write the fields that differ between an old and a new annotation with the same key. */
+    private void compareAnnotation(String key, String oldLine, String newLine, int[] counts, Writer writer) throws IOException {
+        if (oldLine.equals(newLine)) {
+            counts[N_UNCHANGED]++;
+            return;
+        }
+        String[] oldFields = oldLine.split("\t",-1);
+        String[] newFields = newLine.split("\t",-1);
+        int n = Math.max(oldFields.length,newFields.length);
+        for (int i=0; i<n; i++) {
+            String oldValue = i<oldFields.length ? oldFields[i] : "";
+            String newValue = i<newFields.length ? newFields[i] : "";
+            if (! oldValue.equals(newValue)) {
+                String field = i<FIELDS.length ? FIELDS[i] : String.format("field%d",i+1);
+                writer.write(String.format("%s\t%s\t%s\t%s\t%s\n",CHANGED,key,field,oldValue,newValue));
+                fieldChangeCounts.merge(field,1,Integer::sum);
+            }
+        }
+        counts[N_CHANGED]++;
+    }
+
+    /** @return the database of a key, e.g., OMIM for OMIM:600123 */
+    private static String getDatabase(String key) {
+        int colon = key.indexOf(':');
+        int tab = key.indexOf('\t');
+        return colon>0 && colon<tab ? key.substring(0,colon) : key.substring(0,tab);
+    }
+
+    /** @return the databases of the big files with their numbers of added, removed, changed and unchanged annotations */
+    public Map<String,int[]> getSummaries() {
+        return Collections.unmodifiableMap(summaries);
+    }
+
+    /** @return the names of the fields with the number of changed annotations in which they were changed */
+    public Map<String,Integer> getFieldChangeCounts() {
+        return Collections.unmodifiableMap(fieldChangeCounts);
+    }
+
+    /** @return a table of the numbers of added, removed, changed and unchanged annotations per database */
+    public String getSummaryReport() {
+        StringBuilder sb = new StringBuilder(String.format("%-10s %10s %10s %10s %10s\n","database",ADDED,REMOVED,CHANGED,"unchanged"));
+        for (Map.Entry<String,int[]> e : summaries.entrySet()) {
+            int[] n = e.getValue();
+            sb.append(String.format("%-10s %10d %10d %10d %10d\n",e.getKey(),n[N_ADDED],n[N_REMOVED],n[N_CHANGED],n[N_UNCHANGED]));
+        }
+        for (Map.Entry<String,Integer> e : fieldChangeCounts.entrySet()) {
+            if (e.getValue()>0) {
+                sb.append(String.format("%s changed in %d annotations\n",e.getKey(),e.getValue()));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,302 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.io.ParallelGzipOutputStream;
+import org.monarchinitiative.hpoannotqc.smallfile.QcFinding;
+import org.monarchinitiative.hpoannotqc.smallfile.QcFindingCode;
+import org.monarchinitiative.hpoannotqc.smallfile.QualityControlSummary;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Combines the shard files written by {@link BigFileShardWriter} into a single big file. The header of the big file
+ * shows the total number of diseases of all shards, and the lines of the shards are merged in the order of their
+ * keys, so that the big file is the same as if it had been written by a single process. The Q/C counters and the
+ * numbers of annotations per biocurator of the shards are added up. The Q/C findings of the shards are sorted by
+ * the keys of their diseases, and the maximum number of findings per check is applied to the sorted findings, so
+ * that the Q/C report is also the same as that of a single process. Shards whose path ends with {@code .gz} are
+ * decompressed.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class BigFileShardMerger {
+    private static final Logger logger = LogManager.getLogger();
+    /** Paths to the shard files (in any order). */
+    private final List<String> shardPaths;
+    /** Usually "phenotype.hpoa", but may also include path. */
+    private final String outputPath;
+    /** Sum of the Q/C counters and errors of all shards. */
+    private final QualityControlSummary summary = new QualityControlSummary();
+    /** The Q/C findings that the shards kept, in the order of the shards. */
+    private final List<ShardFinding> findings = new ArrayList<>();
+    /** Key: name of a check; value: number of findings that the shards did not keep. */
+    private final Map<String,Integer> droppedFindings = new HashMap<>();
+    /** Key: biocurator, e.g., HPO:probinson; value: number of annotations of all shards. */
+    private final Map<String,Integer> assignedByCounts = new TreeMap<>();
+    private final Map<String,Integer> diseaseCounts = new HashMap<>();
+    private int n_lines_written=0;
+    /** Compression level if the big file is written as a .gz file. */
+    private int gzipLevel=ParallelGzipOutputStream.DEFAULT_LEVEL;
+    /** Size of the blocks that are compressed separately if the big file is written as a .gz file. */
+    private int gzipBlockSize=ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+    /** Number of threads that compress the blocks if the big file is written as a .gz file. */
+    private int gzipThreads=1;
+
+    public BigFileShardMerger(List<String> shardPaths, String outpath) {
+        this.shardPaths=shardPaths;
+        this.outputPath=outpath;
+    }
+
+    /**
+     * Set the compression of the merged big file, which is written gzip-compressed if its path ends with {@code .gz}.
+     * @see BigFileWriter#openBigFile(String, int, int, int)
+     */
+    public void setCompression(int level, int blockSize, int threads) {
+        this.gzipLevel=level;
+        this.gzipBlockSize=blockSize;
+        this.gzipThreads=threads;
+    }
+
+    /** A Q/C finding of a shard with the key of its disease, which gives the position of the disease in the big file. */
+    private static final class ShardFinding {
+        private final String key;
+        private final QcFinding finding;
+
+        ShardFinding(String key, QcFinding finding) {
+            this.key=key;
+            this.finding=finding;
+        }
+    }
+
+    /** The header and the current line of one shard file. */
+    private class ShardReader implements Closeable {
+        private final String path;
+        private final BufferedReader br;
+        private int shard=-1;
+        private int numberOfShards=-1;
+        private int maxFindingsPerCheck=-1;
+        private final Map<String,String> meta = new HashMap<>();
+        /** The current annotation line (with key), or null if the shard is exhausted. */
+        private String line;
+        private String key;
+
+        ShardReader(String path) throws IOException, HPOException {
+            this.path=path;
+            this.br=SortedAnnotationReader.open(path);
+            String header;
+            while ((header=br.readLine())!=null && header.startsWith("#")) {
+                String[] F = header.split("\t");
+                if (F[0].equals(BigFileShardWriter.SHARD) && F.length==3) {
+                    shard=parseInt(F[1]);
+                    numberOfShards=parseInt(F[2]);
+                } else if (F[0].equals(BigFileShardWriter.MAX_FINDINGS) && F.length==2) {
+                    maxFindingsPerCheck=parseInt(F[1]);
+                } else if (F[0].equals(BigFileShardWriter.META) && F.length==3) {
+                    meta.put(F[1],F[2]);
+                } else if (F[0].equals(BigFileShardWriter.DISEASES) && F.length==3) {
+                    diseaseCounts.merge(F[1],parseInt(F[2]),Integer::sum);
+                } else {
+                    parseTrailer(header);
+                }
+            }
+            if (shard<0 || numberOfShards<1) {
+                br.close();
+                throw new HPOException(String.format("%s is not a big file shard (missing %s line)",path,BigFileShardWriter.SHARD));
+            }
+            setLine(header);
+        }
+
+        /** Move to the next annotation line, collecting the Q/C lines at the end of the shard. */
+        void advance() throws IOException, HPOException {
+            String next;
+            while ((next=br.readLine())!=null && next.startsWith("#")) {
+                parseTrailer(next);
+            }
+            setLine(next);
+        }
+
+        private void setLine(String next) throws HPOException {
+            line=next;
+            if (line==null) {
+                key=null;
+                return;
+            }
+            int tab=line.indexOf('\t');
+            if (tab<0) {
+                throw new HPOException(String.format("Malformed line in shard %s: %s",path,line));
+            }
+            key=line.substring(0,tab);
+        }
+
+        private void parseTrailer(String trailer) throws HPOException {
+            String[] F = trailer.split("\t",-1);
+            if (F[0].equals(BigFileShardWriter.QC) && F.length==4) {
+                summary.addCount(F[1],parseInt(F[2]),parseInt(F[3]));
+            } else if (F[0].equals(BigFileShardWriter.QC_FINDING) && F.length==6) {
+                QcFindingCode code;
+                try {
+                    code = QcFindingCode.valueOf(F[4]);
+                } catch (IllegalArgumentException e) {
+                    throw new HPOException(String.format("Unknown Q/C finding code in shard %s: %s",path,trailer));
+                }
+                // the index of the disease among all diseases is not known, but its key gives the order
+                findings.add(new ShardFinding(F[1],new QcFinding(-1,F[2],parseInt(F[3]),code,F[5])));
+            } else if (F[0].equals(BigFileShardWriter.QC_DROPPED) && F.length==3) {
+                droppedFindings.merge(F[1],parseInt(F[2]),Integer::sum);
+            } else if (F[0].equals(BigFileShardWriter.QC_ASSIGNED_BY) && F.length==3) {
+                assignedByCounts.merge(F[1],parseInt(F[2]),Integer::sum);
+            } else {
+                throw new HPOException(String.format("Unrecognized line in shard %s: %s",path,trailer));
+            }
+        }
+
+        private int parseInt(String s) throws HPOException {
+            try {
+                return Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                throw new HPOException(String.format("Malformed number \"%s\" in shard %s",s,path));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            br.close();
+        }
+    }
+
+    /** Check the shards and write the merged big file. */
+    public void merge() throws IOException, HPOException {
+        List<ShardReader> readers = new ArrayList<>();
+        try {
+            for (String path : shardPaths) {
+                readers.add(new ShardReader(path));
+            }
+            Map<String,String> meta = checkShards(readers);
+            int maxFindingsPerCheck = readers.get(0).maxFindingsPerCheck;
+            try (BufferedWriter writer = BigFileWriter.openBigFile(outputPath,gzipLevel,gzipBlockSize,gzipThreads)) {
+                BigFileWriter.writeHeaderV2(writer,
+                        diseaseCounts.getOrDefault(BigFileShardWriter.OMIM,0),
+                        diseaseCounts.getOrDefault(BigFileShardWriter.DECIPHER,0),
+                        diseaseCounts.getOrDefault(BigFileShardWriter.ORPHA,0),
+                        diseaseCounts.getOrDefault(BigFileShardWriter.UNKNOWN,0),
+                        meta);
+                writer.write(V2BigFile.getHeaderV2() + "\n");
+                PriorityQueue<ShardReader> queue = new PriorityQueue<>(Comparator.comparing((ShardReader r) -> r.key));
+                for (ShardReader r : readers) {
+                    if (r.line!=null) queue.add(r);
+                }
+                while (! queue.isEmpty()) {
+                    ShardReader r = queue.poll();
+                    writer.write(r.line.substring(r.key.length()+1) + "\n");
+                    n_lines_written++;
+                    r.advance();
+                    if (r.line!=null) queue.add(r);
+                }
+            }
+            // the Q/C lines are read when the shards are exhausted, and so the findings are complete now
+            mergeFindings(maxFindingsPerCheck);
+        } finally {
+            for (ShardReader r : readers) {
+                r.close();
+            }
+        }
+        System.out.println(String.format("We output a total of %d big file lines from %d shards",n_lines_written,shardPaths.size()));
+        summary.dumpToLog();
+        for (Map.Entry<String,Integer> e : assignedByCounts.entrySet()) {
+            logger.info("{}: n={}",e.getKey(),e.getValue());
+        }
+    }
+
+    /**
+     * Add the findings of all shards to the Q/C summary in the order of their diseases, keeping at most the maximum
+     * number of findings per check, followed by the number of findings per check that were not kept. Each shard
+     * kept the first findings of its own diseases, and so the findings that a single process would have kept are
+     * among them.
+     */
+    private void mergeFindings(int maxFindingsPerCheck) {
+        // the sort is stable, and so the findings of a disease stay in the order of its lines and checks
+        findings.sort(Comparator.comparing((ShardFinding f) -> f.key));
+        Map<String,Integer> kept = new HashMap<>();
+        Map<String,Integer> dropped = new HashMap<>(droppedFindings);
+        for (ShardFinding f : findings) {
+            String check = f.finding.getCode().getCheck();
+            if (kept.merge(check,1,Integer::sum)<=maxFindingsPerCheck) {
+                summary.addError(f.finding.render());
+            } else {
+                dropped.merge(check,1,Integer::sum);
+            }
+        }
+        for (String check : summary.getChecks()) {
+            int n = dropped.getOrDefault(check,0);
+            if (n>0) {
+                summary.addError(V2LineQualityController.renderDroppedFindings(n,check,maxFindingsPerCheck));
+            }
+        }
+        findings.clear();
+    }
+
+    /**
+     * Every shard 0..N-1 must be present exactly once, and all shards must have been written with the same hp.obo.
+     * @return the hp.obo metadata of the shards
+     */
+    private Map<String,String> checkShards(List<ShardReader> readers) throws HPOException {
+        if (readers.isEmpty()) {
+            throw new HPOException("No shard files to merge");
+        }
+        int n = readers.get(0).numberOfShards;
+        ShardReader[] seen = new ShardReader[n];
+        for (ShardReader r : readers) {
+            if (r.numberOfShards!=n) {
+                throw new HPOException(String.format("Shard %s is one of %d shards, but %s is one of %d shards",
+                        r.path,r.numberOfShards,readers.get(0).path,n));
+            }
+            if (r.shard>=n) {
+                throw new HPOException(String.format("Invalid shard index %d in %s",r.shard,r.path));
+            }
+            if (seen[r.shard]!=null) {
+                throw new HPOException(String.format("Shard %d occurs twice (%s and %s)",r.shard,seen[r.shard].path,r.path));
+            }
+            seen[r.shard]=r;
+            if (r.maxFindingsPerCheck<0) {
+                throw new HPOException(String.format("Shard %s has no %s line",r.path,BigFileShardWriter.MAX_FINDINGS));
+            }
+            if (r.maxFindingsPerCheck!=readers.get(0).maxFindingsPerCheck) {
+                throw new HPOException(String.format("Shard %s keeps %d Q/C findings per check, but %s keeps %d",
+                        r.path,r.maxFindingsPerCheck,readers.get(0).path,readers.get(0).maxFindingsPerCheck));
+            }
+            if (! r.meta.equals(readers.get(0).meta)) {
+                logger.warn("Shard {} was written with a different hp.obo ({}) than shard {} ({})",
+                        r.path,r.meta.get("data-version"),readers.get(0).path,readers.get(0).meta.get("data-version"));
+            }
+        }
+        for (int i=0;i<n;i++) {
+            if (seen[i]==null) {
+                throw new HPOException(String.format("Shard %d of %d is missing",i,n));
+            }
+        }
+        return readers.get(0).meta;
+    }
+
+    /** @return the summed Q/C counters and errors of all shards (after {@link #merge()}) */
+    public QualityControlSummary getQualityControlSummary() {
+        return summary;
+    }
+
+    /** @return the number of annotations per biocurator of all shards, sorted by biocurator (after {@link #merge()}) */
+    public Map<String,Integer> getAssignedByCounts() {
+        return Collections.unmodifiableMap(assignedByCounts);
+    }
+
+    /** @return the number of annotation lines written to the merged big file */
+    public int getNumberOfLinesWritten() {
+        return n_lines_written;
+    }
+
+    /** @return the total number of diseases of the given database (OMIM, DECIPHER, ORPHA or UNKNOWN) */
+    public int getNumberOfDiseases(String database) {
+        return diseaseCounts.getOrDefault(database,0);
+    }
+}
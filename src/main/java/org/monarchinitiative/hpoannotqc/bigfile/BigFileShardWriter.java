@@ -0,0 +1,193 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.io.ParallelGzipOutputStream;
+import org.monarchinitiative.hpoannotqc.io.V2SmallFileIngestor;
+import org.monarchinitiative.hpoannotqc.orphanet.OrphanetDisorder;
+import org.monarchinitiative.hpoannotqc.smallfile.QcFinding;
+import org.monarchinitiative.hpoannotqc.smallfile.QualityControlSummary;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one shard of the big file, so that the big file can be generated by several processes (or machines) and
+ * then combined by {@link BigFileShardMerger}. A disease belongs to the shard given by
+ * {@link V2SmallFileIngestor#shardOf(String, int)}. The shard file has the following format:
+ * <pre>
+ * #shard            i              N
+ * #max-findings     n                               (maximum number of Q/C findings kept per check)
+ * #meta             data-version   ...
+ * #diseases         OMIM           n                (also DECIPHER, ORPHA and UNKNOWN)
+ * key  big-file-line                                (one line per annotation)
+ * #qc               check          good   bad       (written after the annotations)
+ * #qc-finding       key  diseaseId  line  code  value
+ * #qc-dropped       check          n
+ * #qc-assigned-by   biocurator     n
+ * </pre>
+ * The key of each line determines the position of the line in the merged big file, which is therefore the same as
+ * if the big file had been written by a single process: the small files sorted by basename, followed by the
+ * Orphanet disorders in the order of the Orphanet XML file. The Q/C findings that were kept are written with the
+ * key of their disease, so that they can be merged in the same order, and the findings that were not kept because
+ * of the maximum are counted per check. The shard is gzip-compressed if its path ends with {@code .gz}.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class BigFileShardWriter {
+    private static final Logger logger = LogManager.getLogger();
+    static final String SHARD="#shard";
+    static final String META="#meta";
+    static final String DISEASES="#diseases";
+    static final String MAX_FINDINGS="#max-findings";
+    static final String QC="#qc";
+    static final String QC_FINDING="#qc-finding";
+    static final String QC_DROPPED="#qc-dropped";
+    static final String QC_ASSIGNED_BY="#qc-assigned-by";
+    static final String OMIM="OMIM";
+    static final String DECIPHER="DECIPHER";
+    static final String ORPHA="ORPHA";
+    static final String UNKNOWN="UNKNOWN";
+    /** Prefix of the keys of small file lines, which sort before those of Orphanet lines. */
+    private static final String SMALL_FILE_KEY="0|";
+    private static final String ORPHANET_KEY="1|";
+
+    private final HpoTermIndex ontology;
+    private final String outputPath;
+    private final int shard;
+    private final int numberOfShards;
+    /** Maximum number of Q/C findings kept per check. */
+    private int maxFindingsPerCheck=V2LineQualityController.DEFAULT_MAX_FINDINGS_PER_CHECK;
+    /** Compression level, block size and number of threads if the shard is written as a .gz file. */
+    private int gzipLevel=ParallelGzipOutputStream.DEFAULT_LEVEL;
+    private int gzipBlockSize=ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+    private int gzipThreads=1;
+
+    /**
+     * @param ont reference to HPO ontology
+     * @param outpath path of the shard file
+     * @param shard index of the shard (0-based)
+     * @param numberOfShards total number of shards
+     */
+    public BigFileShardWriter(HpoTermIndex ont, String outpath, int shard, int numberOfShards) {
+        this.ontology=ont;
+        this.outputPath=outpath;
+        this.shard=shard;
+        this.numberOfShards=numberOfShards;
+    }
+
+    /**
+     * @param max maximum number of Q/C findings kept per check; the merged big file keeps the same number of findings
+     *            as a big file written by a single process
+     */
+    public void setMaxFindingsPerCheck(int max) {
+        this.maxFindingsPerCheck=max;
+    }
+
+    /**
+     * Set the compression of the shard, which is written gzip-compressed if its path ends with {@code .gz}.
+     * @see BigFileWriter#openBigFile(String, int, int, int)
+     */
+    public void setCompression(int level, int blockSize, int threads) {
+        this.gzipLevel=level;
+        this.gzipBlockSize=blockSize;
+        this.gzipThreads=threads;
+    }
+
+    /**
+     * Write the lines of the small files and Orphanet disorders that belong to this shard.
+     * @param v2files parsed small files (small files of other shards are skipped)
+     * @param orphanetDisorders all Orphanet disorders (disorders of other shards are skipped)
+     * @param ontologyMetaInfo metadata of hp.obo for the header of the merged big file
+     */
+    public void write(List<V2SmallFile> v2files, List<OrphanetDisorder> orphanetDisorders,
+                      Map<String,String> ontologyMetaInfo) throws IOException {
+        List<V2SmallFile> shardFiles = new ArrayList<>();
+        int n_omim=0, n_decipher=0, n_unknown=0;
+        for (V2SmallFile v2sf : v2files) {
+            if (! inShard(diseaseId(v2sf.getBasename()))) continue;
+            shardFiles.add(v2sf);
+            if (v2sf.isOMIM()) n_omim++;
+            else if (v2sf.isDECIPHER()) n_decipher++;
+            else n_unknown++;
+        }
+        List<Integer> shardDisorders = new ArrayList<>();
+        for (int i=0;i<orphanetDisorders.size();i++) {
+            if (inShard(String.format("%s:%d",ORPHA,orphanetDisorders.get(i).getOrphaNumber()))) {
+                shardDisorders.add(i);
+            }
+        }
+        AspectTable aspects = new AspectTable(ontology);
+        V2BigFile v2BigFile = new V2BigFile(ontology,shardFiles,aspects);
+        v2BigFile.setQualityControlFindings(maxFindingsPerCheck,null);
+        Orphanet2BigFile orph2big = new Orphanet2BigFile(orphanetDisorders,null,ontology,aspects);
+        int n_orphanet_lines=0;
+        try (BufferedWriter writer = BigFileWriter.openBigFile(outputPath,gzipLevel,gzipBlockSize,gzipThreads)) {
+            writer.write(String.format("%s\t%d\t%d\n",SHARD,shard,numberOfShards));
+            writer.write(String.format("%s\t%d\n",MAX_FINDINGS,maxFindingsPerCheck));
+            for (String key : new String[]{"data-version","saved-by"}) {
+                if (ontologyMetaInfo.containsKey(key)) {
+                    writer.write(String.format("%s\t%s\t%s\n",META,key,ontologyMetaInfo.get(key)));
+                }
+            }
+            writer.write(String.format("%s\t%s\t%d\n",DISEASES,OMIM,n_omim));
+            writer.write(String.format("%s\t%s\t%d\n",DISEASES,DECIPHER,n_decipher));
+            writer.write(String.format("%s\t%s\t%d\n",DISEASES,ORPHA,shardDisorders.size()));
+            writer.write(String.format("%s\t%s\t%d\n",DISEASES,UNKNOWN,n_unknown));
+            v2BigFile.resetBigFileV2();
+            for (V2SmallFile v2sf : shardFiles) {
+                v2BigFile.outputV2SmallFile(v2sf,writer,SMALL_FILE_KEY+v2sf.getBasename()+"\t");
+            }
+            for (int i : shardDisorders) {
+                // the zero-padded index keeps the Orphanet disorders in their original order
+                String key=String.format("%s%08d\t",ORPHANET_KEY,i);
+                for (String line : orph2big.transformDisorder(orphanetDisorders.get(i))) {
+                    writer.write(key + line + "\n");
+                    n_orphanet_lines++;
+                }
+            }
+            writeQualityControl(v2BigFile.getLineQualityController(),shardFiles,writer);
+        }
+        logger.info("Wrote shard {}/{} with {} small files ({} lines) and {} Orphanet disorders ({} lines) to {}",
+                shard,numberOfShards,shardFiles.size(),v2BigFile.getNumberOfLinesWritten(),
+                shardDisorders.size(),n_orphanet_lines,outputPath);
+    }
+
+    /** Write the Q/C counters, the findings that were kept, the number of findings that were not kept and the biocurators. */
+    private void writeQualityControl(V2LineQualityController qc, List<V2SmallFile> shardFiles, BufferedWriter writer) throws IOException {
+        QualityControlSummary summary = qc.getSummary();
+        for (String check : summary.getChecks()) {
+            writer.write(String.format("%s\t%s\t%d\t%d\n",QC,check,summary.getGood(check),summary.getBad(check)));
+        }
+        for (QcFinding finding : qc.getFindings()) {
+            // the disease index of the finding is the index of the small file in this shard
+            writer.write(String.format("%s\t%s%s\t%s\t%d\t%s\t%s\n",QC_FINDING,
+                    SMALL_FILE_KEY,shardFiles.get(finding.getDiseaseIndex()).getBasename(),
+                    finding.getDiseaseId(),finding.getLineNumber(),finding.getCode().name(),
+                    finding.getValue().replace('\t',' ').replace('\n',' ')));
+        }
+        for (String check : summary.getChecks()) {
+            int n = qc.getNumberOfDroppedFindings(check);
+            if (n>0) {
+                writer.write(String.format("%s\t%s\t%d\n",QC_DROPPED,check,n));
+            }
+        }
+        for (Map.Entry<String,Integer> e : qc.getAssignedByCounts().entrySet()) {
+            writer.write(String.format("%s\t%s\t%d\n",QC_ASSIGNED_BY,e.getKey(),e.getValue()));
+        }
+    }
+
+    private boolean inShard(String diseaseId) {
+        return V2SmallFileIngestor.shardOf(diseaseId,numberOfShards)==shard;
+    }
+
+    /** @return the disease ID for a basename, e.g., OMIM:600123 for OMIM-600123.tab */
+    private static String diseaseId(String basename) {
+        return basename.replace('-',':').replace(".tab","");
+    }
+}
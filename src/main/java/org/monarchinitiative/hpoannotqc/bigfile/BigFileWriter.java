@@ -4,13 +4,20 @@ package org.monarchinitiative.hpoannotqc.bigfile;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.io.ParallelGzipOutputStream;
 import org.monarchinitiative.hpoannotqc.orphanet.OrphanetDisorder;
+import org.monarchinitiative.hpoannotqc.smallfile.ColumnarAnnotationStore;
+import org.monarchinitiative.hpoannotqc.smallfile.QcReportWriter;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -29,7 +36,9 @@ public class BigFileWriter {
     /**Usually "phenotype.hpoa", but may also include path. */
     private final String bigFileOutputNameV2;
     private BufferedWriter writer;
-    private final HpoOntology ontology;
+    private final HpoTermIndex ontology;
+    /** Aspects of all terms, computed once and shared by the small file and Orphanet output. */
+    private final AspectTable aspectTable;
     /** Number of annotated Orphanet entries. */
     private int n_orphanet;
     private int n_decipher;
@@ -38,14 +47,36 @@ public class BigFileWriter {
     private int n_unknown;
 
     private Map<String,String> ontologyMetaInfo;
+    /** Number of threads that render the lines of the big file (1: no worker threads). */
+    private int renderThreads=1;
+    /** Compression level if the big file is written as a .gz file. */
+    private int gzipLevel=ParallelGzipOutputStream.DEFAULT_LEVEL;
+    /** Size of the uncompressed blocks that are compressed separately if the big file is written as a .gz file. */
+    private int gzipBlockSize=ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+    /** Number of threads that compress the blocks if the big file is written as a .gz file. */
+    private int gzipThreads=1;
+    /** If true, the lines are written sorted by DatabaseID with an index (see {@link IndexedBigFileReader}). */
+    private boolean diseaseIndex=false;
 
 
 
-    public BigFileWriter(HpoOntology ont, List<V2SmallFile> v2list, String outpath) throws HPOException {
+    public BigFileWriter(HpoTermIndex ont, List<V2SmallFile> v2list, String outpath) throws HPOException {
         this.ontology=ont;
         this.v2SmallFileList=v2list;
         this.bigFileOutputNameV2=outpath;
-        this.v2BigFile=new V2BigFile(ont,v2SmallFileList);
+        this.aspectTable=new AspectTable(ont);
+        this.v2BigFile=new V2BigFile(ont,v2SmallFileList,aspectTable);
+    }
+
+    /**
+     * Constructor for streaming output, in which the small files are passed one at a time to
+     * {@link #outputV2SmallFile(V2SmallFile)} rather than as a list. In this case, the number of diseases for the
+     * header must be set with {@link #setNumberOfDiseasesForHeader(int, List)}.
+     * @param ont reference to HPO ontology
+     * @param outpath path of the big file (usually phenotype.hpoa)
+     */
+    public BigFileWriter(HpoTermIndex ont, String outpath) throws HPOException {
+        this(ont,new ArrayList<>(),outpath);
     }
 
 
@@ -66,24 +97,138 @@ public class BigFileWriter {
     }
 
 
+    /**
+     * Set the number of diseases for the header using the names of the small files rather than the parsed
+     * small files. This is used for streaming output, where the header is written before the small files are parsed.
+     * @param n_orpha number of Orphanet diseases
+     * @param smallFilePaths paths to all small files that will be written to the big file
+     */
+    public void setNumberOfDiseasesForHeader(int n_orpha, List<String> smallFilePaths) {
+        this.n_orphanet=n_orpha;
+        this.n_decipher=0;
+        this.n_omim=0;
+        this.n_unknown=0;
+        for (String path : smallFilePaths) {
+            String basename = new File(path).getName();
+            if (V2SmallFile.isOMIMFile(basename)) n_omim++;
+            else if (V2SmallFile.isDECIPHERFile(basename)) n_decipher++;
+            else n_unknown++;
+        }
+    }
+
+    /**
+     * Set the compression of the big file, which is written gzip-compressed if its path ends with {@code .gz}.
+     * @param level compression level from 0 to 9
+     * @param blockSize size in bytes of the blocks that are compressed as separate gzip members
+     * @param threads number of threads that compress the blocks
+     */
+    public void setCompression(int level, int blockSize, int threads) {
+        this.gzipLevel=level;
+        this.gzipBlockSize=blockSize;
+        this.gzipThreads=threads;
+    }
+
+    /**
+     * @param index if true, the annotation lines are written sorted by DatabaseID (keeping the order of the lines of
+     *              each disease), and the byte offset and length of the lines of each disease are written to an
+     *              index ({@code phenotype.hpoa.idx}) that is used by {@link IndexedBigFileReader}. The lines are sorted
+     *              in runs on temporary files, which are merged by {@link #closeFileHandle()}.
+     */
+    public void setDiseaseIndex(boolean index) {
+        this.diseaseIndex=index;
+    }
+
     public void initializeV2filehandle() throws HPOException {
+        if (diseaseIndex) {
+            if (bigFileOutputNameV2.endsWith(".gz")) {
+                throw new HPOException(String.format("Cannot write a disease index for the compressed big file %s",bigFileOutputNameV2));
+            }
+            this.writer = new BufferedWriter(new DiseaseSortingWriter(bigFileOutputNameV2,
+                    bigFileOutputNameV2+IndexedBigFileReader.INDEX_SUFFIX));
+            return;
+        }
         try {
-            this.writer = new BufferedWriter(new FileWriter(bigFileOutputNameV2));
+            this.writer = openBigFile(bigFileOutputNameV2,gzipLevel,gzipBlockSize,gzipThreads);
         } catch (IOException ioe) {
             String msg = String.format("IOException encountered while trying to create BufferedWriter for bigfile at file %s",bigFileOutputNameV2);
             throw new HPOException(msg);
         }
     }
 
+    /**
+     * @param maxFindingsPerCheck maximum number of Q/C findings kept for the report per check
+     * @param reportWriter machine-readable Q/C report, to which the findings are written as they are found and the
+     *                     counts at the end of the small file part (null if not used)
+     */
+    public void setQualityControlFindings(int maxFindingsPerCheck, QcReportWriter reportWriter) {
+        this.v2BigFile.setQualityControlFindings(maxFindingsPerCheck,reportWriter);
+    }
+
+    /**
+     * Render the lines of {@link #outputBigFileV2()} and {@link #appendOrphanetV2(List)} in chunks of diseases on
+     * several threads. The chunks are written in order, and so the big file and the Q/C are the same as with a
+     * single thread.
+     * @param n number of threads (1: render on the calling thread)
+     */
+    public void setRenderThreads(int n) {
+        this.renderThreads=n;
+        this.v2BigFile.setRenderThreads(n,OrderedChunkWriter.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Open a big file for writing. If the path ends with {@code .gz}, the file is compressed with a
+     * {@link ParallelGzipOutputStream}, which can be read with gunzip; the uncompressed bytes are the same as those
+     * of an uncompressed big file.
+     * @param path path of the big file
+     * @param level compression level from 0 to 9 (only used for .gz files)
+     * @param blockSize size of the uncompressed blocks that are compressed separately (only used for .gz files)
+     * @param threads number of threads that compress the blocks (only used for .gz files)
+     */
+    public static BufferedWriter openBigFile(String path, int level, int blockSize, int threads) throws IOException {
+        if (! path.endsWith(".gz")) {
+            return new BufferedWriter(new FileWriter(path));
+        }
+        // the default charset, as with FileWriter
+        return new BufferedWriter(new OutputStreamWriter(new ParallelGzipOutputStream(new FileOutputStream(path),
+                level,blockSize,threads)));
+    }
+
     public void setOntologyMetadata(Map<String,String> meta) { this.ontologyMetaInfo=meta;}
 
-    private String getDate() {
+    private static String getDate() {
         Date dNow = new Date();
         SimpleDateFormat ft = new SimpleDateFormat("yyyy-MM-dd");
         return ft.format(dNow);
     }
 
     public void outputBigFileV2() throws IOException {
+        outputHeaderV2();
+        this.v2BigFile.outputBigFileV2(this.writer);
+    }
+
+    /** Write the header and the column names, after which {@link #outputV2SmallFile(V2SmallFile)} can be called. */
+    public void startStreamingBigFileV2() throws IOException {
+        outputHeaderV2();
+        this.v2BigFile.startBigFileV2(this.writer);
+    }
+
+    /** Write the lines of one small file (streaming mode). */
+    public void outputV2SmallFile(V2SmallFile v2sf) throws IOException {
+        this.v2BigFile.outputV2SmallFile(v2sf,this.writer);
+    }
+
+    /** Finish the small file part of the big file (streaming mode) and report the Q/C results. */
+    public void finishStreamingBigFileV2() {
+        this.v2BigFile.finishBigFileV2();
+    }
+
+    private void outputHeaderV2() throws IOException {
+        writeHeaderV2(writer,n_omim,n_decipher,n_orphanet,n_unknown,ontologyMetaInfo);
+    }
+
+    /** Write the comment lines at the top of the V2 big file, which are followed by the column header. */
+    static void writeHeaderV2(BufferedWriter writer, int n_omim, int n_decipher, int n_orphanet, int n_unknown,
+                              Map<String,String> ontologyMetaInfo) throws IOException {
         String description = String.format("#description: HPO annotations for rare diseases [%d: OMIM; %d: DECIPHER; %d ORPHANET]",n_omim,n_decipher,n_orphanet);
         if (n_unknown>0) description=String.format("%s -- warning: %d entries could not be assigned to a database",description,n_unknown);
         writer.write(description + "\n");
@@ -95,13 +240,39 @@ public class BigFileWriter {
         if (ontologyMetaInfo.containsKey("saved-by")) {
             writer.write(String.format("#HPO-contributors: %s\n",ontologyMetaInfo.get("saved-by")));
         }
+    }
 
+    /**
+     * Add the Orphanet annotations to a columnar store, after which the store can be written with
+     * {@link #outputColumnarStoreV2(ColumnarAnnotationStore, int)}.
+     */
+    public void addOrphanetToColumnarStore(List<OrphanetDisorder> orphanetDisorders, ColumnarAnnotationStore.Builder builder) {
+        Orphanet2BigFile.addToColumnarStore(orphanetDisorders,this.ontology,builder);
+    }
 
-        this.v2BigFile.outputBigFileV2(this.writer);
+    /**
+     * Write the big file from a columnar store, in which the first diseases are from the small files and the
+     * remaining diseases are from Orphanet.
+     * @param store the annotations of the small files followed by those of Orphanet
+     * @param n_smallfiles number of diseases of the store that come from small files
+     */
+    public void outputColumnarStoreV2(ColumnarAnnotationStore store, int n_smallfiles) throws IOException {
+        outputHeaderV2();
+        this.v2BigFile.startBigFileV2(this.writer);
+        this.v2BigFile.outputColumnarStore(store,0,n_smallfiles,this.writer);
+        this.v2BigFile.finishBigFileV2();
+        Orphanet2BigFile orph2big = new Orphanet2BigFile(new ArrayList<>(), writer,this.ontology,this.aspectTable);
+        orph2big.writeOrphanetV2(store,n_smallfiles,store.getNumberOfDiseases());
+    }
+
+    /** @return the Q/C of the small file lines written to the big file */
+    V2LineQualityController getLineQualityController() {
+        return v2BigFile.getLineQualityController();
     }
 
     public void appendOrphanetV2(List<OrphanetDisorder> orphanetDisorders) throws IOException {
-        Orphanet2BigFile orph2big = new Orphanet2BigFile(orphanetDisorders, writer,this.ontology);
+        Orphanet2BigFile orph2big = new Orphanet2BigFile(orphanetDisorders, writer,this.ontology,this.aspectTable);
+        orph2big.setRenderThreads(renderThreads,OrderedChunkWriter.DEFAULT_CHUNK_SIZE);
         orph2big.writeOrphanetV2();
     }
 
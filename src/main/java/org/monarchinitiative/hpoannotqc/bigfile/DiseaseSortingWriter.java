@@ -0,0 +1,238 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A writer for the big file that writes the annotation lines sorted by DatabaseID, together with an index of the
+ * byte offset and length of the lines of each disease (see {@link IndexedBigFileReader}). The comment lines and the
+ * column header are written first, in the order in which they were received. The annotation lines are sorted
+ * externally, as in the {@link SortedAnnotationReader}: runs of at most a fixed number of lines are sorted by
+ * DatabaseID and written to temporary files, which are merged into the big file when the writer is closed. The
+ * lines of each disease stay in the order in which they were received. Only one run and the index entries (one per
+ * disease) are kept in memory, and so the memory needed does not depend on the number of annotation lines, also with
+ * the streaming and columnar outputs. The file is encoded with the default charset, as with a {@link FileWriter}.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class DiseaseSortingWriter extends Writer {
+    private static final Logger logger = LogManager.getLogger();
+    /** Orders annotation lines by DatabaseID (the first field); the sort is stable. */
+    private static final Comparator<String> BY_DISEASE = Comparator.comparing(DiseaseSortingWriter::diseaseId);
+
+    private final String path;
+    private final String indexPath;
+    private final Charset charset = Charset.defaultCharset();
+    private final int maxLinesInMemory;
+    /** The comment lines and the column header. */
+    private final List<String> headerLines = new ArrayList<>();
+    /** Annotation lines of the current run, in the order in which they were received. */
+    private final List<String> lines = new ArrayList<>();
+    /** Temporary files with the sorted runs, in the order in which they were written. */
+    private final List<File> runFiles = new ArrayList<>();
+    /** The line that is being received. */
+    private final StringBuilder currentLine = new StringBuilder();
+    private boolean closed=false;
+
+    /** A sequence of lines sorted by DatabaseID, either a temporary file or the last run in memory. */
+    private static final class Run implements Comparable<Run> {
+        private final BufferedReader br;
+        private final Iterator<String> lines;
+        /** Position of the run in the input, used to keep the lines of a disease in their order. */
+        private final int index;
+        private String line;
+        private String diseaseId;
+
+        Run(BufferedReader br, Iterator<String> lines, int index) {
+            this.br=br;
+            this.lines=lines;
+            this.index=index;
+        }
+
+        /** @return false if the run is exhausted */
+        boolean advance() throws IOException {
+            if (br!=null) {
+                line=br.readLine();
+            } else {
+                line=lines.hasNext() ? lines.next() : null;
+            }
+            diseaseId = line==null ? null : diseaseId(line);
+            return line!=null;
+        }
+
+        void close() throws IOException {
+            if (br!=null) {
+                br.close();
+            }
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            int c = diseaseId.compareTo(other.diseaseId);
+            return c!=0 ? c : Integer.compare(index,other.index);
+        }
+    }
+
+    /**
+     * @param path path of the big file
+     * @param indexPath path of the index
+     */
+    DiseaseSortingWriter(String path, String indexPath) {
+        this(path,indexPath,SortedAnnotationReader.DEFAULT_MAX_LINES_IN_MEMORY);
+    }
+
+    /**
+     * @param path path of the big file
+     * @param indexPath path of the index
+     * @param maxLinesInMemory maximum number of annotation lines that are sorted in memory
+     */
+    DiseaseSortingWriter(String path, String indexPath, int maxLinesInMemory) {
+        this.path=path;
+        this.indexPath=indexPath;
+        this.maxLinesInMemory=Math.max(1,maxLinesInMemory);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Writer for " + path + " is closed");
+        }
+        int start=off;
+        int end=off+len;
+        for (int i=off; i<end; i++) {
+            if (cbuf[i]=='\n') {
+                currentLine.append(cbuf,start,i-start);
+                addLine(currentLine.toString());
+                currentLine.setLength(0);
+                start=i+1;
+            }
+        }
+        currentLine.append(cbuf,start,end-start);
+    }
+
+    private void addLine(String line) throws IOException {
+        if (! SortedAnnotationReader.isAnnotation(line)) {
+            headerLines.add(line);
+            return;
+        }
+        lines.add(line);
+        if (lines.size()==maxLinesInMemory) {
+            writeRun();
+        }
+    }
+
+    private static String diseaseId(String line) {
+        int tab = line.indexOf('\t');
+        return tab<0 ? line : line.substring(0,tab);
+    }
+
+    private void writeRun() throws IOException {
+        lines.sort(BY_DISEASE);
+        File f = File.createTempFile("hpoannotqc-index",".run");
+        f.deleteOnExit();
+        runFiles.add(f);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f),StandardCharsets.UTF_8),1<<16)) {
+            for (String s : lines) {
+                w.write(s);
+                w.write('\n');
+            }
+        }
+        lines.clear();
+    }
+
+    /** @return the number of runs written to temporary files so far */
+    int getNumberOfRuns() {
+        return runFiles.size();
+    }
+
+    @Override
+    public void flush() {
+        // nothing is written before the writer is closed
+    }
+
+    /** Merge the sorted runs into the big file and write its index. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed=true;
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+        try {
+            if (currentLine.length()>0) {
+                addLine(currentLine.toString());
+            }
+            for (int i=0; i<runFiles.size(); i++) {
+                addRun(queue,new Run(new BufferedReader(new InputStreamReader(new FileInputStream(runFiles.get(i)),
+                        StandardCharsets.UTF_8),1<<16),null,i));
+            }
+            // the last run is merged from memory
+            lines.sort(BY_DISEASE);
+            addRun(queue,new Run(null,lines.iterator(),runFiles.size()));
+            logger.trace("Sorted {} in {} runs",path,runFiles.size()+1);
+            writeMerged(queue);
+        } finally {
+            for (Run run : queue) {
+                run.close();
+            }
+            lines.clear();
+            for (File f : runFiles) {
+                if (! f.delete()) {
+                    logger.warn("Could not delete temporary file {}",f);
+                }
+            }
+        }
+    }
+
+    private static void addRun(PriorityQueue<Run> queue, Run run) throws IOException {
+        if (run.advance()) {
+            queue.add(run);
+        } else {
+            run.close();
+        }
+    }
+
+    private void writeMerged(PriorityQueue<Run> queue) throws IOException {
+        long offset=0;
+        List<String> entries = new ArrayList<>();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path),1<<16);
+             Writer index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexPath),IndexedBigFileReader.INDEX_CHARSET))) {
+            for (String line : headerLines) {
+                byte[] bytes = (line + "\n").getBytes(charset);
+                out.write(bytes);
+                offset+=bytes.length;
+            }
+            String diseaseId=null;
+            long start=offset;
+            int n_lines=0;
+            Run run;
+            while ((run=queue.poll())!=null) {
+                if (! run.diseaseId.equals(diseaseId)) {
+                    if (diseaseId!=null) {
+                        entries.add(String.format("%s\t%d\t%d\t%d",diseaseId,start,offset-start,n_lines));
+                    }
+                    diseaseId=run.diseaseId;
+                    start=offset;
+                    n_lines=0;
+                }
+                byte[] bytes = (run.line + "\n").getBytes(charset);
+                out.write(bytes);
+                offset+=bytes.length;
+                n_lines++;
+                addRun(queue,run);
+            }
+            if (diseaseId!=null) {
+                entries.add(String.format("%s\t%d\t%d\t%d",diseaseId,start,offset-start,n_lines));
+            }
+            index.write(String.format("%s\t%d\t%d\t%s\n",IndexedBigFileReader.INDEX_HEADER,offset,entries.size(),charset.name()));
+            for (String entry : entries) {
+                index.write(entry);
+                index.write('\n');
+            }
+        }
+    }
+}
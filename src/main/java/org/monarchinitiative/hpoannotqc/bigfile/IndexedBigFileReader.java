@@ -0,0 +1,157 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the annotations of single diseases from a big file that was written sorted by DatabaseID with an index
+ * ({@code big-file --disease-index}). The index, which is small, is read into memory; the big file is
+ * memory-mapped, and the lines of a disease are found by binary search over the sorted disease ids of the index,
+ * so that only the bytes of that disease are read. The index is a tab-separated file whose first line is
+ * <pre>
+ * #hpoannotqc-disease-index  size of the big file in bytes  number of diseases  charset
+ * </pre>
+ * followed by one line per disease, sorted by DatabaseID:
+ * <pre>
+ * DatabaseID  byte offset of the first line  length in bytes  number of lines
+ * </pre>
+ * The reader may be used by several threads at the same time.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class IndexedBigFileReader implements Closeable {
+    /** The index of phenotype.hpoa is phenotype.hpoa.idx. */
+    public static final String INDEX_SUFFIX=".idx";
+    static final String INDEX_HEADER="#hpoannotqc-disease-index";
+    static final Charset INDEX_CHARSET=StandardCharsets.UTF_8;
+
+    private final String path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Charset charset;
+    /** The disease ids of the index in sorted order. */
+    private final String[] diseaseIds;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    /** Open a big file whose index is the file with the same path followed by {@link #INDEX_SUFFIX}. */
+    public IndexedBigFileReader(String path) throws IOException, HPOException {
+        this(path,path+INDEX_SUFFIX);
+    }
+
+    /**
+     * @param path path of a big file written with a disease index
+     * @param indexPath path of the index
+     * @throws HPOException if the index is malformed or does not belong to the big file (e.g., the big file was
+     * written again without the index)
+     */
+    public IndexedBigFileReader(String path, String indexPath) throws IOException, HPOException {
+        this.path=path;
+        List<String> lines = Files.readAllLines(Paths.get(indexPath),INDEX_CHARSET);
+        if (lines.isEmpty() || ! lines.get(0).startsWith(INDEX_HEADER + "\t")) {
+            throw new HPOException(String.format("%s is not a disease index",indexPath));
+        }
+        String[] header = lines.get(0).split("\t");
+        long fileSize;
+        int n;
+        try {
+            fileSize = Long.parseLong(header[1]);
+            n = Integer.parseInt(header[2]);
+            this.charset = Charset.forName(header[3]);
+        } catch (RuntimeException e) {
+            throw new HPOException(String.format("Malformed header of disease index %s: %s",indexPath,lines.get(0)));
+        }
+        if (lines.size()!=n+1) {
+            throw new HPOException(String.format("Disease index %s should have %d diseases but has %d",indexPath,n,lines.size()-1));
+        }
+        this.diseaseIds = new String[n];
+        this.offsets = new long[n];
+        this.lengths = new int[n];
+        for (int i=0; i<n; i++) {
+            String[] F = lines.get(i+1).split("\t");
+            try {
+                diseaseIds[i]=F[0];
+                offsets[i]=Long.parseLong(F[1]);
+                lengths[i]=Integer.parseInt(F[2]);
+            } catch (RuntimeException e) {
+                throw new HPOException(String.format("Malformed line %d of disease index %s: %s",i+2,indexPath,lines.get(i+1)));
+            }
+            if ((i>0 && diseaseIds[i-1].compareTo(diseaseIds[i])>=0) || offsets[i]+lengths[i]>fileSize) {
+                throw new HPOException(String.format("Invalid line %d of disease index %s: %s",i+2,indexPath,lines.get(i+1)));
+            }
+        }
+        this.channel = FileChannel.open(Paths.get(path),StandardOpenOption.READ);
+        try {
+            if (channel.size()!=fileSize) {
+                throw new HPOException(String.format("The disease index %s is for a big file of %d bytes, but %s has %d bytes",
+                        indexPath,fileSize,path,channel.size()));
+            }
+            if (fileSize>Integer.MAX_VALUE) {
+                throw new HPOException(String.format("%s is too large to be memory-mapped (%d bytes)",path,fileSize));
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,fileSize);
+        } catch (HPOException | IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** @return the annotation lines of the disease (without newlines), or an empty list if it is not in the index */
+    public List<String> getRows(String diseaseId) {
+        int i = Arrays.binarySearch(diseaseIds,diseaseId);
+        if (i<0) {
+            return Collections.emptyList();
+        }
+        // a duplicate of the buffer has its own position, and so several threads can read at the same time
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int) offsets[i]);
+        slice.limit((int) offsets[i]+lengths[i]);
+        String text = charset.decode(slice).toString();
+        List<String> rows = new ArrayList<>();
+        int start=0;
+        int newline;
+        while ((newline=text.indexOf('\n',start))>=0) {
+            rows.add(text.substring(start,newline));
+            start=newline+1;
+        }
+        return rows;
+    }
+
+    /** @return true if the big file has annotations of the disease */
+    public boolean contains(String diseaseId) {
+        return Arrays.binarySearch(diseaseIds,diseaseId)>=0;
+    }
+
+    /** @return the ids of all diseases of the big file, in sorted order */
+    public List<String> getDiseaseIds() {
+        return Collections.unmodifiableList(Arrays.asList(diseaseIds));
+    }
+
+    /** @return the number of diseases of the big file */
+    public int size() {
+        return diseaseIds.length;
+    }
+
+    /** @return the path of the big file */
+    public String getPath() {
+        return path;
+    }
+
+    /** Close the file; the mapped bytes are released when the reader is garbage-collected. */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,111 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders consecutive ranges (chunks) of the diseases of the big file on a pool of worker threads and writes the
+ * rendered text in the order of the chunks. Each chunk is rendered into its own in-memory block, and the thread that
+ * calls {@link #write} writes the blocks one after the other, so that the output is the same as if the chunks had
+ * been rendered one after the other on that thread. At most two chunks per worker thread are rendered or waiting to
+ * be written at the same time, which bounds the memory needed for the blocks.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class OrderedChunkWriter {
+    /** Default number of diseases per chunk. */
+    static final int DEFAULT_CHUNK_SIZE=256;
+    /** Number of chunks per worker thread that may be rendered before the first of them is written. */
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD=2;
+
+    /** A range of diseases that is rendered by a worker thread into a block of text. */
+    abstract static class Chunk {
+        /** The rendered lines of the chunk. */
+        final CharArrayWriter text = new CharArrayWriter();
+
+        /** Render the lines of the chunk into {@link #text} (called on a worker thread). */
+        abstract void render() throws IOException;
+
+        /**
+         * Called on the writing thread after the text has been written, in the order of the chunks, e.g., to merge
+         * the Q/C counters of the chunk.
+         */
+        abstract void written();
+    }
+
+    /** Creates the chunk for the diseases {@code from..to-1}. */
+    interface ChunkFactory {
+        Chunk create(int from, int to);
+    }
+
+    private final int numThreads;
+    private final int chunkSize;
+
+    /**
+     * @param numThreads number of worker threads that render the chunks
+     * @param chunkSize number of diseases per chunk
+     */
+    OrderedChunkWriter(int numThreads, int chunkSize) {
+        this.numThreads=Math.max(1,numThreads);
+        this.chunkSize=Math.max(1,chunkSize);
+    }
+
+    /**
+     * Render the diseases {@code 0..n-1} in chunks and write them in order.
+     * @param n number of diseases
+     * @param factory creates the chunks
+     * @param writer the big file
+     */
+    void write(int n, ChunkFactory factory, Writer writer) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        int maxInFlight = CHUNKS_IN_FLIGHT_PER_THREAD*numThreads;
+        try {
+            for (int from=0; from<n; from+=chunkSize) {
+                final Chunk chunk = factory.create(from,Math.min(n,from+chunkSize));
+                inFlight.add(executor.submit(() -> {
+                    chunk.render();
+                    return chunk;
+                }));
+                if (inFlight.size()>=maxInFlight) {
+                    writeNext(inFlight,writer);
+                }
+            }
+            while (! inFlight.isEmpty()) {
+                writeNext(inFlight,writer);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Wait for the oldest chunk, write its text and pass it to {@link Chunk#written()}. */
+    private static void writeNext(Deque<Future<Chunk>> inFlight, Writer writer) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = inFlight.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering the big file");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Could not render chunk of the big file",cause);
+        }
+        chunk.text.writeTo(writer);
+        chunk.written();
+    }
+}
@@ -4,19 +4,21 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.monarchinitiative.hpoannotqc.exception.HPOException;
 import org.monarchinitiative.hpoannotqc.orphanet.OrphanetDisorder;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
-import org.monarchinitiative.phenol.ontology.data.Term;
+import org.monarchinitiative.hpoannotqc.smallfile.ColumnarAnnotationStore;
+import org.monarchinitiative.hpoannotqc.smallfile.TsvEmitter;
+import org.monarchinitiative.hpoannotqc.smallfile.V2AnnotationLine;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.existsPath;
 
 class Orphanet2BigFile {
     private static final Logger logger = LogManager.getLogger();
@@ -25,42 +27,57 @@ class Orphanet2BigFile {
     private final static String ORPHA_EVIDENCE_CODE="TAS";
     private final static String NO_ONSET_CODE_AVAILABLE=EMPTY_STRING;
     private final static String ASSIGNED_BY="ORPHA:orphadata";
-    private static final TermId phenotypeRoot= TermId.constructWithPrefix("HP:0000118");
-    private static final TermId INHERITANCE_TERM_ID =TermId.constructWithPrefix("HP:0000005");
-    private static final TermId CLINICAL_COURSE_ID =TermId.constructWithPrefix("HP:0031797");
-    private static final TermId CLINICAL_MODIFIER_ID =TermId.constructWithPrefix("HP:0012823");
-    private final HpoOntology ontology;
+    private final HpoTermIndex ontology;
+    /** Precomputed aspects (P, I, C, M) of all terms. */
+    private final AspectTable aspectTable;
 
 
     private final List<OrphanetDisorder> orphanetDisorders;
     private final  BufferedWriter writer;
+    /** The biocuration field of all Orphanet annotations, e.g., ORPHA:orphadata[2018-02-22]. */
+    private final String biocuration;
+    /** Buffer in which each line is built before it is written. */
+    private final TsvEmitter emitter = new TsvEmitter();
+    /** Number of threads that render the lines of {@link #writeOrphanetV2()} (1: no worker threads). */
+    private int renderThreads=1;
+    /** Number of disorders per chunk that is rendered by one worker thread. */
+    private int renderChunkSize=OrderedChunkWriter.DEFAULT_CHUNK_SIZE;
+    /** Number of lines written by {@link #writeOrphanetV2()}. */
+    private int n_lines_written;
 
-    public Orphanet2BigFile(List<OrphanetDisorder> orphDisorders, BufferedWriter bw, HpoOntology ont){
+    public Orphanet2BigFile(List<OrphanetDisorder> orphDisorders, BufferedWriter bw, HpoTermIndex ont){
+        this(orphDisorders,bw,ont,new AspectTable(ont));
+    }
+
+    Orphanet2BigFile(List<OrphanetDisorder> orphDisorders, BufferedWriter bw, HpoTermIndex ont, AspectTable aspects){
         this.orphanetDisorders=orphDisorders;
         this.writer=bw;
         this.ontology=ont;
+        this.aspectTable=aspects;
+        this.biocuration=getBiocuration();
     }
 
 
+    /**
+     * @param n number of threads that render the lines of {@link #writeOrphanetV2()} in chunks of disorders; the
+     *          output is the same as with a single thread
+     * @param chunkSize number of disorders per chunk
+     */
+    void setRenderThreads(int n, int chunkSize) {
+        this.renderThreads=Math.max(1,n);
+        this.renderChunkSize=chunkSize;
+    }
+
     void writeOrphanetV2() {
-        int n=0;
         System.out.println("V2 orph about to write this many od"+ orphanetDisorders.size());
         try {
-            for (OrphanetDisorder disorder : orphanetDisorders) {
-                List<TermId> hpoIds = disorder.getHpoIds();
-                for (TermId tid: hpoIds) {
-                    try {
-                        String line = transformOrphanetEntry2BigFileLineV2(disorder, tid);
-                        writer.write(line + "\n");
-                        n++;
-                    } catch (HPOException hpoe) {
-                        logger.error(String.format("Could not make annotation for term %s of disorder %s ",tid.getIdWithPrefix(),disorder.getName()));
-                        logger.error("Will skip this line: "+hpoe.getMessage());
-                        // just go to next one.
-                    }
-                }
+            n_lines_written=0;
+            if (renderThreads>1) {
+                new OrderedChunkWriter(renderThreads,renderChunkSize).write(orphanetDisorders.size(),DisorderChunk::new,writer);
+            } else {
+                n_lines_written=writeDisorders(0,orphanetDisorders.size(),emitter,writer);
             }
-            System.out.println(String.format("We output a total of %d orphanet annotations from %d diseases",n,orphanetDisorders.size()));
+            System.out.println(String.format("We output a total of %d orphanet annotations from %d diseases",n_lines_written,orphanetDisorders.size()));
         } catch (IOException e) {
             logger.fatal(e);
             System.err.println("Exception trying to write orphnaet");
@@ -72,63 +89,165 @@ class Orphanet2BigFile {
 
     }
 
+    /** The lines of the disorders {@code from..to-1}, which are rendered on a worker thread. */
+    private class DisorderChunk extends OrderedChunkWriter.Chunk {
+        private final int from;
+        private final int to;
+        private int n_lines;
+
+        DisorderChunk(int from, int to) {
+            this.from=from;
+            this.to=to;
+        }
+
+        @Override
+        void render() throws IOException {
+            n_lines=writeDisorders(from,to,new TsvEmitter(),text);
+        }
+
+        @Override
+        void written() {
+            n_lines_written += n_lines;
+        }
+    }
+
     /**
-     * This is identical to the analogous function in {@link V2BigFile} except that it does not use
-     * the Q/C function of that function.
-     * @param tid An HPO term id for which we want to get the aspect
-     * @return A one-letter String representing the aspect (P,I,C,M).
+     * Write the lines of the disorders {@code from..to-1}.
+     * @param out buffer for the lines, which must not be used by another thread at the same time
+     * @return number of lines written
      */
-    private String getAspectV2(TermId tid) throws HPOException {
-        Term term = ontology.getTermMap().get(tid);
-        if (term==null) {
-            logger.error("Invalid HPO tid="+tid.getIdWithPrefix());
-            return "?";
+    private int writeDisorders(int from, int to, TsvEmitter out, Writer w) throws IOException {
+        int n=0;
+        for (int i=from; i<to; i++) {
+            OrphanetDisorder disorder = orphanetDisorders.get(i);
+            for (TermId tid : disorder.getHpoIds()) {
+                if (appendOrphanetEntry2BigFileLineV2(out,disorder,tid)) {
+                    out.endLine(w);
+                    n++;
+                }
+            }
         }
-        tid = term.getId(); // update in case term is an alt_id
-        if (existsPath(ontology, tid, phenotypeRoot)) {
-            return "P"; // organ/phenotype abnormality
-        } else if (existsPath(ontology, tid, INHERITANCE_TERM_ID)) {
-            return "I";
-        } else if (existsPath(ontology, tid, CLINICAL_COURSE_ID)) {
-            return "C";
-        } else if (existsPath(ontology,tid,CLINICAL_MODIFIER_ID)) {
-            return "M";
-        } else {
-            String label=term.getName();
-            String msg=String.format("Could not get aspect for term %s [%s]",label,tid.getIdWithPrefix());
-            throw new HPOException(msg);
+        return n;
+    }
+
+    /**
+     * @return the big file lines of one disorder; annotations whose aspect cannot be determined are skipped
+     */
+    List<String> transformDisorder(OrphanetDisorder disorder) {
+        List<String> lines = new ArrayList<>();
+        for (TermId tid : disorder.getHpoIds()) {
+            if (appendOrphanetEntry2BigFileLineV2(emitter,disorder,tid)) {
+                lines.add(emitter.toLineString());
+            }
         }
+        return lines;
     }
 
+    /**
+     * Add the Orphanet annotations to a columnar store, with one disease per Orphanet disorder. The store rows
+     * contain the same values as the lines written by {@link #writeOrphanetV2()}.
+     */
+    static void addToColumnarStore(List<OrphanetDisorder> disorders, HpoTermIndex ontology, ColumnarAnnotationStore.Builder builder) {
+        String biocuration = getBiocuration();
+        for (OrphanetDisorder disorder : disorders) {
+            String diseaseId = String.format("%s:%d",ORPHANET_DB,disorder.getOrphaNumber());
+            builder.startDisease(diseaseId);
+            for (TermId tid : disorder.getHpoIds()) {
+                String label = ontology.contains(tid) ? ontology.getName(tid) : EMPTY_STRING;
+                V2SmallFileEntry entry = new V2SmallFileEntry.Builder(diseaseId,disorder.getName(),tid,label,
+                        ORPHA_EVIDENCE_CODE,diseaseId,biocuration)
+                        .frequencyString(disorder.getFrequency().getIdWithPrefix())
+                        .build();
+                builder.addLine(entry);
+            }
+        }
+    }
+
+    /**
+     * Write the Orphanet annotations from the diseases {@code fromDisease..toDisease-1} of a columnar store that
+     * were added with {@link #addToColumnarStore}.
+     */
+    void writeOrphanetV2(ColumnarAnnotationStore store, int fromDisease, int toDisease) {
+        int n=0;
+        ColumnarAnnotationStore.Row row = store.row();
+        try {
+            for (int i=store.getDiseaseStart(fromDisease); i<store.getDiseaseStart(toDisease); i++) {
+                row.moveTo(i);
+                try {
+                    appendOrphanetRow2BigFileLineV2(row);
+                    emitter.endLine(writer);
+                    n++;
+                } catch (HPOException hpoe) {
+                    emitter.reset();
+                    logger.error(String.format("Could not make annotation for term %s of disorder %s ",
+                            row.getPhenotypeId().getIdWithPrefix(),row.getDiseaseName()));
+                    logger.error("Will skip this line: "+hpoe.getMessage());
+                }
+            }
+            System.out.println(String.format("We output a total of %d orphanet annotations from %d diseases",n,toDisease-fromDisease));
+        } catch (IOException e) {
+            logger.fatal("Could not write orphanet disorder ", e);
+            logger.fatal("No choice but to terminate program, sorry....");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Build a line of an Orphanet entry of the V2 big file, phenotype.hpoa, in an emitter.
+     * @return true if the line was built, false if the aspect of the term could not be determined (the line is
+     * then skipped and the error is logged)
+     */
+    private boolean appendOrphanetEntry2BigFileLineV2(TsvEmitter out, OrphanetDisorder entry, TermId hpoId) {
+        String aspect;
+        try {
+            aspect = aspectTable.getAspect(hpoId);
+        } catch (HPOException hpoe) {
+            logger.error(String.format("Could not make annotation for term %s of disorder %s ",hpoId.getIdWithPrefix(),entry.getName()));
+            logger.error("Will skip this line: "+hpoe.getMessage());
+            return false;
+        }
+        out.field(ORPHANET_DB,entry.getOrphaNumber()) // diseaseId, e.g., ORPHA:123
+                .field(entry.getName()) // Name
+                .field(EMPTY_STRING) // Qualifier
+                .field(hpoId.getIdWithPrefix()) // HPO ID
+                .field(ORPHANET_DB,entry.getOrphaNumber()) // DB_Reference
+                .field(ORPHA_EVIDENCE_CODE) // Evidence_Code
+                .field(NO_ONSET_CODE_AVAILABLE) // Onset
+                .field(entry.getFrequency().getIdWithPrefix())// Frequency (An HPO TermId, always)
+                .field(EMPTY_STRING) // Sex (not used)
+                .field(EMPTY_STRING) // Modifier (not used)
+                .field(aspect)
+                .field(biocuration);// Assigned by
+        return true;
+    }
 
+    /** Build a line of an Orphanet row of a columnar store of the V2 big file, phenotype.hpoa, in the {@link #emitter}. */
+    private void appendOrphanetRow2BigFileLineV2(V2AnnotationLine row) throws HPOException {
+        String aspect = aspectTable.getAspect(row.getPhenotypeId());
+        emitter.field(row.getDiseaseID()) // diseaseId, e.g., ORPHA:123
+                .field(row.getDiseaseName()) // Name
+                .field(EMPTY_STRING) // Qualifier
+                .field(row.getPhenotypeId().getIdWithPrefix()) // HPO ID
+                .field(row.getPublication()) // DB_Reference
+                .field(row.getEvidenceCode()) // Evidence_Code
+                .field(NO_ONSET_CODE_AVAILABLE) // Onset
+                .field(row.getFrequencyModifier())// Frequency (An HPO TermId, always)
+                .field(EMPTY_STRING) // Sex (not used)
+                .field(EMPTY_STRING) // Modifier (not used)
+                .field(aspect)
+                .field(row.getBiocuration());// Assigned by
+    }
 
-    /** Output a line of an Orphanet entry to the V2 big file, phenotype.hpoa. */
-    private String transformOrphanetEntry2BigFileLineV2(OrphanetDisorder entry, TermId hpoId) throws HPOException {
-        String diseaseID=String.format("%s:%d", ORPHANET_DB,entry.getOrphaNumber());
-        String diseaseId = String.format("%s:%d",ORPHANET_DB,entry.getOrphaNumber());
-        String biocuration = String.format("%s[%s]",ASSIGNED_BY,getTodaysDate());
-        String [] elems = {
-                diseaseId, // diseaseId, e.g., ORPHA:123
-                entry.getName(), // Name
-                EMPTY_STRING, // Qualifier
-                hpoId.getIdWithPrefix(), // HPO ID
-                diseaseID, // DB_Reference
-                ORPHA_EVIDENCE_CODE, // Evidence_Code
-                NO_ONSET_CODE_AVAILABLE, // Onset
-                entry.getFrequency().getIdWithPrefix(),// Frequency (An HPO TermId, always)
-                EMPTY_STRING, // Sex (not used)
-                EMPTY_STRING, // Modifier (not used)
-                getAspectV2(hpoId),
-                biocuration// Assigned by
-        };
-        return Arrays.stream(elems).collect(Collectors.joining("\t"));
+    /** @return the biocuration field of the Orphanet annotations, which is the same for all lines of a run */
+    private static String getBiocuration() {
+        return String.format("%s[%s]",ASSIGNED_BY,getTodaysDate());
     }
 
     /** We are using this to supply a date created value for the Orphanet annotations.
      * After some research, no better way of getting the current date was found.
      * @return A String such as 2018-02-22
      */
-    private String getTodaysDate() {
+    private static String getTodaysDate() {
         Date date = new Date();
         return new SimpleDateFormat("yyyy-MM-dd").format(date);
     }
@@ -0,0 +1,265 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the annotation lines of a big file in the order of their keys (DatabaseID, HPO_ID, Qualifier, Reference)
+ * for the {@link BigFileDiff}. If the lines of the file are already in key order, the file is read as it is.
+ * Otherwise, it is sorted externally: runs of at most a fixed number of lines are sorted in memory and written to
+ * temporary files, which are then merged while the lines are read. The memory needed does therefore not depend on
+ * the size of the big file. Lines with the same key are returned in the order of the lines (sorted input: in the
+ * order of the file). Files whose name ends with {@code .gz} are decompressed.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class SortedAnnotationReader implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+    /** Default maximum number of lines that are sorted in memory. */
+    static final int DEFAULT_MAX_LINES_IN_MEMORY=250_000;
+    /** Number of fields of the key. */
+    private static final int KEY_FIELDS=4;
+
+    private final String path;
+    /** Temporary files with the sorted runs (empty if the file was already sorted). */
+    private final List<File> runFiles = new ArrayList<>();
+    /** The runs ordered by their current line. */
+    private final PriorityQueue<Run> queue = new PriorityQueue<>();
+    private String key;
+    private String line;
+    /** Number of annotation lines of the big file. */
+    private int n_lines=0;
+
+    /** A sequence of lines in key order, either the big file itself or a temporary file with one sorted run. */
+    private final class Run implements Comparable<Run> {
+        private final BufferedReader br;
+        /** True if each line of the run starts with its key (temporary file), false for the big file. */
+        private final boolean prefixed;
+        private String runKey;
+        private String runLine;
+        private int lineNumber=0;
+
+        Run(BufferedReader br, boolean prefixed) {
+            this.br=br;
+            this.prefixed=prefixed;
+        }
+
+        /** @return false if the run is exhausted */
+        boolean advance() throws IOException, HPOException {
+            String s;
+            while ((s=br.readLine())!=null) {
+                lineNumber++;
+                if (prefixed) {
+                    int end = keyEnd(s);
+                    runKey=s.substring(0,end);
+                    runLine=s.substring(end+1);
+                    return true;
+                }
+                if (isAnnotation(s)) {
+                    runKey=key(s,path,lineNumber);
+                    runLine=s;
+                    return true;
+                }
+            }
+            runKey=null;
+            runLine=null;
+            return false;
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            int c = runKey.compareTo(other.runKey);
+            return c!=0 ? c : runLine.compareTo(other.runLine);
+        }
+    }
+
+    /**
+     * @param path path of the big file
+     * @param maxLinesInMemory maximum number of lines that are sorted in memory if the file is not sorted
+     */
+    SortedAnnotationReader(String path, int maxLinesInMemory) throws IOException, HPOException {
+        this.path=path;
+        boolean ok=false;
+        try {
+            if (isSorted()) {
+                addRun(new Run(open(path),false));
+            } else {
+                sortRuns(Math.max(1,maxLinesInMemory));
+                for (File f : runFiles) {
+                    addRun(new Run(new BufferedReader(new InputStreamReader(new FileInputStream(f),StandardCharsets.UTF_8)),true));
+                }
+            }
+            ok=true;
+        } finally {
+            if (! ok) {
+                close();
+            }
+        }
+    }
+
+    private void addRun(Run run) throws IOException, HPOException {
+        if (run.advance()) {
+            queue.add(run);
+        } else {
+            run.br.close();
+        }
+    }
+
+    /** @return a reader for a big file, which is decompressed if its name ends with .gz */
+    static BufferedReader open(String path) throws IOException {
+        if (path.endsWith(".gz")) {
+            // the default charset, as with FileReader and the BigFileWriter
+            return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(path),1<<16)),1<<16);
+        }
+        return new BufferedReader(new FileReader(path),1<<16);
+    }
+
+    /** @return true if the line is an annotation (not a comment, the column header or an empty line) */
+    static boolean isAnnotation(String line) {
+        return ! line.isEmpty() && line.charAt(0)!='#' && ! line.startsWith("DatabaseID\t");
+    }
+
+    /**
+     * @return the key of an annotation line, DatabaseID, HPO_ID, Qualifier and Reference separated by tabs (the
+     * tab sorts before all printable characters, and so the keys sort like the tuples of their fields)
+     * @throws HPOException if the line has fewer than five fields
+     */
+    static String key(String line, String path, int lineNumber) throws HPOException {
+        int[] tabs = new int[5];
+        int n=0;
+        for (int i=0; i<line.length() && n<5; i++) {
+            if (line.charAt(i)=='\t') {
+                tabs[n++]=i;
+            }
+        }
+        if (n<4) {
+            throw new HPOException(String.format("Malformed big file line %d of %s: %s",lineNumber,path,line));
+        }
+        int referenceEnd = n==5 ? tabs[4] : line.length();
+        return line.substring(0,tabs[0]) + '\t' +
+                line.substring(tabs[2]+1,tabs[3]) + '\t' +
+                line.substring(tabs[1]+1,tabs[2]) + '\t' +
+                line.substring(tabs[3]+1,referenceEnd);
+    }
+
+    /** @return the end of the key at the start of a line of a run (the tab after the key fields) */
+    private static int keyEnd(String s) {
+        int i=-1;
+        for (int k=0; k<KEY_FIELDS; k++) {
+            i=s.indexOf('\t',i+1);
+        }
+        return i;
+    }
+
+    /** @return true if the annotation lines of the file are in key order */
+    private boolean isSorted() throws IOException, HPOException {
+        try (BufferedReader br = open(path)) {
+            String s;
+            String previous=null;
+            int lineNumber=0;
+            while ((s=br.readLine())!=null) {
+                lineNumber++;
+                if (! isAnnotation(s)) {
+                    continue;
+                }
+                String k = key(s,path,lineNumber);
+                if (previous!=null && previous.compareTo(k)>0) {
+                    return false;
+                }
+                previous=k;
+            }
+        }
+        return true;
+    }
+
+    /** Write the lines of the big file in sorted runs of at most maxLines lines to temporary files. */
+    private void sortRuns(int maxLines) throws IOException, HPOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = open(path)) {
+            String s;
+            int lineNumber=0;
+            while ((s=br.readLine())!=null) {
+                lineNumber++;
+                if (! isAnnotation(s)) {
+                    continue;
+                }
+                lines.add(key(s,path,lineNumber) + '\t' + s);
+                if (lines.size()==maxLines) {
+                    writeRun(lines);
+                }
+            }
+        }
+        if (! lines.isEmpty()) {
+            writeRun(lines);
+        }
+        logger.trace("Sorted {} in {} runs",path,runFiles.size());
+    }
+
+    private void writeRun(List<String> lines) throws IOException {
+        // the key is followed by a tab, and so sorting the prefixed lines sorts them by key and then by line
+        Collections.sort(lines);
+        File f = File.createTempFile("hpoannotqc-diff",".run");
+        f.deleteOnExit();
+        runFiles.add(f);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f),StandardCharsets.UTF_8),1<<16)) {
+            for (String s : lines) {
+                w.write(s);
+                w.write('\n');
+            }
+        }
+        lines.clear();
+    }
+
+    /** Move to the next annotation line. @return false if there are no more lines */
+    boolean next() throws IOException, HPOException {
+        Run run = queue.poll();
+        if (run==null) {
+            key=null;
+            line=null;
+            return false;
+        }
+        key=run.runKey;
+        line=run.runLine;
+        n_lines++;
+        addRun(run);
+        return true;
+    }
+
+    /** @return the key of the current line */
+    String getKey() {
+        return key;
+    }
+
+    /** @return the current line */
+    String getLine() {
+        return line;
+    }
+
+    /** @return the number of annotation lines read so far */
+    int getNumberOfLines() {
+        return n_lines;
+    }
+
+    /** @return the number of sorted runs (0 if the big file was already sorted) */
+    int getNumberOfRuns() {
+        return runFiles.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Run run : queue) {
+            run.br.close();
+        }
+        queue.clear();
+        for (File f : runFiles) {
+            if (! f.delete()) {
+                logger.warn("Could not delete temporary file {}",f);
+            }
+        }
+    }
+}
@@ -3,20 +3,24 @@ package org.monarchinitiative.hpoannotqc.bigfile;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.smallfile.ColumnarAnnotationStore;
+import org.monarchinitiative.hpoannotqc.smallfile.QcReportWriter;
+import org.monarchinitiative.hpoannotqc.smallfile.QualityControlSummary;
+import org.monarchinitiative.hpoannotqc.smallfile.TsvEmitter;
+import org.monarchinitiative.hpoannotqc.smallfile.V2AnnotationLine;
 import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.ontology.data.TermId;
-import org.monarchinitiative.phenol.ontology.data.Term;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
-import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.existsPath;
 
 /**
  * A class to encapsulate the data related to a V2 (2018 and onwards) "big file" that is called
@@ -26,23 +30,47 @@ import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.exist
 class V2BigFile {
     private static final Logger logger = LogManager.getLogger();
 
-    private final HpoOntology ontology;
+    private final HpoTermIndex ontology;
     private final V2LineQualityController v2qualityController;
     private final static String EMPTY_STRING="";
-    private static final TermId phenotypeRoot= TermId.constructWithPrefix("HP:0000118");
-    private static final TermId INHERITANCE_TERM_ID =TermId.constructWithPrefix("HP:0000005");
-    private static final TermId CLINICAL_COURSE_ID =TermId.constructWithPrefix("HP:0031797");
-    private static final TermId CLINICAL_MODIFIER_ID =TermId.constructWithPrefix("HP:0012823");
+    /** Precomputed aspects (P, I, C, M) of all terms. */
+    private final AspectTable aspectTable;
     /** These are the objects that represent the diseases contained in the V2 small files. */
     private final List<V2SmallFile> v2SmallFileList;
+    /** Q/C of the lines that are written to the big file. */
+    private V2LineQualityController lineQualityController;
+    /** Number of lines written to the big file. */
+    private int n_lines_written;
+    /** Number of small files written to the big file, which is the index of the next disease for the Q/C findings. */
+    private int n_diseases_written;
+    /** Maximum number of Q/C findings kept per check. */
+    private int maxFindingsPerCheck=V2LineQualityController.DEFAULT_MAX_FINDINGS_PER_CHECK;
+    /** Optional machine-readable Q/C report (null if not used). */
+    private QcReportWriter reportWriter=null;
+    /** Buffer in which each line is built before it is written. */
+    private final TsvEmitter emitter = new TsvEmitter();
+    /** Number of threads that render the lines of {@link #outputBigFileV2(BufferedWriter)} (1: no worker threads). */
+    private int renderThreads=1;
+    /** Number of small files per chunk that is rendered by one worker thread. */
+    private int renderChunkSize=OrderedChunkWriter.DEFAULT_CHUNK_SIZE;
 
 
     /**
      * @param ont Reference to the HPO Ontology
      * @param v2SmallFiles List of V2 small files to be converted to the bigfile.
      */
-    V2BigFile(HpoOntology ont, List<V2SmallFile> v2SmallFiles) {
+    V2BigFile(HpoTermIndex ont, List<V2SmallFile> v2SmallFiles) {
+        this(ont,v2SmallFiles,new AspectTable(ont));
+    }
+
+    /**
+     * @param ont Reference to the HPO Ontology
+     * @param v2SmallFiles List of V2 small files to be converted to the bigfile.
+     * @param aspects aspects of the HPO terms, which can be shared with {@link Orphanet2BigFile}
+     */
+    V2BigFile(HpoTermIndex ont, List<V2SmallFile> v2SmallFiles, AspectTable aspects) {
         this.ontology=ont;
+        this.aspectTable=aspects;
         v2SmallFileList=v2SmallFiles;
         v2qualityController=new V2LineQualityController(this.ontology);
     }
@@ -51,69 +79,209 @@ class V2BigFile {
 
 
 
+    /**
+     * @param max maximum number of Q/C findings kept per check
+     * @param writer machine-readable Q/C report (null if not used)
+     */
+    void setQualityControlFindings(int max, QcReportWriter writer) {
+        this.maxFindingsPerCheck=max;
+        this.reportWriter=writer;
+    }
+
+    /**
+     * @param n number of threads that render the lines of the big file in chunks of small files; the output and the
+     *          Q/C are the same as with a single thread
+     * @param chunkSize number of small files per chunk
+     */
+    void setRenderThreads(int n, int chunkSize) {
+        this.renderThreads=Math.max(1,n);
+        this.renderChunkSize=chunkSize;
+    }
+
     void outputBigFileV2(BufferedWriter writer) throws IOException {
-        int n = 0;
-        V2LineQualityController v2qc = new V2LineQualityController(this.ontology);
-        writer.write(getHeaderV2() + "\n");
-        for (V2SmallFile v2 : v2SmallFileList) {
-            List<V2SmallFileEntry> entryList = v2.getOriginalEntryList();
-            for (V2SmallFileEntry entry : entryList) {
-                v2qc.checkV2entry(entry);
-                try {
-                    String bigfileLine = transformEntry2BigFileLineV2(entry);
-                    writer.write(bigfileLine + "\n");
-                } catch (HPOException e) {
-                    e.printStackTrace();
+        startBigFileV2(writer);
+        if (renderThreads>1) {
+            new OrderedChunkWriter(renderThreads,renderChunkSize).write(v2SmallFileList.size(),SmallFileChunk::new,writer);
+        } else {
+            for (V2SmallFile v2 : v2SmallFileList) {
+                outputV2SmallFile(v2,writer);
+            }
+        }
+        finishBigFileV2();
+    }
+
+    /**
+     * The lines of the small files {@code from..to-1}, which are checked by a worker controller and rendered on a
+     * worker thread. The counters and findings of the worker are merged into {@link #lineQualityController} in the
+     * order of the chunks, which gives the same Q/C as checking the small files one after the other.
+     */
+    private class SmallFileChunk extends OrderedChunkWriter.Chunk {
+        private final int from;
+        private final int to;
+        private final V2LineQualityController lineWorker;
+        private final V2LineQualityController aspectWorker;
+        private int n_lines;
+
+        SmallFileChunk(int from, int to) {
+            this.from=from;
+            this.to=to;
+            this.lineWorker=lineQualityController.newWorker();
+            if (reportWriter!=null) {
+                // all findings must reach the report, so the maximum is applied when the worker is merged
+                this.lineWorker.setMaxFindingsPerCheck(Integer.MAX_VALUE);
+            }
+            this.aspectWorker=v2qualityController.newWorker();
+        }
+
+        @Override
+        void render() throws IOException {
+            TsvEmitter out = new TsvEmitter();
+            for (int d=from; d<to; d++) {
+                List<V2SmallFileEntry> entryList = v2SmallFileList.get(d).getOriginalEntryList();
+                for (int j=0; j<entryList.size(); j++) {
+                    lineWorker.checkV2entry(entryList.get(j),d,j+1);
+                    writeLine(out,entryList.get(j),aspectWorker,text);
+                    n_lines++;
                 }
-                n++;
             }
         }
-        System.out.println("We output a total of " + n + " big file lines");
-        v2qc.dumpQCtoLog();
-    }
-    /** Construct one line for the V1 big file that was in use from 2009-2018. */
-    String transformEntry2BigFileLineV2(V2SmallFileEntry entry) throws HPOException{
-
-        String [] elems = {
-                entry.getDiseaseID(), //DB_Object_ID
-                entry.getDiseaseName(), // DB_Name
-                entry.getNegation(), // Qualifier
-                entry.getPhenotypeId().getIdWithPrefix(), // HPO_ID
-                entry.getPublication(), // DB_Reference
-                entry.getEvidenceCode(), // Evidence_Code
-                entry.getAgeOfOnsetId()!=null?entry.getAgeOfOnsetId():EMPTY_STRING, // Onset
-                entry.getFrequencyModifier()!=null?entry.getFrequencyModifier():EMPTY_STRING, // Frequency
-                entry.getSex(), // Sex
-                entry.getModifier(), // Modifier
-                getAspectV2(entry.getPhenotypeId()), // Aspect
-                entry.getBiocuration() // Biocuration
-        };
-        return Arrays.stream(elems).collect(Collectors.joining("\t"));
-    }
-
-
-    private String getAspectV2(TermId tid) throws HPOException {
-        Term term = ontology.getTermMap().get(tid);
-        if (term==null) {
-            logger.error("Invalid HPO tid="+tid.getIdWithPrefix());
-            return "?";
+
+        @Override
+        void written() {
+            lineQualityController.merge(lineWorker);
+            v2qualityController.merge(aspectWorker);
+            n_lines_written += n_lines;
+            n_diseases_written += to-from;
         }
-        TermId primaryTid = term.getId(); // update in case term is an alt_id
-        if (existsPath(ontology, primaryTid, phenotypeRoot)) {
-            v2qualityController.incrementGoodAspect();//
-            return "P"; // organ/phenotype abnormality
-        } else if (existsPath(ontology, primaryTid, INHERITANCE_TERM_ID)) {
-            v2qualityController.incrementGoodAspect();
-            return "I";
-        } else if (existsPath(ontology, primaryTid, CLINICAL_COURSE_ID)) {
-            v2qualityController.incrementGoodAspect();
-            return "C";
-        } else if (existsPath(ontology,primaryTid,CLINICAL_MODIFIER_ID)) {
-            v2qualityController.incrementGoodAspect();
-            return "M";
-        } else {
-            this.v2qualityController.incrementBadAspect();
-           throw new HPOException("Could not determine aspect of TermId "+tid.getIdWithPrefix());
+    }
+
+    /** Write the column header and reset the line counter and Q/C. */
+    void startBigFileV2(BufferedWriter writer) throws IOException {
+        resetBigFileV2();
+        writer.write(getHeaderV2() + "\n");
+    }
+
+    /** Reset the line counter and Q/C without writing the column header (used for shard files). */
+    void resetBigFileV2() {
+        n_lines_written = 0;
+        n_diseases_written = 0;
+        lineQualityController = new V2LineQualityController(this.ontology);
+        lineQualityController.setMaxFindingsPerCheck(maxFindingsPerCheck);
+        lineQualityController.setReportWriter(reportWriter);
+    }
+
+    /** Check each line of one small file and write it to the big file. */
+    void outputV2SmallFile(V2SmallFile v2, BufferedWriter writer) throws IOException {
+        outputV2SmallFile(v2,writer,EMPTY_STRING);
+    }
+
+    /**
+     * Check each line of one small file and write it to the big file, preceded by a prefix (used for the sort
+     * keys of shard files).
+     */
+    void outputV2SmallFile(V2SmallFile v2, BufferedWriter writer, String linePrefix) throws IOException {
+        List<V2SmallFileEntry> entryList = v2.getOriginalEntryList();
+        for (int j=0; j<entryList.size(); j++) {
+            outputLine(entryList.get(j),n_diseases_written,j+1,writer,linePrefix);
+        }
+        n_diseases_written++;
+    }
+
+    /**
+     * Check and write the rows of the diseases {@code fromDisease..toDisease-1} of a columnar store. A single
+     * row cursor is used for all lines.
+     */
+    void outputColumnarStore(ColumnarAnnotationStore store, int fromDisease, int toDisease, BufferedWriter writer) throws IOException {
+        ColumnarAnnotationStore.Row row = store.row();
+        for (int d=fromDisease; d<toDisease; d++) {
+            int start = store.getDiseaseStart(d);
+            for (int i=start; i<store.getDiseaseEnd(d); i++) {
+                outputLine(row.moveTo(i),d,i-start+1,writer,EMPTY_STRING);
+            }
+        }
+    }
+
+    private void outputLine(V2AnnotationLine entry, int diseaseIndex, int lineNumber, BufferedWriter writer,
+                            String linePrefix) throws IOException {
+        lineQualityController.checkV2entry(entry,diseaseIndex,lineNumber);
+        writeLine(emitter.raw(linePrefix),entry,v2qualityController,writer);
+        n_lines_written++;
+    }
+
+    /**
+     * Complete the line in the emitter and write it; a line whose aspect cannot be determined is discarded.
+     * @param aspectQc controller that counts the good and bad aspects
+     */
+    private void writeLine(TsvEmitter out, V2AnnotationLine entry, V2LineQualityController aspectQc, Writer writer) throws IOException {
+        try {
+            appendBigFileLineV2(out,entry,aspectQc);
+            out.endLine(writer);
+        } catch (HPOException e) {
+            out.reset();
+            e.printStackTrace();
+        }
+    }
+
+    /** @return the Q/C counters and errors of the lines written since {@link #startBigFileV2(BufferedWriter)} */
+    QualityControlSummary getQualityControlSummary() {
+        return lineQualityController.getSummary();
+    }
+
+    /** @return the Q/C of the lines written since {@link #startBigFileV2(BufferedWriter)}, with its findings */
+    V2LineQualityController getLineQualityController() {
+        return lineQualityController;
+    }
+
+    /** @return number of lines written since {@link #startBigFileV2(BufferedWriter)} */
+    int getNumberOfLinesWritten() {
+        return n_lines_written;
+    }
+
+    /** Report the number of lines written and the Q/C results. */
+    void finishBigFileV2() {
+        System.out.println("We output a total of " + n_lines_written + " big file lines");
+        lineQualityController.dumpQCtoLog();
+        if (reportWriter!=null) {
+            reportWriter.writeSummary(lineQualityController.getSummary(),lineQualityController.getAssignedByCounts());
+        }
+    }
+    /** Construct one line for the V2 big file. */
+    String transformEntry2BigFileLineV2(V2AnnotationLine entry) throws HPOException{
+        TsvEmitter lineEmitter = new TsvEmitter();
+        appendBigFileLineV2(lineEmitter,entry,v2qualityController);
+        return lineEmitter.toLineString();
+    }
+
+    /** Append the fields of one line of the V2 big file to the emitter. */
+    private void appendBigFileLineV2(TsvEmitter out, V2AnnotationLine entry, V2LineQualityController aspectQc) throws HPOException {
+        // the aspect is looked up first, since it may throw
+        String aspect = getAspectV2(entry.getPhenotypeId(),aspectQc);
+        out.field(entry.getDiseaseID()) //DB_Object_ID
+                .field(entry.getDiseaseName()) // DB_Name
+                .field(entry.getNegation()) // Qualifier
+                .field(entry.getPhenotypeId().getIdWithPrefix()) // HPO_ID
+                .field(entry.getPublication()) // DB_Reference
+                .field(entry.getEvidenceCode()) // Evidence_Code
+                .field(entry.getAgeOfOnsetId()!=null?entry.getAgeOfOnsetId():EMPTY_STRING) // Onset
+                .field(entry.getFrequencyModifier()!=null?entry.getFrequencyModifier():EMPTY_STRING) // Frequency
+                .field(entry.getSex()) // Sex
+                .field(entry.getModifier()) // Modifier
+                .field(aspect) // Aspect
+                .field(entry.getBiocuration()); // Biocuration
+    }
+
+
+    /** @return the aspect of the term from the {@link AspectTable}, counting good and bad aspects for the Q/C. */
+    private String getAspectV2(TermId tid, V2LineQualityController aspectQc) throws HPOException {
+        try {
+            String aspect = aspectTable.getAspect(tid);
+            if (! aspect.equals(AspectTable.UNKNOWN_TERM)) {
+                aspectQc.incrementGoodAspect();
+            }
+            return aspect;
+        } catch (HPOException e) {
+            aspectQc.incrementBadAspect();
+            throw e;
         }
     }
     /**
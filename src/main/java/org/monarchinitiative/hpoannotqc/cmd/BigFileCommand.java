@@ -3,16 +3,24 @@ package org.monarchinitiative.hpoannotqc.cmd;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.bigfile.BigFileShardWriter;
 import org.monarchinitiative.hpoannotqc.bigfile.BigFileWriter;
 import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.io.HpoOntologySnapshot;
+import org.monarchinitiative.hpoannotqc.io.ParallelGzipOutputStream;
+import org.monarchinitiative.hpoannotqc.io.V2SmallFileBundle;
+import org.monarchinitiative.hpoannotqc.io.V2SmallFileCache;
 import org.monarchinitiative.hpoannotqc.io.V2SmallFileIngestor;
 import org.monarchinitiative.hpoannotqc.orphanet.OrphanetDisorder;
 import org.monarchinitiative.hpoannotqc.orphanet.OrphanetXML2HpoDiseaseModelParser;
+import org.monarchinitiative.hpoannotqc.smallfile.ColumnarAnnotationStore;
+import org.monarchinitiative.hpoannotqc.smallfile.QcReportWriter;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
-import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -30,11 +38,41 @@ public class BigFileCommand implements Command {
     private final String hpOboPath;
     /** Path to the downloaded Orphanet XML file */
     private final String orphanetXMLpath;
-    private HpoOntology ontology;
+    private HpoTermIndex ontology;
     /** Should usually be phenotype.hpoa, may also include path */
     private final String outputFilePath;
     /** path to the omit-list.txt file, which is located with the small files in the same directory */
     private final String omitPath;
+    /** Number of worker threads used to parse the small files. */
+    private int numThreads=1;
+    /** Path to the cache of parsed small files (null if no cache is to be used). */
+    private String cachePath=null;
+    /** If true, the cache of parsed small files is discarded before the small files are ingested. */
+    private boolean invalidateCache=false;
+    /** If true, the small files are streamed to the big file rather than first being collected in a list. */
+    private boolean streaming=false;
+    /** If true, the annotations are kept in a {@link ColumnarAnnotationStore} rather than as small file objects. */
+    private boolean columnar=false;
+    /** If true, the lines of the big file are rendered by {@link #numThreads} threads. */
+    private boolean parallelRendering=false;
+    /** Compression level if the big file is written as a .gz file. */
+    private int gzipLevel=ParallelGzipOutputStream.DEFAULT_LEVEL;
+    /** Size in bytes of the blocks that are compressed separately if the big file is written as a .gz file. */
+    private int gzipBlockSize=ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+    /** If true, the big file is sorted by DatabaseID and indexed. */
+    private boolean diseaseIndex=false;
+    /** Index of the shard to write (-1 to write the complete big file). */
+    private int shard=-1;
+    /** Total number of shards (only used if {@link #shard} is set). */
+    private int numberOfShards=1;
+    /** Maximum number of Q/C findings kept per check for the Q/C report. */
+    private int maxFindingsPerCheck=V2LineQualityController.DEFAULT_MAX_FINDINGS_PER_CHECK;
+    /** Path of the machine-readable Q/C report (null if not used). */
+    private String reportPath=null;
+    /** If true, a bundle packed with a different data-version of hp.obo is used anyway. */
+    private boolean allowVersionMismatch=false;
+    /** Maximum number of parsed small files waiting to be written in streaming mode. */
+    private static final int STREAMING_QUEUE_CAPACITY=64;
 
     /**
      * Command to create the V2 bigfile from the various small files
@@ -51,39 +89,312 @@ public class BigFileCommand implements Command {
         omitPath=String.format("%s%s%s",v2smallFileDirectory,File.separator,"omit-list.txt");
     }
 
+    /** @param n number of worker threads to use for parsing the small files (default: 1) */
+    public void setNumberOfThreads(int n) {
+        this.numThreads=n;
+    }
+
+    /** @param path path to the cache of parsed small files, which is created if it does not exist */
+    public void setCachePath(String path) {
+        this.cachePath=path;
+    }
+
+    /** @param invalidate if true, discard the contents of the small file cache and parse all small files */
+    public void setInvalidateCache(boolean invalidate) {
+        this.invalidateCache=invalidate;
+    }
+
+    /**
+     * @param stream if true, each small file is parsed, checked and written to the big file and then discarded,
+     *               so that the memory needed does not grow with the number of small files
+     */
+    public void setStreaming(boolean stream) {
+        this.streaming=stream;
+    }
+
+    /**
+     * @param col if true, the parsed small files and the Orphanet annotations are copied into a columnar store
+     *            and discarded, and the big file is written from the store
+     */
+    public void setColumnar(boolean col) {
+        this.columnar=col;
+    }
+
+    /**
+     * @param parallel if true, the lines of the big file are rendered in chunks of diseases by the worker threads
+     *                 and written in order, which gives the same big file as a single thread
+     */
+    public void setParallelRendering(boolean parallel) {
+        this.parallelRendering=parallel;
+    }
+
+    /**
+     * Set the compression of the big file, which is written gzip-compressed by the worker threads if the output path
+     * ends with {@code .gz}.
+     * @param level compression level from 0 to 9
+     * @param blockSize size in bytes of the blocks that are compressed separately
+     */
+    public void setCompression(int level, int blockSize) {
+        this.gzipLevel=level;
+        this.gzipBlockSize=blockSize;
+    }
+
+    /**
+     * @param index if true, the lines of the big file are sorted by DatabaseID, and an index of the diseases is
+     *              written next to it for {@link org.monarchinitiative.hpoannotqc.bigfile.IndexedBigFileReader}
+     */
+    public void setDiseaseIndex(boolean index) {
+        this.diseaseIndex=index;
+    }
+
+    /**
+     * Write only one shard of the big file to the output path, which is later combined with the other shards by
+     * the {@link MergeCommand}.
+     * @param i index of the shard (0-based)
+     * @param n total number of shards
+     */
+    public void setShard(int i, int n) {
+        this.shard=i;
+        this.numberOfShards=n;
+    }
+
+    /**
+     * @param allow if true, a small file bundle that was packed with a different data-version of hp.obo is used
+     *              (with a warning); otherwise, the big file is not written
+     */
+    public void setAllowVersionMismatch(boolean allow) {
+        this.allowVersionMismatch=allow;
+    }
+
+    /** @param max maximum number of Q/C findings kept per check for the Q/C report; further findings are counted */
+    public void setMaxFindingsPerCheck(int max) {
+        this.maxFindingsPerCheck=max;
+    }
+
+    /**
+     * @param path file to which the Q/C findings and counts are written (JSON lines if the path ends with .json or
+     *             .jsonl, tab-separated otherwise)
+     */
+    public void setReportPath(String path) {
+        this.reportPath=path;
+    }
+
     @Override
     public void execute() {
         try {
-            logger.trace("Parsing hp.obo ...");
-            HpoOboParser hpoOboParser = new HpoOboParser(new File(hpOboPath));
-            this.ontology = hpoOboParser.parse();
+            this.ontology = HpoOntologySnapshot.load(hpOboPath);
         } catch (IOException e) {
             logger.fatal("Unable to parse hp.obo file at " + hpOboPath);
             logger.fatal("Unable to recover, stopping execution");
             return;
         }
 
+        if (shard>=0) {
+            executeShard();
+            return;
+        }
+        if (columnar) {
+            executeColumnar();
+            return;
+        }
+        if (streaming) {
+            executeStreaming();
+            return;
+        }
         try {
-            V2SmallFileIngestor v2ingestor = new V2SmallFileIngestor(v2smallFileDirectory,omitPath,ontology);
+            V2SmallFileCache cache = openCache();
+            V2SmallFileIngestor v2ingestor = openIngestor(cache);
             List<V2SmallFile> v2entries = v2ingestor.getV2SmallFileEntries();
+            if (cache!=null) {
+                cache.save();
+            }
             BigFileWriter writer = new BigFileWriter(ontology, v2entries, outputFilePath);
+            writer.setCompression(gzipLevel,gzipBlockSize,numThreads);
+            writer.setDiseaseIndex(diseaseIndex);
 
-            OrphanetXML2HpoDiseaseModelParser parser = new OrphanetXML2HpoDiseaseModelParser(this.orphanetXMLpath, this.ontology);
+            OrphanetXML2HpoDiseaseModelParser parser = new OrphanetXML2HpoDiseaseModelParser(this.orphanetXMLpath, this.ontology, v2ingestor.getAnnotationInterner());
             List<OrphanetDisorder> orphanetDisorders = parser.getDisorders();
             debugPrintOrphanetDisorders(orphanetDisorders);
+            logger.info(v2ingestor.getAnnotationInterner().getDeduplicationReport());
             /// output the V2 version of the big file
             writer.initializeV2filehandle();
             writer.setNumberOfDiseasesForHeader(orphanetDisorders.size());
             writer.setOntologyMetadata(ontology.getMetaInfo());
+            QcReportWriter reportWriter = openReportWriter();
+            writer.setQualityControlFindings(maxFindingsPerCheck,reportWriter);
+            if (parallelRendering) {
+                writer.setRenderThreads(numThreads);
+            }
             writer.outputBigFileV2();
             writer.appendOrphanetV2(orphanetDisorders);
             writer.closeFileHandle();
+            closeReportWriter(reportWriter);
+        } catch (IOException | HPOException e) {
+            logger.fatal("[ERROR] Could not output V2 big file",e);
+        }
+    }
+
+
+
+    /**
+     * Output the big file without keeping all small files in memory. The number of OMIM and DECIPHER diseases
+     * for the header is taken from the names of the small files before these are parsed. The small files are then
+     * parsed by the workers of the ingestor and passed via a bounded queue to the writer.
+     */
+    private void executeStreaming() {
+        try {
+            V2SmallFileCache cache = openCache();
+            V2SmallFileIngestor v2ingestor = openIngestor(cache);
+            OrphanetXML2HpoDiseaseModelParser parser = new OrphanetXML2HpoDiseaseModelParser(this.orphanetXMLpath, this.ontology, v2ingestor.getAnnotationInterner());
+            List<OrphanetDisorder> orphanetDisorders = parser.getDisorders();
+            debugPrintOrphanetDisorders(orphanetDisorders);
+            BigFileWriter writer = new BigFileWriter(ontology, outputFilePath);
+            writer.setCompression(gzipLevel,gzipBlockSize,numThreads);
+            writer.setDiseaseIndex(diseaseIndex);
+            writer.initializeV2filehandle();
+            writer.setNumberOfDiseasesForHeader(orphanetDisorders.size(),v2ingestor.getV2SmallFilePaths());
+            writer.setOntologyMetadata(ontology.getMetaInfo());
+            QcReportWriter reportWriter = openReportWriter();
+            writer.setQualityControlFindings(maxFindingsPerCheck,reportWriter);
+            writer.startStreamingBigFileV2();
+            v2ingestor.streamV2SmallFiles(STREAMING_QUEUE_CAPACITY, writer::outputV2SmallFile);
+            writer.finishStreamingBigFileV2();
+            logger.info(v2ingestor.getAnnotationInterner().getDeduplicationReport());
+            if (v2ingestor.getNumberOfUnparsableFiles()>0) {
+                logger.warn("{} small files could not be parsed but are included in the disease counts of the header",
+                        v2ingestor.getNumberOfUnparsableFiles());
+            }
+            if (cache!=null) {
+                cache.save();
+            }
+            writer.appendOrphanetV2(orphanetDisorders);
+            writer.closeFileHandle();
+            closeReportWriter(reportWriter);
+        } catch (IOException | HPOException e) {
+            logger.fatal("[ERROR] Could not output V2 big file",e);
+        }
+    }
+
+    /**
+     * Output one shard of the big file. Only the small files of the shard are parsed, but the Orphanet XML file is
+     * parsed completely, because the shard of an Orphanet disorder is known only after it has been parsed. The
+     * shard is compressed if the output path ends with .gz, and the maximum number of Q/C findings is applied when
+     * the shards are merged. The other output options (streaming, columnar, disease index, Q/C report) cannot be
+     * used with shards, which the {@link org.monarchinitiative.hpoannotqc.io.Commandline} checks.
+     */
+    private void executeShard() {
+        try {
+            V2SmallFileCache cache = openCache();
+            V2SmallFileIngestor v2ingestor = openIngestor(cache);
+            v2ingestor.setShard(shard,numberOfShards);
+            List<V2SmallFile> v2entries = v2ingestor.getV2SmallFileEntries();
+            if (cache!=null) {
+                cache.save();
+            }
+            OrphanetXML2HpoDiseaseModelParser parser = new OrphanetXML2HpoDiseaseModelParser(this.orphanetXMLpath, this.ontology, v2ingestor.getAnnotationInterner());
+            List<OrphanetDisorder> orphanetDisorders = parser.getDisorders();
+            debugPrintOrphanetDisorders(orphanetDisorders);
+            BigFileShardWriter writer = new BigFileShardWriter(ontology,outputFilePath,shard,numberOfShards);
+            writer.setMaxFindingsPerCheck(maxFindingsPerCheck);
+            writer.setCompression(gzipLevel,gzipBlockSize,numThreads);
+            writer.write(v2entries,orphanetDisorders,ontology.getMetaInfo());
+        } catch (IOException | HPOException e) {
+            logger.fatal("[ERROR] Could not output big file shard",e);
+        }
+    }
+
+    /**
+     * Output the big file from a {@link ColumnarAnnotationStore}. The small files are streamed into the store, so
+     * that the {@link V2SmallFile} objects never need to be held in memory at the same time.
+     */
+    private void executeColumnar() {
+        try {
+            V2SmallFileCache cache = openCache();
+            V2SmallFileIngestor v2ingestor = openIngestor(cache);
+            ColumnarAnnotationStore.Builder builder = new ColumnarAnnotationStore.Builder();
+            v2ingestor.streamV2SmallFiles(STREAMING_QUEUE_CAPACITY, builder::add);
+            if (cache!=null) {
+                cache.save();
+            }
+            OrphanetXML2HpoDiseaseModelParser parser = new OrphanetXML2HpoDiseaseModelParser(this.orphanetXMLpath, this.ontology, v2ingestor.getAnnotationInterner());
+            List<OrphanetDisorder> orphanetDisorders = parser.getDisorders();
+            debugPrintOrphanetDisorders(orphanetDisorders);
+            logger.info(v2ingestor.getAnnotationInterner().getDeduplicationReport());
+            BigFileWriter writer = new BigFileWriter(ontology, outputFilePath);
+            writer.setCompression(gzipLevel,gzipBlockSize,numThreads);
+            writer.setDiseaseIndex(diseaseIndex);
+            int n_smallfiles = builder.getNumberOfDiseases();
+            writer.addOrphanetToColumnarStore(orphanetDisorders,builder);
+            ColumnarAnnotationStore store = builder.build();
+            logger.info(store.getHeapSizeComparison());
+            List<String> smallFileNames = new ArrayList<>();
+            for (int d=0;d<n_smallfiles;d++) {
+                smallFileNames.add(store.getDiseaseSource(d));
+            }
+            writer.initializeV2filehandle();
+            writer.setNumberOfDiseasesForHeader(orphanetDisorders.size(),smallFileNames);
+            writer.setOntologyMetadata(ontology.getMetaInfo());
+            QcReportWriter reportWriter = openReportWriter();
+            writer.setQualityControlFindings(maxFindingsPerCheck,reportWriter);
+            writer.outputColumnarStoreV2(store,n_smallfiles);
+            writer.closeFileHandle();
+            closeReportWriter(reportWriter);
         } catch (IOException | HPOException e) {
             logger.fatal("[ERROR] Could not output V2 big file",e);
         }
     }
 
+    /** @return the writer for the Q/C report, or null if no report path was given */
+    private QcReportWriter openReportWriter() throws IOException {
+        return reportPath==null ? null : new QcReportWriter(reportPath,QcReportWriter.Format.fromPath(reportPath));
+    }
 
+    private void closeReportWriter(QcReportWriter reportWriter) throws IOException {
+        if (reportWriter!=null) {
+            reportWriter.close();
+            logger.info("Wrote Q/C report with {} findings to {}",reportWriter.getNumberOfFindingsWritten(),reportPath);
+        }
+    }
+
+    /**
+     * @return an ingestor for the small files
+     * @throws HPOException if the small files are a bundle that was packed with another data-version of hp.obo
+     * (unless {@link #setAllowVersionMismatch(boolean)} was set)
+     */
+    private V2SmallFileIngestor openIngestor(V2SmallFileCache cache) throws HPOException {
+        String dataVersion = ontology.getMetaInfo().get("data-version");
+        if (! allowVersionMismatch && dataVersion!=null && V2SmallFileBundle.isBundle(v2smallFileDirectory)) {
+            try {
+                String bundleVersion = new V2SmallFileBundle(v2smallFileDirectory).getDataVersion();
+                if (! dataVersion.equals(bundleVersion)) {
+                    throw new HPOException(String.format("Bundle %s was packed with hp.obo version %s but the current version is %s " +
+                            "(pack the small files again or use --allow-version-mismatch)",v2smallFileDirectory,bundleVersion,dataVersion));
+                }
+            } catch (IOException e) {
+                // the ingestor reports a bundle that cannot be opened
+            }
+        }
+        return new V2SmallFileIngestor(v2smallFileDirectory,omitPath,ontology,numThreads,cache);
+    }
+
+    /**
+     * @return the cache of parsed small files, or null if no cache path was given or if hp.obo has no data-version
+     */
+    private V2SmallFileCache openCache() throws IOException {
+        if (cachePath==null) {
+            return null;
+        }
+        String dataVersion = ontology.getMetaInfo().get("data-version");
+        if (dataVersion==null) {
+            logger.warn("Not using the small file cache because hp.obo does not have a data-version");
+            return null;
+        }
+        V2SmallFileCache cache = new V2SmallFileCache(cachePath,dataVersion);
+        if (invalidateCache) {
+            cache.invalidate();
+        }
+        return cache;
+    }
 
    private void debugPrintOrphanetDisorders(List<OrphanetDisorder> orphanetDisorders){
         int n_annot=0;
@@ -33,29 +33,27 @@ public class Compare2Diseases  implements Command {
         hpOboPath=hpopath;
         phenotype_annotation_path = annotationPath;
         logger.trace(String.format("Compare %s and %s using HPO file %s and annotation file %s",disease1,disease2,hpopath,annotationPath ));
-        HpoOboParser hpoOboParser = new HpoOboParser(new File(hpOboPath));
-        try {
-            this.ontology = hpoOboParser.parse();
-            Objects.requireNonNull(ontology);
-            HpoDiseaseAnnotationParser annotationParser = new HpoDiseaseAnnotationParser(phenotype_annotation_path, ontology);
-            diseaseMap = annotationParser.parse();
-            logger.error("Done parsing");
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
     }
     /**
-     * Perform the downloading.
+     * Parse hp.obo and the annotation file. The phenol annotation parser needs the full {@link HpoOntology}, and so
+     * hp.obo is parsed here (once) rather than loaded from the HPO snapshot.
      */
     @Override
     public void execute()  {
         try {
             HpoOboParser hpoOboParser = new HpoOboParser(new File(hpOboPath));
             this.ontology = hpoOboParser.parse();
-
+            Objects.requireNonNull(ontology);
         } catch (Exception e) {
             logger.error(String.format("error trying to parse hp.obo file at %s: %s",hpOboPath,e.getMessage()));
             System.exit(1); // we cannot recover from this
         }
+        try {
+            HpoDiseaseAnnotationParser annotationParser = new HpoDiseaseAnnotationParser(phenotype_annotation_path, ontology);
+            diseaseMap = annotationParser.parse();
+            logger.error("Done parsing");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,49 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.bigfile.BigFileDiff;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Compares the big file of the previous release with that of the current release and writes the annotations that
+ * were added, removed or changed (see {@link BigFileDiff}). The number of changes per database is printed.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class DiffCommand implements Command {
+    private static final Logger logger = LogManager.getLogger();
+    /** The big file of the previous release. */
+    private final String oldPath;
+    /** The big file of the current release. */
+    private final String newPath;
+    /** Path of the delta file. */
+    private final String outputFilePath;
+
+    /**
+     * @param oldPath the big file of the previous release (may be gzip-compressed)
+     * @param newPath the big file of the current release (may be gzip-compressed)
+     * @param outpath path of the delta file
+     */
+    public DiffCommand(String oldPath, String newPath, String outpath) {
+        this.oldPath=oldPath;
+        this.newPath=newPath;
+        this.outputFilePath=outpath;
+    }
+
+    @Override
+    public void execute() {
+        BigFileDiff diff = new BigFileDiff(oldPath,newPath);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            diff.diff(writer);
+        } catch (IOException | HPOException e) {
+            logger.fatal("[ERROR] Could not compare big files: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println(String.format("Changes from %s to %s (written to %s):",oldPath,newPath,outputFilePath));
+        System.out.print(diff.getSummaryReport());
+    }
+}
@@ -0,0 +1,71 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and latencies of the requests of the {@link ServeCommand}. The latencies are counted in buckets whose
+ * upper bounds are powers of two (in microseconds), so that recording a request needs no lock and no allocation;
+ * the percentiles are the upper bounds of the buckets that contain them.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class LatencyMetrics {
+    /** Bucket i counts latencies of less than 2^i microseconds; the last bucket counts all longer latencies. */
+    private static final int NUMBER_OF_BUCKETS=32;
+    private final AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final LongAdder n_requests = new LongAdder();
+    private final LongAdder n_failed = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param nanos latency of the request
+     * @param ok false if the request failed (e.g., bad method or server error)
+     */
+    void record(long nanos, boolean ok) {
+        long micros = nanos/1000;
+        n_requests.increment();
+        if (! ok) {
+            n_failed.increment();
+        }
+        totalMicros.add(micros);
+        maxMicros.accumulateAndGet(micros,Math::max);
+        int b = 64-Long.numberOfLeadingZeros(micros);
+        buckets.incrementAndGet(Math.min(b,NUMBER_OF_BUCKETS-1));
+    }
+
+    long getNumberOfRequests() {
+        return n_requests.sum();
+    }
+
+    /** @return upper bound of the latency (in microseconds) below which the fraction p of the requests lies */
+    long getPercentileMicros(double p) {
+        long n = 0;
+        for (int i=0;i<NUMBER_OF_BUCKETS;i++) {
+            n += buckets.get(i);
+        }
+        long rank = (long) Math.ceil(p*n);
+        long seen = 0;
+        for (int i=0;i<NUMBER_OF_BUCKETS;i++) {
+            seen += buckets.get(i);
+            if (seen>=rank && seen>0) {
+                return Math.min(1L<<i,maxMicros.get());
+            }
+        }
+        return 0;
+    }
+
+    /** @return the metrics as a JSON object */
+    String toJson() {
+        long n = n_requests.sum();
+        return String.format("{\"requests\":%d,\"failed\":%d,\"meanMicros\":%d,\"p50Micros\":%d,\"p95Micros\":%d,\"p99Micros\":%d,\"maxMicros\":%d}",
+                n,
+                n_failed.sum(),
+                n==0 ? 0 : totalMicros.sum()/n,
+                getPercentileMicros(0.50),
+                getPercentileMicros(0.95),
+                getPercentileMicros(0.99),
+                maxMicros.get());
+    }
+}
@@ -0,0 +1,54 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.bigfile.BigFileShardMerger;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.io.ParallelGzipOutputStream;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Combines the shards written by {@code big-file --shard i/N} into the big file ({@code phenotype.hpoa}).
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class MergeCommand implements Command {
+    private static final Logger logger = LogManager.getLogger();
+    /** Paths to the shard files. */
+    private final List<String> shardPaths;
+    /** Should usually be phenotype.hpoa, may also include path */
+    private final String outputFilePath;
+    /** Compression level, block size and number of threads if the big file is written as a .gz file. */
+    private int gzipLevel=ParallelGzipOutputStream.DEFAULT_LEVEL;
+    private int gzipBlockSize=ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+    private int gzipThreads=1;
+
+    public MergeCommand(List<String> shards, String outpath) {
+        this.shardPaths=shards;
+        this.outputFilePath=outpath;
+    }
+
+    /**
+     * @param level compression level from 0 to 9 if the output path ends with .gz
+     * @param blockSize size in bytes of the blocks that are compressed separately
+     * @param threads number of threads that compress the blocks
+     */
+    public void setCompression(int level, int blockSize, int threads) {
+        this.gzipLevel=level;
+        this.gzipBlockSize=blockSize;
+        this.gzipThreads=threads;
+    }
+
+    @Override
+    public void execute() {
+        BigFileShardMerger merger = new BigFileShardMerger(shardPaths,outputFilePath);
+        merger.setCompression(gzipLevel,gzipBlockSize,gzipThreads);
+        try {
+            merger.merge();
+        } catch (IOException | HPOException e) {
+            logger.fatal("[ERROR] Could not merge big file shards: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.io.HpoOntologySnapshot;
+import org.monarchinitiative.hpoannotqc.io.V2SmallFileBundle;
+import org.monarchinitiative.hpoannotqc.io.V2SmallFileIngestor;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Compiles the V2 small files of a directory (or archive) into a single {@link V2SmallFileBundle}, which can then
+ * be passed to the {@code big-file} command with {@code -s} instead of the small file directory. The number of lines
+ * that the parser skipped in each small file is stored in the bundle.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class PackCommand implements Command {
+    private static final Logger logger = LogManager.getLogger();
+    /** Path to the {@code hp.obo} file. */
+    private final String hpOboPath;
+    /** Directory (or archive) with the V2 small files. */
+    private final String v2smallFileDirectory;
+    /** Path of the bundle that will be written. */
+    private final String bundlePath;
+    /** path to the omit-list.txt file, which is located with the small files in the same directory */
+    private final String omitPath;
+    /** Number of worker threads used to parse the small files. */
+    private int numThreads=1;
+
+    /**
+     * @param hpopath path to hp.obo
+     * @param dir directory with the small files
+     * @param outpath path of the bundle
+     */
+    public PackCommand(String hpopath, String dir, String outpath) {
+        hpOboPath=hpopath;
+        v2smallFileDirectory=dir;
+        bundlePath=outpath;
+        omitPath=String.format("%s%s%s",v2smallFileDirectory,File.separator,"omit-list.txt");
+    }
+
+    /** @param n number of worker threads to use for parsing the small files (default: 1) */
+    public void setNumberOfThreads(int n) {
+        this.numThreads=n;
+    }
+
+    @Override
+    public void execute() {
+        HpoTermIndex ontology;
+        try {
+            ontology = HpoOntologySnapshot.load(hpOboPath);
+        } catch (IOException e) {
+            logger.fatal("Unable to parse hp.obo file at " + hpOboPath);
+            System.exit(1);
+            return;
+        }
+        V2SmallFileIngestor ingestor = new V2SmallFileIngestor(v2smallFileDirectory,omitPath,ontology,numThreads);
+        List<V2SmallFile> v2files = ingestor.getV2SmallFileEntries();
+        try {
+            V2SmallFileBundle.write(bundlePath,v2files,ontology.getMetaInfo().get("data-version"),
+                    ingestor.getSkippedLineCounts());
+            System.out.println(String.format("Packed %d small files into %s",v2files.size(),bundlePath));
+        } catch (IOException e) {
+            logger.fatal("[ERROR] Could not write small file bundle to " + bundlePath, e);
+            System.exit(1);
+        }
+    }
+}
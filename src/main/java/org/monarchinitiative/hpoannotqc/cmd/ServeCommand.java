@@ -0,0 +1,226 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.io.HpoOntologySnapshot;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.smallfile.QcFinding;
+import org.monarchinitiative.hpoannotqc.smallfile.QcReportWriter;
+import org.monarchinitiative.hpoannotqc.smallfile.QualityControlSummary;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs an HTTP server on localhost that checks small files for other programs, e.g., a curation web tool. The
+ * ontology is loaded once, and all requests share the precomputed Q/C state. Two endpoints are offered:
+ * <ul>
+ *     <li>{@code POST /validate?name=OMIM-600123.tab} with the contents of a small file returns a JSON object with
+ *     the result, the findings (see {@link QcReportWriter#toJson(QcFinding)}), the good and bad counts of every check
+ *     and the time taken in microseconds.</li>
+ *     <li>{@code GET /metrics} returns the number of requests and their latency percentiles.</li>
+ * </ul>
+ * The requests are handled by a fixed number of worker threads with a bounded queue; if the queue is full, the thread
+ * that accepts the connections handles the request itself, which stops it from accepting further connections until
+ * the load is lower.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class ServeCommand implements Command {
+    private static final Logger logger = LogManager.getLogger();
+    public static final int DEFAULT_PORT=8080;
+    /** Maximum size of a small file that is accepted (larger requests get status 413). */
+    private static final int MAX_REQUEST_BYTES=8*1024*1024;
+    /** Number of requests that may wait in the queue per worker thread. */
+    private static final int QUEUE_PER_THREAD=16;
+    private static final String JSON_TYPE="application/json; charset=utf-8";
+    /** Path to the {@code hp.obo} file. */
+    private final String hpOboPath;
+    private final int port;
+    private int numThreads=1;
+    /** Maximum number of Q/C findings reported per check and small file. */
+    private int maxFindingsPerCheck=V2LineQualityController.DEFAULT_MAX_FINDINGS_PER_CHECK;
+    private SmallFileValidator validator;
+    private final LatencyMetrics metrics = new LatencyMetrics();
+    /** Index of the next request, used as the disease index of the findings. */
+    private final AtomicInteger requestIndex = new AtomicInteger();
+
+    /**
+     * @param hpopath path to hp.obo
+     * @param port port on localhost on which to listen (0 for any free port)
+     */
+    public ServeCommand(String hpopath, int port) {
+        this.hpOboPath=hpopath;
+        this.port=port;
+    }
+
+    /** @param n number of worker threads that handle requests (default: 1) */
+    public void setNumberOfThreads(int n) {
+        this.numThreads=Math.max(1,n);
+    }
+
+    /** @param max maximum number of Q/C findings reported per check and small file; further findings are counted */
+    public void setMaxFindingsPerCheck(int max) {
+        this.maxFindingsPerCheck=max;
+    }
+
+    @Override
+    public void execute() {
+        HpoTermIndex ontology;
+        try {
+            ontology = HpoOntologySnapshot.load(hpOboPath);
+        } catch (IOException e) {
+            logger.fatal("Unable to parse hp.obo file at " + hpOboPath);
+            System.exit(1);
+            return;
+        }
+        try {
+            HttpServer server = start(ontology);
+            System.out.println(String.format("Listening on http://localhost:%d/validate with %d threads; stop with Ctrl-C",
+                    server.getAddress().getPort(),numThreads));
+        } catch (IOException e) {
+            logger.fatal("[ERROR] Could not start server on port " + port + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Start the server. The server keeps running after this method returns; it is stopped with
+     * {@link #stop(HttpServer)} or when the program is stopped.
+     * @return the running server
+     */
+    HttpServer start(HpoTermIndex ontology) throws IOException {
+        this.validator=new SmallFileValidator(ontology,maxFindingsPerCheck);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),port),0);
+        server.createContext("/validate",this::handleValidate);
+        server.createContext("/metrics",this::handleMetrics);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads,numThreads,0L,TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_PER_THREAD*numThreads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        server.setExecutor(pool);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(server)));
+        return server;
+    }
+
+    /** Stop the server and its worker threads (requests that are being handled may take up to one second). */
+    static void stop(HttpServer server) {
+        server.stop(1);
+        if (server.getExecutor() instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) server.getExecutor()).shutdown();
+        }
+    }
+
+    private void handleValidate(HttpExchange exchange) throws IOException {
+        long start=System.nanoTime();
+        boolean ok=false;
+        try {
+            if (! "POST".equals(exchange.getRequestMethod())) {
+                send(exchange,405,"{\"error\":\"use POST with the contents of a small file\"}");
+                return;
+            }
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body==null) {
+                send(exchange,413,String.format("{\"error\":\"a small file may have at most %d bytes\"}",MAX_REQUEST_BYTES));
+                return;
+            }
+            String name = getQueryParameter(exchange,"name","small-file.tab");
+            SmallFileValidator.Result result = validator.check(name,new ByteArrayInputStream(body),requestIndex.getAndIncrement());
+            send(exchange,200,toJson(name,result,(System.nanoTime()-start)/1000));
+            ok=true;
+        } catch (RuntimeException e) {
+            logger.error("Could not check small file: {}",e.getMessage());
+            send(exchange,500,String.format("{\"error\":%s}",QcReportWriter.json(String.valueOf(e.getMessage()))));
+        } finally {
+            metrics.record(System.nanoTime()-start,ok);
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            send(exchange,200,metrics.toJson());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** @return the result of a check as a JSON object */
+    static String toJson(String name, SmallFileValidator.Result result, long micros) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"name\":").append(QcReportWriter.json(name))
+                .append(",\"valid\":").append(result.isValid())
+                .append(",\"parsed\":").append(result.parsed)
+                .append(",\"lines\":").append(result.n_lines)
+                .append(",\"skipped\":").append(result.n_skipped)
+                .append(",\"findings\":[");
+        if (result.qc!=null) {
+            String sep="";
+            for (QcFinding finding : result.qc.getFindings()) {
+                sb.append(sep).append(QcReportWriter.toJson(finding));
+                sep=",";
+            }
+        }
+        sb.append("],\"counts\":[");
+        if (result.qc!=null) {
+            QualityControlSummary summary = result.qc.getSummary();
+            String sep="";
+            for (String check : summary.getChecks()) {
+                sb.append(sep).append(String.format("{\"check\":%s,\"good\":%d,\"bad\":%d}",
+                        QcReportWriter.json(check),summary.getGood(check),summary.getBad(check)));
+                sep=",";
+            }
+        }
+        return sb.append("],\"micros\":").append(micros).append('}').toString();
+    }
+
+    /** @return the request body, or null if it is larger than {@link #MAX_REQUEST_BYTES} */
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n=in.read(buffer))>0) {
+            if (out.size()+n>MAX_REQUEST_BYTES) {
+                return null;
+            }
+            out.write(buffer,0,n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String getQueryParameter(HttpExchange exchange, String key, String defaultValue) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query==null) {
+            return defaultValue;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq>0 && pair.substring(0,eq).equals(key)) {
+                return URLDecoder.decode(pair.substring(eq+1),StandardCharsets.UTF_8.name());
+            }
+        }
+        return defaultValue;
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",JSON_TYPE);
+        exchange.sendResponseHeaders(status,bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
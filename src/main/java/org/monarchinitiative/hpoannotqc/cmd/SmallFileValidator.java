@@ -0,0 +1,114 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import org.monarchinitiative.hpoannotqc.io.V2SmallFileParser;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Parses and checks single small files against an ontology that is loaded once, for the {@link ValidateCommand},
+ * the {@link WatchCommand} and the {@link ServeCommand}. The precomputed state of the
+ * {@link V2LineQualityController} is shared by the checks of all files, and each file gets its own counters so that
+ * its findings can be reported separately. Several threads may check small files at the same time.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class SmallFileValidator {
+    private final HpoTermIndex ontology;
+    /** Controller whose immutable state is shared by the controllers of the single files. */
+    private final V2LineQualityController prototype;
+
+    /** The result of checking one small file. */
+    static final class Result {
+        /** False if the small file could not be parsed (e.g., a malformed header). */
+        final boolean parsed;
+        /** Number of lines that were checked. */
+        final int n_lines;
+        /** Number of lines that the parser skipped (unknown phenotype id or malformed onset id). */
+        final int n_skipped;
+        /** True if all lines that were checked passed all checks. */
+        final boolean clean;
+        /** The counters and findings of the small file (null if it could not be parsed). */
+        final V2LineQualityController qc;
+
+        private Result(boolean parsed, int n_lines, int n_skipped, boolean clean, V2LineQualityController qc) {
+            this.parsed=parsed;
+            this.n_lines=n_lines;
+            this.n_skipped=n_skipped;
+            this.clean=clean;
+            this.qc=qc;
+        }
+
+        /** @return true if the small file was parsed without skipping lines and all lines passed all checks */
+        boolean isValid() {
+            return parsed && n_skipped==0 && clean;
+        }
+    }
+
+    /**
+     * @param ontology the HPO
+     * @param maxFindingsPerCheck maximum number of Q/C findings reported per check and small file
+     */
+    SmallFileValidator(HpoTermIndex ontology, int maxFindingsPerCheck) {
+        this.ontology=ontology;
+        this.prototype=new V2LineQualityController(ontology);
+        this.prototype.setMaxFindingsPerCheck(maxFindingsPerCheck);
+    }
+
+    /**
+     * Parse and check one small file.
+     * @param path path to the small file, or its name if the contents are passed as a stream
+     * @param stream contents of the small file (null to read the file at path); the stream is closed
+     * @param diseaseIndex index of the small file for the findings
+     * @return the result
+     */
+    Result check(String path, InputStream stream, int diseaseIndex) {
+        V2SmallFileParser parser = new V2SmallFileParser(path,stream,ontology,null);
+        // a malformed file is reported like any other invalid file
+        parser.setExitOnMalformedFile(false);
+        Optional<V2SmallFile> v2opt = parser.parse();
+        if (! v2opt.isPresent()) {
+            return new Result(false,0,0,false,null);
+        }
+        V2LineQualityController qc = prototype.newWorker();
+        List<V2SmallFileEntry> entries = v2opt.get().getOriginalEntryList();
+        boolean clean=true;
+        for (int j=0;j<entries.size();j++) {
+            clean &= qc.checkV2entry(entries.get(j),diseaseIndex,j+1);
+        }
+        return new Result(true,entries.size(),parser.getNumberOfSkippedLines(),clean,qc);
+    }
+
+    /**
+     * Parse and check one small file and print the result.
+     * @param path path to the small file
+     * @param diseaseIndex index of the small file for the findings
+     * @param out stream to which the result is printed
+     * @return true if the small file could be parsed and all lines passed all checks
+     */
+    boolean validate(String path, int diseaseIndex, PrintStream out) {
+        Result result = check(path,null,diseaseIndex);
+        if (! result.parsed) {
+            out.println(String.format("%s: FAILED (could not be parsed)",path));
+            return false;
+        }
+        if (result.isValid()) {
+            out.println(String.format("%s: OK (%d lines)",path,result.n_lines));
+            return true;
+        }
+        out.println(String.format("%s: FAILED",path));
+        if (result.n_skipped>0) {
+            out.println(String.format("\t%d lines were skipped (unknown phenotype id or malformed onset id)",
+                    result.n_skipped));
+        }
+        for (String err : result.qc.getErrors()) {
+            out.println("\t" + err);
+        }
+        return false;
+    }
+}
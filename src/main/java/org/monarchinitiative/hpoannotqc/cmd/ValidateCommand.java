@@ -0,0 +1,81 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.io.HpoOntologySnapshot;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Checks a few small files, e.g., a small file that a curator has just edited, without creating the big file.
+ * Each small file is parsed and all of its lines are checked by the {@link SmallFileValidator}; the
+ * Orphanet data are not needed. The ontology is loaded from the snapshot of {@code hp.obo} (see
+ * {@link HpoOntologySnapshot}), and so after the first run the time needed is dominated by the checks themselves.
+ * The program exits with status 1 if a small file could not be parsed or has a line that fails a check.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class ValidateCommand implements Command {
+    private static final Logger logger = LogManager.getLogger();
+    /** Path to the {@code hp.obo} file. */
+    private final String hpOboPath;
+    /** Paths of the small files to check. */
+    private final List<String> smallFilePaths;
+    /** Maximum number of Q/C findings reported per check and small file. */
+    private int maxFindingsPerCheck=V2LineQualityController.DEFAULT_MAX_FINDINGS_PER_CHECK;
+
+    /**
+     * @param hpopath path to hp.obo
+     * @param paths paths of the small files to check
+     */
+    public ValidateCommand(String hpopath, List<String> paths) {
+        this.hpOboPath=hpopath;
+        this.smallFilePaths=paths;
+    }
+
+    /** @param max maximum number of Q/C findings reported per check and small file; further findings are counted */
+    public void setMaxFindingsPerCheck(int max) {
+        this.maxFindingsPerCheck=max;
+    }
+
+    @Override
+    public void execute() {
+        long start=System.nanoTime();
+        HpoTermIndex ontology;
+        try {
+            ontology = HpoOntologySnapshot.load(hpOboPath);
+        } catch (IOException e) {
+            logger.fatal("Unable to parse hp.obo file at " + hpOboPath);
+            System.exit(1);
+            return;
+        }
+        long loaded=System.nanoTime();
+        int n_invalid = validate(ontology,System.out);
+        long end=System.nanoTime();
+        logger.info("Loaded ontology in {} ms, checked {} small files in {} ms",
+                (loaded-start)/1_000_000,smallFilePaths.size(),(end-loaded)/1_000_000);
+        if (n_invalid>0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check all small files and print the result for each of them.
+     * @param ontology the HPO
+     * @param out stream to which the results are printed
+     * @return number of small files that could not be parsed or have at least one line that fails a check
+     */
+    int validate(HpoTermIndex ontology, PrintStream out) {
+        SmallFileValidator validator = new SmallFileValidator(ontology,maxFindingsPerCheck);
+        int n_invalid=0;
+        for (int i=0;i<smallFilePaths.size();i++) {
+            if (! validator.validate(smallFilePaths.get(i),i,out)) {
+                n_invalid++;
+            }
+        }
+        return n_invalid;
+    }
+}
@@ -0,0 +1,155 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.io.HpoOntologySnapshot;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps the ontology in memory and checks each small file as soon as it is created or modified in the small file
+ * directory, so that curators do not have to wait for the JVM to start and the ontology to load for every check.
+ * If {@code hp.obo} changes, the ontology is loaded again (see {@link HpoOntologySnapshot}) and the checks that
+ * follow use the new version. The command runs until it is interrupted.
+ * <p>
+ * Editors often write a file with several events (e.g., create and then modify, or one modify per write), and so
+ * the events that arrive within {@link #SETTLE_MILLIS} of each other are collected and each changed file is checked
+ * once.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class WatchCommand implements Command {
+    private static final Logger logger = LogManager.getLogger();
+    /** Time to wait for further events before the changed files are checked. */
+    private static final long SETTLE_MILLIS=50;
+    private static final String SMALL_FILE_SUFFIX=".tab";
+    /** Path to the {@code hp.obo} file. */
+    private final Path hpOboPath;
+    /** Directory with the small files. */
+    private final Path smallFileDirectory;
+    /** Maximum number of Q/C findings reported per check and small file. */
+    private int maxFindingsPerCheck=V2LineQualityController.DEFAULT_MAX_FINDINGS_PER_CHECK;
+    /** Checks the small files against the current version of the ontology. */
+    private SmallFileValidator validator;
+    /** Number of small files checked so far, used as the disease index of the findings. */
+    private int n_checked=0;
+
+    /**
+     * @param hpopath path to hp.obo
+     * @param dir directory with the small files
+     */
+    public WatchCommand(String hpopath, String dir) {
+        this.hpOboPath=Paths.get(hpopath).toAbsolutePath().normalize();
+        this.smallFileDirectory=Paths.get(dir).toAbsolutePath().normalize();
+    }
+
+    /** @param max maximum number of Q/C findings reported per check and small file; further findings are counted */
+    public void setMaxFindingsPerCheck(int max) {
+        this.maxFindingsPerCheck=max;
+    }
+
+    @Override
+    public void execute() {
+        try {
+            reloadOntology();
+        } catch (IOException e) {
+            logger.fatal("Unable to parse hp.obo file at " + hpOboPath);
+            System.exit(1);
+        }
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            smallFileDirectory.register(watcher,ENTRY_CREATE,ENTRY_MODIFY);
+            Path oboDirectory = hpOboPath.getParent();
+            if (! oboDirectory.equals(smallFileDirectory)) {
+                oboDirectory.register(watcher,ENTRY_CREATE,ENTRY_MODIFY);
+            }
+            System.out.println(String.format("Watching %s for changed small files (and %s); stop with Ctrl-C",
+                    smallFileDirectory,hpOboPath));
+            watch(watcher);
+        } catch (IOException e) {
+            logger.fatal("[ERROR] Could not watch " + smallFileDirectory + ": " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void watch(WatchService watcher) throws InterruptedException {
+        while (true) {
+            Set<Path> changed = new LinkedHashSet<>();
+            WatchKey key = watcher.take();
+            // collect the events of this key and of all keys that arrive while the files settle
+            while (key!=null) {
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind()==OVERFLOW) {
+                        logger.warn("Some file events were lost; save the small file again to check it");
+                        continue;
+                    }
+                    changed.add(dir.resolve((Path) event.context()));
+                }
+                if (! key.reset()) {
+                    logger.fatal("[ERROR] {} can no longer be watched",dir);
+                    return;
+                }
+                key = watcher.poll(SETTLE_MILLIS,TimeUnit.MILLISECONDS);
+            }
+            process(changed,System.out);
+        }
+    }
+
+    /**
+     * Reload the ontology if hp.obo is among the changed files, and then check the changed small files. A small file
+     * whose check throws an exception is reported as failed, and the other files are checked.
+     * @param changed the created or modified files
+     * @param out stream to which the results are printed
+     */
+    void process(Set<Path> changed, PrintStream out) {
+        if (changed.contains(hpOboPath)) {
+            try {
+                reloadOntology();
+                out.println(String.format("Reloaded %s",hpOboPath));
+            } catch (IOException | RuntimeException e) {
+                // keep the previous version, e.g., if hp.obo is being written (phenol throws a RuntimeException
+                // for a truncated hp.obo)
+                logger.error("Could not reload {} ({}); keeping the previous version",hpOboPath,e.getMessage());
+            }
+        }
+        for (Path path : changed) {
+            if (! isSmallFile(path)) continue;
+            long start=System.nanoTime();
+            try {
+                validator.validate(path.toString(),n_checked++,out);
+            } catch (RuntimeException e) {
+                // e.g., a half-edited line that cannot be parsed; the file is reported and the watch goes on
+                out.println(String.format("%s: FAILED (%s)",path,e));
+                logger.error("Could not check {}: {}",path,e.toString());
+                continue;
+            }
+            logger.info("Checked {} in {} ms",path.getFileName(),(System.nanoTime()-start)/1_000_000);
+        }
+    }
+
+    /** @return true for files with the suffix .tab in the small file directory (not for editor backup files) */
+    private boolean isSmallFile(Path path) {
+        return smallFileDirectory.equals(path.getParent()) &&
+                path.getFileName().toString().endsWith(SMALL_FILE_SUFFIX) &&
+                Files.isRegularFile(path);
+    }
+
+    /** Load hp.obo (or its snapshot) and rebuild the precomputed Q/C state for the new ontology. */
+    void reloadOntology() throws IOException {
+        long start=System.nanoTime();
+        HpoTermIndex ontology = HpoOntologySnapshot.load(hpOboPath.toString());
+        this.validator=new SmallFileValidator(ontology,maxFindingsPerCheck);
+        logger.info("Loaded {} HPO terms in {} ms",ontology.size(),(System.nanoTime()-start)/1_000_000);
+    }
+}
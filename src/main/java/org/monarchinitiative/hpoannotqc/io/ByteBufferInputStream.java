@@ -0,0 +1,33 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads from a ByteBuffer, which lets a memory-mapped file (e.g., a {@link V2SmallFileBundle}) be read with a
+ * {@link DataInputStream}.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferInputStream(ByteBuffer buf) {
+        this.buf=buf;
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (! buf.hasRemaining()) {
+            return -1;
+        }
+        len=Math.min(len,buf.remaining());
+        buf.get(b,off,len);
+        return len;
+    }
+}
@@ -12,11 +12,20 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.monarchinitiative.hpoannotqc.cmd.DiffCommand;
 import org.monarchinitiative.hpoannotqc.cmd.DownloadCommand;
+import org.monarchinitiative.hpoannotqc.cmd.MergeCommand;
+import org.monarchinitiative.hpoannotqc.cmd.PackCommand;
+import org.monarchinitiative.hpoannotqc.cmd.ServeCommand;
+import org.monarchinitiative.hpoannotqc.cmd.ValidateCommand;
+import org.monarchinitiative.hpoannotqc.cmd.WatchCommand;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
 
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Collectors;
 
 /**
@@ -50,8 +59,37 @@ public class Commandline {
     private String omitFilePath = null;
     private String orphanetXmlPath = null;
     private String smallFileDirectory = null;
+    /** Files passed to the merge command (shards), the diff command (big files) or the validate command (small files). */
+    private List<String> shardPaths = new ArrayList<>();
     /** Depending on the command, path to output directory or output file. */
     private String outputPath = null;
+    /** Number of worker threads to use for the big-file command. */
+    private int numThreads=1;
+    /** Path to the cache of parsed small files (optional). */
+    private String cachePath = null;
+    private boolean invalidateCache=false;
+    /** If true, stream the small files to the big file rather than collecting them in memory. */
+    private boolean streaming=false;
+    /** If true, big-file keeps all annotations in a columnar store. */
+    private boolean columnar=false;
+    /** If true, big-file renders the lines on the worker threads. */
+    private boolean parallelRendering=false;
+    /** If true, big-file sorts the lines by disease and writes a disease index. */
+    private boolean diseaseIndex=false;
+    /** If true, big-file uses a small file bundle that was packed with another data-version of hp.obo. */
+    private boolean allowVersionMismatch=false;
+    /** Shard (0-based) and number of shards for big-file --shard i/N (shard is -1 if not set). */
+    private int shard=-1;
+    private int numberOfShards=1;
+    /** Maximum number of Q/C findings kept per check (big-file --max-findings). */
+    private int maxFindings=V2LineQualityController.DEFAULT_MAX_FINDINGS_PER_CHECK;
+    /** Machine-readable Q/C report (big-file --qc-report). */
+    private String reportPath=null;
+    /** Port on localhost for the serve command. */
+    private int port=ServeCommand.DEFAULT_PORT;
+    /** Compression level and block size (in KiB) of a big file whose name ends with .gz. */
+    private int gzipLevel=ParallelGzipOutputStream.DEFAULT_LEVEL;
+    private int gzipBlockKiB=ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE/1024;
 
 
 
@@ -74,6 +112,7 @@ public class Commandline {
                 printUsage("command missing");
             } else {
                 mycommand = category[0];
+                shardPaths = Arrays.asList(category).subList(1, category.length);
             }
 
             if (commandLine.getArgs().length < 1) {
@@ -102,6 +141,89 @@ public class Commandline {
             } else {
                 this.smallFileDirectory = DEFAULT_V2_SMALL_FILE_DIRECTORY;
             }
+            if (commandLine.hasOption("c")) {
+                this.cachePath=commandLine.getOptionValue("c");
+            }
+            if (commandLine.hasOption("invalidate-cache")) {
+                this.invalidateCache=true;
+            }
+            if (commandLine.hasOption("streaming")) {
+                this.streaming=true;
+            }
+            if (commandLine.hasOption("columnar")) {
+                this.columnar=true;
+            }
+            if (commandLine.hasOption("parallel-render")) {
+                this.parallelRendering=true;
+            }
+            if (commandLine.hasOption("disease-index")) {
+                this.diseaseIndex=true;
+            }
+            if (commandLine.hasOption("allow-version-mismatch")) {
+                this.allowVersionMismatch=true;
+            }
+            if (commandLine.hasOption("shard")) {
+                String sh = commandLine.getOptionValue("shard");
+                String[] F = sh.split("/");
+                try {
+                    this.shard=Integer.parseInt(F[0]);
+                    this.numberOfShards=Integer.parseInt(F[1]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    printUsage(String.format("[ERROR] Could not parse shard: \"%s\" (expected i/N, e.g., 0/4)",sh));
+                }
+                if (F.length!=2 || numberOfShards<1 || shard<0 || shard>=numberOfShards) {
+                    printUsage(String.format("[ERROR] Invalid shard: \"%s\" (expected i/N with 0 <= i < N)",sh));
+                }
+            }
+            if (commandLine.hasOption("j")) {
+                String nt = commandLine.getOptionValue("j");
+                try {
+                    this.numThreads=Integer.parseInt(nt);
+                } catch (NumberFormatException e) {
+                    printUsage(String.format("[ERROR] Could not parse number of threads: \"%s\"",nt));
+                }
+            }
+            if (commandLine.hasOption("max-findings")) {
+                String mf = commandLine.getOptionValue("max-findings");
+                try {
+                    this.maxFindings=Integer.parseInt(mf);
+                } catch (NumberFormatException e) {
+                    printUsage(String.format("[ERROR] Could not parse maximum number of findings: \"%s\"",mf));
+                }
+            }
+            if (commandLine.hasOption("qc-report")) {
+                this.reportPath=commandLine.getOptionValue("qc-report");
+            }
+            if (commandLine.hasOption("gzip-level")) {
+                String gl = commandLine.getOptionValue("gzip-level");
+                try {
+                    this.gzipLevel=Integer.parseInt(gl);
+                } catch (NumberFormatException e) {
+                    printUsage(String.format("[ERROR] Could not parse gzip level: \"%s\"",gl));
+                }
+                if (gzipLevel<0 || gzipLevel>9) {
+                    printUsage(String.format("[ERROR] Invalid gzip level: \"%s\" (expected 0-9)",gl));
+                }
+            }
+            if (commandLine.hasOption("gzip-block")) {
+                String gb = commandLine.getOptionValue("gzip-block");
+                try {
+                    this.gzipBlockKiB=Integer.parseInt(gb);
+                } catch (NumberFormatException e) {
+                    printUsage(String.format("[ERROR] Could not parse gzip block size: \"%s\"",gb));
+                }
+                if (gzipBlockKiB<1 || gzipBlockKiB>1024*1024) {
+                    printUsage(String.format("[ERROR] Invalid gzip block size: \"%s\" (expected 1-1048576 KiB)",gb));
+                }
+            }
+            if (commandLine.hasOption("port")) {
+                String p = commandLine.getOptionValue("port");
+                try {
+                    this.port=Integer.parseInt(p);
+                } catch (NumberFormatException e) {
+                    printUsage(String.format("[ERROR] Could not parse port: \"%s\"",p));
+                }
+            }
             if (commandLine.hasOption("x")) {
                 this.orphanetXmlPath= commandLine.getOptionValue("x");
             } else {
@@ -119,7 +241,67 @@ public class Commandline {
             if (outputPath==null) {
                 outputPath="phenotype.hpoa";
             }
-            this.command=new BigFileCommand(hpoOboPath,smallFileDirectory, orphanetXmlPath, outputPath);
+            BigFileCommand bigFileCommand=new BigFileCommand(hpoOboPath,smallFileDirectory, orphanetXmlPath, outputPath);
+            bigFileCommand.setNumberOfThreads(numThreads);
+            bigFileCommand.setCachePath(cachePath);
+            bigFileCommand.setInvalidateCache(invalidateCache);
+            bigFileCommand.setStreaming(streaming);
+            bigFileCommand.setColumnar(columnar);
+            bigFileCommand.setParallelRendering(parallelRendering);
+            bigFileCommand.setDiseaseIndex(diseaseIndex);
+            bigFileCommand.setCompression(gzipLevel,gzipBlockKiB*1024);
+            bigFileCommand.setMaxFindingsPerCheck(maxFindings);
+            bigFileCommand.setReportPath(reportPath);
+            bigFileCommand.setAllowVersionMismatch(allowVersionMismatch);
+            if (shard>=0) {
+                // a shard is not a big file; these options apply to the big file written by merge
+                if (streaming || columnar || diseaseIndex || reportPath!=null) {
+                    printUsage("[ERROR] --shard cannot be combined with --streaming, --columnar, --disease-index or --qc-report");
+                }
+                bigFileCommand.setShard(shard,numberOfShards);
+            }
+            this.command=bigFileCommand;
+        } else if (mycommand.equals("pack")) {
+            if (outputPath==null) {
+                outputPath="smallfiles.bundle";
+            }
+            PackCommand packCommand=new PackCommand(hpoOboPath,smallFileDirectory,outputPath);
+            packCommand.setNumberOfThreads(numThreads);
+            this.command=packCommand;
+        } else if (mycommand.equals("merge")) {
+            if (outputPath==null) {
+                outputPath="phenotype.hpoa";
+            }
+            if (shardPaths.isEmpty()) {
+                printUsage("[ERROR] merge needs the paths of the shard files");
+            }
+            MergeCommand mergeCommand=new MergeCommand(shardPaths,outputPath);
+            mergeCommand.setCompression(gzipLevel,gzipBlockKiB*1024,numThreads);
+            this.command=mergeCommand;
+        } else if (mycommand.equals("diff")) {
+            if (outputPath==null) {
+                outputPath="phenotype-diff.tsv";
+            }
+            if (shardPaths.size()!=2) {
+                printUsage("[ERROR] diff needs the paths of the previous and of the current big file");
+            }
+            this.command=new DiffCommand(shardPaths.get(0),shardPaths.get(1),outputPath);
+        } else if (mycommand.equals("validate")) {
+            if (shardPaths.isEmpty()) {
+                printUsage("[ERROR] validate needs the paths of the small files");
+            }
+            ValidateCommand validateCommand=new ValidateCommand(hpoOboPath,shardPaths);
+            validateCommand.setMaxFindingsPerCheck(maxFindings);
+            this.command=validateCommand;
+        } else if (mycommand.equals("watch")) {
+            WatchCommand watchCommand=new WatchCommand(hpoOboPath,smallFileDirectory);
+            watchCommand.setMaxFindingsPerCheck(maxFindings);
+            this.command=watchCommand;
+        } else if (mycommand.equals("serve")) {
+            ServeCommand serveCommand=new ServeCommand(hpoOboPath,port);
+            serveCommand.setNumberOfThreads(numThreads);
+            serveCommand.setMaxFindingsPerCheck(maxFindings);
+            this.command=serveCommand;
         } else {
             printUsage(String.format("[ERROR] Did not recognize command: %s", mycommand));
         }
@@ -139,13 +321,27 @@ public class Commandline {
     private static Options constructGnuOptions() {
         final Options options = new Options();
         options .addOption("a", "annot", true, "path to HPO annotation directory (old small files")
+                .addOption("c", "cache", true, "path to cache of parsed small files")
                 .addOption("d", "download", true, "directory to download HPO data (default \"data\")")
                 .addOption("h", "hpo", true, "path to hp.obo")
+                .addOption("j", "threads", true, "number of threads for parsing small files (default 1)")
                 .addOption("o", "out", true, "name/path of output file/directory")
-                .addOption("s","small-files",true,"small file directory")
+                .addOption("s","small-files",true,"small file directory, or a .zip or .tar.gz snapshot of hpo-annotation-data")
                 .addOption("t", "term", true, "HPO id (e.g., HP:0000123)")
                 .addOption("x","orphadata",true,"Orphanet XML file path")
-                .addOption("v","bigfile-version",true,"big-file version (v1 or v2 [default])");
+                .addOption("v","bigfile-version",true,"big-file version (v1 or v2 [default])")
+                .addOption(null,"invalidate-cache",false,"discard the cache of parsed small files")
+                .addOption(null,"streaming",false,"stream small files to the big file without keeping them in memory")
+                .addOption(null,"columnar",false,"keep all annotations in a compact columnar store")
+                .addOption(null,"parallel-render",false,"render the lines of the big file on the worker threads")
+                .addOption(null,"disease-index",false,"sort the big file by disease and write an index of the diseases")
+                .addOption(null,"allow-version-mismatch",false,"use a small file bundle packed with another data-version of hp.obo")
+                .addOption(null,"gzip-level",true,"compression level (0-9) of a big file whose name ends with .gz (default 6)")
+                .addOption(null,"gzip-block",true,"size in KiB of the blocks that are compressed in parallel (default 128)")
+                .addOption(null,"shard",true,"write only shard i of N of the big file (e.g., 0/4)")
+                .addOption(null,"max-findings",true,"maximum number of Q/C findings reported per check (default 1000)")
+                .addOption(null,"qc-report",true,"machine-readable Q/C report (.tsv, or .json for JSON lines)")
+                .addOption(null,"port",true,"port on localhost for the serve command (default 8080)");
         return options;
     }
 
@@ -182,9 +378,49 @@ public class Commandline {
         System.out.println("\t<directory>: name of directory to which HPO data will be downloaded (default:\"data\")");
         System.out.println();
         System.out.println("big-file:");
-        System.out.println("\tjava -jar HPOWorkbench.jar big-file [-s <small>] [-x <xml>]");
-        System.out.println("\t<small>: path to directory with small files");
+        System.out.println("\tjava -jar HPOWorkbench.jar big-file [-s <small>] [-x <xml>] [-j <threads>] [-c <cache> [--invalidate-cache]] [--streaming|--columnar|--shard <i/N>] [--parallel-render] [--disease-index] [--gzip-level <level>] [--gzip-block <KiB>] [--max-findings <n>] [--qc-report <file>] [--allow-version-mismatch]");
+        System.out.println("\t<small>: path to directory with small files (or an archive or bundle, see pack)");
+        System.out.println("\t--allow-version-mismatch: use a bundle that was packed with another data-version of hp.obo");
+        System.out.println("\t<threads>: number of threads used to parse the small files (default: 1)");
+        System.out.println("\t<cache>: cache of parsed small files; only changed small files are parsed");
+        System.out.println("\t--streaming: write each small file to the big file as soon as it is parsed (needs less memory)");
+        System.out.println("\t--columnar: keep the annotations in a compact columnar store and report its estimated heap size");
+        System.out.println("\t--parallel-render: render the lines of the big file in chunks on the <threads> threads (same output)");
+        System.out.println("\t--disease-index: sort the lines by DatabaseID and write the offsets of the diseases to <out>.idx (not for .gz files)");
+        System.out.println("\t--shard: write shard i of N (0 <= i < N) to the output file, to be combined with merge (not with --streaming, --columnar, --disease-index or --qc-report)");
+        System.out.println("\t<level>, <KiB>: if the output file ends with .gz, it is compressed in blocks of <KiB> (default: 128) by the <threads> threads");
+        System.out.println("\t\twith compression level <level> (default: 6); the file can be read with gunzip");
         System.out.println("\t<xml>: path to Orphanet XML file");
+        System.out.println("\t<n>: maximum number of Q/C findings reported per check; further findings are only counted (default: 1000)");
+        System.out.println("\t<file>: Q/C report with all findings and the counts of all checks (JSON lines if the name ends with .json, tab-separated otherwise)");
+        System.out.println();
+        System.out.println("merge:");
+        System.out.println("\tjava -jar HPOWorkbench.jar merge [-o <out>] [-j <threads>] [--gzip-level <level>] [--gzip-block <KiB>] <shard> [<shard> ...]");
+        System.out.println("\t<shard>: the N shard files written by big-file --shard");
+        System.out.println("\t<out>: path of the merged big file (default: phenotype.hpoa); compressed as with big-file if it ends with .gz");
+        System.out.println();
+        System.out.println("diff:");
+        System.out.println("\tjava -jar HPOWorkbench.jar diff [-o <out>] <old> <new>");
+        System.out.println("\t<old>, <new>: the big files of the previous and of the current release (may end with .gz)");
+        System.out.println("\t<out>: annotations that were added, removed or changed, with counts per database (default: phenotype-diff.tsv)");
+        System.out.println();
+        System.out.println("validate:");
+        System.out.println("\tjava -jar HPOWorkbench.jar validate [-h <hp.obo>] [--max-findings <n>] <small> [<small> ...]");
+        System.out.println("\t<small>: small file to check (e.g., OMIM-600123.tab); exits with status 1 if a file fails Q/C");
+        System.out.println();
+        System.out.println("watch:");
+        System.out.println("\tjava -jar HPOWorkbench.jar watch [-h <hp.obo>] [-s <small>] [--max-findings <n>]");
+        System.out.println("\t<small>: directory with small files; each small file is checked as soon as it is saved, and hp.obo is reloaded when it changes");
+        System.out.println();
+        System.out.println("serve:");
+        System.out.println("\tjava -jar HPOWorkbench.jar serve [-h <hp.obo>] [-j <threads>] [--port <port>] [--max-findings <n>]");
+        System.out.println("\tPOST a small file to http://localhost:<port>/validate?name=<file name> to get the Q/C findings as JSON");
+        System.out.println("\t<threads>: number of threads that handle requests (default: 1); GET /metrics shows the latencies");
+        System.out.println();
+        System.out.println("pack:");
+        System.out.println("\tjava -jar HPOWorkbench.jar pack [-s <small>] [-j <threads>] [-o <bundle>]");
+        System.out.println("\t<small>: path to directory with small files");
+        System.out.println("\t<bundle>: bundle with all small files, which can be used with big-file -s (default: smallfiles.bundle)");
         System.out.println();
 
         System.exit(0);
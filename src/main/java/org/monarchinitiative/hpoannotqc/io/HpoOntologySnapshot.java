@@ -0,0 +1,268 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of the parsed HPO ({@link HpoTermIndex}), which is written next to {@code hp.obo} (as
+ * {@code hp.obo.snapshot}) the first time hp.obo is parsed. Later runs map the snapshot into memory instead of
+ * parsing hp.obo, as long as the snapshot is newer than hp.obo and was made from the same data-version. If hp.obo
+ * has no data-version, the CRC-32 checksum of hp.obo must instead be the same as the one in the snapshot. The
+ * snapshot is read directly from the mapped buffer. The file has the following layout (a string is an int with the
+ * number of bytes followed by the UTF-8 bytes):
+ * <pre>
+ * int    magic number ("HPOS")
+ * int    format version
+ * string data-version of hp.obo
+ * long   CRC-32 checksum of hp.obo (-1 if not known)
+ * int    number of meta info entries, followed by (string key, string value) for each entry
+ * int    number of terms n
+ * n x    (string id, string label, byte obsolete)       -- the dense index of a term is its position
+ * n x    (int number of parents, int[] parent indices)  -- is_a edges
+ * int    number of alt_ids, followed by (string alt_id, int index of the primary term) for each alt_id
+ * </pre>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public final class HpoOntologySnapshot {
+    private static final Logger logger = LogManager.getLogger();
+    /** Magic number at the start of a snapshot ("HPOS"). */
+    private static final int MAGIC=0x48504F53;
+    /** Version of the binary format. */
+    private static final int FORMAT_VERSION=2;
+    /** Checksum of a snapshot for which the checksum of hp.obo is not known. */
+    public static final long NO_CHECKSUM=-1L;
+    private static final String SNAPSHOT_SUFFIX=".snapshot";
+    private static final String DATA_VERSION="data-version";
+
+    private HpoOntologySnapshot() {
+    }
+
+    /**
+     * Load the HPO from the snapshot next to hp.obo if it is up to date, and otherwise parse hp.obo and write a
+     * new snapshot for the next run.
+     * @param hpOboPath path to hp.obo
+     * @return the terms of the HPO
+     * @throws IOException if hp.obo cannot be parsed
+     */
+    public static HpoTermIndex load(String hpOboPath) throws IOException {
+        Path obo = Paths.get(hpOboPath);
+        Path snapshot = getSnapshotPath(hpOboPath);
+        String dataVersion = readDataVersion(obo);
+        if (Files.isRegularFile(snapshot) &&
+                Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(obo))>=0) {
+            try {
+                // without a data-version, only the checksum tells whether hp.obo has changed
+                long checksum = dataVersion==null ? checksum(obo) : NO_CHECKSUM;
+                HpoTermIndex index = read(snapshot.toString(),dataVersion,checksum);
+                if (index!=null) {
+                    logger.trace("Loaded {} HPO terms from snapshot {}",index.size(),snapshot);
+                    return index;
+                }
+            } catch (IOException e) {
+                logger.warn("Could not read HPO snapshot {} ({}); parsing {}",snapshot,e.getMessage(),hpOboPath);
+            }
+        }
+        logger.trace("Parsing hp.obo ...");
+        HpoOntology ontology = new HpoOboParser(obo.toFile()).parse();
+        HpoTermIndex index = HpoTermIndex.of(ontology);
+        try {
+            write(index,snapshot.toString(),checksum(obo));
+        } catch (IOException e) {
+            logger.warn("Could not write HPO snapshot {}: {}",snapshot,e.getMessage());
+        }
+        return index;
+    }
+
+    /** @return path of the snapshot for hp.obo, e.g., data/hp.obo.snapshot */
+    public static Path getSnapshotPath(String hpOboPath) {
+        return Paths.get(hpOboPath+SNAPSHOT_SUFFIX);
+    }
+
+    /** @return the CRC-32 checksum of the contents of hp.obo */
+    static long checksum(Path obo) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[1<<16];
+        try (InputStream in = Files.newInputStream(obo)) {
+            int n;
+            while ((n=in.read(buf))>0) {
+                crc.update(buf,0,n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /** Write a snapshot for which the checksum of hp.obo is not known. */
+    public static void write(HpoTermIndex index, String path) throws IOException {
+        write(index,path,NO_CHECKSUM);
+    }
+
+    /**
+     * Write a snapshot. The snapshot is written to a temporary file that is then moved into place, so that a
+     * concurrent run never sees a partial snapshot.
+     * @param index the terms of the HPO
+     * @param path path of the snapshot
+     * @param oboChecksum CRC-32 checksum of the hp.obo from which the index was made ({@link #NO_CHECKSUM} if not known)
+     */
+    public static void write(HpoTermIndex index, String path, long oboChecksum) throws IOException {
+        Path tmp = Paths.get(path+".tmp");
+        Map<String,String> meta = new TreeMap<>(index.getMetaInfo());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out,meta.getOrDefault(DATA_VERSION,""));
+            out.writeLong(oboChecksum);
+            out.writeInt(meta.size());
+            for (Map.Entry<String,String> e : meta.entrySet()) {
+                writeString(out,e.getKey());
+                writeString(out,e.getValue());
+            }
+            int n = index.size();
+            out.writeInt(n);
+            for (int i=0;i<n;i++) {
+                writeString(out,index.getTermId(i).getIdWithPrefix());
+                writeString(out,index.getName(i)!=null ? index.getName(i) : "");
+                out.writeBoolean(index.isObsolete(i));
+            }
+            for (int i=0;i<n;i++) {
+                int[] parents = index.getParents(i);
+                out.writeInt(parents.length);
+                for (int p : parents) {
+                    out.writeInt(p);
+                }
+            }
+            Map<TermId,Integer> altIds = new TreeMap<>((a,b) -> a.getIdWithPrefix().compareTo(b.getIdWithPrefix()));
+            altIds.putAll(index.getAltIds());
+            out.writeInt(altIds.size());
+            for (Map.Entry<TermId,Integer> e : altIds.entrySet()) {
+                writeString(out,e.getKey().getIdWithPrefix());
+                out.writeInt(e.getValue());
+            }
+        }
+        Files.move(tmp,Paths.get(path),StandardCopyOption.REPLACE_EXISTING);
+        logger.trace("Wrote HPO snapshot with {} terms to {}",index.size(),path);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a snapshot without comparing the checksum of hp.obo.
+     * @see #read(String, String, long)
+     */
+    public static HpoTermIndex read(String path, String dataVersion) throws IOException {
+        return read(path,dataVersion,NO_CHECKSUM);
+    }
+
+    /**
+     * Read a snapshot by mapping it into memory and decoding the terms directly from the mapped buffer.
+     * @param path path to the snapshot
+     * @param dataVersion expected data-version of hp.obo (null to accept any version)
+     * @param oboChecksum expected CRC-32 checksum of hp.obo, which is compared if there is no data-version
+     *                    ({@link #NO_CHECKSUM} to accept any checksum)
+     * @return the terms of the HPO, or null if the snapshot was made from a different data-version or hp.obo
+     * @throws IOException if the snapshot cannot be read or is corrupted
+     */
+    public static HpoTermIndex read(String path, String dataVersion, long oboChecksum) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }
+        try {
+            return read(buffer,path,dataVersion,oboChecksum);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(String.format("Corrupted HPO snapshot %s: unexpected end of file",path));
+        }
+    }
+
+    private static HpoTermIndex read(MappedByteBuffer buffer, String path, String dataVersion, long oboChecksum) throws IOException {
+        if (buffer.remaining()<8 || buffer.getInt()!=MAGIC || buffer.getInt()!=FORMAT_VERSION) {
+            throw new IOException(String.format("%s is not an HPO snapshot of format version %d",path,FORMAT_VERSION));
+        }
+        byte[] scratch = new byte[256];
+        String version = readString(buffer,scratch,path);
+        long checksum = buffer.getLong();
+        if (dataVersion!=null && ! dataVersion.equals(version)) {
+            logger.info("Ignoring HPO snapshot {} for data-version {} (hp.obo has data-version {})",path,version,dataVersion);
+            return null;
+        }
+        if (dataVersion==null && oboChecksum!=NO_CHECKSUM && oboChecksum!=checksum) {
+            logger.info("Ignoring HPO snapshot {} because hp.obo has no data-version and its checksum has changed",path);
+            return null;
+        }
+        HpoTermIndex.Builder builder = new HpoTermIndex.Builder();
+        Map<String,String> meta = new TreeMap<>();
+        int n_meta = buffer.getInt();
+        for (int i=0;i<n_meta;i++) {
+            meta.put(readString(buffer,scratch,path),readString(buffer,scratch,path));
+        }
+        builder.setMetaInfo(meta);
+        int n = buffer.getInt();
+        TermId[] termIds = new TermId[n];
+        for (int i=0;i<n;i++) {
+            termIds[i] = TermId.constructWithPrefix(readString(buffer,scratch,path));
+            builder.addTerm(termIds[i],readString(buffer,scratch,path),buffer.get()!=0);
+        }
+        for (int i=0;i<n;i++) {
+            int n_parents = buffer.getInt();
+            for (int j=0;j<n_parents;j++) {
+                builder.addParent(termIds[i],termIds[checkIndex(buffer.getInt(),n,path)]);
+            }
+        }
+        int n_alt = buffer.getInt();
+        for (int i=0;i<n_alt;i++) {
+            TermId alt = TermId.constructWithPrefix(readString(buffer,scratch,path));
+            builder.addAltId(alt,termIds[checkIndex(buffer.getInt(),n,path)]);
+        }
+        return builder.build();
+    }
+
+    /** Decode a string at the position of the buffer, using scratch for the bytes if it is large enough. */
+    private static String readString(MappedByteBuffer buffer, byte[] scratch, String path) throws IOException {
+        int length = buffer.getInt();
+        if (length<0 || length>buffer.remaining()) {
+            throw new IOException(String.format("Corrupted HPO snapshot %s: string of %d bytes",path,length));
+        }
+        byte[] bytes = length<=scratch.length ? scratch : new byte[length];
+        buffer.get(bytes,0,length);
+        return new String(bytes,0,length,StandardCharsets.UTF_8);
+    }
+
+    private static int checkIndex(int i, int n, String path) throws IOException {
+        if (i<0 || i>=n) {
+            throw new IOException(String.format("Corrupted HPO snapshot %s: term index %d out of bounds",path,i));
+        }
+        return i;
+    }
+
+    /**
+     * @return the data-version from the header of hp.obo (which ends at the first stanza), or null if there is none
+     */
+    static String readDataVersion(Path obo) throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(obo, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line=br.readLine())!=null && ! line.startsWith("[")) {
+                if (line.startsWith(DATA_VERSION+":")) {
+                    return line.substring(DATA_VERSION.length()+1).trim();
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,195 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip-compressed output whose blocks are compressed on several threads, in the way of {@code pigz}. The
+ * data is cut into blocks of a fixed size, and each block is compressed into a complete gzip member (header,
+ * deflate data, CRC-32 and length). The members are written in order; a file of several members is read as one
+ * stream by {@code gunzip}, {@code zcat} and {@link java.util.zip.GZIPInputStream}. Since every block is compressed
+ * on its own, the output is a little larger than with a single gzip stream (about 20 bytes per block plus the
+ * matches that would have reached into the previous block).
+ * <p>
+ * At most two blocks per thread are compressed or waiting to be written at the same time. With one thread, the
+ * blocks are compressed by the writing thread. The stream must be closed to write the last block.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+    /** Default compression level (as with gzip). */
+    public static final int DEFAULT_LEVEL=6;
+    /** Default size of the uncompressed blocks (as with pigz). */
+    public static final int DEFAULT_BLOCK_SIZE=128*1024;
+    /** Number of blocks per thread that may be compressed before the first of them is written. */
+    private static final int BLOCKS_IN_FLIGHT_PER_THREAD=2;
+    private static final int GZIP_MAGIC=0x8b1f;
+    /** Value of the OS field of the gzip header (unknown). */
+    private static final int OS_UNKNOWN=255;
+
+    private final int level;
+    private final int numThreads;
+    /** The executor that compresses the blocks (null if the blocks are compressed by the writing thread). */
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+    private byte[] block;
+    private int length=0;
+    /** True if no block has been written yet, in which case {@link #close()} writes an empty member. */
+    private boolean empty=true;
+    private boolean closed=false;
+
+    /**
+     * @param out the stream to which the gzip members are written (closed by {@link #close()})
+     * @param level compression level from 0 (no compression) to 9 (best compression)
+     * @param blockSize size of the uncompressed blocks in bytes
+     * @param numThreads number of threads that compress the blocks
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int numThreads) {
+        super(out);
+        if (level<Deflater.NO_COMPRESSION || level>Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid gzip compression level: "+level);
+        }
+        if (blockSize<1) {
+            throw new IllegalArgumentException("Invalid gzip block size: "+blockSize);
+        }
+        this.level=level;
+        this.numThreads=Math.max(1,numThreads);
+        this.executor = this.numThreads>1 ? Executors.newFixedThreadPool(this.numThreads) : null;
+        this.block=new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length==block.length) {
+            submitBlock();
+        }
+        block[length++]=(byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len>0) {
+            if (length==block.length) {
+                submitBlock();
+            }
+            int n = Math.min(len,block.length-length);
+            System.arraycopy(b,off,block,length,n);
+            length+=n;
+            off+=n;
+            len-=n;
+        }
+    }
+
+    /** Write the blocks that have been compressed so far; the current block is not compressed before it is full. */
+    @Override
+    public void flush() throws IOException {
+        while (! inFlight.isEmpty() && inFlight.peek().isDone()) {
+            writeNextMember();
+        }
+        out.flush();
+    }
+
+    /** Compress and write the last block, wait for all blocks to be written, and close the underlying stream. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed=true;
+        try {
+            if (length>0 || empty) {
+                submitBlock();
+            }
+            while (! inFlight.isEmpty()) {
+                writeNextMember();
+            }
+            out.flush();
+        } finally {
+            if (executor!=null) {
+                executor.shutdownNow();
+            }
+            out.close();
+        }
+    }
+
+    /** Pass the current block to the compressing threads (or compress it) and start a new block. */
+    private void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int len = length;
+        empty=false;
+        if (executor==null) {
+            out.write(compressMember(data,len,level));
+            length=0;
+            return;
+        }
+        inFlight.add(executor.submit(() -> compressMember(data,len,level)));
+        block=new byte[data.length];
+        length=0;
+        if (inFlight.size()>=BLOCKS_IN_FLIGHT_PER_THREAD*numThreads) {
+            writeNextMember();
+        }
+    }
+
+    /** Wait for the oldest block to be compressed and write it. */
+    private void writeNextMember() throws IOException {
+        try {
+            out.write(inFlight.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress block",e.getCause());
+        }
+    }
+
+    /** @return the data {@code 0..len-1} as a complete gzip member */
+    static byte[] compressMember(byte[] data, int len, int level) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(len/2+64);
+        // header: magic, method (deflate), flags, modification time (none), extra flags, OS
+        writeShort(member,GZIP_MAGIC);
+        member.write(Deflater.DEFLATED);
+        member.write(0);
+        writeInt(member,0);
+        member.write(level==Deflater.BEST_COMPRESSION ? 2 : (level==Deflater.BEST_SPEED ? 4 : 0));
+        member.write(OS_UNKNOWN);
+        Deflater deflater = new Deflater(level,true);
+        try {
+            deflater.setInput(data,0,len);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64,Math.min(len,64*1024))];
+            while (! deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                member.write(buffer,0,n);
+            }
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data,0,len);
+        writeInt(member,(int) crc.getValue());
+        writeInt(member,len);
+        return member.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int s) {
+        out.write(s & 0xff);
+        out.write((s>>>8) & 0xff);
+    }
+
+    /** Write an int in little-endian order, as used by gzip. */
+    private static void writeInt(ByteArrayOutputStream out, int i) {
+        writeShort(out,i & 0xffff);
+        writeShort(out,(i>>>16) & 0xffff);
+    }
+}
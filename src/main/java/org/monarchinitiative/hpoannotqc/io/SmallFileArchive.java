@@ -0,0 +1,373 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Provides the V2 small files of a {@code .zip} or {@code .tar.gz} snapshot of the hpo-annotation-data repository
+ * without extracting them to disk. The small files are the {@code .tab} entries of the archive directory that
+ * contains {@code omit-list.txt} (usually {@code rare-diseases/annotated}). If the archive does not contain an
+ * omit list, the directory with the largest number of {@code .tab} entries is used.
+ * <p>
+ * Entries of a zip archive are read directly from the archive when they are opened. A tar.gz archive cannot be read
+ * at random: the constructor only lists its entries, and {@link #open(String)} then reads the archive forward up to
+ * the requested entry. Entries that are passed on the way are kept in memory until they are opened, which for an
+ * archive with sorted entries (such as one made by {@code git archive}) are only the few entries that other threads
+ * are about to open. {@link #open(String)} can be called concurrently.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class SmallFileArchive implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+    private static final String OMIT_LIST="omit-list.txt";
+    private static final String SMALL_FILE_SUFFIX=".tab";
+    private static final int TAR_BLOCK_SIZE=512;
+
+    /** Path to the archive file. */
+    private final String archivePath;
+    /** Open zip file (null for tar.gz archives). */
+    private final ZipFile zipFile;
+    /** Sorted names of the small file entries, including those on the omit list. */
+    private final List<String> smallFileNames;
+    /** Contents of omit-list.txt (null if the archive does not have one). */
+    private final byte[] omitList;
+    /** Names of the small files of a tar.gz archive that will be opened but have not yet been reached. */
+    private final Set<String> unopened;
+    /** Small files of a tar.gz archive that were passed while reading forward to another entry. */
+    private final Map<String,byte[]> readAhead=new HashMap<>();
+    /** Reader that is positioned after the last entry read from a tar.gz archive (null until the first entry is opened). */
+    private TarReader tarReader;
+
+    /** @return true if the path ends with .zip, .tar.gz or .tgz */
+    static boolean isArchive(String path) {
+        String lc = path.toLowerCase();
+        return lc.endsWith(".zip") || lc.endsWith(".tar.gz") || lc.endsWith(".tgz");
+    }
+
+    /**
+     * Read the list of entries of the archive (for a tar.gz archive, this decompresses the archive once without
+     * keeping the small files).
+     * @param path path to a .zip, .tar.gz or .tgz file
+     */
+    SmallFileArchive(String path) throws IOException {
+        this.archivePath=path;
+        Map<String,byte[]> omitLists = new HashMap<>();
+        List<String> tabNames = new ArrayList<>();
+        if (path.toLowerCase().endsWith(".zip")) {
+            this.zipFile = new ZipFile(path);
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) continue;
+                if (isOmitList(entry.getName())) {
+                    try (InputStream is = zipFile.getInputStream(entry)) {
+                        omitLists.put(entry.getName(), readFully(is));
+                    }
+                } else if (entry.getName().endsWith(SMALL_FILE_SUFFIX)) {
+                    tabNames.add(entry.getName());
+                }
+            }
+        } else {
+            this.zipFile = null;
+            try (TarReader tar = openTar(path)) {
+                String name;
+                while ((name=tar.next())!=null) {
+                    if (isOmitList(name)) {
+                        omitLists.put(name, tar.read());
+                    } else if (name.endsWith(SMALL_FILE_SUFFIX)) {
+                        tabNames.add(name);
+                    }
+                }
+            }
+        }
+        String directory = selectSmallFileDirectory(omitLists.keySet(), tabNames);
+        this.omitList = omitLists.get(directory + OMIT_LIST);
+        List<String> names = new ArrayList<>();
+        for (String name : tabNames) {
+            if (directory(name).equals(directory)) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+        this.smallFileNames = names;
+        this.unopened = zipFile==null ? new HashSet<>(names) : Collections.emptySet();
+        logger.info("Found {} small files in directory \"{}\" of {}", names.size(), directory, archivePath);
+    }
+
+    /** @return sorted names of the small file entries (the omit list has not been applied) */
+    List<String> getSmallFileNames() {
+        return smallFileNames;
+    }
+
+    /**
+     * Restrict the small files that will be opened, e.g., to those that are not on the omit list. The other small
+     * files of a tar.gz archive are then skipped rather than kept in memory when the archive is read forward.
+     * @param names names of the small file entries that will be opened
+     */
+    synchronized void restrictTo(Collection<String> names) {
+        if (zipFile==null) {
+            unopened.retainAll(new HashSet<>(names));
+        }
+    }
+
+    /** @return a reader for the omit-list.txt of the small file directory, or empty if there is none */
+    Optional<BufferedReader> openOmitList() {
+        if (omitList==null) {
+            return Optional.empty();
+        }
+        return Optional.of(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(omitList), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param name name of a small file entry, as returned by {@link #getSmallFileNames()} (an entry of a tar.gz
+     *             archive can be opened only once)
+     * @return stream with the contents of the entry, which must be closed by the caller
+     */
+    InputStream open(String name) throws IOException {
+        if (zipFile!=null) {
+            ZipEntry entry = zipFile.getEntry(name);
+            if (entry==null) {
+                throw new FileNotFoundException(String.format("No entry %s in %s", name, archivePath));
+            }
+            return zipFile.getInputStream(entry);
+        }
+        return new ByteArrayInputStream(readTarEntry(name));
+    }
+
+    /**
+     * Read the tar.gz archive forward up to the entry. Small files that are passed on the way and will be opened
+     * later are kept in {@link #readAhead}.
+     */
+    private synchronized byte[] readTarEntry(String name) throws IOException {
+        byte[] data = readAhead.remove(name);
+        if (data!=null) {
+            return data;
+        }
+        if (! unopened.remove(name)) {
+            throw new FileNotFoundException(String.format("No entry %s in %s (or it was already opened)", name, archivePath));
+        }
+        if (tarReader==null) {
+            tarReader = openTar(archivePath);
+        }
+        String next;
+        while ((next=tarReader.next())!=null) {
+            if (next.equals(name)) {
+                return tarReader.read();
+            }
+            if (unopened.remove(next)) {
+                readAhead.put(next, tarReader.read());
+            }
+        }
+        throw new EOFException(String.format("Entry %s not found when reading %s again", name, archivePath));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        readAhead.clear();
+        if (tarReader!=null) {
+            tarReader.close();
+            tarReader=null;
+        }
+        if (zipFile!=null) {
+            zipFile.close();
+        }
+    }
+
+    private static TarReader openTar(String path) throws IOException {
+        return new TarReader(new BufferedInputStream(new GZIPInputStream(new FileInputStream(path), 1<<16), 1<<16));
+    }
+
+    private static boolean isOmitList(String name) {
+        return name.equals(OMIT_LIST) || name.endsWith("/" + OMIT_LIST);
+    }
+
+    /** @return the directory part of an entry name including the final slash, e.g., rare-diseases/annotated/ */
+    private static String directory(String name) {
+        return name.substring(0, name.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return the directory of the omit list that is in the same directory as small files, or else the directory
+     * with the most small files
+     */
+    private static String selectSmallFileDirectory(Set<String> omitLists, List<String> tabNames) {
+        Map<String,Integer> counts = new HashMap<>();
+        for (String name : tabNames) {
+            counts.merge(directory(name), 1, Integer::sum);
+        }
+        String best = "";
+        int bestCount = -1;
+        for (String omit : omitLists) {
+            String dir = directory(omit);
+            int c = counts.getOrDefault(dir, 0);
+            if (c>bestCount) {
+                best = dir;
+                bestCount = c;
+            }
+        }
+        if (bestCount>0) {
+            return best;
+        }
+        logger.warn("No {} next to the small files, using the directory with the most .tab files", OMIT_LIST);
+        for (Map.Entry<String,Integer> e : counts.entrySet()) {
+            if (e.getValue()>bestCount) {
+                best = e.getKey();
+                bestCount = e.getValue();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reads the entries of a (decompressed) tar stream one at a time. Regular files, GNU long names and pax path
+     * records are supported, which covers the archives created by GNU tar and by git archive.
+     */
+    private static final class TarReader implements Closeable {
+        private final InputStream in;
+        private final byte[] header = new byte[TAR_BLOCK_SIZE];
+        /** Size of the current entry. */
+        private long size=0;
+        /** True if the data of the current entry has not been read yet. */
+        private boolean unread=false;
+
+        TarReader(InputStream in) {
+            this.in=in;
+        }
+
+        /** @return the name of the next regular file, or null at the end of the archive */
+        String next() throws IOException {
+            if (unread) {
+                skipFully(in, padded(size));
+                unread=false;
+            }
+            String longName = null;
+            while (readBlock(in, header)) {
+                if (header[0]==0) {
+                    return null; // end of archive
+                }
+                size = parseOctal(header, 124, 12);
+                char type = (char) header[156];
+                String name = longName!=null ? longName : headerName(header);
+                longName = null;
+                if (type=='L' || type=='x') {
+                    byte[] data = readEntry(in, size);
+                    longName = type=='L' ? cString(data) : paxPath(data);
+                    continue;
+                }
+                if (type=='0' || type==0) {
+                    unread=true;
+                    return name;
+                }
+                skipFully(in, padded(size));
+            }
+            return null;
+        }
+
+        /** @return the data of the entry that was returned by the last call of {@link #next()} */
+        byte[] read() throws IOException {
+            unread=false;
+            return readEntry(in, size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int off = 0;
+        while (off<block.length) {
+            int n = in.read(block, off, block.length - off);
+            if (n<0) {
+                if (off==0) return false;
+                throw new EOFException("Truncated tar header");
+            }
+            off += n;
+        }
+        return true;
+    }
+
+    /** Read the data of an entry and skip the padding up to the next block. */
+    private static byte[] readEntry(InputStream in, long size) throws IOException {
+        if (size>Integer.MAX_VALUE) {
+            throw new IOException("Tar entry too large: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        new DataInputStream(in).readFully(data);
+        skipFully(in, padded(size) - size);
+        return data;
+    }
+
+    private static long padded(long size) {
+        return (size + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n>0) {
+            long skipped = in.skip(n);
+            if (skipped<=0) {
+                if (in.read()<0) throw new EOFException("Truncated tar entry");
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static long parseOctal(byte[] header, int offset, int length) {
+        long value = 0;
+        for (int i=offset;i<offset+length;i++) {
+            byte b = header[i];
+            if (b>='0' && b<='7') {
+                value = 8 * value + (b - '0');
+            } else if (value>0 || (b!=' ' && b!=0)) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    /** @return the name of a ustar header, which is the prefix (if present), a slash and the name */
+    private static String headerName(byte[] header) {
+        String name = cString(Arrays.copyOfRange(header, 0, 100));
+        if (header[257]=='u' && header[258]=='s' && header[259]=='t' && header[345]!=0) {
+            name = cString(Arrays.copyOfRange(header, 345, 500)) + "/" + name;
+        }
+        return name;
+    }
+
+    private static String cString(byte[] data) {
+        int len = 0;
+        while (len<data.length && data[len]!=0) len++;
+        return new String(data, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /** @return the path record of pax extended header data (records have the form "length path=value\n") */
+    private static String paxPath(byte[] data) {
+        String records = new String(data, StandardCharsets.UTF_8);
+        for (String record : records.split("\n")) {
+            int eq = record.indexOf(" path=");
+            if (eq>=0) {
+                return record.substring(eq + " path=".length());
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n=is.read(buffer))>0) {
+            bos.write(buffer, 0, n);
+        }
+        return bos.toByteArray();
+    }
+}
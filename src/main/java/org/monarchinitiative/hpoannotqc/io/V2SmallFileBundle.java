@@ -0,0 +1,216 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.smallfile.AnnotationInterner;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A single file that contains all V2 small files of a directory in the binary format of {@link V2SmallFileCodec},
+ * which is created by the {@code pack} command. Reading the bundle avoids opening and tokenizing thousands of
+ * small files. The file has the following layout:
+ * <pre>
+ * int    magic number ("HPAB")
+ * int    format version
+ * UTF    data-version of the hp.obo used to parse the small files
+ * int    number of small files n
+ * n x    (UTF basename, long offset, int length, int skipped lines)   -- the index, sorted by basename
+ * ...    the encoded small files, at the given offsets relative to the end of the index
+ * </pre>
+ * The reader maps the file into memory and reads only the index when the bundle is opened. A single disease can
+ * then be decoded by its ID (e.g., OMIM:600123) without reading the other diseases. The bundle stores the parsed
+ * lines only; the number of lines that the parser skipped (unknown phenotype or malformed onset ids) is kept in the
+ * index, so that they are still reported when the big file is made from the bundle.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class V2SmallFileBundle {
+    private static final Logger logger = LogManager.getLogger();
+    /** Magic number at the start of a bundle ("HPAB"). */
+    private static final int MAGIC=0x48504142;
+    /** Version of the binary format. Increment if the format of {@link V2SmallFileCodec} changes. */
+    private static final int FORMAT_VERSION=2;
+    /** The bundle file mapped into memory. */
+    private final MappedByteBuffer buffer;
+    private final String dataVersion;
+    /** Basenames of the small files (e.g., OMIM-600123.tab), sorted. */
+    private final List<String> basenames;
+    /** Absolute position of each small file in {@link #buffer}. */
+    private final int[] offsets;
+    private final int[] lengths;
+    /** Number of lines of each small file that were skipped by the parser when the bundle was packed. */
+    private final int[] skippedLines;
+    /** Key: disease ID such as OMIM:600123; value: index in {@link #basenames}. */
+    private final Map<String,Integer> diseaseIndex;
+
+    /**
+     * Map a bundle into memory and read its index.
+     * @param path path to a bundle created by {@link #write(String, List, String)}
+     */
+    public V2SmallFileBundle(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size()>Integer.MAX_VALUE) {
+                throw new IOException(String.format("Bundle %s is larger than 2 GB",path));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }
+        ByteBuffer header = buffer.duplicate();
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(header));
+        if (in.readInt()!=MAGIC || in.readInt()!=FORMAT_VERSION) {
+            throw new IOException(String.format("%s is not a small file bundle of format version %d",path,FORMAT_VERSION));
+        }
+        dataVersion=in.readUTF();
+        int n=in.readInt();
+        basenames=new ArrayList<>(n);
+        long[] relativeOffsets=new long[n];
+        lengths=new int[n];
+        skippedLines=new int[n];
+        diseaseIndex=new HashMap<>();
+        for (int i=0;i<n;i++) {
+            String basename=in.readUTF();
+            basenames.add(basename);
+            relativeOffsets[i]=in.readLong();
+            lengths[i]=in.readInt();
+            skippedLines[i]=in.readInt();
+            diseaseIndex.put(diseaseId(basename),i);
+        }
+        int dataStart=header.position();
+        offsets=new int[n];
+        for (int i=0;i<n;i++) {
+            long offset=dataStart+relativeOffsets[i];
+            if (offset+lengths[i]>buffer.capacity()) {
+                throw new IOException(String.format("Corrupted bundle %s: record %s is out of bounds",path,basenames.get(i)));
+            }
+            offsets[i]=(int)offset;
+        }
+        logger.trace("Opened bundle {} with {} small files (hp.obo version {})",path,n,dataVersion);
+    }
+
+    /** @return true if path is a regular file that starts with the magic number of a bundle */
+    public static boolean isBundle(String path) {
+        Path p = Paths.get(path);
+        if (! Files.isRegularFile(p)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(p))) {
+            return in.readInt()==MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Write the small files to a bundle without skipped lines. */
+    public static void write(String path, List<V2SmallFile> v2files, String dataVersion) throws IOException {
+        write(path,v2files,dataVersion,Collections.emptyMap());
+    }
+
+    /**
+     * Write the small files to a bundle. The small files are stored in the order of their basenames.
+     * @param path path of the bundle
+     * @param v2files the small files
+     * @param dataVersion data-version of the hp.obo used to parse the small files
+     * @param skippedLines key: basename of a small file; value: number of lines that the parser skipped
+     */
+    public static void write(String path, List<V2SmallFile> v2files, String dataVersion,
+                             Map<String,Integer> skippedLines) throws IOException {
+        List<V2SmallFile> sorted = new ArrayList<>(v2files);
+        sorted.sort(Comparator.comparing(V2SmallFile::getBasename));
+        List<byte[]> records = new ArrayList<>(sorted.size());
+        for (V2SmallFile v2sf : sorted) {
+            records.add(V2SmallFileCodec.encode(v2sf));
+        }
+        Path tmp = Paths.get(path+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(dataVersion!=null ? dataVersion : "");
+            out.writeInt(sorted.size());
+            long offset=0;
+            for (int i=0;i<sorted.size();i++) {
+                out.writeUTF(sorted.get(i).getBasename());
+                out.writeLong(offset);
+                out.writeInt(records.get(i).length);
+                out.writeInt(skippedLines.getOrDefault(sorted.get(i).getBasename(),0));
+                offset+=records.get(i).length;
+            }
+            for (byte[] record : records) {
+                out.write(record);
+            }
+        }
+        Files.move(tmp,Paths.get(path),StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Wrote {} small files to bundle {}",sorted.size(),path);
+    }
+
+    /** @return the data-version of the hp.obo file that was used to parse the small files */
+    public String getDataVersion() {
+        return dataVersion;
+    }
+
+    /** @return number of small files in the bundle */
+    public int size() {
+        return basenames.size();
+    }
+
+    /**
+     * @param basename basename of a small file, e.g., OMIM-600123.tab
+     * @return number of lines of the small file that the parser skipped when the bundle was packed
+     */
+    public int getNumberOfSkippedLines(String basename) {
+        Integer i = diseaseIndex.get(diseaseId(basename));
+        return i!=null ? skippedLines[i] : 0;
+    }
+
+    /** @return total number of lines that the parser skipped when the bundle was packed */
+    public int getNumberOfSkippedLines() {
+        int n=0;
+        for (int s : skippedLines) {
+            n+=s;
+        }
+        return n;
+    }
+
+    /** @return sorted basenames of the small files, e.g., OMIM-600123.tab */
+    public List<String> getBasenames() {
+        return Collections.unmodifiableList(basenames);
+    }
+
+    /**
+     * Decode the i'th small file. This method can be called concurrently.
+     * @param interner canonical instances of the values (may be null)
+     */
+    public V2SmallFile get(int i, AnnotationInterner interner) throws IOException {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offsets[i]);
+        record.limit(offsets[i]+lengths[i]);
+        return V2SmallFileCodec.read(new DataInputStream(new ByteBufferInputStream(record)),interner);
+    }
+
+    /** @return the small file with the given basename (e.g., OMIM-600123.tab), or empty if it is not in the bundle */
+    Optional<V2SmallFile> getByBasename(String basename, AnnotationInterner interner) throws IOException {
+        return getDisease(diseaseId(basename),interner);
+    }
+
+    /**
+     * @param diseaseId a disease ID such as OMIM:600123
+     * @param interner canonical instances of the values (may be null)
+     * @return the small file of the disease, or empty if the disease is not in the bundle
+     */
+    public Optional<V2SmallFile> getDisease(String diseaseId, AnnotationInterner interner) throws IOException {
+        Integer i = diseaseIndex.get(diseaseId);
+        if (i==null) {
+            return Optional.empty();
+        }
+        return Optional.of(get(i,interner));
+    }
+
+    /** @return the disease ID for a basename, e.g., OMIM:600123 for OMIM-600123.tab */
+    private static String diseaseId(String basename) {
+        return basename.replace(".tab","").replaceFirst("-",":");
+    }
+}
@@ -0,0 +1,219 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.smallfile.AnnotationInterner;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An on-disk cache of parsed {@link V2SmallFile} objects. Each cached small file is keyed by its absolute path,
+ * size and modification time, and the whole cache is keyed by the {@code data-version} of {@code hp.obo}
+ * (the parser skips annotations to terms that are not in the ontology, so the parse result depends on the
+ * ontology). If the ontology version changes, the entire cache is discarded. Small files whose size or
+ * modification time changed are parsed again and replace the cached record.
+ * <p>
+ * The cache is thread-safe, so that it can be used by the parallel ingestion of {@link V2SmallFileIngestor}.
+ * Only records that were used or added during the current run are written by {@link #save()}, so that deleted
+ * small files drop out of the cache.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class V2SmallFileCache {
+    private static final Logger logger = LogManager.getLogger();
+    /** Magic number at the start of the cache file ("HPAC"). */
+    private static final int MAGIC=0x48504143;
+    /** Version of the binary format. Increment if the record layout or the format of {@link V2SmallFileCodec} changes. */
+    private static final int FORMAT_VERSION=2;
+    /** Path to the cache file. */
+    private final Path cachePath;
+    /** The data-version of hp.obo that was used to parse the small files. */
+    private final String ontologyVersion;
+    /** Records read from the cache file. Key: absolute path of the small file. */
+    private final Map<String,CacheRecord> storedRecords=new ConcurrentHashMap<>();
+    /** Records used or created during the current run. These are written by {@link #save()}. */
+    private final Map<String,CacheRecord> currentRecords=new ConcurrentHashMap<>();
+    private final AtomicInteger n_hits=new AtomicInteger();
+    private final AtomicInteger n_misses=new AtomicInteger();
+
+    /** The cached data for one small file. */
+    private static class CacheRecord {
+        final long size;
+        final long lastModified;
+        /** Number of lines that the parser skipped, so that a cache hit reports the same count as a parse. */
+        final int n_skipped;
+        final byte[] data;
+        CacheRecord(long size, long lastModified, int n_skipped, byte[] data) {
+            this.size=size;
+            this.lastModified=lastModified;
+            this.n_skipped=n_skipped;
+            this.data=data;
+        }
+    }
+
+    /**
+     * Open the cache at the given path. If the file exists and was created with the same version of hp.obo, the
+     * cached records are loaded; otherwise the cache starts out empty.
+     * @param path path to the cache file (which need not exist)
+     * @param ontologyVersion the data-version of hp.obo
+     */
+    public V2SmallFileCache(String path, String ontologyVersion) {
+        this.cachePath=Paths.get(path);
+        this.ontologyVersion=ontologyVersion;
+        if (Files.exists(cachePath)) {
+            load();
+        }
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cachePath)))) {
+            if (in.readInt()!=MAGIC || in.readInt()!=FORMAT_VERSION) {
+                logger.warn("Ignoring small file cache at {} because it has an unknown format",cachePath);
+                return;
+            }
+            String version = in.readUTF();
+            if (! version.equals(ontologyVersion)) {
+                logger.info("Discarding small file cache for hp.obo version {} (current version: {})",version,ontologyVersion);
+                return;
+            }
+            int n = in.readInt();
+            for (int i=0;i<n;i++) {
+                String key=in.readUTF();
+                long size=in.readLong();
+                long lastModified=in.readLong();
+                int n_skipped=in.readInt();
+                byte[] data=new byte[in.readInt()];
+                in.readFully(data);
+                storedRecords.put(key,new CacheRecord(size,lastModified,n_skipped,data));
+            }
+            logger.trace("Loaded {} cached small files from {}",n,cachePath);
+        } catch (IOException e) {
+            logger.warn("Could not read small file cache at {} ({}); starting with an empty cache",cachePath,e.getMessage());
+            storedRecords.clear();
+        }
+    }
+
+    /**
+     * @param smallFilePath path to a V2 small file
+     * @return the cached small file if the file has not changed since it was cached, otherwise empty
+     */
+    public Optional<V2SmallFile> get(String smallFilePath) {
+        return get(smallFilePath,null);
+    }
+
+    /**
+     * @param smallFilePath path to a V2 small file
+     * @param interner canonical instances of the values of the cached small file (may be null)
+     * @return the cached small file if the file has not changed since it was cached, otherwise empty
+     */
+    public Optional<V2SmallFile> get(String smallFilePath, AnnotationInterner interner) {
+        Path path = Paths.get(smallFilePath).toAbsolutePath();
+        String key = path.toString();
+        CacheRecord record = storedRecords.get(key);
+        if (record!=null) {
+            try {
+                if (record.size==Files.size(path) && record.lastModified==Files.getLastModifiedTime(path).toMillis()) {
+                    V2SmallFile v2sf = V2SmallFileCodec.decode(record.data,interner);
+                    currentRecords.put(key,record);
+                    n_hits.incrementAndGet();
+                    return Optional.of(v2sf);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not use cached record for {}: {}",smallFilePath,e.getMessage());
+            }
+        }
+        n_misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * @param smallFilePath path to a V2 small file that was returned by {@link #get(String,AnnotationInterner)}
+     * or added by {@link #put(String,V2SmallFile,int)} during the current run
+     * @return number of lines that the parser skipped when the small file was cached (0 if it is not in the cache)
+     */
+    public int getNumberOfSkippedLines(String smallFilePath) {
+        CacheRecord record = currentRecords.get(Paths.get(smallFilePath).toAbsolutePath().toString());
+        return record!=null ? record.n_skipped : 0;
+    }
+
+    /**
+     * Add a freshly parsed small file without skipped lines to the cache.
+     * @param smallFilePath path to the V2 small file
+     * @param v2sf the corresponding parsed small file
+     */
+    public void put(String smallFilePath, V2SmallFile v2sf) {
+        put(smallFilePath,v2sf,0);
+    }
+
+    /**
+     * Add a freshly parsed small file to the cache.
+     * @param smallFilePath path to the V2 small file
+     * @param v2sf the corresponding parsed small file
+     * @param n_skipped number of lines that the parser skipped
+     */
+    public void put(String smallFilePath, V2SmallFile v2sf, int n_skipped) {
+        Path path = Paths.get(smallFilePath).toAbsolutePath();
+        try {
+            CacheRecord record = new CacheRecord(Files.size(path),
+                    Files.getLastModifiedTime(path).toMillis(),
+                    n_skipped,
+                    V2SmallFileCodec.encode(v2sf));
+            currentRecords.put(path.toString(),record);
+        } catch (IOException e) {
+            logger.warn("Could not cache small file {}: {}",smallFilePath,e.getMessage());
+        }
+    }
+
+    /** Remove all cached records and delete the cache file. */
+    public void invalidate() throws IOException {
+        storedRecords.clear();
+        currentRecords.clear();
+        Files.deleteIfExists(cachePath);
+        logger.info("Invalidated small file cache at {}",cachePath);
+    }
+
+    /**
+     * Write the records of the current run to the cache file. The records are sorted by path so that the cache
+     * file does not depend on the order in which the small files were parsed.
+     */
+    public void save() throws IOException {
+        Path tmp = Paths.get(cachePath.toString()+".tmp");
+        Map<String,CacheRecord> sorted = new TreeMap<>(currentRecords);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(ontologyVersion);
+            out.writeInt(sorted.size());
+            for (Map.Entry<String,CacheRecord> e : sorted.entrySet()) {
+                CacheRecord record = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(record.size);
+                out.writeLong(record.lastModified);
+                out.writeInt(record.n_skipped);
+                out.writeInt(record.data.length);
+                out.write(record.data);
+            }
+        }
+        Files.move(tmp,cachePath,StandardCopyOption.REPLACE_EXISTING);
+        logger.trace("Wrote {} small files to cache at {}",sorted.size(),cachePath);
+    }
+
+    public int getHits() { return n_hits.get(); }
+
+    public int getMisses() { return n_misses.get(); }
+
+    /** @return a summary such as "Small file cache: 3500 hits, 12 misses (hit ratio 99.7%)" */
+    public String getHitMissReport() {
+        int hits=n_hits.get();
+        int total=hits+n_misses.get();
+        double ratio = total>0 ? 100.0*hits/total : 0.0;
+        return String.format("Small file cache: %d hits, %d misses (hit ratio %.1f%%)",hits,total-hits,ratio);
+    }
+}
@@ -0,0 +1,171 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.monarchinitiative.hpoannotqc.smallfile.AnnotationInterner;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a {@link V2SmallFile}. Each record has its own string dictionary: a String that
+ * occurs more than once in a small file (the disease ID and name, evidence codes, publications, biocuration
+ * entries, ...) is written once and then referred to by its index. Empty Strings are encoded as a single byte.
+ * Decoding therefore also returns one shared instance for repeated values of a small file.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class V2SmallFileCodec {
+    private final static String EMPTY_STRING="";
+    /** Code for the empty string. */
+    private final static int EMPTY=0;
+    /** Code for a string that is written inline (and added to the dictionary). */
+    private final static int INLINE=1;
+    /** Codes greater than or equal to this offset refer to the dictionary. */
+    private final static int DICTIONARY_OFFSET=2;
+
+    private V2SmallFileCodec() {
+    }
+
+    /** @return the binary encoding of the small file */
+    static byte[] encode(V2SmallFile v2sf) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256*(1+v2sf.getNumberOfAnnotations()));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(v2sf,out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen for a ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return the small file that was encoded with {@link #encode(V2SmallFile)} */
+    static V2SmallFile decode(byte[] bytes) throws IOException {
+        return decode(bytes,null);
+    }
+
+    /** Decode a small file, resolving the values with the interner (which may be null). */
+    static V2SmallFile decode(byte[] bytes, AnnotationInterner interner) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)),interner);
+    }
+
+    static void write(V2SmallFile v2sf, DataOutput out) throws IOException {
+        Map<String,Integer> dictionary = new HashMap<>();
+        out.writeUTF(v2sf.getBasename());
+        List<V2SmallFileEntry> entries = v2sf.getOriginalEntryList();
+        writeVarInt(out,entries.size());
+        for (V2SmallFileEntry entry : entries) {
+            writeString(out,dictionary,entry.getDiseaseID());
+            writeString(out,dictionary,entry.getDiseaseName());
+            writeString(out,dictionary,entry.getPhenotypeId().getIdWithPrefix());
+            writeString(out,dictionary,entry.getPhenotypeName());
+            writeString(out,dictionary,entry.getAgeOfOnsetId());
+            writeString(out,dictionary,entry.getAgeOfOnsetName());
+            writeString(out,dictionary,entry.getFrequencyModifier());
+            writeString(out,dictionary,entry.getSex());
+            writeString(out,dictionary,entry.getNegation());
+            writeString(out,dictionary,entry.getModifier());
+            writeString(out,dictionary,entry.getDescription());
+            writeString(out,dictionary,entry.getPublication());
+            writeString(out,dictionary,entry.getEvidenceCode());
+            writeString(out,dictionary,entry.getBiocuration());
+        }
+    }
+
+    static V2SmallFile read(DataInput in) throws IOException {
+        return read(in,null);
+    }
+
+    static V2SmallFile read(DataInput in, AnnotationInterner interner) throws IOException {
+        List<String> dictionary = new ArrayList<>();
+        String basename = in.readUTF();
+        int n = readVarInt(in);
+        List<V2SmallFileEntry> entries = new ArrayList<>(n);
+        for (int i=0;i<n;i++) {
+            String diseaseID=readString(in,dictionary,interner);
+            String diseaseName=readString(in,dictionary,interner);
+            String phenotypeIdString=readString(in,dictionary,null);
+            TermId phenotypeId=interner!=null ? interner.termId(phenotypeIdString) : TermId.constructWithPrefix(phenotypeIdString);
+            String phenotypeName=readString(in,dictionary,interner);
+            String ageOfOnsetId=readString(in,dictionary,interner);
+            String ageOfOnsetName=readString(in,dictionary,interner);
+            String frequency=readString(in,dictionary,interner);
+            String sex=readString(in,dictionary,interner);
+            String negation=readString(in,dictionary,interner);
+            String modifier=readString(in,dictionary,interner);
+            String description=readString(in,dictionary,null);
+            String publication=readString(in,dictionary,interner);
+            String evidenceCode=readString(in,dictionary,interner);
+            String biocuration=readString(in,dictionary,interner);
+            V2SmallFileEntry.Builder builder=new V2SmallFileEntry.Builder(diseaseID,diseaseName,phenotypeId,phenotypeName,evidenceCode,publication,biocuration)
+                    .ageOfOnsetId(ageOfOnsetId)
+                    .ageOfOnsetName(ageOfOnsetName)
+                    .frequencyString(frequency)
+                    .sex(sex)
+                    .negation(negation)
+                    .modifier(modifier)
+                    .description(description);
+            entries.add(builder.build());
+        }
+        return new V2SmallFile(basename,entries);
+    }
+
+    private static void writeString(DataOutput out, Map<String,Integer> dictionary, String s) throws IOException {
+        if (s==null || s.isEmpty()) {
+            writeVarInt(out,EMPTY);
+            return;
+        }
+        Integer index = dictionary.get(s);
+        if (index!=null) {
+            writeVarInt(out,DICTIONARY_OFFSET+index);
+        } else {
+            writeVarInt(out,INLINE);
+            out.writeUTF(s);
+            dictionary.put(s,dictionary.size());
+        }
+    }
+
+    /** Read a string; strings that are read inline are resolved with the interner unless it is null. */
+    private static String readString(DataInput in, List<String> dictionary, AnnotationInterner interner) throws IOException {
+        int code = readVarInt(in);
+        if (code==EMPTY) {
+            return EMPTY_STRING;
+        } else if (code==INLINE) {
+            String s = in.readUTF();
+            if (interner!=null) {
+                s=interner.intern(s);
+            }
+            dictionary.add(s);
+            return s;
+        } else {
+            int index=code-DICTIONARY_OFFSET;
+            if (index>=dictionary.size()) {
+                throw new IOException("Corrupted small file record: invalid string reference "+index);
+            }
+            return dictionary.get(index);
+        }
+    }
+
+    /** Write a non-negative int using 7 bits per byte (small values take a single byte). */
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value=0;
+        for (int shift=0; shift<32; shift+=7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80)==0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+}
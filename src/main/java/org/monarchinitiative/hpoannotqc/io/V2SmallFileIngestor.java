@@ -2,8 +2,9 @@ package org.monarchinitiative.hpoannotqc.io;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.smallfile.AnnotationInterner;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -13,40 +14,194 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This class coordinates the input of all the V2 small files. If an
  * {@code omit-list.txt} is provided by the user, then these files are
  * omitted. The output of this class is a list of {@link V2SmallFile} objects
+ * that is sorted by the path of the small files. If more than one worker thread
+ * is requested, the small files are parsed concurrently, but the order of the
+ * output list is the same as with sequential parsing.
+ * <p>
+ * The small files are parsed the first time {@link #getV2SmallFileEntries()} is called. Alternatively,
+ * {@link #streamV2SmallFiles(int, SmallFileConsumer)} passes the small files one at a time to a consumer without
+ * keeping them in memory.
+ * </p>
+ * <p>
+ * The small files can be read from a directory, from a zip or tar.gz archive ({@link SmallFileArchive}), or from a
+ * bundle created by the {@code pack} command ({@link V2SmallFileBundle}).
+ * </p>
  * @author <a href="mailto:peter.robinson@jjax.org">Peter Robinson</a>
  */
 public class V2SmallFileIngestor {
     private static final Logger logger = LogManager.getLogger();
     /** Reference to the HPO object. */
-    private HpoOntology ontology;
+    private HpoTermIndex ontology;
     /** The paths to all of the v2 small files. */
     private final List<String> v2smallFilePaths;
     /** List of all of the {@link V2SmallFile} objects, which represent annotated diseases. */
     private List<V2SmallFile> v2SmallFileList =new ArrayList<>();
     /** Names of entries (small files) that we will omit because they do not represent diseases. */
     private final Set<String> omitEntries;
+    /** Number of threads used to parse the small files (1 means sequential parsing). */
+    private final int numThreads;
+    /** Cache of previously parsed small files (may be null if no cache is used). */
+    private final V2SmallFileCache cache;
+    /** Archive with the small files, or null if the small files are read from a directory. */
+    private final SmallFileArchive archive;
+    /** Bundle created by the pack command, or null if the small files are not read from a bundle. */
+    private final V2SmallFileBundle bundle;
 
     /** Total number of annotations of all of the annotation files. */
     private int n_total_annotation_lines=0;
 
     private int n_total_omitted_entries=0;
 
+    /** Number of small files that could not be parsed. */
+    private int n_unparsable_files=0;
+    /**
+     * Key: basename of a small file; value: number of lines that the parser skipped (only small files with skipped
+     * lines; for small files from a bundle or the cache, the count that was stored with them).
+     */
+    private final Map<String,Integer> skippedLines = new ConcurrentHashMap<>();
+    /** Canonical instances of the values of all small files, shared by the parsers. */
+    private final AnnotationInterner interner;
+    /** Set to true once all small files were parsed into {@link #v2SmallFileList}. */
+    private boolean ingested=false;
+
     private List<String> errors = new ArrayList<>();
 
+    /**
+     * Receives the parsed small files in the order of {@link #getV2SmallFilePaths()}.
+     */
+    public interface SmallFileConsumer {
+        void accept(V2SmallFile v2sf) throws IOException;
+    }
+
+    /** @return all parsed small files, sorted by path (the small files are parsed on the first call). */
     public List<V2SmallFile> getV2SmallFileEntries() {
+        if (! ingested) {
+            if (numThreads>1) {
+                inputV2filesInParallel();
+            } else {
+                inputV2files();
+            }
+            if (cache!=null) {
+                logger.info(cache.getHitMissReport());
+            }
+            closeArchive();
+            ingested=true;
+        }
         return v2SmallFileList;
     }
 
-    public V2SmallFileIngestor(String directoryPath, String omitFile, HpoOntology ontology) {
-        omitEntries=getOmitEntries(omitFile);
-        v2smallFilePaths=getListOfV2SmallFiles(directoryPath);
+    /** @return sorted paths of the small files that will be ingested (i.e., that are not on the omit list) */
+    public List<String> getV2SmallFilePaths() {
+        return Collections.unmodifiableList(v2smallFilePaths);
+    }
+
+    /** @return key: basename of a small file; value: number of lines of the small file that the parser skipped */
+    public Map<String,Integer> getSkippedLineCounts() {
+        return Collections.unmodifiableMap(skippedLines);
+    }
+
+    /** @return number of small files that could not be parsed */
+    public int getNumberOfUnparsableFiles() {
+        return n_unparsable_files;
+    }
+
+    public V2SmallFileIngestor(String directoryPath, String omitFile, HpoTermIndex ontology) {
+        this(directoryPath,omitFile,ontology,1);
+    }
+
+    /**
+     * @param directoryPath directory with the V2 small files
+     * @param omitFile path to {@code omit-list.txt}
+     * @param ontology reference to the HPO ontology
+     * @param nThreads number of worker threads used to parse the small files
+     */
+    public V2SmallFileIngestor(String directoryPath, String omitFile, HpoTermIndex ontology, int nThreads) {
+        this(directoryPath,omitFile,ontology,nThreads,null);
+    }
+
+    /**
+     * @param directoryPath directory with the V2 small files
+     * @param omitFile path to {@code omit-list.txt}
+     * @param ontology reference to the HPO ontology
+     * @param nThreads number of worker threads used to parse the small files
+     * @param cache cache of previously parsed small files; only files that are not in the cache are parsed (can be null)
+     */
+    public V2SmallFileIngestor(String directoryPath, String omitFile, HpoTermIndex ontology, int nThreads, V2SmallFileCache cache) {
+        if (V2SmallFileBundle.isBundle(directoryPath)) {
+            // the omit list was already applied when the bundle was packed
+            archive=null;
+            bundle=openBundle(directoryPath,ontology);
+            omitEntries=new HashSet<>();
+            v2smallFilePaths=bundle!=null ? new ArrayList<>(bundle.getBasenames()) : new ArrayList<>();
+            this.cache=null;
+        } else if (SmallFileArchive.isArchive(directoryPath)) {
+            bundle=null;
+            archive=openArchive(directoryPath);
+            omitEntries=getOmitEntriesFromArchive();
+            v2smallFilePaths=getListOfV2SmallFilesFromArchive();
+            if (archive!=null) {
+                archive.restrictTo(v2smallFilePaths);
+            }
+            if (cache!=null) {
+                logger.warn("The small file cache is not used for small files in an archive");
+            }
+            this.cache=null;
+        } else {
+            bundle=null;
+            archive=null;
+            omitEntries=getOmitEntries(omitFile);
+            v2smallFilePaths=getListOfV2SmallFiles(directoryPath);
+            this.cache=cache;
+        }
         this.ontology=ontology;
-        inputV2files();
+        this.numThreads=Math.max(1,nThreads);
+        this.interner=new AnnotationInterner(ontology);
+    }
+
+    /**
+     * Restrict the ingestion to one shard of the small files, so that the big file can be generated by several
+     * processes (see {@link #shardOf(String, int)}). Must be called before the small files are ingested.
+     * @param shard index of the shard (0-based)
+     * @param numberOfShards total number of shards
+     */
+    public void setShard(int shard, int numberOfShards) {
+        if (ingested) {
+            throw new IllegalStateException("setShard must be called before the small files are ingested");
+        }
+        int before=v2smallFilePaths.size();
+        v2smallFilePaths.removeIf(path -> shardOf(baseName(Paths.get(path)),numberOfShards)!=shard);
+        if (archive!=null) {
+            archive.restrictTo(v2smallFilePaths);
+        }
+        logger.info("Shard {}/{}: {} of {} small files",shard,numberOfShards,v2smallFilePaths.size(),before);
+    }
+
+    /**
+     * The shard of a disease depends only on its ID, so that every process assigns the same diseases to the same shard.
+     * @param diseaseId a disease ID such as OMIM:600123
+     * @param numberOfShards total number of shards
+     * @return the shard of the disease (0-based)
+     */
+    public static int shardOf(String diseaseId, int numberOfShards) {
+        return Math.floorMod(diseaseId.hashCode(),numberOfShards);
+    }
+
+    /** @return the interner used for the small files, which reports how many duplicate values were avoided */
+    public AnnotationInterner getAnnotationInterner() {
+        return interner;
     }
 
     private void inputV2files() {
@@ -56,20 +211,172 @@ public class V2SmallFileIngestor {
             if (++i%1000==0) {
                 logger.trace(String.format("Inputting %d-th file at %s",i,path));
             }
-            V2SmallFileParser parser=new V2SmallFileParser(path,ontology);
-            Optional<V2SmallFile> v2sfOpt = parser.parse();
-            if (v2sfOpt.isPresent()) {
-                V2SmallFile v2sf = v2sfOpt.get();
-                n_total_annotation_lines += v2sf.getNumberOfAnnotations();
-                v2SmallFileList.add(v2sf);
-            } else {
-                logger.error("Could not parse V2 small file for {}",path);
+            addParsedSmallFile(path,parseSmallFile(path));
+        }
+        logger.error("Finished with input of {} files with {} annotations",i,n_total_annotation_lines);
+        logger.error("A total of {} entries found in the small file directory were omitted.",n_total_omitted_entries);
+    }
+
+    /**
+     * Parse the small files on a pool of {@link #numThreads} worker threads. The results are collected
+     * in the order of {@link #v2smallFilePaths}, so that the output is identical to that of {@link #inputV2files()}.
+     */
+    private void inputV2filesInParallel() {
+        logger.trace("We found {} small files, which will be parsed using {} threads.",v2smallFilePaths.size(),numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Optional<V2SmallFile>>> futures = new ArrayList<>();
+        for (String path : v2smallFilePaths) {
+            futures.add(executor.submit(() -> parseSmallFile(path)));
+        }
+        int i=0;
+        try {
+            for (; i<futures.size(); i++) {
+                String path = v2smallFilePaths.get(i);
+                if ((i+1)%1000==0) {
+                    logger.trace(String.format("Inputting %d-th file at %s",i+1,path));
+                }
+                try {
+                    addParsedSmallFile(path, futures.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.error("Exception while parsing V2 small file {}: {}",path,e.getCause());
+                    errors.add(String.format("Could not parse %s [%s]",path,e.getCause()));
+                    n_unparsable_files++;
+                }
             }
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while parsing V2 small files");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
         }
         logger.error("Finished with input of {} files with {} annotations",i,n_total_annotation_lines);
         logger.error("A total of {} entries found in the small file directory were omitted.",n_total_omitted_entries);
     }
 
+    /**
+     * Get the small file from the cache if it has not changed, otherwise parse it (and add it to the cache).
+     * This method is called concurrently by the workers of {@link #inputV2filesInParallel()}.
+     * @param path path to a V2 small file
+     * @return the corresponding {@link V2SmallFile} or empty if it could not be parsed
+     */
+    private Optional<V2SmallFile> parseSmallFile(String path) {
+        if (bundle!=null) {
+            try {
+                int n_skipped = bundle.getNumberOfSkippedLines(path);
+                if (n_skipped>0) {
+                    skippedLines.put(path,n_skipped);
+                }
+                return bundle.getByBasename(path,interner);
+            } catch (IOException e) {
+                logger.error("Could not read {} from the bundle: {}",path,e.getMessage());
+                return Optional.empty();
+            }
+        }
+        if (archive!=null) {
+            try {
+                V2SmallFileParser parser = new V2SmallFileParser(path,archive.open(path),ontology,interner);
+                return countSkippedLines(parser,parser.parse());
+            } catch (IOException e) {
+                logger.error("Could not read {} from the archive: {}",path,e.getMessage());
+                return Optional.empty();
+            }
+        }
+        if (cache!=null) {
+            Optional<V2SmallFile> cached = cache.get(path,interner);
+            if (cached.isPresent()) {
+                int n_skipped = cache.getNumberOfSkippedLines(path);
+                if (n_skipped>0) {
+                    skippedLines.put(cached.get().getBasename(),n_skipped);
+                }
+                return cached;
+            }
+        }
+        V2SmallFileParser parser=new V2SmallFileParser(path,ontology,interner);
+        Optional<V2SmallFile> v2sfOpt = countSkippedLines(parser,parser.parse());
+        if (cache!=null && v2sfOpt.isPresent()) {
+            cache.put(path,v2sfOpt.get(),parser.getNumberOfSkippedLines());
+        }
+        return v2sfOpt;
+    }
+
+    private Optional<V2SmallFile> countSkippedLines(V2SmallFileParser parser, Optional<V2SmallFile> v2sfOpt) {
+        if (v2sfOpt.isPresent() && parser.getNumberOfSkippedLines()>0) {
+            skippedLines.put(v2sfOpt.get().getBasename(),parser.getNumberOfSkippedLines());
+        }
+        return v2sfOpt;
+    }
+
+    /**
+     * Parse the small files and pass them one at a time, in the order of {@link #getV2SmallFilePaths()}, to the
+     * consumer. The small files are not retained by this class, so that a consumer that does not keep them either
+     * can process all of the small files in a fixed amount of memory. The small files are parsed by
+     * {@link #numThreads} workers, and at most {@code queueCapacity} parsed small files wait for the consumer.
+     * @param queueCapacity maximum number of small files that are parsed ahead of the consumer
+     * @param consumer receives each parsed small file
+     * @throws IOException if the consumer throws an IOException
+     */
+    public void streamV2SmallFiles(int queueCapacity, SmallFileConsumer consumer) throws IOException {
+        logger.trace("We found {} small files, which will be streamed using {} threads.",v2smallFilePaths.size(),numThreads);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final BlockingQueue<Future<Optional<V2SmallFile>>> queue = new ArrayBlockingQueue<>(Math.max(1,queueCapacity));
+        // The feeder submits the parse jobs in path order, and blocks while the queue is full
+        Thread feeder = new Thread(() -> {
+            try {
+                for (String path : v2smallFilePaths) {
+                    queue.put(executor.submit(() -> parseSmallFile(path)));
+                }
+            } catch (InterruptedException | RejectedExecutionException e) {
+                Thread.currentThread().interrupt(); // the consumer stopped early
+            }
+        },"small-file-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+        int i=0;
+        try {
+            for (; i<v2smallFilePaths.size(); i++) {
+                String path = v2smallFilePaths.get(i);
+                Optional<V2SmallFile> v2sfOpt;
+                try {
+                    v2sfOpt = queue.take().get();
+                } catch (ExecutionException e) {
+                    logger.error("Exception while parsing V2 small file {}: {}",path,e.getCause());
+                    errors.add(String.format("Could not parse %s [%s]",path,e.getCause()));
+                    v2sfOpt = Optional.empty();
+                }
+                if (v2sfOpt.isPresent()) {
+                    n_total_annotation_lines += v2sfOpt.get().getNumberOfAnnotations();
+                    consumer.accept(v2sfOpt.get());
+                } else {
+                    n_unparsable_files++;
+                    logger.error("Could not parse V2 small file for {}",path);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while streaming V2 small files");
+            Thread.currentThread().interrupt();
+        } finally {
+            feeder.interrupt();
+            executor.shutdownNow();
+            closeArchive();
+        }
+        if (cache!=null) {
+            logger.info(cache.getHitMissReport());
+        }
+        logger.error("Finished with streaming of {} files with {} annotations",i,n_total_annotation_lines);
+        logger.error("A total of {} entries found in the small file directory were omitted.",n_total_omitted_entries);
+    }
+
+    private void addParsedSmallFile(String path, Optional<V2SmallFile> v2sfOpt) {
+        if (v2sfOpt.isPresent()) {
+            V2SmallFile v2sf = v2sfOpt.get();
+            n_total_annotation_lines += v2sf.getNumberOfAnnotations();
+            v2SmallFileList.add(v2sf);
+        } else {
+            n_unparsable_files++;
+            logger.error("Could not parse V2 small file for {}",path);
+        }
+    }
+
     /**
      * This is the format of the omit-list.txt file.
      * Thus, we need to extract only the first field.
@@ -85,13 +392,7 @@ public class V2SmallFileIngestor {
     private Set<String> getOmitEntries(String path) {
         Set<String> entrylist=new HashSet<>();
         try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-            String line;
-            while ((line=br.readLine())!=null) {
-                if (line.startsWith("#")) continue; // skip comment
-                String A[] = line.split("\\s+");
-                String id = A[0]; // the first field has items such as OMIM:500123
-                entrylist.add(id);
-            }
+            readOmitEntries(br,entrylist);
         } catch (IOException e) {
             e.printStackTrace();
             errors.add(e.getMessage());
@@ -99,18 +400,110 @@ public class V2SmallFileIngestor {
         return entrylist;
     }
 
+    private void readOmitEntries(BufferedReader br, Set<String> entrylist) throws IOException {
+        String line;
+        while ((line=br.readLine())!=null) {
+            if (line.startsWith("#")) continue; // skip comment
+            String A[] = line.split("\\s+");
+            String id = A[0]; // the first field has items such as OMIM:500123
+            entrylist.add(id);
+        }
+    }
+
+    /** @return the omit list of the small file directory of the archive (empty if the archive has none) */
+    private Set<String> getOmitEntriesFromArchive() {
+        Set<String> entrylist=new HashSet<>();
+        if (archive==null) {
+            return entrylist;
+        }
+        Optional<BufferedReader> omitList = archive.openOmitList();
+        if (! omitList.isPresent()) {
+            logger.warn("The archive does not contain omit-list.txt next to the small files");
+            return entrylist;
+        }
+        try (BufferedReader br = omitList.get()) {
+            readOmitEntries(br,entrylist);
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+        }
+        return entrylist;
+    }
+
+    private V2SmallFileBundle openBundle(String path, HpoTermIndex ontology) {
+        try {
+            V2SmallFileBundle b = new V2SmallFileBundle(path);
+            String dataVersion = ontology.getMetaInfo().get("data-version");
+            if (dataVersion!=null && ! dataVersion.equals(b.getDataVersion())) {
+                logger.warn("Bundle {} was packed with hp.obo version {} but the current version is {}",
+                        path,b.getDataVersion(),dataVersion);
+            }
+            if (b.getNumberOfSkippedLines()>0) {
+                logger.warn("{} lines of the small files were skipped when bundle {} was packed",
+                        b.getNumberOfSkippedLines(),path);
+            }
+            return b;
+        } catch (IOException e) {
+            logger.error("Could not open small file bundle {}: {}",path,e.getMessage());
+            errors.add(String.format("Could not open small file bundle %s [%s]",path,e));
+            return null;
+        }
+    }
+
+    private SmallFileArchive openArchive(String path) {
+        try {
+            return new SmallFileArchive(path);
+        } catch (IOException e) {
+            logger.error("Could not open small file archive {}: {}",path,e.getMessage());
+            errors.add(String.format("Could not open small file archive %s [%s]",path,e));
+            return null;
+        }
+    }
+
+    /** The archive is only needed until all small files have been parsed. */
+    private void closeArchive() {
+        if (archive!=null) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                logger.warn("Could not close small file archive: {}",e.getMessage());
+            }
+        }
+    }
+
+    /** @return sorted names of the small file entries of the archive that are not on the omit list */
+    private List<String> getListOfV2SmallFilesFromArchive() {
+        List<String> fileNames = new ArrayList<>();
+        if (archive==null) {
+            return fileNames;
+        }
+        for (String name : archive.getSmallFileNames()) {
+            String basename=baseName(Paths.get(name));
+            if (omitEntries.contains(basename)) {
+                logger.trace("Skipping annotations for entry {}", basename);
+                n_total_omitted_entries++;
+                continue;
+            }
+            fileNames.add(name);
+        }
+        return fileNames;
+    }
+
     /**
      * Get the entry Curie for a certain path
      * @param path e.g., /.../rare-diseases/annotated/OMIM-600123.tab
      * @return the corresinding Curie, e.g., OMIM:600123
      */
-    private String baseName(Path path) {
+    private static String baseName(Path path) {
         String bname=path.getFileName().toString();
         bname=bname.replace('-',':').replace(".tab","");
         return bname;
     }
 
 
+    /**
+     * @param v2smallFileDirectory directory with the V2 small files
+     * @return sorted list of paths to all small files that are not on the omit list
+     */
     private List<String> getListOfV2SmallFiles(String v2smallFileDirectory) {
         List<String> fileNames = new ArrayList<>();
         try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(Paths.get(v2smallFileDirectory))) {
@@ -129,6 +522,8 @@ public class V2SmallFileIngestor {
             errors.add(String.format("Could not get list of small v2smallFilePaths from %s [%s]. Terminating...",
                     v2smallFileDirectory,ex));
         }
+        // DirectoryStream returns the paths in file-system order, which is not guaranteed to be stable
+        Collections.sort(fileNames);
         return fileNames;
     }
 
@@ -4,16 +4,15 @@ package org.monarchinitiative.hpoannotqc.io;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.smallfile.AnnotationInterner;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -24,13 +23,21 @@ import java.util.*;
 public class V2SmallFileParser {
     private static final Logger logger = LogManager.getLogger();
 
-    private final HpoOntology ontology;
+    private final HpoTermIndex ontology;
     /** key -- all lower-case label of a modifer term. Value: corresponding TermId .*/
     private static Map<String, TermId> modifier2TermId = new HashMap<>();
     /** Path to a file such as "OMIM-600123.tab" containing data about the phenotypes of a disease. */
     private final String pathToV2File;
     /** Computational disease model contained in the small file. */
     private V2SmallFile v2smallfile=null;
+    /** Resolves repeated values to canonical instances (may be null, in which case nothing is deduplicated). */
+    private final AnnotationInterner interner;
+    /** Contents of the small file if it is not read from {@link #pathToV2File} (e.g., an archive entry), else null. */
+    private final InputStream inputStream;
+    /** Number of lines that were skipped because of an unknown phenotype id or a malformed age of onset id. */
+    private int n_skipped=0;
+    /** If true (the default), a malformed header or line stops the program; otherwise {@link #parse()} fails. */
+    private boolean exitOnMalformedFile=true;
     private static final String[] expectedFields = {
             "#diseaseID",
             "diseaseName",
@@ -50,9 +57,31 @@ public class V2SmallFileParser {
     /** Number of tab-separated fields in a valid small file. */
     private static final int NUMBER_OF_FIELDS=expectedFields.length;
 
-    public V2SmallFileParser(String path, HpoOntology ontology) {
+    public V2SmallFileParser(String path, HpoTermIndex ontology) {
+        this(path,ontology,null);
+    }
+
+    /**
+     * @param path path to the small file
+     * @param ontology reference to HPO ontology
+     * @param interner canonical instances of the values, which should be shared by the parsers of all small files
+     */
+    public V2SmallFileParser(String path, HpoTermIndex ontology, AnnotationInterner interner) {
+        this(path,null,ontology,interner);
+    }
+
+    /**
+     * Parse a small file from a stream, e.g., an entry of an archive. The stream is closed by {@link #parse()}.
+     * @param path name of the small file (the base name is used for the {@link V2SmallFile})
+     * @param stream contents of the small file
+     * @param ontology reference to HPO ontology
+     * @param interner canonical instances of the values (may be null)
+     */
+    public V2SmallFileParser(String path, InputStream stream, HpoTermIndex ontology, AnnotationInterner interner) {
         pathToV2File=path;
+        this.inputStream=stream;
         this.ontology=ontology;
+        this.interner=interner;
     }
 
 
@@ -60,68 +89,66 @@ public class V2SmallFileParser {
         String basename=(new File(pathToV2File).getName());
         List<V2SmallFileEntry> entryList=new ArrayList<>();
 
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(pathToV2File));
-            String line=br.readLine();
-            qcHeaderLine(line);
-            while ((line=br.readLine())!=null) {
-                //System.out.println(line);
-                if (line.startsWith("#")) continue;
-                String A[] = line.split("\t");
-                if (A.length!= NUMBER_OF_FIELDS) {
-                    logger.error(String.format("We were expecting %d fields but got %d for line %s",NUMBER_OF_FIELDS,A.length,line ));
+        try (Reader reader = new InputStreamReader(inputStream!=null ? inputStream : new FileInputStream(pathToV2File), StandardCharsets.UTF_8)) {
+            V2SmallFileTokenizer tokenizer = new V2SmallFileTokenizer(reader,NUMBER_OF_FIELDS);
+            if (! tokenizer.nextLine()) {
+                throw new HPOException(String.format("Empty small file: %s",pathToV2File));
+            }
+            qcHeaderLine(tokenizer);
+            while (tokenizer.nextLine()) {
+                if (tokenizer.startsWith('#')) continue;
+                if (tokenizer.getFieldCount()!= NUMBER_OF_FIELDS) {
+                    String msg=String.format("We were expecting %d fields but got %d for line %s",NUMBER_OF_FIELDS,tokenizer.getFieldCount(),tokenizer.getLine() );
+                    logger.error(msg);
+                    if (! exitOnMalformedFile) {
+                        throw new HPOException(msg);
+                    }
                     System.exit(1);
                 }
-                String diseaseID=A[0];
-                String diseaseName=A[1];
-                TermId phenotypeId = TermId.constructWithPrefix(A[2]);
-                if (! ontology.getTermMap().containsKey(phenotypeId)) {
-                    logger.error("WARNING skipping annotation because we could not find term for (version mismatch?)" + A[2]);
+                String phenotypeIdString=tokenizer.getField(2);
+                TermId phenotypeId = interner!=null ? interner.termId(phenotypeIdString) : TermId.constructWithPrefix(phenotypeIdString);
+                if (! ontology.contains(phenotypeId)) {
+                    logger.error("WARNING skipping annotation because we could not find term for (version mismatch?)" + phenotypeIdString);
+                    n_skipped++;
                     continue;
                 }
-                String phenotypeName=A[3];
-                String ageOfOnsetId=A[4];
-                if (ageOfOnsetId!=null &&
-                        ageOfOnsetId.length()>0 &&
+                String ageOfOnsetId=tokenizer.getField(4);
+                if (ageOfOnsetId.length()>0 &&
                         (!ageOfOnsetId.startsWith("HP:"))) {
                     logger.error(String.format("Malformed age of onset termid: \"%s\"",ageOfOnsetId ));
+                    n_skipped++;
                     continue;
                 }
-                String ageOfOnsetName=A[5];
-                String frequencyString=A[6];
-                String sex=A[7];
-                String negation=A[8];
-                String modifier=A[9];
-                String description=A[10];
-                String publication=A[11];
-                String evidenceCode=A[12];
-                String biocuration=A[13];
+                ageOfOnsetId=canonical(ageOfOnsetId);
+                String diseaseID=canonical(tokenizer.getField(0));
+                String diseaseName=canonical(tokenizer.getField(1));
+                String phenotypeName=canonical(tokenizer.getField(3));
+                String ageOfOnsetName=canonical(tokenizer.getField(5));
+                String publication=canonical(tokenizer.getField(11));
+                String evidenceCode=canonical(tokenizer.getField(12));
+                String biocuration=canonical(tokenizer.getField(13));
 
                 V2SmallFileEntry.Builder builder=new V2SmallFileEntry.Builder(diseaseID,diseaseName,phenotypeId,phenotypeName,evidenceCode,publication,biocuration);
-                if (frequencyString!=null && ! frequencyString.isEmpty()) {
-                    builder=builder.frequencyString(frequencyString);
-                }
-                if (sex!=null && !sex.isEmpty()) {
-                    builder=builder.sex(sex);
+                // empty optional fields keep the default value of the builder and are not materialized
+                if (! tokenizer.isEmpty(6)) {
+                    builder=builder.frequencyString(canonical(tokenizer.getField(6)));
                 }
-                if (negation!=null && !negation.isEmpty()) {
-                    builder=builder.negation(negation);
+                if (! tokenizer.isEmpty(7)) {
+                    builder=builder.sex(canonical(tokenizer.getField(7)));
                 }
-                if (modifier!=null && !modifier.isEmpty()) {
-                    builder=builder.modifier(modifier);
+                if (! tokenizer.isEmpty(8)) {
+                    builder=builder.negation(canonical(tokenizer.getField(8)));
                 }
-                if (description!=null && ! description.isEmpty()) {
-                    builder=builder.description(description);
+                if (! tokenizer.isEmpty(9)) {
+                    builder=builder.modifier(canonical(tokenizer.getField(9)));
                 }
-                if (ageOfOnsetId!=null) {
-                    builder=builder.ageOfOnsetId(ageOfOnsetId);
-                }
-                if (ageOfOnsetName!=null) {
-                    builder=builder.ageOfOnsetName(ageOfOnsetName);
+                if (! tokenizer.isEmpty(10)) {
+                    builder=builder.description(tokenizer.getField(10));
                 }
+                builder=builder.ageOfOnsetId(ageOfOnsetId);
+                builder=builder.ageOfOnsetName(ageOfOnsetName);
                 entryList.add(builder.build());
             }
-            br.close();
             return  Optional.of(new V2SmallFile(basename,entryList));
         } catch (IOException | HPOException e) {
             logger.error(String.format("Error parsing %s",pathToV2File));
@@ -131,26 +158,47 @@ public class V2SmallFileParser {
     }
 
 
+    /**
+     * @param exit if false, a small file with a malformed header or line is reported by {@link #parse()} returning
+     *             an empty Optional rather than by stopping the program (e.g., for a long-running check)
+     */
+    public void setExitOnMalformedFile(boolean exit) {
+        this.exitOnMalformedFile=exit;
+    }
+
+    /** @return number of lines that {@link #parse()} skipped because of an unknown phenotype or malformed onset id */
+    public int getNumberOfSkippedLines() {
+        return n_skipped;
+    }
+
+    /** @return the canonical instance of a field value (descriptions are free text and are not passed here). */
+    private String canonical(String field) {
+        return interner!=null ? interner.intern(field) : field;
+    }
+
      /* This method checks that the nead has the expected number and order of lines.
      * If it doesn't, then a serious error has occured somewhere and it is better to
      * die and figure out what is wrong than to attempt error correction
-     * @param line a header line of a V2 small file
+     * @param header tokenizer positioned at the header line of a V2 small file
      */
-    private void qcHeaderLine(String line) throws HPOException  {
-        String fields[] = line.split("\t");
-        if (fields.length != expectedFields.length) {
-            String msg = String.format("Malformed header line\n"+line+
+    private void qcHeaderLine(V2SmallFileTokenizer header) throws HPOException  {
+        if (header.getFieldCount() != expectedFields.length) {
+            String msg = String.format("Malformed header line\n"+header.getLine()+
             "\nExpecting %d fields but got %d",
                     expectedFields.length,
-                    fields.length);
+                    header.getFieldCount());
             logger.error(msg);
             throw new HPOException(msg);
         }
-        for (int i=0;i<fields.length;i++) {
-            if (! fields[i].equals(expectedFields[i])) {
+        for (int i=0;i<expectedFields.length;i++) {
+            String field = header.getField(i);
+            if (! field.equals(expectedFields[i])) {
                 logger.fatal("Malformed header in file: "+pathToV2File);
                 logger.fatal(String.format("Malformed field %d. Expected %s but got %s",
-                        i,expectedFields[i],fields[i]));
+                        i,expectedFields[i],field));
+                if (! exitOnMalformedFile) {
+                    throw new HPOException("Malformed header in file: "+pathToV2File);
+                }
                 System.exit(1);
             }
         }
@@ -0,0 +1,175 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A tokenizer for the tab-separated V2 small files. The tokenizer reads the file into a character buffer and
+ * finds the line end and the tab positions of each line in a single pass. In contrast to {@code line.split("\t")},
+ * no regular expression, String array or line String is created; a String is only created when a field is
+ * requested with {@link #getField(int)}, and empty fields are returned as the shared empty String.
+ * <p>
+ * Note that, unlike {@link String#split(String)}, trailing empty fields are counted, so that a line with an empty
+ * last column has the expected number of fields.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class V2SmallFileTokenizer {
+    private final static String EMPTY_STRING="";
+    private final static int DEFAULT_BUFFER_SIZE=1<<16;
+
+    private final Reader reader;
+    /** Characters read from {@link #reader}. The current line starts at {@link #lineStart}. */
+    private char[] buffer;
+    /** Number of valid characters in {@link #buffer}. */
+    private int limit=0;
+    /** Offset of the first character of the current line in {@link #buffer}. */
+    private int lineStart=0;
+    /** Offset of the end of the current line (exclusive, without line terminator). */
+    private int lineEnd=0;
+    /** Offset of the first character after the line terminator of the current line. */
+    private int nextLineStart=0;
+    private boolean eof=false;
+    /** Start offsets of the fields of the current line; the entry after the last field is the line end + 1. */
+    private int[] fieldStart;
+    /** Number of tab-separated fields in the current line. */
+    private int fieldCount=0;
+    /** One-based number of the current line. */
+    private int lineNumber=0;
+
+    /**
+     * @param reader source of the small file
+     * @param expectedFields number of fields expected for each line (used to size the offset array)
+     */
+    V2SmallFileTokenizer(Reader reader, int expectedFields) {
+        this(reader,expectedFields,DEFAULT_BUFFER_SIZE);
+    }
+
+    V2SmallFileTokenizer(Reader reader, int expectedFields, int bufferSize) {
+        this.reader=reader;
+        this.buffer=new char[Math.max(16,bufferSize)];
+        this.fieldStart=new int[expectedFields+1];
+    }
+
+    /**
+     * Advance to the next line and calculate the offsets of its fields.
+     * @return false if the end of the input was reached
+     * @throws IOException if the underlying reader cannot be read
+     */
+    boolean nextLine() throws IOException {
+        lineStart=nextLineStart;
+        fieldCount=1;
+        fieldStart[0]=lineStart;
+        int i=lineStart;
+        while (true) {
+            if (i==limit) {
+                if (eof) break;
+                int consumed=lineStart;
+                fill();
+                i-=consumed;
+                if (i==limit) {
+                    break; // eof reached without line terminator
+                }
+                continue;
+            }
+            char c=buffer[i];
+            if (c=='\n') {
+                break;
+            } else if (c=='\t') {
+                addFieldStart(i+1);
+            }
+            i++;
+        }
+        if (i==lineStart && i==limit) {
+            return false; // no more lines
+        }
+        nextLineStart = (i<limit) ? i+1 : i;
+        lineEnd=i;
+        if (lineEnd>lineStart && buffer[lineEnd-1]=='\r') {
+            lineEnd--; // Windows line ending
+        }
+        if (fieldCount<fieldStart.length) {
+            fieldStart[fieldCount]=lineEnd+1;
+        }
+        lineNumber++;
+        return true;
+    }
+
+    private void addFieldStart(int offset) {
+        if (fieldCount<fieldStart.length) {
+            fieldStart[fieldCount]=offset;
+        }
+        fieldCount++;
+    }
+
+    /**
+     * Move the current line to the start of the buffer (growing the buffer if the line does not fit) and read more
+     * characters. All offsets of the current line are shifted accordingly.
+     */
+    private void fill() throws IOException {
+        int shift=lineStart;
+        int len=limit-lineStart;
+        if (shift>0) {
+            System.arraycopy(buffer,lineStart,buffer,0,len);
+            for (int k=0;k<Math.min(fieldCount,fieldStart.length);k++) {
+                fieldStart[k]-=shift;
+            }
+            lineStart=0;
+            limit=len;
+        } else if (limit==buffer.length) {
+            buffer=Arrays.copyOf(buffer,2*buffer.length);
+        }
+        int n=reader.read(buffer,limit,buffer.length-limit);
+        if (n<0) {
+            eof=true;
+        } else {
+            limit+=n;
+        }
+    }
+
+    /** @return number of tab-separated fields of the current line */
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /** @return one-based number of the current line */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /** @return true if the current line starts with the given character */
+    boolean startsWith(char c) {
+        return lineEnd>lineStart && buffer[lineStart]==c;
+    }
+
+    /** @return true if the i'th (zero-based) field of the current line is empty */
+    boolean isEmpty(int i) {
+        return fieldLength(i)==0;
+    }
+
+    /**
+     * @param i zero-based index of the field
+     * @return the i'th field of the current line (the shared empty String if the field is empty)
+     */
+    String getField(int i) {
+        int len=fieldLength(i);
+        if (len==0) {
+            return EMPTY_STRING;
+        }
+        return new String(buffer,fieldStart[i],len);
+    }
+
+    private int fieldLength(int i) {
+        if (i>=fieldCount || i+1>=fieldStart.length) {
+            throw new IndexOutOfBoundsException(String.format("Field %d requested but line %d has %d fields",
+                    i,lineNumber,fieldCount));
+        }
+        return fieldStart[i+1]-1-fieldStart[i];
+    }
+
+    /** @return the current line as a String (intended for error messages). */
+    String getLine() {
+        return new String(buffer,lineStart,lineEnd-lineStart);
+    }
+}
@@ -2,27 +2,24 @@ package org.monarchinitiative.hpoannotqc.mondo;
 
 
 
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
 import java.util.*;
 
-import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.getParentTerms;
-import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.isSubclass;
-import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.termsAreSiblings;
-
 
 /**
  * This class with serve to experiment with the best way of writing a function that will find the closest
- * match to one term given a set of "other" terms.
+ * match to one term given a set of "other" terms. The subclass and sibling tests use the precomputed ancestor
+ * bitsets of the {@link HpoTermIndex}.
  */
 public class ClosestMatch {
 
-    private final HpoOntology ontology;
+    private final HpoTermIndex ontology;
     private final Set<TermId> diseaseterms;
     private int level;
 
-    public ClosestMatch(HpoOntology ontology, Set<TermId> otherterms) {
+    public ClosestMatch(HpoTermIndex ontology, Set<TermId> otherterms) {
         this.ontology=ontology;
         this.diseaseterms=otherterms;
     }
@@ -46,7 +43,7 @@ public class ClosestMatch {
         while ( ! stack.empty()) {
             TermId tid = stack.pop();
             int level = seen.get(tid) + 1; // parent terms are one level more distant
-            Set<TermId> parents = getParentTerms(ontology,tid);
+            Set<TermId> parents = ontology.getParentTerms(tid);
             for (TermId id : parents) {
                 if (diseaseterms.contains(id)) {
                     if (! matchingTerms.containsKey(id)) {
@@ -75,7 +72,7 @@ public class ClosestMatch {
     Map<TermId, Integer> getViceVersa(TermId query) {
         Map<TermId, Integer> opposites = new HashMap<>();
         for (TermId annot : diseaseterms) {
-            if (isSubclass(ontology, annot, query)) {
+            if (ontology.isSubclass(annot, query)) {
                 opposites.put(annot, 3);
             }
         }
@@ -83,7 +80,7 @@ public class ClosestMatch {
                 return opposites;
 
             for (TermId annot2 : diseaseterms) {
-                if (termsAreSiblings(ontology, annot2, query)) {
+                if (ontology.areSiblings(annot2, query)) {
                     opposites.put(annot2, 4);
                 }
             }
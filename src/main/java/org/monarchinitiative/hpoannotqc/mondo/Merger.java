@@ -3,8 +3,8 @@ package org.monarchinitiative.hpoannotqc.mondo;
 
 
 
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.formats.hpo.HpoDisease;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
 import org.monarchinitiative.phenol.formats.hpo.HpoAnnotation;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
@@ -18,9 +18,9 @@ public class Merger {
 
     private final HpoDisease disease_1;
     private final HpoDisease disease_2;
-    private final HpoOntology ontology;
+    private final HpoTermIndex ontology;
 
-    public Merger(HpoDisease disease1, HpoDisease disease2, HpoOntology ontology) {
+    public Merger(HpoDisease disease1, HpoDisease disease2, HpoTermIndex ontology) {
         this.disease_1=disease1;
         this.disease_2=disease2;
         this.ontology=ontology;
@@ -61,7 +61,7 @@ public class Merger {
         List<HpoAnnotation> termIn1not2 = new ArrayList<>();
         List<HpoAnnotation> termIn2not1 = new ArrayList<>();
         for (HpoAnnotation tiwm : disease_2.getPhenotypicAbnormalities()) {
-            String label = ontology.getTermMap().get(tiwm.getTermId()).getName();
+            String label = ontology.getName(tiwm.getTermId());
             if (disease_1.isDirectlyAnnotatedTo(tiwm.getTermId())) {
                 phenotypicAbnormalities.add(tiwm);
                 System.err.println(String.format("D1 & D2: %s[%s]" ,label, tiwm.getIdWithPrefix()));
@@ -69,7 +69,7 @@ public class Merger {
                 Map<TermId,Integer> bestMatch = closestMatch1.closestTerms(tiwm.getTermId());
                 System.err.print(String.format("D1: %s[%s]\tD2: " ,label, tiwm.getIdWithPrefix()));
                 String labels=bestMatch.keySet().stream().map(tid -> String.format("%s[%s](d=%d)",
-                        ontology.getTermMap().get(tid).getName(),
+                        ontology.getName(tid),
                         tid.getIdWithPrefix(),
                         bestMatch.get(tid))).collect(Collectors.joining(";"));
                 System.err.println(labels);
@@ -89,7 +89,7 @@ public class Merger {
         List<TermId> termIn1not2 = new ArrayList<>();
         List<TermId> termIn2not1 = new ArrayList<>();
         for (HpoAnnotation tiwm : disease_1.getPhenotypicAbnormalities()) {
-            String label = ontology.getTermMap().get(tiwm.getTermId()).getName();
+            String label = ontology.getName(tiwm.getTermId());
             if (disease_2.isDirectlyAnnotatedTo(tiwm.getTermId())) {
                 phenotypicAbnormalities.add(tiwm);
                 System.err.println(String.format("D1 & D2: %s[%s]" ,label, tiwm.getIdWithPrefix()));
@@ -97,7 +97,7 @@ public class Merger {
                 Map<TermId,Integer> bestMatch = closestMatch1.closestTerms(tiwm.getTermId());
                 System.err.print(String.format("D1: %s[%s]\tD2: " ,label, tiwm.getIdWithPrefix()));
                 String labels=bestMatch.keySet().stream().map(tid -> String.format("%s[%s](d=%d)",
-                        ontology.getTermMap().get(tid).getName(),
+                        ontology.getName(tid),
                         tid.getIdWithPrefix(),
                         bestMatch.get(tid))).collect(Collectors.joining(";"));
                 System.err.println(labels);
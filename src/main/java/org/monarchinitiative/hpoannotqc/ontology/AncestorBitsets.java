@@ -0,0 +1,194 @@
+package org.monarchinitiative.hpoannotqc.ontology;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * The ancestors of every term of an {@link HpoTermIndex} as compressed bitsets. The bitset of a term has one bit
+ * for each dense term index, but only the non-zero 64-bit words are stored, together with the position of each
+ * word. An HPO term has few ancestors, and so most terms need only a handful of words. Membership is tested by a
+ * binary search over the word positions, and intersections are computed by merging the word lists.
+ * <p>
+ * The bitsets are computed once when the index is created and are never modified, so they can be read by many
+ * threads at the same time.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+final class AncestorBitsets {
+    private static final int[] NO_POSITIONS = new int[0];
+    private static final long[] NO_WORDS = new long[0];
+    /** Positions (index / 64) of the non-zero words of the ancestor bitset of each term, in ascending order. */
+    private final int[][] positions;
+    /** The non-zero words of the ancestor bitset of each term. */
+    private final long[][] words;
+
+    /**
+     * @param parents dense indices of the is_a parents of each term
+     * @throws IllegalArgumentException if the is_a edges contain a cycle
+     */
+    AncestorBitsets(int[][] parents) {
+        int n = parents.length;
+        positions = new int[n][];
+        words = new long[n][];
+        // 0 = not visited, 1 = in progress, 2 = done
+        byte[] state = new byte[n];
+        for (int start=0; start<n; start++) {
+            if (state[start] == 2) continue;
+            // iterative post-order traversal, so that the ancestors of all parents are known before the term itself
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (! stack.isEmpty()) {
+                int t = stack.peek();
+                if (state[t] == 0) {
+                    state[t] = 1;
+                    for (int p : parents[t]) {
+                        if (state[p] == 1) {
+                            throw new IllegalArgumentException("Cycle in is_a edges at term index " + p);
+                        }
+                        if (state[p] == 0) {
+                            stack.push(p);
+                        }
+                    }
+                } else {
+                    stack.pop();
+                    if (state[t] == 1) {
+                        union(t, parents[t]);
+                        state[t] = 2;
+                    }
+                }
+            }
+        }
+    }
+
+    /** The ancestors of t are its parents and the ancestors of its parents. */
+    private void union(int t, int[] termParents) {
+        if (termParents.length == 0) {
+            positions[t] = NO_POSITIONS;
+            words[t] = NO_WORDS;
+            return;
+        }
+        int[] pos = NO_POSITIONS;
+        long[] w = NO_WORDS;
+        for (int p : termParents) {
+            int[] pp = {p >>> 6};
+            long[] pw = {1L << (p & 63)};
+            int[][] posOut = new int[1][];
+            long[][] wOut = new long[1][];
+            or(pos, w, pp, pw, posOut, wOut);
+            or(posOut[0], wOut[0], positions[p], words[p], posOut, wOut);
+            pos = posOut[0];
+            w = wOut[0];
+        }
+        positions[t] = pos;
+        words[t] = w;
+    }
+
+    /** Merge two sparse bitsets (positions and words) with a bitwise OR. */
+    private static void or(int[] aPos, long[] aW, int[] bPos, long[] bW, int[][] posOut, long[][] wOut) {
+        int[] pos = new int[aPos.length + bPos.length];
+        long[] w = new long[aPos.length + bPos.length];
+        int i = 0, j = 0, k = 0;
+        while (i < aPos.length || j < bPos.length) {
+            if (j == bPos.length || (i < aPos.length && aPos[i] < bPos[j])) {
+                pos[k] = aPos[i];
+                w[k++] = aW[i++];
+            } else if (i == aPos.length || bPos[j] < aPos[i]) {
+                pos[k] = bPos[j];
+                w[k++] = bW[j++];
+            } else {
+                pos[k] = aPos[i];
+                w[k++] = aW[i++] | bW[j++];
+            }
+        }
+        posOut[0] = k == pos.length ? pos : Arrays.copyOf(pos, k);
+        wOut[0] = k == w.length ? w : Arrays.copyOf(w, k);
+    }
+
+    /** @return true if a is an ancestor of t (a term is not its own ancestor) */
+    boolean isAncestor(int a, int t) {
+        int k = Arrays.binarySearch(positions[t], a >>> 6);
+        return k >= 0 && (words[t][k] & (1L << (a & 63))) != 0;
+    }
+
+    /** @return the dense indices of the ancestors of t in ascending order */
+    int[] getAncestors(int t) {
+        return toIndices(positions[t], words[t]);
+    }
+
+    /**
+     * @return the dense indices of the terms that are an ancestor of both terms or one of the terms itself and an
+     * ancestor of the other, in ascending order
+     */
+    int[] getCommonAncestors(int t1, int t2) {
+        int[] p1 = positions[t1], p2 = positions[t2];
+        long[] w1 = words[t1], w2 = words[t2];
+        int[] pos = new int[Math.min(p1.length, p2.length) + 2];
+        long[] w = new long[pos.length];
+        int i = 0, j = 0, k = 0;
+        while (i < p1.length && j < p2.length) {
+            if (p1[i] < p2[j]) {
+                i++;
+            } else if (p2[j] < p1[i]) {
+                j++;
+            } else {
+                long and = w1[i++] & w2[j++];
+                if (and != 0) {
+                    pos[k] = p1[i - 1];
+                    w[k++] = and;
+                }
+            }
+        }
+        int[] common = toIndices(Arrays.copyOf(pos, k), Arrays.copyOf(w, k));
+        // a term is also a common ancestor if it is the other term or one of its ancestors
+        if (t1 == t2) {
+            return insert(common, t1);
+        }
+        if (isAncestor(t1, t2)) {
+            common = insert(common, t1);
+        } else if (isAncestor(t2, t1)) {
+            common = insert(common, t2);
+        }
+        return common;
+    }
+
+    private static int[] insert(int[] sorted, int x) {
+        int k = Arrays.binarySearch(sorted, x);
+        if (k >= 0) {
+            return sorted;
+        }
+        k = -k - 1;
+        int[] result = new int[sorted.length + 1];
+        System.arraycopy(sorted, 0, result, 0, k);
+        result[k] = x;
+        System.arraycopy(sorted, k, result, k + 1, sorted.length - k);
+        return result;
+    }
+
+    private static int[] toIndices(int[] pos, long[] w) {
+        int n = 0;
+        for (long word : w) {
+            n += Long.bitCount(word);
+        }
+        int[] indices = new int[n];
+        int k = 0;
+        for (int i = 0; i < pos.length; i++) {
+            long word = w[i];
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                indices[k++] = (pos[i] << 6) + bit;
+                word &= word - 1;
+            }
+        }
+        return indices;
+    }
+
+    /** @return number of stored words, which is a measure of the size of the bitsets */
+    long getNumberOfWords() {
+        long n = 0;
+        for (long[] w : words) {
+            n += w.length;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,336 @@
+package org.monarchinitiative.hpoannotqc.ontology;
+
+import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm;
+import org.monarchinitiative.phenol.ontology.data.Term;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.*;
+
+/**
+ * A compact, read-only view of the parts of the HPO that are needed to check and convert the annotations: the
+ * terms with their labels, the alt_id to primary id mapping, the is_a edges and the meta information of
+ * {@code hp.obo}. Every term gets a dense index (0..n-1), and the edges are stored as arrays of these indices.
+ * The index can be created from a parsed {@link HpoOntology} or from a binary snapshot (see
+ * {@link org.monarchinitiative.hpoannotqc.io.HpoOntologySnapshot}), which is much faster to load than hp.obo.
+ * The ancestors of all terms are precomputed as compressed bitsets ({@link AncestorBitsets}), so that subclass,
+ * common ancestor and sibling queries do not need to walk the graph. The index is immutable and can be shared by
+ * many threads.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public final class HpoTermIndex {
+    private static final int[] NO_TERMS = new int[0];
+    /** The primary ids of the terms; the position is the dense index of the term. */
+    private final TermId[] termIds;
+    private final String[] labels;
+    private final boolean[] obsolete;
+    /** Dense indices of the is_a parents of each term. */
+    private final int[][] parents;
+    /** Dense indices of the is_a children of each term. */
+    private final int[][] children;
+    /** Key: primary id or alt_id; value: dense index of the (primary) term. */
+    private final Map<TermId,Integer> index;
+    private final Map<String,String> metaInfo;
+    /** The (strict) ancestors of each term. */
+    private final AncestorBitsets ancestors;
+
+    private HpoTermIndex(Builder builder) {
+        int n = builder.termIds.size();
+        this.termIds = builder.termIds.toArray(new TermId[n]);
+        this.labels = builder.labels.toArray(new String[n]);
+        this.obsolete = new boolean[n];
+        this.parents = new int[n][];
+        int[] n_children = new int[n];
+        for (int i=0;i<n;i++) {
+            obsolete[i] = builder.obsolete.get(i);
+            List<Integer> p = builder.parents.get(i);
+            parents[i] = p == null ? NO_TERMS : p.stream().mapToInt(Integer::intValue).toArray();
+            for (int parent : parents[i]) {
+                n_children[parent]++;
+            }
+        }
+        this.children = new int[n][];
+        for (int i=0;i<n;i++) {
+            children[i] = n_children[i] == 0 ? NO_TERMS : new int[n_children[i]];
+            n_children[i] = 0;
+        }
+        for (int i=0;i<n;i++) {
+            for (int parent : parents[i]) {
+                children[parent][n_children[parent]++] = i;
+            }
+        }
+        this.index = new HashMap<>(builder.index);
+        this.metaInfo = Collections.unmodifiableMap(new LinkedHashMap<>(builder.metaInfo));
+        this.ancestors = new AncestorBitsets(parents);
+    }
+
+    /**
+     * Create the index from a parsed ontology. The terms are numbered in the order of their ids, so that the index
+     * does not depend on the iteration order of the term map.
+     */
+    public static HpoTermIndex of(HpoOntology ontology) {
+        Builder builder = new Builder();
+        builder.setMetaInfo(ontology.getMetaInfo());
+        SortedMap<String,Term> primaryTerms = new TreeMap<>();
+        for (Term term : ontology.getTermMap().values()) {
+            primaryTerms.put(term.getId().getIdWithPrefix(), term);
+        }
+        for (Term term : primaryTerms.values()) {
+            builder.addTerm(term.getId(), term.getName(), term.isObsolete());
+        }
+        for (Map.Entry<TermId,? extends Term> e : ontology.getTermMap().entrySet()) {
+            if (! e.getKey().equals(e.getValue().getId())) {
+                builder.addAltId(e.getKey(), e.getValue().getId());
+            }
+        }
+        Set<TermId> nonObsolete = ontology.getNonObsoleteTermIds();
+        for (Term term : primaryTerms.values()) {
+            if (! nonObsolete.contains(term.getId())) continue; // obsolete terms are not part of the graph
+            for (TermId parent : OntologyAlgorithm.getParentTerms(ontology, term.getId(), false)) {
+                builder.addParent(term.getId(), parent);
+            }
+        }
+        return builder.build();
+    }
+
+    /** @return number of (primary) terms */
+    public int size() {
+        return termIds.length;
+    }
+
+    /** @return true if the id is a primary id or alt_id of a term */
+    public boolean contains(TermId tid) {
+        return index.containsKey(tid);
+    }
+
+    /** @return the dense index of the term with the given primary id or alt_id, or -1 if there is no such term */
+    public int getIndex(TermId tid) {
+        Integer i = index.get(tid);
+        return i == null ? -1 : i;
+    }
+
+    /** @return the primary id of the term with the given dense index */
+    public TermId getTermId(int i) {
+        return termIds[i];
+    }
+
+    /** @return the primary id for a primary id or alt_id, or null if the term is not in the ontology */
+    public TermId getPrimaryTermId(TermId tid) {
+        Integer i = index.get(tid);
+        return i == null ? null : termIds[i];
+    }
+
+    /** @return the label of the term with the given primary id or alt_id, or null if the term is not in the ontology */
+    public String getName(TermId tid) {
+        Integer i = index.get(tid);
+        return i == null ? null : labels[i];
+    }
+
+    public String getName(int i) {
+        return labels[i];
+    }
+
+    public boolean isObsolete(int i) {
+        return obsolete[i];
+    }
+
+    /** @return dense indices of the is_a parents of term i (the array must not be modified) */
+    public int[] getParents(int i) {
+        return parents[i];
+    }
+
+    /** @return dense indices of the is_a children of term i (the array must not be modified) */
+    public int[] getChildren(int i) {
+        return children[i];
+    }
+
+    /** @return all primary ids and alt_ids */
+    public Set<TermId> getAllTermIds() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /** @return the alt_ids and the dense index of their primary term */
+    public Map<TermId,Integer> getAltIds() {
+        Map<TermId,Integer> altIds = new HashMap<>();
+        for (Map.Entry<TermId,Integer> e : index.entrySet()) {
+            if (! termIds[e.getValue()].equals(e.getKey())) {
+                altIds.put(e.getKey(), e.getValue());
+            }
+        }
+        return altIds;
+    }
+
+    /** @return the header of hp.obo, e.g., data-version and saved-by */
+    public Map<String,String> getMetaInfo() {
+        return metaInfo;
+    }
+
+    /**
+     * @param root primary id or alt_id of a term
+     * @return the primary ids of the root and all of its descendants (empty if the root is not in the ontology)
+     */
+    public Set<TermId> getDescendents(TermId root) {
+        Set<TermId> descendents = new HashSet<>();
+        int r = getIndex(root);
+        if (r < 0) {
+            return descendents;
+        }
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(r);
+        while (! stack.isEmpty()) {
+            int i = stack.pop();
+            if (descendents.add(termIds[i])) {
+                for (int c : children[i]) {
+                    stack.push(c);
+                }
+            }
+        }
+        return descendents;
+    }
+
+    /**
+     * @return true if the ancestor is reachable from the term via is_a edges. As in phenol, a term does not have
+     * a path to itself.
+     */
+    public boolean existsPath(TermId term, TermId ancestor) {
+        int t = getIndex(term);
+        int a = getIndex(ancestor);
+        return t >= 0 && a >= 0 && ancestors.isAncestor(a, t);
+    }
+
+    /** @return true if term a is a (strict) ancestor of term t */
+    public boolean isAncestor(int a, int t) {
+        return ancestors.isAncestor(a, t);
+    }
+
+    /** @return true if sub is the same term as sup or one of its descendants (as OntologyAlgorithm.isSubclass) */
+    public boolean isSubclass(int sub, int sup) {
+        return sub == sup || ancestors.isAncestor(sup, sub);
+    }
+
+    /**
+     * @return true if sub is the same term as sup (also if one of them is an alt_id) or one of its descendants;
+     * false if one of the terms is not in the ontology
+     */
+    public boolean isSubclass(TermId sub, TermId sup) {
+        int s = getIndex(sub);
+        int t = getIndex(sup);
+        return s >= 0 && t >= 0 && isSubclass(s, t);
+    }
+
+    /** @return dense indices of the (strict) ancestors of term i in ascending order */
+    public int[] getAncestors(int i) {
+        return ancestors.getAncestors(i);
+    }
+
+    /**
+     * @return dense indices of the terms that subsume both terms (including the terms themselves if one subsumes the
+     * other) in ascending order
+     */
+    public int[] getCommonAncestors(int i, int j) {
+        return ancestors.getCommonAncestors(i, j);
+    }
+
+    /** @return primary ids of the terms that subsume both terms (empty if one of them is not in the ontology) */
+    public Set<TermId> getCommonAncestors(TermId t1, TermId t2) {
+        Set<TermId> common = new HashSet<>();
+        int i = getIndex(t1);
+        int j = getIndex(t2);
+        if (i >= 0 && j >= 0) {
+            for (int a : ancestors.getCommonAncestors(i, j)) {
+                common.add(termIds[a]);
+            }
+        }
+        return common;
+    }
+
+    /** @return primary ids of the is_a parents of a term (empty if the term is not in the ontology) */
+    public Set<TermId> getParentTerms(TermId tid) {
+        Set<TermId> parentTerms = new HashSet<>();
+        int i = getIndex(tid);
+        if (i >= 0) {
+            for (int p : parents[i]) {
+                parentTerms.add(termIds[p]);
+            }
+        }
+        return parentTerms;
+    }
+
+    /** @return true if the two terms are different and have at least one is_a parent in common */
+    public boolean areSiblings(TermId t1, TermId t2) {
+        int i = getIndex(t1);
+        int j = getIndex(t2);
+        if (i < 0 || j < 0 || i == j) {
+            return false;
+        }
+        for (int p : parents[i]) {
+            for (int q : parents[j]) {
+                if (p == q) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the terms, alt_ids and edges of an {@link HpoTermIndex}. The terms are numbered in the order in which
+     * they are added.
+     */
+    public static class Builder {
+        private final List<TermId> termIds = new ArrayList<>();
+        private final List<String> labels = new ArrayList<>();
+        private final List<Boolean> obsolete = new ArrayList<>();
+        private final List<List<Integer>> parents = new ArrayList<>();
+        private final Map<TermId,Integer> index = new HashMap<>();
+        private final Map<String,String> metaInfo = new LinkedHashMap<>();
+
+        public Builder setMetaInfo(Map<String,String> meta) {
+            metaInfo.clear();
+            metaInfo.putAll(meta);
+            return this;
+        }
+
+        /** Add a term, which gets the next dense index. */
+        public Builder addTerm(TermId tid, String label, boolean isObsolete) {
+            if (index.containsKey(tid)) {
+                throw new IllegalArgumentException("Duplicate term " + tid.getIdWithPrefix());
+            }
+            index.put(tid, termIds.size());
+            termIds.add(tid);
+            labels.add(label);
+            obsolete.add(isObsolete);
+            parents.add(null);
+            return this;
+        }
+
+        /** Add an is_a edge between two terms that were already added. */
+        public Builder addParent(TermId child, TermId parent) {
+            int c = requireIndex(child);
+            int p = requireIndex(parent);
+            if (parents.get(c) == null) {
+                parents.set(c, new ArrayList<>());
+            }
+            parents.get(c).add(p);
+            return this;
+        }
+
+        /** Add an alt_id of a term that was already added. */
+        public Builder addAltId(TermId altId, TermId primary) {
+            index.put(altId, requireIndex(primary));
+            return this;
+        }
+
+        private int requireIndex(TermId tid) {
+            Integer i = index.get(tid);
+            if (i == null) {
+                throw new IllegalArgumentException("Unknown term " + tid.getIdWithPrefix());
+            }
+            return i;
+        }
+
+        public HpoTermIndex build() {
+            return new HpoTermIndex(this);
+        }
+    }
+}
@@ -3,9 +3,10 @@ package org.monarchinitiative.hpoannotqc.orphanet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.monarchinitiative.hpoannotqc.smallfile.AnnotationInterner;
 import org.monarchinitiative.hpoannotqc.smallfile.SmallFileQCCode;
 import org.monarchinitiative.phenol.formats.hpo.HpoFrequencyTermIds;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
 import java.io.FileInputStream;
@@ -29,7 +30,9 @@ public class OrphanetXML2HpoDiseaseModelParser {
     private final List<OrphanetDisorder> disorders;
 
 
-    private final HpoOntology ontology;
+    private final HpoTermIndex ontology;
+    /** Resolves the term ids to the TermId objects of the ontology. */
+    private final AnnotationInterner interner;
     private int n_could_not_find_orphanet_HpoId=0;
     private int n_updatedTermId=0;
     private int n_updatedTermLabel=0;
@@ -41,9 +44,19 @@ public class OrphanetXML2HpoDiseaseModelParser {
     private boolean inAssociation = false;
 
 
-    public OrphanetXML2HpoDiseaseModelParser(String xmlpath, HpoOntology onto) {
+    public OrphanetXML2HpoDiseaseModelParser(String xmlpath, HpoTermIndex onto) {
+        this(xmlpath,onto,new AnnotationInterner(onto));
+    }
+
+    /**
+     * @param xmlpath path to the Orphanet XML file
+     * @param onto reference to HPO ontology
+     * @param interner canonical instances of the values (can be shared with the small file parsers)
+     */
+    public OrphanetXML2HpoDiseaseModelParser(String xmlpath, HpoTermIndex onto, AnnotationInterner interner) {
         orphanetXmlPath = xmlpath;
         this.ontology=onto;
+        this.interner=interner;
         disorders = new ArrayList<>();
         try {
             parse();
@@ -84,13 +97,13 @@ public class OrphanetXML2HpoDiseaseModelParser {
     }
 
     private TermId currentNotAltHpoId(String id) {
-        TermId tid = TermId.constructWithPrefix(id);
-        if (! ontology.getTermMap().containsKey(tid)) {
+        TermId tid = interner.termId(id);
+        if (! ontology.contains(tid)) {
             logger.error("[ERROR] Could not find TermId for Orphanet HPO ID \""+ id + "\"");
             n_could_not_find_orphanet_HpoId++;
             return null; // probably an obsolete term.
         }
-        TermId currentId =  ontology.getTermMap().get(tid).getId();
+        TermId currentId =  ontology.getPrimaryTermId(tid);
         if (!currentId.equals(tid)) {
             n_updatedTermId++;
         }
@@ -99,12 +112,12 @@ public class OrphanetXML2HpoDiseaseModelParser {
 
     private String getCurrentHpoLabel(TermId tid, String orphalabel) {
 
-        if (! ontology.getTermMap().containsKey(tid)) {
+        if (! ontology.contains(tid)) {
             logger.error(String.format("[ERROR] Using label for non-findable TermId for Orphanet HPO ID %s[%s] -- will skip this annotation", tid.getIdWithPrefix(),orphalabel));
             n_could_not_find_orphanet_HpoId++;
-            return orphalabel; // probably an obsolete term.
+            return interner.intern(orphalabel); // probably an obsolete term.
         }
-        String label = ontology.getTermMap().get(tid).getName();
+        String label = ontology.getName(tid);
         if (! label.equals(orphalabel)) {
             n_updatedTermLabel++;
         }
@@ -138,7 +151,7 @@ public class OrphanetXML2HpoDiseaseModelParser {
                     // since we get the class from the attribute "id"
                     xmlEvent = xmlEventReader.nextEvent();
                     String diseaseName = xmlEvent.asCharacters().getData();
-                    disorder.setName(diseaseName);
+                    disorder.setName(interner.intern(diseaseName));
                 } else if (startElement.getName().getLocalPart().equals("HPODisorderAssociationList")) {
                     inAssociationList = true;
                 } else if (startElement.getName().getLocalPart().equals("HPODisorderAssociation")) {
@@ -0,0 +1,95 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the values of the annotation lines to canonical instances while the small files and the Orphanet XML
+ * file are being parsed. Each line of a small file repeats the disease ID, disease name, evidence code and usually
+ * the publication and biocuration, and the parsers would otherwise keep a separate String for each of them.
+ * Term ids are resolved to the {@link TermId} object that is used as a key of {@link HpoTermIndex#getAllTermIds()},
+ * so that no new TermId needs to be created for terms of the ontology.
+ * <p>
+ * The interner is thread-safe and can be shared by the workers that parse the small files. It also counts the
+ * values that were replaced by a canonical instance, which gives an estimate of the retained heap that was saved.
+ * The canonical instances are held weakly, so that a value is only kept as long as a parsed small file refers to
+ * it; when the small files are streamed and discarded, the interner does not keep their values alive.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class AnnotationInterner {
+    /** Canonical String values. */
+    private final Interner<String> strings = Interners.newWeakInterner();
+    /** Term ids that are not in the ontology (e.g., obsolete terms). */
+    private final Interner<TermId> otherTermIds = Interners.newWeakInterner();
+    /** Key: a term id such as HP:0001234; value: the TermId object used by the ontology. */
+    private final Map<String,TermId> ontologyTermIds;
+
+    private final AtomicLong n_string_lookups = new AtomicLong();
+    private final AtomicLong n_strings_replaced = new AtomicLong();
+    private final AtomicLong n_termid_lookups = new AtomicLong();
+    private final AtomicLong n_termids_reused = new AtomicLong();
+    private final AtomicLong bytes_saved = new AtomicLong();
+
+    /**
+     * @param ontology Reference to the HPO Ontology, whose term ids are used as the canonical {@link TermId} objects
+     */
+    public AnnotationInterner(HpoTermIndex ontology) {
+        Map<String,TermId> termIds = new HashMap<>();
+        for (TermId tid : ontology.getAllTermIds()) {
+            termIds.put(tid.getIdWithPrefix(), tid);
+        }
+        this.ontologyTermIds = termIds;
+    }
+
+    /** @return the canonical instance of s (null and the empty String are returned unchanged) */
+    public String intern(String s) {
+        if (s==null || s.isEmpty()) {
+            return s;
+        }
+        n_string_lookups.incrementAndGet();
+        String canonical = strings.intern(s);
+        if (canonical!=s) {
+            n_strings_replaced.incrementAndGet();
+            bytes_saved.addAndGet(HeapSizeEstimator.stringBytes(s));
+        }
+        return canonical;
+    }
+
+    /**
+     * @param id a term id such as HP:0001234
+     * @return the TermId object of the ontology, or a canonical new TermId if the term is not in the ontology
+     */
+    public TermId termId(String id) {
+        n_termid_lookups.incrementAndGet();
+        TermId tid = ontologyTermIds.get(id);
+        if (tid==null) {
+            TermId created = TermId.constructWithPrefix(id);
+            tid = otherTermIds.intern(created);
+            if (tid==created) {
+                return tid;
+            }
+        }
+        n_termids_reused.incrementAndGet();
+        bytes_saved.addAndGet(HeapSizeEstimator.termIdBytes());
+        return tid;
+    }
+
+    /** @return estimated number of bytes of retained heap saved by replacing values with canonical instances */
+    public long getEstimatedBytesSaved() {
+        return bytes_saved.get();
+    }
+
+    public String getDeduplicationReport() {
+        return String.format("Deduplicated %d of %d strings and reused %d of %d term ids (retained heap saved: about %.1f MB, an estimate from HeapSizeEstimator)",
+                n_strings_replaced.get(), n_string_lookups.get(),
+                n_termids_reused.get(), n_termid_lookups.get(),
+                bytes_saved.get()/1048576.0);
+    }
+}
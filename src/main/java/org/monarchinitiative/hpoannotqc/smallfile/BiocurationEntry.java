@@ -3,8 +3,6 @@ package org.monarchinitiative.hpoannotqc.smallfile;
 import com.google.common.collect.ImmutableList;
 
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Each object represents on biocuration entry of the type {@code HPO:skoehler[2018-09-21]}.
@@ -13,8 +11,6 @@ public class BiocurationEntry {
 
     private String biocurator;
     private String date;
-    /** regex for patterns such as HPO:skoehler[2018-09-22] */
-    private static final String regex = "(\\w+:\\w+)\\[(\\d{4}-\\d{2}-\\d{2})\\]";
 
     private BiocurationEntry(String bioc, String dt){
         this.biocurator=bioc;
@@ -30,32 +26,21 @@ public class BiocurationEntry {
         return date;
     }
 
+    /**
+     * @param entrylist a biocuration field such as HPO:skoehler[2018-09-22];HPO:probinson[2018-10-01]
+     * @return the entries of the ;-separated items that contain one (see {@link FieldGrammar})
+     */
     public static List<BiocurationEntry> getBiocurationList(String entrylist) {
-        ImmutableList.Builder<BiocurationEntry> builder = new ImmutableList.Builder();
-        String fields[] = entrylist.split(";");
-        for (String f : fields) {
-            BiocurationEntry entry = fromString(f);
-            if (entry != null) {
-                builder.add(entry);
+        ImmutableList.Builder<BiocurationEntry> builder = new ImmutableList.Builder<>();
+        for (int from=0;from<entrylist.length();from=FieldGrammar.itemEnd(entrylist,from)+1) {
+            long e = FieldGrammar.findBiocurationEntry(entrylist,from,FieldGrammar.itemEnd(entrylist,from));
+            if (e>=0) {
+                builder.add(new BiocurationEntry(
+                        entrylist.substring(FieldGrammar.curatorStart(e),FieldGrammar.curatorEnd(e)),
+                        entrylist.substring(FieldGrammar.dateStart(e),FieldGrammar.dateEnd(e))));
             }
         }
         return builder.build();
-
-    }
-
-
-
-    private static BiocurationEntry fromString(String entry) {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(entry);
-
-        if (matcher.find()) {
-            String biocurator = matcher.group(1);
-            String date = matcher.group(2);
-            return new BiocurationEntry(biocurator,date);
-        } else {
-            return null;
-        }
     }
 
 
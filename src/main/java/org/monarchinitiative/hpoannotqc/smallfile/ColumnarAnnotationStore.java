@@ -0,0 +1,376 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.*;
+
+import static org.monarchinitiative.hpoannotqc.smallfile.HeapSizeEstimator.*;
+
+/**
+ * A columnar in-memory representation of the annotation lines of all diseases. This is an alternative to a
+ * {@code List<V2SmallFile>}, in which every annotation line is a {@link V2SmallFileEntry} with 13 String fields and
+ * a {@link TermId}. Here, each field is one primitive array with one element per annotation line:
+ * <ul>
+ *     <li>The phenotype HPO id is encoded as its integer value (HP:0001234 is stored as 1234).</li>
+ *     <li>The disease IDs, names, evidence codes, sex, negation, biocuration and the other short fields are
+ *     dictionary encoded, i.e., each distinct value is stored once and the column holds its index.</li>
+ *     <li>The free-text descriptions are stored one after the other in a single char array with an offset index.</li>
+ * </ul>
+ * The rows are accessed with a {@link Row} cursor that implements {@link V2AnnotationLine}. The cursor is moved over
+ * the rows, so that iterating over the store does not allocate an object per row. All fields except the
+ * description are returned as the shared dictionary Strings.
+ * <p>
+ * The rows are grouped by disease (one small file or one Orphanet disorder) in the order in which they were added.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public final class ColumnarAnnotationStore {
+    private final static String EMPTY_STRING="";
+
+    /** Number of annotation lines. */
+    private final int size;
+    /** Integer value of the phenotype HPO id of each line. */
+    private final int[] phenotype;
+    private final int[] diseaseId;
+    private final int[] database;
+    private final int[] diseaseName;
+    private final int[] phenotypeName;
+    private final int[] onsetId;
+    private final int[] onsetName;
+    private final int[] frequency;
+    private final int[] sex;
+    private final int[] negation;
+    private final int[] modifier;
+    private final int[] publication;
+    private final int[] evidence;
+    private final int[] biocuration;
+    /** The description of line i is {@code descriptionChars[descriptionOffsets[i]..descriptionOffsets[i+1])}. */
+    private final int[] descriptionOffsets;
+    private final char[] descriptionChars;
+    /** All distinct String values; the dictionary-encoded columns hold indices into this array. */
+    private final String[] dictionary;
+    /** Sorted integer values of the phenotype ids, used to look up the corresponding {@link #termIds}. */
+    private final int[] termKeys;
+    private final TermId[] termIds;
+    /** The rows of disease d are {@code diseaseStart[d]..diseaseStart[d+1]}. */
+    private final int[] diseaseStart;
+    /** Name of the source of each disease (e.g., OMIM-600123.tab or ORPHA:123). */
+    private final String[] diseaseSource;
+    /** Estimated heap size of the same data as {@link V2SmallFile} objects. */
+    private final long objectModelBytes;
+
+    private ColumnarAnnotationStore(Builder builder) {
+        this.size=builder.size;
+        this.phenotype=Arrays.copyOf(builder.phenotype,size);
+        this.diseaseId=Arrays.copyOf(builder.columns[0],size);
+        this.database=Arrays.copyOf(builder.columns[1],size);
+        this.diseaseName=Arrays.copyOf(builder.columns[2],size);
+        this.phenotypeName=Arrays.copyOf(builder.columns[3],size);
+        this.onsetId=Arrays.copyOf(builder.columns[4],size);
+        this.onsetName=Arrays.copyOf(builder.columns[5],size);
+        this.frequency=Arrays.copyOf(builder.columns[6],size);
+        this.sex=Arrays.copyOf(builder.columns[7],size);
+        this.negation=Arrays.copyOf(builder.columns[8],size);
+        this.modifier=Arrays.copyOf(builder.columns[9],size);
+        this.publication=Arrays.copyOf(builder.columns[10],size);
+        this.evidence=Arrays.copyOf(builder.columns[11],size);
+        this.biocuration=Arrays.copyOf(builder.columns[12],size);
+        this.descriptionOffsets=Arrays.copyOf(builder.descriptionOffsets,size+1);
+        this.descriptionChars=builder.descriptionChars.toString().toCharArray();
+        this.dictionary=builder.dictionaryValues.toArray(new String[0]);
+        TreeMap<Integer,TermId> sortedTerms = new TreeMap<>(builder.terms);
+        this.termKeys=new int[sortedTerms.size()];
+        this.termIds=new TermId[sortedTerms.size()];
+        int i=0;
+        for (Map.Entry<Integer,TermId> e : sortedTerms.entrySet()) {
+            termKeys[i]=e.getKey();
+            termIds[i]=e.getValue();
+            i++;
+        }
+        this.diseaseStart=new int[builder.diseaseStart.size()+1];
+        for (int d=0;d<builder.diseaseStart.size();d++) {
+            diseaseStart[d]=builder.diseaseStart.get(d);
+        }
+        diseaseStart[builder.diseaseStart.size()]=size;
+        this.diseaseSource=builder.diseaseSource.toArray(new String[0]);
+        this.objectModelBytes=builder.objectModelBytes;
+    }
+
+    /** @return number of annotation lines */
+    public int size() {
+        return size;
+    }
+
+    /** @return number of diseases (small files or Orphanet disorders) */
+    public int getNumberOfDiseases() {
+        return diseaseSource.length;
+    }
+
+    /** @return index of the first row of disease d */
+    public int getDiseaseStart(int d) {
+        return diseaseStart[d];
+    }
+
+    /** @return index after the last row of disease d */
+    public int getDiseaseEnd(int d) {
+        return diseaseStart[d+1];
+    }
+
+    /** @return name of the source of disease d, e.g., OMIM-600123.tab */
+    public String getDiseaseSource(int d) {
+        return diseaseSource[d];
+    }
+
+    /** @return integer value of the HPO id of the phenotype of row i (e.g., 1234 for HP:0001234) */
+    public int getPhenotypeNumber(int i) {
+        return phenotype[i];
+    }
+
+    /** @return a new cursor, which is positioned at row 0 */
+    public Row row() {
+        return new Row();
+    }
+
+    /**
+     * A cursor over the rows of the store. The same cursor object is used for all rows, and all accessors return
+     * the Strings of the dictionary (except {@link #getDescription()}).
+     */
+    public final class Row implements V2AnnotationLine {
+        private int i=0;
+
+        private Row() {
+        }
+
+        /** Move the cursor to row i. */
+        public Row moveTo(int i) {
+            if (i<0 || i>=size) {
+                throw new IndexOutOfBoundsException(String.format("Row %d requested but store has %d rows",i,size));
+            }
+            this.i=i;
+            return this;
+        }
+
+        /** @return index of the current row */
+        public int getIndex() {
+            return i;
+        }
+
+        @Override public String getDiseaseID() { return dictionary[diseaseId[i]]; }
+        @Override public String getDB() { return dictionary[database[i]]; }
+        @Override public String getDiseaseName() { return dictionary[diseaseName[i]]; }
+        @Override public TermId getPhenotypeId() { return termIds[Arrays.binarySearch(termKeys,phenotype[i])]; }
+        @Override public String getPhenotypeName() { return dictionary[phenotypeName[i]]; }
+        @Override public String getAgeOfOnsetId() { return dictionary[onsetId[i]]; }
+        @Override public String getAgeOfOnsetName() { return dictionary[onsetName[i]]; }
+        @Override public String getEvidenceCode() { return dictionary[evidence[i]]; }
+        @Override public String getFrequencyModifier() { return dictionary[frequency[i]]; }
+        @Override public String getSex() { return dictionary[sex[i]]; }
+        @Override public String getNegation() { return dictionary[negation[i]]; }
+        @Override public String getModifier() { return dictionary[modifier[i]]; }
+        @Override public String getPublication() { return dictionary[publication[i]]; }
+        @Override public String getBiocuration() { return dictionary[biocuration[i]]; }
+
+        /** The description is the only field that is materialized as a new String when requested. */
+        @Override public String getDescription() {
+            int start=descriptionOffsets[i];
+            int len=descriptionOffsets[i+1]-start;
+            return len==0 ? EMPTY_STRING : new String(descriptionChars,start,len);
+        }
+
+        @Override public String getRow() {
+            // the description is copied from the char array without materializing it
+            int start=descriptionOffsets[i];
+            return TsvEmitter.forThread()
+                    .field(getDiseaseID())
+                    .field(getDiseaseName())
+                    .field(getPhenotypeId().getIdWithPrefix())
+                    .field(getPhenotypeName())
+                    .field(getAgeOfOnsetId())
+                    .field(getAgeOfOnsetName())
+                    .field(getFrequencyModifier())
+                    .field(getSex())
+                    .field(getNegation())
+                    .field(getModifier())
+                    .field(descriptionChars,start,descriptionOffsets[i+1]-start)
+                    .field(getPublication())
+                    .field(getEvidenceCode())
+                    .field(getBiocuration())
+                    .toLineString();
+        }
+
+        @Override public String toString() { return getRow(); }
+    }
+
+    /**
+     * @return estimated heap size of this store in bytes (arrays, dictionary Strings and TermIds)
+     */
+    public long estimateHeapBytes() {
+        long bytes = 14L*intArrayBytes(size); // the thirteen dictionary-encoded columns and the phenotype column
+        bytes += intArrayBytes(size+1) + charArrayBytes(descriptionChars.length);
+        bytes += referenceArrayBytes(dictionary.length);
+        for (String s : dictionary) {
+            bytes += stringBytes(s);
+        }
+        bytes += intArrayBytes(termKeys.length) + referenceArrayBytes(termIds.length);
+        bytes += (long)termIds.length*termIdBytes();
+        bytes += intArrayBytes(diseaseStart.length) + referenceArrayBytes(diseaseSource.length);
+        for (String s : diseaseSource) {
+            bytes += stringBytes(s);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return estimated heap size in bytes of the same annotations represented as a {@code List<V2SmallFile>},
+     * in which the parser creates a new String for each non-empty field and a new {@link TermId} for each line
+     */
+    public long estimateObjectModelHeapBytes() {
+        return objectModelBytes;
+    }
+
+    /** @return a short comparison of the heap sizes of the columnar and the object representation */
+    public String getHeapSizeComparison() {
+        long columnar = estimateHeapBytes();
+        return String.format("Estimated heap for %d annotations of %d diseases: columnar store %.1f MB, V2SmallFile objects %.1f MB",
+                size, getNumberOfDiseases(), columnar/1048576.0, objectModelBytes/1048576.0);
+    }
+
+    /** Estimated size of one small file as parsed by {@link org.monarchinitiative.hpoannotqc.io.V2SmallFileParser}. */
+    private static long estimateObjectModelBytes(V2SmallFile v2sf) {
+        int n = v2sf.getNumberOfAnnotations();
+        long bytes = objectBytes(4,0) + stringBytes(v2sf.getBasename());
+        bytes += objectBytes(1,0) + referenceArrayBytes(n); // ImmutableList
+        for (V2SmallFileEntry e : v2sf.getOriginalEntryList()) {
+            bytes += objectBytes(14,0) + termIdBytes();
+            for (String s : new String[]{e.getDiseaseID(),e.getDiseaseName(),e.getPhenotypeName(),e.getAgeOfOnsetId(),
+                    e.getAgeOfOnsetName(),e.getFrequencyModifier(),e.getSex(),e.getNegation(),e.getModifier(),
+                    e.getDescription(),e.getPublication(),e.getEvidenceCode(),e.getBiocuration()}) {
+                if (s!=null && !s.isEmpty()) {
+                    bytes += stringBytes(s);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Builds a {@link ColumnarAnnotationStore}. The diseases are added one at a time; the builder is not thread-safe.
+     */
+    public static class Builder {
+        private int size=0;
+        private int[] phenotype=new int[1024];
+        private final int[][] columns=new int[13][1024];
+        private int[] descriptionOffsets=new int[1025];
+        private final StringBuilder descriptionChars=new StringBuilder();
+        private final Map<String,Integer> dictionaryIndex=new HashMap<>();
+        private final List<String> dictionaryValues=new ArrayList<>();
+        private final Map<Integer,TermId> terms=new HashMap<>();
+        private final List<Integer> diseaseStart=new ArrayList<>();
+        private final List<String> diseaseSource=new ArrayList<>();
+        private long objectModelBytes=0;
+
+        public Builder() {
+            encode(EMPTY_STRING); // code 0 is the empty String
+        }
+
+        /** Add all lines of a small file as one disease. */
+        public Builder add(V2SmallFile v2sf) {
+            startDisease(v2sf.getBasename());
+            for (V2SmallFileEntry entry : v2sf.getOriginalEntryList()) {
+                addLine(entry);
+            }
+            objectModelBytes += estimateObjectModelBytes(v2sf);
+            return this;
+        }
+
+        /**
+         * Start a new disease; the lines added with {@link #addLine(V2AnnotationLine)} are assigned to it.
+         * @param source name of the source of the disease, e.g., OMIM-600123.tab or ORPHA:123
+         */
+        public Builder startDisease(String source) {
+            diseaseStart.add(size);
+            diseaseSource.add(source);
+            return this;
+        }
+
+        /** Add one line to the current disease. */
+        public Builder addLine(V2AnnotationLine line) {
+            if (diseaseStart.isEmpty()) {
+                throw new IllegalStateException("startDisease must be called before lines are added");
+            }
+            ensureCapacity(size+1);
+            TermId tid = line.getPhenotypeId();
+            int hpo = parseTermNumber(tid.getIdWithPrefix());
+            terms.putIfAbsent(hpo,tid);
+            phenotype[size]=hpo;
+            columns[0][size]=encode(line.getDiseaseID());
+            columns[1][size]=encode(line.getDB());
+            columns[2][size]=encode(line.getDiseaseName());
+            columns[3][size]=encode(line.getPhenotypeName());
+            columns[4][size]=encode(line.getAgeOfOnsetId());
+            columns[5][size]=encode(line.getAgeOfOnsetName());
+            columns[6][size]=encode(line.getFrequencyModifier());
+            columns[7][size]=encode(line.getSex());
+            columns[8][size]=encode(line.getNegation());
+            columns[9][size]=encode(line.getModifier());
+            columns[10][size]=encode(line.getPublication());
+            columns[11][size]=encode(line.getEvidenceCode());
+            columns[12][size]=encode(line.getBiocuration());
+            String description = line.getDescription();
+            if (description!=null) {
+                descriptionChars.append(description);
+            }
+            size++;
+            descriptionOffsets[size]=descriptionChars.length();
+            return this;
+        }
+
+        /** @return number of diseases added so far */
+        public int getNumberOfDiseases() {
+            return diseaseSource.size();
+        }
+
+        public ColumnarAnnotationStore build() {
+            return new ColumnarAnnotationStore(this);
+        }
+
+        private int encode(String s) {
+            if (s==null) {
+                s=EMPTY_STRING;
+            }
+            Integer code = dictionaryIndex.get(s);
+            if (code==null) {
+                code=dictionaryValues.size();
+                dictionaryIndex.put(s,code);
+                dictionaryValues.add(s);
+            }
+            return code;
+        }
+
+        private void ensureCapacity(int n) {
+            if (n<=phenotype.length) {
+                return;
+            }
+            int capacity=Math.max(n,2*phenotype.length);
+            phenotype=Arrays.copyOf(phenotype,capacity);
+            for (int c=0;c<columns.length;c++) {
+                columns[c]=Arrays.copyOf(columns[c],capacity);
+            }
+            descriptionOffsets=Arrays.copyOf(descriptionOffsets,capacity+1);
+        }
+
+        /** @return the integer value of an HPO id such as HP:0001234 (i.e., 1234) */
+        private static int parseTermNumber(String id) {
+            int colon = id.indexOf(':');
+            int value=0;
+            for (int k=colon+1;k<id.length();k++) {
+                char c = id.charAt(k);
+                if (c<'0' || c>'9') {
+                    throw new IllegalArgumentException("Not a numerical term id: "+id);
+                }
+                value = 10*value + (c-'0');
+            }
+            return value;
+        }
+    }
+}
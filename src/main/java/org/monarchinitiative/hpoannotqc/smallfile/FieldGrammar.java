@@ -0,0 +1,170 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+/**
+ * Hand-written scanners for the grammars of the small file fields, which are used by the parser, the Q/C and the
+ * merging code instead of regular expressions. The scanners look at the characters of a field once and do not
+ * create any objects, and so they can be called for every line of every small file. Digits and word characters are
+ * the ASCII characters, as with the regular expressions they replace:
+ * <pre>
+ * fraction     \d+/\d+                                       e.g. 4/7
+ * percentage   \d{1,3}%  or  \d{1,3}\.\d+%                   e.g. 32% or 32.6%
+ * HPO id       HP:\d{7}                                      e.g. HP:0040283
+ * CURIE        PREFIX:id (no space, no "::")                 e.g. PMID:123
+ * biocuration  (\w+:\w+)\[(\d{4}-\d{2}-\d{2})\] per ;-item   e.g. HPO:skoehler[2018-09-22];HPO:probinson[2018-10-01]
+ * </pre>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public final class FieldGrammar {
+    /** Length of the date of a biocuration entry, e.g., 2018-09-22. */
+    private static final int DATE_LENGTH=10;
+
+    private FieldGrammar() {
+    }
+
+    private static boolean isDigit(char c) {
+        return c>='0' && c<='9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || c=='_';
+    }
+
+    /** @return number of consecutive digits at position i */
+    private static int digits(CharSequence s, int i, int end) {
+        int j=i;
+        while (j<end && isDigit(s.charAt(j))) j++;
+        return j-i;
+    }
+
+    /** @return true for fractions such as 4/7 ({@code \d+/\d+}) */
+    public static boolean isFraction(CharSequence s) {
+        int n = digits(s,0,s.length());
+        return n>0 && n<s.length()-1 && s.charAt(n)=='/' && digits(s,n+1,s.length())==s.length()-n-1;
+    }
+
+    /** @return true for percentages such as 32% or 32.6% ({@code \d{1,3}%} or {@code \d{1,3}\.\d+%}) */
+    public static boolean isPercentage(CharSequence s) {
+        int len = s.length();
+        int n = digits(s,0,len);
+        if (n<1 || n>3 || len<n+1) {
+            return false;
+        }
+        if (s.charAt(n)=='.') {
+            int m = digits(s,n+1,len);
+            return m>0 && n+1+m==len-1 && s.charAt(len-1)=='%';
+        }
+        return n==len-1 && s.charAt(n)=='%';
+    }
+
+    /** @return true for HPO ids such as HP:0040283 ({@code HP:\d{7}}) */
+    public static boolean isHpoId(CharSequence s) {
+        return s.length()==10 && s.charAt(0)=='H' && s.charAt(1)=='P' && s.charAt(2)==':' && digits(s,3,10)==7;
+    }
+
+    /**
+     * Check a CURIE such as PMID:123. The prefix must not be empty, and the field must not contain a space or two
+     * consecutive colons (a URL such as https://... is accepted).
+     * @return the position of the first colon, or -1 if the field is not a valid CURIE
+     */
+    public static int curieColon(CharSequence s) {
+        int colon=-1;
+        char previous=0;
+        for (int i=0;i<s.length();i++) {
+            char c = s.charAt(i);
+            if (c==' ' || (c==':' && previous==':')) {
+                return -1;
+            }
+            if (c==':' && colon<0) {
+                colon=i;
+            }
+            previous=c;
+        }
+        return colon>0 ? colon : -1;
+    }
+
+    /** @return the numeric value of the digits s[from..to), or -1 if they are not all digits or overflow an int */
+    public static int parseNonNegativeInt(CharSequence s, int from, int to) {
+        if (from>=to) {
+            return -1;
+        }
+        int value=0;
+        for (int i=from;i<to;i++) {
+            char c = s.charAt(i);
+            if (! isDigit(c)) {
+                return -1;
+            }
+            int d = c-'0';
+            if (value>(Integer.MAX_VALUE-d)/10) {
+                return -1;
+            }
+            value=value*10+d;
+        }
+        return value;
+    }
+
+    /**
+     * Find the first biocuration entry such as HPO:skoehler[2018-09-22] in s[from..to). As with
+     * {@code Matcher.find}, the entry may be preceded and followed by other characters. The result is packed into a
+     * long to avoid creating an object; the biocurator is s[{@link #curatorStart}..{@link #curatorEnd}) and the date
+     * is the {@value #DATE_LENGTH} characters after the opening bracket at {@code curatorEnd}.
+     * @return the positions of the biocurator, or -1 if there is no entry
+     */
+    public static long findBiocurationEntry(CharSequence s, int from, int to) {
+        for (int p=from;p<to;p++) {
+            // a match can only start at the first character of a run of word characters
+            if (! isWordChar(s.charAt(p)) || (p>from && isWordChar(s.charAt(p-1)))) continue;
+            int i=p;
+            while (i<to && isWordChar(s.charAt(i))) i++;
+            if (i>=to || s.charAt(i)!=':') continue;
+            int j=++i;
+            while (j<to && isWordChar(s.charAt(j))) j++;
+            if (j==i || j+DATE_LENGTH+2>to || s.charAt(j)!='[' || s.charAt(j+DATE_LENGTH+1)!=']') continue;
+            if (isDate(s,j+1)) {
+                return ((long) p<<32) | j;
+            }
+        }
+        return -1;
+    }
+
+    /** @return true if s[i..i+10) has the form {@code \d{4}-\d{2}-\d{2}} */
+    private static boolean isDate(CharSequence s, int i) {
+        return digits(s,i,i+4)==4 && s.charAt(i+4)=='-' && digits(s,i+5,i+7)==2 && s.charAt(i+7)=='-' &&
+                digits(s,i+8,i+10)==2;
+    }
+
+    /** @return start of the biocurator of a result of {@link #findBiocurationEntry} */
+    public static int curatorStart(long entry) {
+        return (int) (entry>>>32);
+    }
+
+    /** @return end (exclusive) of the biocurator of a result of {@link #findBiocurationEntry} */
+    public static int curatorEnd(long entry) {
+        return (int) entry;
+    }
+
+    /** @return start of the date of a result of {@link #findBiocurationEntry} */
+    public static int dateStart(long entry) {
+        return curatorEnd(entry)+1;
+    }
+
+    /** @return end (exclusive) of the date of a result of {@link #findBiocurationEntry} */
+    public static int dateEnd(long entry) {
+        return dateStart(entry)+DATE_LENGTH;
+    }
+
+    /** @return end of the ;-separated item that starts at from */
+    public static int itemEnd(String s, int from) {
+        int semicolon = s.indexOf(';',from);
+        return semicolon<0 ? s.length() : semicolon;
+    }
+
+    /** @return true if at least one ;-separated item of the biocuration field contains a biocuration entry */
+    public static boolean hasBiocurationEntry(String s) {
+        for (int from=0;from<s.length();from=itemEnd(s,from)+1) {
+            if (findBiocurationEntry(s,from,itemEnd(s,from))>=0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,51 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+/**
+ * Rough estimates of the heap size of the objects used to represent annotations. The estimates assume a 64-bit JVM
+ * with compressed oops (12 byte object headers, 4 byte references, 8 byte alignment) and the Java 8 String, which
+ * keeps its characters in a char[] of two bytes per character. They are intended to compare representations of the
+ * annotations, not to predict the exact heap usage.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public final class HeapSizeEstimator {
+    /** Assumed size of an object reference. */
+    private final static int REFERENCE_BYTES=4;
+    /** Assumed size of an object header. */
+    private final static int HEADER_BYTES=12;
+    /** Assumed size of an array header (object header plus length). */
+    private final static int ARRAY_HEADER_BYTES=16;
+
+    private HeapSizeEstimator() {
+    }
+
+    static long align(long bytes) {
+        return (bytes+7) & ~7L;
+    }
+
+    /** @return size of an object with the given number of reference fields and bytes of primitive fields */
+    public static long objectBytes(int nReferences, int primitiveBytes) {
+        return align(HEADER_BYTES+(long)REFERENCE_BYTES*nReferences+primitiveBytes);
+    }
+
+    public static long intArrayBytes(int n) {
+        return align(ARRAY_HEADER_BYTES+4L*n);
+    }
+
+    public static long charArrayBytes(int n) {
+        return align(ARRAY_HEADER_BYTES+2L*n);
+    }
+
+    public static long referenceArrayBytes(int n) {
+        return align(ARRAY_HEADER_BYTES+(long)REFERENCE_BYTES*n);
+    }
+
+    /** @return size of a String (char[] value and int hash) with its backing array */
+    public static long stringBytes(String s) {
+        return objectBytes(1,4) + charArrayBytes(s.length());
+    }
+
+    /** @return size of a TermId such as HP:0001234 with its prefix and id Strings */
+    public static long termIdBytes() {
+        return objectBytes(2,0) + objectBytes(1,0) + stringBytes("HP") + stringBytes("0000000");
+    }
+}
@@ -0,0 +1,42 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+/**
+ * The number of good and bad entries for one line of the Q/C report, e.g., "12 good and 0 bad database entries".
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+class QcCounter {
+    /** The name of the counter in the Q/C report, e.g., "database". */
+    private final String name;
+    private int n_good=0;
+    private int n_bad=0;
+
+    QcCounter(String name) {
+        this.name=name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void good() {
+        n_good++;
+    }
+
+    void bad() {
+        n_bad++;
+    }
+
+    int getGood() {
+        return n_good;
+    }
+
+    int getBad() {
+        return n_bad;
+    }
+
+    /** Add the counts of another counter (e.g., of another worker thread) to this one. */
+    void add(QcCounter other) {
+        n_good += other.n_good;
+        n_bad += other.n_bad;
+    }
+}
@@ -0,0 +1,67 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+/**
+ * A failed Q/C check of one V2 annotation line. Only the location of the line, the reason and the offending value
+ * are stored; the message is rendered by {@link #render()} when the Q/C report is written.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public final class QcFinding {
+    /** Index of the disease (small file) in the order in which the diseases were checked, or -1 if not known. */
+    private final int diseaseIndex;
+    /** Disease ID of the line, e.g., OMIM:600123. */
+    private final String diseaseId;
+    /** 1-based number of the annotation line in its small file (not counting the header), or 0 if not known. */
+    private final int lineNumber;
+    private final QcFindingCode code;
+    /** The value of the field that failed the check (may be empty). */
+    private final String value;
+
+    /**
+     * @param diseaseIndex index of the disease in the order in which the diseases were checked (-1 if not known)
+     * @param diseaseId disease ID of the line, e.g., OMIM:600123
+     * @param lineNumber 1-based number of the line in its small file (0 if not known)
+     * @param code the reason for which the line failed the check
+     * @param value the value of the field that failed the check (null is stored as an empty value)
+     */
+    public QcFinding(int diseaseIndex, String diseaseId, int lineNumber, QcFindingCode code, String value) {
+        this.diseaseIndex=diseaseIndex;
+        this.diseaseId=diseaseId;
+        this.lineNumber=lineNumber;
+        this.code=code;
+        this.value=value!=null?value:"";
+    }
+
+    public int getDiseaseIndex() {
+        return diseaseIndex;
+    }
+
+    public String getDiseaseId() {
+        return diseaseId;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public QcFindingCode getCode() {
+        return code;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /** @return a message such as {@code Bad evidence code [XYZ]: OMIM:600123 line 3} */
+    public String render() {
+        if (lineNumber>0) {
+            return String.format("%s [%s]: %s line %d",code.getMessage(),value,diseaseId,lineNumber);
+        } else {
+            return String.format("%s [%s]: %s",code.getMessage(),value,diseaseId);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return render();
+    }
+}
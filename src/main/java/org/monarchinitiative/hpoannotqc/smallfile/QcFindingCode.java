@@ -0,0 +1,41 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+/**
+ * The reasons for which a V2 annotation line can fail a check of the {@link V2LineQualityController}. Each
+ * {@link QcFinding} has one of these codes, which belongs to one of the checks of the Q/C report.
+ */
+public enum QcFindingCode {
+    BAD_DATABASE("database", "Bad DB"),
+    MISSING_DISEASE_NAME("disease name", "Bad disease name"),
+    BAD_NEGATION("negation", "Bad negation"),
+    MISSING_PHENOTYPE_ID("phenotypeID", "Missing phenotype id"),
+    PHENOTYPE_ALT_ID("phenotypeID", "Found usage of alt_id for phenotype"),
+    UNKNOWN_PHENOTYPE_ID("phenotypeID", "Phenotype id is not in graph"),
+    MISSING_PHENOTYPE_LABEL("phenotype label", "Missing phenotype label"),
+    WRONG_PHENOTYPE_LABEL("phenotype label", "Found usage of wrong term label"),
+    PHENOTYPE_LABEL_OF_UNKNOWN_ID("phenotype label", "Could not check label of phenotype id that is not in graph"),
+    MALFORMED_PUBLICATION("publication", "Bad publication"),
+    UNKNOWN_PUBLICATION_PREFIX("publication", "Did not recognize publication prefix"),
+    UNKNOWN_ONSET_ID("age of onset ID", "Attempt to add onset ID that was not in graph"),
+    ONSET_ALT_ID("age of onset ID", "Attempt to use alt_id for onset term"),
+    NOT_AN_ONSET_TERM("age of onset ID", "Malformed age of onset ID"),
+    MISSING_ONSET_LABEL("age of onset label", "Missing age of onset label"),
+    WRONG_ONSET_LABEL("age of onset label", "Found usage of wrong age of onset label"),
+    ONSET_LABEL_WITHOUT_ID("age of onset label", "Age of onset label without age of onset ID"),
+    ONSET_LABEL_OF_UNKNOWN_ID("age of onset label", "Could not check label of onset ID that is not in graph"),
+    MISSING_EVIDENCE("evidence", "Missing evidence code"),
+    BAD_EVIDENCE("evidence", "Bad evidence code"),
+    BAD_BIOCURATION("data-created", "Bad data created"),
+    INVALID_FREQUENCY("frequency", "Invalid frequency"),
+    NOT_A_FREQUENCY_TERM("frequency", "Could not find term in frequency subontology");
+
+    /** The name of the check in the Q/C report, e.g., "publication". */
+    private final String check;
+    private final String message;
+
+    QcFindingCode(String check, String msg) { this.check=check; message=msg;}
+
+    public String getCheck() { return check;}
+
+    public String getMessage() { return message;}
+}
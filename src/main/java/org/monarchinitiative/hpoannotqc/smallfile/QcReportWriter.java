@@ -0,0 +1,170 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A machine-readable Q/C report. The findings are written as they are found (unlike the findings that are kept
+ * for the log, the report is not limited by the maximum number of findings per check), and the good and bad
+ * counts of all checks and the number of annotations per biocurator are written at the end by
+ * {@link #writeSummary(QualityControlSummary, Map)}. Each line is one record; the first field (TSV) or the
+ * {@code type} attribute (JSON lines) is {@code finding}, {@code count} or {@code assigned-by}:
+ * <pre>
+ * finding      diseaseIndex  diseaseId  line  code  check  value
+ * count        check         good       bad
+ * assigned-by  biocurator    n
+ * </pre>
+ * If a record cannot be written, the error is logged, no further records are written, and the exception is thrown
+ * by {@link #close()}.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class QcReportWriter implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+
+    /** Format of the report: tab-separated values or JSON lines (one JSON object per line). */
+    public enum Format {
+        TSV, JSON;
+
+        /** @return JSON for paths ending with .json or .jsonl, TSV otherwise */
+        public static Format fromPath(String path) {
+            String p = path.toLowerCase();
+            return p.endsWith(".json") || p.endsWith(".jsonl") ? JSON : TSV;
+        }
+    }
+
+    private static final String FINDING="finding";
+    private static final String COUNT="count";
+    private static final String ASSIGNED_BY="assigned-by";
+
+    private final String path;
+    private final Format format;
+    private final BufferedWriter writer;
+    /** The first exception that occurred while writing, which is thrown by {@link #close()}. */
+    private IOException exception=null;
+    private int n_findings=0;
+
+    public QcReportWriter(String path, Format format) throws IOException {
+        this.path=path;
+        this.format=format;
+        this.writer=new BufferedWriter(new FileWriter(path));
+        if (format==Format.TSV) {
+            writer.write("#finding\tdiseaseIndex\tdiseaseId\tline\tcode\tcheck\tvalue\n");
+            writer.write("#count\tcheck\tgood\tbad\n");
+            writer.write("#assigned-by\tbiocurator\tn\n");
+        }
+    }
+
+    /** Write one finding. This method may be called by several threads. */
+    public synchronized void write(QcFinding finding) {
+        if (format==Format.TSV) {
+            writeLine(String.format("%s\t%d\t%s\t%d\t%s\t%s\t%s",
+                    FINDING,
+                    finding.getDiseaseIndex(),
+                    tsv(finding.getDiseaseId()),
+                    finding.getLineNumber(),
+                    finding.getCode().name(),
+                    finding.getCode().getCheck(),
+                    tsv(finding.getValue())));
+        } else {
+            writeLine(toJson(finding));
+        }
+        n_findings++;
+    }
+
+    /**
+     * Write the counts of all checks and the number of annotations per biocurator.
+     * @param summary the Q/C summary
+     * @param assignedBy key: biocurator, e.g., HPO:probinson; value: number of annotations
+     */
+    public synchronized void writeSummary(QualityControlSummary summary, Map<String,Integer> assignedBy) {
+        for (String check : summary.getChecks()) {
+            if (format==Format.TSV) {
+                writeLine(String.format("%s\t%s\t%d\t%d",COUNT,check,summary.getGood(check),summary.getBad(check)));
+            } else {
+                writeLine(String.format("{\"type\":\"%s\",\"check\":%s,\"good\":%d,\"bad\":%d}",
+                        COUNT,json(check),summary.getGood(check),summary.getBad(check)));
+            }
+        }
+        for (Map.Entry<String,Integer> e : assignedBy.entrySet()) {
+            if (format==Format.TSV) {
+                writeLine(String.format("%s\t%s\t%d",ASSIGNED_BY,tsv(e.getKey()),e.getValue()));
+            } else {
+                writeLine(String.format("{\"type\":\"%s\",\"biocurator\":%s,\"n\":%d}",
+                        ASSIGNED_BY,json(e.getKey()),e.getValue()));
+            }
+        }
+    }
+
+    private void writeLine(String line) {
+        if (exception!=null) {
+            return;
+        }
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            logger.error("Could not write Q/C report to {}: {}",path,e.getMessage());
+            exception=e;
+        }
+    }
+
+    private static String tsv(String s) {
+        return s==null ? "" : s.replace('\t',' ').replace('\n',' ');
+    }
+
+    /** @return the finding as a JSON object, as it is written to a JSON report */
+    public static String toJson(QcFinding finding) {
+        return String.format("{\"type\":\"%s\",\"diseaseIndex\":%d,\"diseaseId\":%s,\"line\":%d,\"code\":\"%s\",\"check\":%s,\"value\":%s}",
+                FINDING,
+                finding.getDiseaseIndex(),
+                json(finding.getDiseaseId()),
+                finding.getLineNumber(),
+                finding.getCode().name(),
+                json(finding.getCode().getCheck()),
+                json(finding.getValue()));
+    }
+
+    /** @return the string as a quoted JSON string ({@code null} if it is null) */
+    public static String json(String s) {
+        if (s==null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(s.length()+2);
+        sb.append('"');
+        for (int i=0;i<s.length();i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c<0x20) {
+                        sb.append(String.format("\\u%04x",(int)c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public synchronized int getNumberOfFindingsWritten() {
+        return n_findings;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+        if (exception!=null) {
+            throw exception;
+        }
+    }
+}
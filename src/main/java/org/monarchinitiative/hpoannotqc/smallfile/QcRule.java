@@ -0,0 +1,49 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+/**
+ * One check of a V2 annotation line, with its own counters. The rules are created once for a
+ * {@link V2LineQualityController}, so that everything a rule needs (subontology membership, frequency terms) is
+ * prepared up front and checking a line only needs lookups and the {@link FieldGrammar} scanners. Besides the good and bad counts, a rule counts how
+ * many of its findings were kept for the report and how many were dropped because of the maximum number of
+ * findings per check.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+abstract class QcRule extends QcCounter {
+    private int n_recorded=0;
+    private int n_dropped=0;
+
+    QcRule(String name) {
+        super(name);
+    }
+
+    /**
+     * Check a line and update the counters. If the line fails the check, the rule reports a finding to the
+     * controller.
+     * @param line the line to check
+     * @return true if the line passes the check
+     */
+    abstract boolean check(V2AnnotationLine line);
+
+    /**
+     * Count a finding of this rule.
+     * @param max maximum number of findings of this rule that are kept
+     * @return true if the finding is to be kept, false if it was counted as dropped
+     */
+    boolean countFinding(int max) {
+        if (n_recorded<max) {
+            n_recorded++;
+            return true;
+        }
+        n_dropped++;
+        return false;
+    }
+
+    /** @return number of findings that were not kept because of the maximum number of findings */
+    int getNumberOfDroppedFindings() {
+        return n_dropped;
+    }
+
+    void addDroppedFindings(int n) {
+        n_dropped += n;
+    }
+}
@@ -0,0 +1,78 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The counters and error messages of a {@link V2LineQualityController}, without a reference to the ontology. The
+ * summaries of several parts of the big file (e.g., the shards written by separate processes) can be merged, so
+ * that the Q/C report of the merged big file is the same as if it had been produced in one run.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public class QualityControlSummary {
+    private static final Logger logger = LogManager.getLogger();
+    /** Key: the name of a check (e.g., "database"); value: the number of good and bad entries. */
+    private final Map<String,int[]> counts = new LinkedHashMap<>();
+
+    private final List<String> errors = new ArrayList<>();
+
+    /** Add the good and bad counts of a check (the checks are reported in the order in which they are first added). */
+    public void addCount(String check, int good, int bad) {
+        int[] c = counts.computeIfAbsent(check, k -> new int[2]);
+        c[0] += good;
+        c[1] += bad;
+    }
+
+    public void addError(String error) {
+        errors.add(error);
+    }
+
+    /** Add the counts and errors of another summary to this one. */
+    public void merge(QualityControlSummary other) {
+        for (Map.Entry<String,int[]> e : other.counts.entrySet()) {
+            addCount(e.getKey(), e.getValue()[0], e.getValue()[1]);
+        }
+        errors.addAll(other.errors);
+    }
+
+    /** @return the names of the checks in the order of the report */
+    public List<String> getChecks() {
+        return new ArrayList<>(counts.keySet());
+    }
+
+    public int getGood(String check) {
+        int[] c = counts.get(check);
+        return c == null ? 0 : c[0];
+    }
+
+    public int getBad(String check) {
+        int[] c = counts.get(check);
+        return c == null ? 0 : c[1];
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    public void dumpToLog() {
+        logger.info("#####   V2 Conversion Quality Control   #####");
+        logger.info("#####   Lines with errors   #####");
+        if (errors.size()>0) {
+            for (String err : errors) {
+                logger.error(err);
+            }
+        } else {
+            logger.info("No errors detected");
+        }
+        logger.info("#####   Q/C Summary   #####");
+        for (Map.Entry<String,int[]> e : counts.entrySet()) {
+            logger.info(String.format("%d good and %d bad %s entries", e.getValue()[0], e.getValue()[1], e.getKey()));
+        }
+    }
+}
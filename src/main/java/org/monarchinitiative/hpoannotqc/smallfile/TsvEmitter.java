@@ -0,0 +1,116 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Builds tab-separated lines in a reusable char buffer, so that a line of the big file or of a small file can be
+ * written without a String per field, a String[] per line, or String.format. The fields are appended one after the
+ * other and the line is then either written to a {@link Writer} or returned as a String, after which the buffer can
+ * be used for the next line. As with {@code String.join}, a null field is written as {@code null}; callers that
+ * want an empty field for missing data pass the empty string.
+ * <p>
+ * An emitter must not be used by several threads at the same time; {@link #forThread()} returns an emitter for
+ * the current thread.
+ * </p>
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public final class TsvEmitter {
+    private static final ThreadLocal<TsvEmitter> EMITTERS = ThreadLocal.withInitial(TsvEmitter::new);
+    private static final String NULL="null";
+
+    private char[] buffer = new char[256];
+    private int length=0;
+    /** True if the next field is the first of the line (and so is not preceded by a tab). */
+    private boolean firstField=true;
+
+    /** @return the emitter of the current thread, with an empty line */
+    public static TsvEmitter forThread() {
+        TsvEmitter emitter = EMITTERS.get();
+        emitter.reset();
+        return emitter;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length+extra>buffer.length) {
+            buffer=Arrays.copyOf(buffer,Math.max(buffer.length*2,length+extra));
+        }
+    }
+
+    private void separator() {
+        if (firstField) {
+            firstField=false;
+        } else {
+            ensureCapacity(1);
+            buffer[length++]='\t';
+        }
+    }
+
+    /** Append text that is not a field, e.g., a sort key in front of the first field. */
+    public TsvEmitter raw(String s) {
+        ensureCapacity(s.length());
+        s.getChars(0,s.length(),buffer,length);
+        length+=s.length();
+        return this;
+    }
+
+    /** Append a field (null is written as {@code null}). */
+    public TsvEmitter field(String s) {
+        separator();
+        return raw(s!=null ? s : NULL);
+    }
+
+    /** Append a field that is a range of a char array. */
+    public TsvEmitter field(char[] chars, int offset, int len) {
+        separator();
+        ensureCapacity(len);
+        System.arraycopy(chars,offset,buffer,length,len);
+        length+=len;
+        return this;
+    }
+
+    /** Append a field of the form prefix:number, e.g., ORPHA:123, without creating a String. */
+    public TsvEmitter field(String prefix, int number) {
+        separator();
+        raw(prefix);
+        ensureCapacity(12);
+        buffer[length++]=':';
+        if (number<0) {
+            return raw(Integer.toString(number));
+        }
+        int start=length;
+        do {
+            buffer[length++]=(char) ('0'+number%10);
+            number/=10;
+        } while (number>0);
+        // the digits were appended in reverse order
+        for (int i=start,j=length-1;i<j;i++,j--) {
+            char c=buffer[i];
+            buffer[i]=buffer[j];
+            buffer[j]=c;
+        }
+        return this;
+    }
+
+    /** Write the line followed by a newline to the writer, and start a new line. */
+    public void endLine(Writer writer) throws IOException {
+        ensureCapacity(1);
+        buffer[length++]='\n';
+        writer.write(buffer,0,length);
+        reset();
+    }
+
+    /** @return the line (without a newline), after which a new line is started */
+    public String toLineString() {
+        String line = new String(buffer,0,length);
+        reset();
+        return line;
+    }
+
+    /** Discard the current line. */
+    public void reset() {
+        length=0;
+        firstField=true;
+    }
+}
@@ -0,0 +1,32 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+/**
+ * The fields of one annotation line of a V2 small file. This is implemented by {@link V2SmallFileEntry} and by the
+ * row cursor of {@link ColumnarAnnotationStore}, so that the Q/C and the big file output can work with both
+ * representations. Optional fields that are not present are returned as the empty String.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public interface V2AnnotationLine {
+    /** @return disease ID, e.g., OMIM:600123 */
+    String getDiseaseID();
+    /** @return the database part of the disease ID, e.g., OMIM */
+    String getDB();
+    String getDiseaseName();
+    TermId getPhenotypeId();
+    String getPhenotypeName();
+    String getAgeOfOnsetId();
+    String getAgeOfOnsetName();
+    String getEvidenceCode();
+    /** @return frequency, which can be one of N/M, X% or a valid frequency term Id */
+    String getFrequencyModifier();
+    String getSex();
+    String getNegation();
+    String getModifier();
+    String getDescription();
+    String getPublication();
+    String getBiocuration();
+    /** @return the line in the tab-separated V2 small file format */
+    String getRow();
+}
@@ -1,453 +1,575 @@
 package org.monarchinitiative.hpoannotqc.smallfile;
 
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 
 
 import org.monarchinitiative.phenol.ontology.data.*;
 
 import java.util.*;
 
-import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.existsPath;
-import static org.monarchinitiative.phenol.ontology.algo.OntologyAlgorithm.getDescendents;
 
 /**
  * The purpose of this class is to check each V2 small file line from the version 2 (V2) small files that represent
  * the standard HPO annotation format from 2018 onwards. The class will tally up the Q/C results and store any V2
  * lines that appear "dodgy", providing a Q/C report. The class is intended to be used while the files are being converted
  * and to look at each V2 line in turn.
+ * <p>
+ * Each check is a {@link QcRule} with its own counters. The rules are created once per controller: the membership
+ * of all terms in the onset and frequency subontologies is computed once from the ancestor bitsets of the
+ * {@link HpoTermIndex}, and the syntax of the fields is checked with the {@link FieldGrammar} scanners. Within a
+ * rule, the cheap tests (empty values, single characters) are done before the scans and ontology lookups. All rules are applied to
+ * every line, so that the counters are the same as before.
+ * </p>
+ * <p>
+ * A failed check is recorded as a {@link QcFinding} with the location of the line, a {@link QcFindingCode} and the
+ * offending value; the messages are rendered only when the report is created. At most
+ * {@link #setMaxFindingsPerCheck(int) a maximum number} of findings is kept per check, and the findings beyond that
+ * are only counted. All findings can also be streamed to a machine-readable report with a {@link QcReportWriter}.
+ * </p>
+ * <p>
+ * A controller is not thread-safe. To check lines on several threads, each worker gets its own controller from
+ * {@link #newWorker()}, which shares the ontology and the precomputed subontology membership but has its own
+ * counters and findings, and the workers are then merged with {@link #merge(V2LineQualityController)} in disease
+ * order.
+ * </p>
  * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
  */
 public class V2LineQualityController {
-    private static final Logger logger = LogManager.getLogger();
-    private final HpoOntology ontology;
-
-
-    private final List<String> errors=new ArrayList<>();
-
-    private final Set<TermId> onsetTerms;
-
-    private final Map<String,Integer> assignedByMap = new HashMap<>();
-
-    private int n_good_DB=0;
-    private int n_bad_DB=0;
-    private String qcDB() { return String.format("%d good and %d bad database entries",n_good_DB,n_bad_DB); }
-    private int n_good_diseasename=0;
-    private int n_bad_diseasename=0;
-    private String qcDiseasename() {  return String.format("%d good and %d bad disease name entries",n_good_diseasename,n_bad_diseasename);}
-    private int n_good_negation=0;
-    private int n_bad_negation=0;
-    private String qcNegation() {  return String.format("%d good and %d bad negation entries",n_good_negation,n_bad_negation);}
-    private int n_good_phenotypeID=0;
-    private int n_bad_phenotypeID=0;
-    private String qcPhenotypeID() { return String.format("%d good and %d bad phenotypeID entries",n_good_phenotypeID,n_bad_phenotypeID);}
-    private int n_good_phenotypeLabel=0;
-    private int n_bad_phenotypeLabel=0;
-    private String qcPhenotypeLabel() { return String.format("%d good and %d bad phenotype label entries",n_good_phenotypeLabel,n_bad_phenotypeLabel);}
-    private int n_good_publication=0;
-    private int n_bad_publication=0;
-    private String qcPublication() { return String.format("%d good and %d bad publication entries",n_good_publication,n_bad_publication);}
-    private int n_good_ageOfOnset_ID=0;
-    private int n_bad_ageOfOnset_ID=0;
-    private String qcAgeOfOnsetID() { return String.format("%d good and %d bad age of onset ID entries",n_good_ageOfOnset_ID,n_bad_ageOfOnset_ID);}
-    private int n_good_ageOfOnsetLabel=0;
-    private int n_bad_ageOfOnsetLabel=0;
-    private String qcAgeOfOnsetLabel() { return String.format("%d good and %d bad age of onset label entries",
-            n_good_ageOfOnsetLabel,n_bad_ageOfOnsetLabel);}
-    private int n_good_evidence=0;
-    private int n_bad_evidence=0;
-    private String qcEvidence() { return String.format("%d good and %d bad evidence entries",n_good_evidence,n_bad_evidence);}
-    private int n_good_aspect=0;
-    private int n_bad_aspect=0;
-    private String qcAspect() { return String.format("%d good and %d bad aspect entries",n_good_aspect,n_bad_aspect);}
-    private int n_good_dateCreated=0;
-    private int n_bad_dateCreated=0;
-    private String qcDateCreated() { return String.format("%d good and %d bad data-created entries",n_good_dateCreated,n_bad_dateCreated);}
-    private int n_good_assignedBy=0;
-    private int n_bad_assignedBy=0;
-    private String qcAssignedBy() { return String.format("%d good and %d bad assigned-by entries",n_good_assignedBy,n_bad_assignedBy);}
-    private int n_good_frequency=0;
-    private int n_bad_frequency=0;
-    private String qcFrequency() { return String.format("%d good and %d bad frequency entries",n_good_frequency,n_bad_frequency);}
+    private final HpoTermIndex ontology;
+
+    /** Default maximum number of findings that are kept per check. */
+    public static final int DEFAULT_MAX_FINDINGS_PER_CHECK=1000;
+
+    /** The findings that are kept for the report, in the order in which they were found. */
+    private final List<QcFinding> findings=new ArrayList<>();
+    private int maxFindingsPerCheck=DEFAULT_MAX_FINDINGS_PER_CHECK;
+    /** Optional report to which all findings are written as they are found (null if not used). */
+    private QcReportWriter reportWriter=null;
+
+    /**
+     * Key: a valid biocuration field, e.g., HPO:probinson[2018-06-01]; value: number of annotations with the field.
+     * The fields repeat a lot, and so they are counted as they are and split into biocurators only for the report.
+     */
+    private final Map<String,int[]> biocurationFieldCounts = new HashMap<>();
 
     /** Todo get from phenol */
-    private final TermId ONSET_ROOT = TermId.constructWithPrefix("HP:0003674");
+    private static final TermId ONSET_ROOT = TermId.constructWithPrefix("HP:0003674");
     private static final TermId FREQUENCY_ROOT = TermId.constructWithPrefix("HP:0040279");
 
-    public V2LineQualityController(HpoOntology onto) {
+    /** Key: dense index of a term; value: true if the term is the onset root or one of its descendants. */
+    private final boolean[] onsetTerms;
+    /** Key: dense index of a term; value: true if the term is a descendant of the frequency root. */
+    private final boolean[] frequencyTerms;
+
+    private final QcRule dbRule = new DatabaseRule();
+    private final QcRule diseaseNameRule = new DiseaseNameRule();
+    private final QcRule negationRule = new NegationRule();
+    private final QcRule phenotypeIdRule = new PhenotypeIdRule();
+    private final QcRule phenotypeLabelRule = new PhenotypeLabelRule();
+    private final QcRule publicationRule = new PublicationRule();
+    private final QcRule ageOfOnsetIdRule = new AgeOfOnsetIdRule();
+    private final QcRule ageOfOnsetLabelRule = new AgeOfOnsetLabelRule();
+    private final QcRule evidenceRule = new EvidenceRule();
+    private final QcRule biocurationRule = new BiocurationRule();
+    private final QcRule frequencyRule = new FrequencyRule();
+    /** Not checked yet. */
+    private final QcCounter assignedByCounter = new QcCounter("assigned-by");
+    /** Counted by the big file output, which computes the aspect. */
+    private final QcCounter aspectCounter = new QcCounter("aspect");
+
+    /** The rules in the order in which they are applied to each line. */
+    private final List<QcRule> rules = Arrays.asList(dbRule, diseaseNameRule, negationRule, phenotypeIdRule,
+            phenotypeLabelRule, publicationRule, ageOfOnsetIdRule, ageOfOnsetLabelRule, evidenceRule,
+            biocurationRule, frequencyRule);
+    /** The counters in the order of the Q/C report. */
+    private final List<QcCounter> counters = Arrays.asList(dbRule, diseaseNameRule, negationRule, phenotypeIdRule,
+            phenotypeLabelRule, publicationRule, ageOfOnsetIdRule, ageOfOnsetLabelRule, evidenceRule,
+            biocurationRule, assignedByCounter, frequencyRule, aspectCounter);
+    /** Key: name of a check; value: the rule. */
+    private final Map<String,QcRule> rulesByName = new HashMap<>();
+
+    /** Location of the line that is being checked, for the findings. */
+    private int currentDiseaseIndex=-1;
+    private String currentDiseaseId;
+    private int currentLineNumber=0;
+
+    public V2LineQualityController(HpoTermIndex onto) {
 
         this.ontology=onto;
-        this.onsetTerms = getDescendents(ontology,ONSET_ROOT);
+        int onsetRoot = ontology.getIndex(ONSET_ROOT);
+        int frequencyRoot = ontology.getIndex(FREQUENCY_ROOT);
+        this.onsetTerms = new boolean[ontology.size()];
+        this.frequencyTerms = new boolean[ontology.size()];
+        for (int i=0;i<ontology.size();i++) {
+            onsetTerms[i] = onsetRoot>=0 && ontology.isSubclass(i,onsetRoot);
+            frequencyTerms[i] = frequencyRoot>=0 && ontology.isAncestor(frequencyRoot,i);
+        }
+        indexRules();
     }
 
-
-    private boolean checkDB(String db) {
-        if (db.equals("OMIM") ||
-                db.equals("ORPHA") ||
-                db.equals("DECIPHER")) {
-            n_good_DB++;
-            return true;
-        } else {
-            n_bad_DB++;
-            return false;
-        }
+    /** A controller with empty counters that shares the immutable state of the prototype. */
+    private V2LineQualityController(V2LineQualityController prototype) {
+        this.ontology=prototype.ontology;
+        this.onsetTerms=prototype.onsetTerms;
+        this.frequencyTerms=prototype.frequencyTerms;
+        this.maxFindingsPerCheck=prototype.maxFindingsPerCheck;
+        indexRules();
     }
 
-    /** Check not null. */
-    private boolean checkDiseaseName(String name) {
-        if (name!=null && ! name.isEmpty()) {
-            n_good_diseasename++;
-            return true;
-        } else {
-            n_bad_diseasename++;
-            return false;
+    private void indexRules() {
+        for (QcRule rule : rules) {
+            rulesByName.put(rule.getName(),rule);
         }
     }
 
     /**
-     * The negation string can be null or empty but if it is present it must be "NOT"
-     * @param negation Must be either the empty/null String or "NOT"
-     * @return true if the input is valid
+     * @param max maximum number of findings that are kept for the report per check (default
+     * {@link #DEFAULT_MAX_FINDINGS_PER_CHECK}); further findings are only counted
      */
-    private boolean checkNegation(String negation) {
-        if (negation==null ||  negation.isEmpty() || negation.equals("NOT")) {
-            n_good_negation++;
-            return true;
-        } else {
-            n_bad_negation++;
-            return false;
-        }
+    public void setMaxFindingsPerCheck(int max) {
+        this.maxFindingsPerCheck=max;
     }
 
-    public void incrementGoodAspect() { n_good_aspect++;}
-    public void incrementBadAspect() { n_bad_aspect++; }
+    /** @param writer report to which all findings are written as they are found (including those beyond the maximum) */
+    public void setReportWriter(QcReportWriter writer) {
+        this.reportWriter=writer;
+    }
 
     /**
-     * Check that the id is not an alt_id
-     * @param id the {@link TermId} for a phenotype HPO term
-     * @return true iff phenotype id is valid
+     * @return a controller with empty counters and findings for another worker thread; it shares the ontology, the
+     * precomputed subontology membership and the maximum number of findings with this controller. The worker does
+     * not write to the {@link QcReportWriter}; the findings it keeps are written when it is merged.
      */
-    private boolean checkPhenotypeId(TermId id) {
-        if (id==null) {
-            return false;
-        } else {
-            TermId current = ontology.getTermMap().get(id).getId();
-            if (current.equals(id)) {
-                n_good_phenotypeID++;
-                return true;
-            } else {
-                String errmsg = String.format("Found usage of alt_id %s for %s (%s): see following line",
-                        id,
-                        current,
-                        ontology.getTermMap().get(id).getName());
-                errors.add(errmsg);
-                n_bad_phenotypeID++;
-                return false;
-            }
-        }
+    public V2LineQualityController newWorker() {
+        return new V2LineQualityController(this);
     }
 
-    /** Check that the label is the current label that matches the term id. */
-    private boolean checkPhenotypeLabel(TermId id, String label) {
-        if (label==null || label.isEmpty()) {
-            n_bad_phenotypeLabel++;
-            return false;
+    /**
+     * Add the counters, findings and biocurator counts of another controller (e.g., of a worker thread) to this one.
+     * The findings of the other controller are appended (up to the maximum per check), and so the workers must be
+     * merged in the order of the lines they checked to get the same report as a single controller.
+     */
+    public void merge(V2LineQualityController other) {
+        for (int i=0;i<counters.size();i++) {
+            counters.get(i).add(other.counters.get(i));
         }
-        String currentLabel = ontology.getTermMap().get(id).getName();
-        if (! currentLabel.equals(label)) {
-            String errmsg = String.format("Found usage of wrong term label %s instead of %s for %s: see following line",
-                    label,
-                    currentLabel,
-                    ontology.getTermMap().get(id).getName());
-            errors.add(errmsg);
-            n_bad_phenotypeLabel++;
-            return false;
-        } else {
-            n_good_phenotypeLabel++;
-            return true;
+        for (QcFinding finding : other.findings) {
+            keep(rulesByName.get(finding.getCode().getCheck()),finding);
+        }
+        for (QcRule rule : other.rules) {
+            rulesByName.get(rule.getName()).addDroppedFindings(rule.getNumberOfDroppedFindings());
+        }
+        for (Map.Entry<String,int[]> e : other.biocurationFieldCounts.entrySet()) {
+            biocurationFieldCounts.computeIfAbsent(e.getKey(),k -> new int[1])[0] += e.getValue()[0];
         }
     }
 
+    /** Record that the current line failed a check. */
+    private void record(QcRule rule, QcFindingCode code, String value) {
+        QcFinding finding = new QcFinding(currentDiseaseIndex,currentDiseaseId,currentLineNumber,code,value);
+        keep(rule,finding);
+    }
 
-    private boolean checkPublication(String pub) {
-        if (pub==null || pub.isEmpty()) {
-            n_bad_publication++;
-            return false;
-        }
-        int index = pub.indexOf(":");
-        if (index <=0) { // there needs to be a colon in the middle of the string
-            n_bad_publication++;
-            return false;
-        }
-        if (pub.contains("::")) { // should only be one colon separating prefix and id
-            n_bad_publication++;
-            return false;
+    /** Keep a finding for the report if the maximum for the rule has not been reached, and write it to the file. */
+    private void keep(QcRule rule, QcFinding finding) {
+        if (rule.countFinding(maxFindingsPerCheck)) {
+            findings.add(finding);
         }
-        if (pub.startsWith("HPO")) {
-            n_bad_publication++;
-            return false;
+        if (reportWriter!=null) {
+            reportWriter.write(finding);
         }
-        if (pub.contains(" ")) {
-            n_bad_publication++;
-            return false;
+    }
+
+    private static boolean isEmpty(String s) {
+        return s==null || s.isEmpty();
+    }
+
+
+    private class DatabaseRule extends QcRule {
+        DatabaseRule() { super("database"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String db = line.getDB();
+            if (db.equals("OMIM") ||
+                    db.equals("ORPHA") ||
+                    db.equals("DECIPHER")) {
+                good();
+                return true;
+            } else {
+                bad();
+                record(this,QcFindingCode.BAD_DATABASE,db);
+                return false;
+            }
         }
-        if (pub.startsWith("PMID") ||
-                pub.startsWith("OMIM") ||
-                pub.startsWith("http") ||
-                pub.startsWith("DECIPHER") ||
-                pub.startsWith("ISBN")) {
-            n_good_publication++;
-            return true;
-        } else {
-            errors.add(String.format("Did not recognize publication prefix: \"%s\" for %s (see next line)",pub.substring(0,index),pub));
+    }
+
+    /** Check not null. */
+    private class DiseaseNameRule extends QcRule {
+        DiseaseNameRule() { super("disease name"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            if (! isEmpty(line.getDiseaseName())) {
+                good();
+                return true;
+            } else {
+                bad();
+                record(this,QcFindingCode.MISSING_DISEASE_NAME,line.getDiseaseName());
+                return false;
+            }
         }
-        n_bad_publication++;
-        return false;
     }
 
-    /**
-     * check the age of onset id. It is allowed to be null, but then the age of onset label also has to be null.
-     * If it is not null, it has to be a valid term in the Onset subhierarchy of the hpo.
-     * @param id A term id that should be from the Onset subhierarchy
-     * @return true if the HPO id is a valid onset term id.
-     */
-    private boolean checkAgeOfOnsetId(String id) {
-        if (id==null || id.isEmpty() ) {
-            n_good_ageOfOnset_ID++;
-            return true;
+    /** The negation string can be null or empty but if it is present it must be "NOT" */
+    private class NegationRule extends QcRule {
+        NegationRule() { super("negation"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String negation = line.getNegation();
+            if (isEmpty(negation) || negation.equals("NOT")) {
+                good();
+                return true;
+            } else {
+                bad();
+                record(this,QcFindingCode.BAD_NEGATION,negation);
+                return false;
+            }
         }
-        TermId tid = TermId.constructWithPrefix(id);
-        if (! ontology.getTermMap().containsKey(tid)) {
-            errors.add("Attempt to add onset ID that was not in graph: "+id);
-            System.err.println("Attempt to add onset ID that was not in graph: "+id);
-            return false;
+    }
+
+    /** Check that the phenotype id is not an alt_id. */
+    private class PhenotypeIdRule extends QcRule {
+        PhenotypeIdRule() { super("phenotypeID"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            TermId id = line.getPhenotypeId();
+            if (id==null) {
+                record(this,QcFindingCode.MISSING_PHENOTYPE_ID,null);
+                return false;
+            }
+            TermId current = ontology.getPrimaryTermId(id);
+            if (current==null) {
+                bad();
+                record(this,QcFindingCode.UNKNOWN_PHENOTYPE_ID,id.getIdWithPrefix());
+                return false;
+            }
+            if (current.equals(id)) {
+                good();
+                return true;
+            } else {
+                bad();
+                record(this,QcFindingCode.PHENOTYPE_ALT_ID,id.getIdWithPrefix());
+                return false;
+            }
         }
-        if (! checkIsNotAltId(tid)) {
-            errors.add("Attempt to use alt_id for onset term: " + id);
-            return false;
+    }
+
+    /** Check that the label is the current label that matches the term id. */
+    private class PhenotypeLabelRule extends QcRule {
+        PhenotypeLabelRule() { super("phenotype label"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String label = line.getPhenotypeName();
+            if (isEmpty(label)) {
+                bad();
+                record(this,QcFindingCode.MISSING_PHENOTYPE_LABEL,label);
+                return false;
+            }
+            String currentLabel = ontology.getName(line.getPhenotypeId());
+            if (currentLabel==null) {
+                // the id is not in the ontology, and so there is no label to compare with
+                bad();
+                TermId id = line.getPhenotypeId();
+                record(this,QcFindingCode.PHENOTYPE_LABEL_OF_UNKNOWN_ID,id==null ? null : id.getIdWithPrefix());
+                return false;
+            }
+            if (! currentLabel.equals(label)) {
+                bad();
+                record(this,QcFindingCode.WRONG_PHENOTYPE_LABEL,label);
+                return false;
+            } else {
+                good();
+                return true;
+            }
         }
-        if (this.onsetTerms.contains(tid)) {
-            n_good_ageOfOnset_ID++;
-            return true;
-        } else {
-            n_bad_ageOfOnset_ID++;
-            errors.add("Malformed age of onset ID: \""+tid.toString()+"\"");
-            System.err.println("Malformed age of onset ID: \""+tid.toString()+"\"");
+    }
+
+    private class PublicationRule extends QcRule {
+        PublicationRule() { super("publication"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String pub = line.getPublication();
+            // there needs to be a colon after a prefix, the id cannot contain spaces or "::", and HPO is not a source
+            if (isEmpty(pub) || FieldGrammar.curieColon(pub)<0 || pub.startsWith("HPO")) {
+                bad();
+                record(this,QcFindingCode.MALFORMED_PUBLICATION,pub);
+                return false;
+            }
+            if (pub.startsWith("PMID") ||
+                    pub.startsWith("OMIM") ||
+                    pub.startsWith("http") ||
+                    pub.startsWith("DECIPHER") ||
+                    pub.startsWith("ISBN")) {
+                good();
+                return true;
+            }
+            bad();
+            record(this,QcFindingCode.UNKNOWN_PUBLICATION_PREFIX,pub);
             return false;
         }
     }
 
     /**
-     *
-     * @param tid An HPO Term Id
-     * @return true if the tid is up to date, i.e., NOT an alt_id
+     * Check the age of onset id. It is allowed to be null, but then the age of onset label also has to be null.
+     * If it is not null, it has to be a valid term in the Onset subhierarchy of the hpo.
      */
-    private boolean checkIsNotAltId(TermId tid) {
-        if (! ontology.getTermMap().containsKey(tid)) {
-            errors.add("TermId not found at all in ontology: " + tid.getIdWithPrefix());
-            return false;
+    private class AgeOfOnsetIdRule extends QcRule {
+        AgeOfOnsetIdRule() { super("age of onset ID"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String id = line.getAgeOfOnsetId();
+            if (isEmpty(id)) {
+                good();
+                return true;
+            }
+            TermId tid = TermId.constructWithPrefix(id);
+            int i = ontology.getIndex(tid);
+            if (i<0) {
+                record(this,QcFindingCode.UNKNOWN_ONSET_ID,id);
+                return false;
+            }
+            if (! ontology.getTermId(i).equals(tid)) {
+                record(this,QcFindingCode.ONSET_ALT_ID,id);
+                return false;
+            }
+            if (onsetTerms[i]) {
+                good();
+                return true;
+            } else {
+                bad();
+                record(this,QcFindingCode.NOT_AN_ONSET_TERM,id);
+                return false;
+            }
         }
-        TermId upToDate = ontology.getPrimaryTermId(tid);
-        return tid.equals(upToDate);
     }
 
-
     /** Check that the label is the current label that matches the term id. */
-    private boolean checkAgeOfOnsetLabel(String id, String label) {
-        if ((id==null || id.isEmpty()) && (label==null||label.isEmpty())){
-            n_good_ageOfOnsetLabel++;
-            return true;
-        }
-        if (label==null || label.isEmpty()) {
-            n_bad_ageOfOnsetLabel++;
-            return false;
-        }
-        TermId tid = TermId.constructWithPrefix(id);
-        String currentLabel = ontology.getTermMap().get(tid).getName();
-        if (! currentLabel.equals(label)) {
-            String errmsg = String.format("Found usage of wrong age of onset label %s instead of %s for %s: see following line",
-                    label,
-                    currentLabel,
-                    ontology.getTermMap().get(tid).getId().getIdWithPrefix());
-            errors.add(errmsg);
-            n_bad_ageOfOnsetLabel++;
-            return false;
-        } else {
-            n_good_ageOfOnsetLabel++;
-            return true;
+    private class AgeOfOnsetLabelRule extends QcRule {
+        AgeOfOnsetLabelRule() { super("age of onset label"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String id = line.getAgeOfOnsetId();
+            String label = line.getAgeOfOnsetName();
+            if (isEmpty(id) && isEmpty(label)){
+                good();
+                return true;
+            }
+            if (isEmpty(label)) {
+                bad();
+                record(this,QcFindingCode.MISSING_ONSET_LABEL,id);
+                return false;
+            }
+            if (isEmpty(id)) {
+                bad();
+                record(this,QcFindingCode.ONSET_LABEL_WITHOUT_ID,label);
+                return false;
+            }
+            String currentLabel = ontology.getName(TermId.constructWithPrefix(id));
+            if (currentLabel==null) {
+                // reported by the age of onset ID rule as well; the label cannot be compared
+                bad();
+                record(this,QcFindingCode.ONSET_LABEL_OF_UNKNOWN_ID,id);
+                return false;
+            }
+            if (! currentLabel.equals(label)) {
+                bad();
+                record(this,QcFindingCode.WRONG_ONSET_LABEL,label);
+                return false;
+            } else {
+                good();
+                return true;
+            }
         }
     }
 
-    private boolean checkEvidence(String evi) {
-        if (evi==null || evi.isEmpty() || evi.equals("null")) {
-            n_bad_publication++;
-            return false;
-        } else if (evi.equals("IEA") ||
-                evi.equals("PCS") ||
-                evi.equals("ICE") ||
-                evi.equals("TAS")) {
-            n_good_evidence++;
-            return true;
-        } else {
-            n_bad_evidence++;
-            return false;
+    private class EvidenceRule extends QcRule {
+        EvidenceRule() { super("evidence"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String evi = line.getEvidenceCode();
+            if (isEmpty(evi) || evi.equals("null")) {
+                // a missing evidence code has always been counted as a bad publication
+                publicationRule.bad();
+                record(this,QcFindingCode.MISSING_EVIDENCE,evi);
+                return false;
+            } else if (evi.equals("IEA") ||
+                    evi.equals("PCS") ||
+                    evi.equals("ICE") ||
+                    evi.equals("TAS")) {
+                good();
+                return true;
+            } else {
+                bad();
+                record(this,QcFindingCode.BAD_EVIDENCE,evi);
+                return false;
+            }
         }
     }
 
+    /** The biocuration field must have at least one entry such as HPO:skoehler[2018-09-22]. Not counted yet. */
+    private class BiocurationRule extends QcRule {
+        BiocurationRule() { super("data-created"); }
 
-
-    private boolean checkBiocuration(String entrylist) {
-        if (entrylist==null || entrylist.isEmpty())
-            return false;
-        List<BiocurationEntry> entries = BiocurationEntry.getBiocurationList(entrylist);
-        if (entries.size()<1)
-            return false;
-        else
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String entrylist = line.getBiocuration();
+            if (isEmpty(entrylist) || ! FieldGrammar.hasBiocurationEntry(entrylist)) {
+                record(this,QcFindingCode.BAD_BIOCURATION,entrylist);
+                return false;
+            }
+            // the biocurators are extracted from the distinct fields when the counts are needed
+            biocurationFieldCounts.computeIfAbsent(entrylist,k -> new int[1])[0]++;
             return true;
+        }
     }
 
-
     /** There are 3 correct formats for frequency. For example, 4/7, 32% (or 32.6%), or
      * an HPO term from the frequency subontology. */
-    private boolean checkFrequency(String freq) {
-        // it is ok not to have frequency data
-        if (freq==null || freq.isEmpty()) {
-            n_good_frequency++;
-            return true;
-        }
-        if (freq.matches("\\d+/\\d+")) {
-            n_good_frequency++;
-            return true;
-        } else if (freq.matches("\\d{1,3}%")) {
-            n_good_frequency++;
-            return true;
-        }else if (freq.matches("\\d{1,3}\\.\\d+%")) {
-            n_good_frequency++;
-            return true;
-        } else if (! freq.matches("HP:\\d{7}")) {
+    private class FrequencyRule extends QcRule {
+        FrequencyRule() { super("frequency"); }
+
+        @Override
+        boolean check(V2AnnotationLine line) {
+            String freq = line.getFrequencyModifier();
+            // it is ok not to have frequency data
+            if (isEmpty(freq)) {
+                good();
+                return true;
+            }
+            if (FieldGrammar.isPercentage(freq) || FieldGrammar.isFraction(freq)) {
+                good();
+                return true;
+            } else if (FieldGrammar.isHpoId(freq)) {
+                // if we get here and we can validate that the frequency term comes from the right subontology,
+                // then the item is valid
+                int i = ontology.getIndex(TermId.constructWithPrefix(freq));
+                if (i>=0 && frequencyTerms[i]) {
+                    good();
+                    return true;
+                } else {
+                    bad();
+                    record(this,QcFindingCode.NOT_A_FREQUENCY_TERM,freq);
+                    return false;
+                }
+            }
             // cannot be a valid frequency term
-            errors.add("Invalid frequency term (see next line): " + freq);
-            n_bad_frequency++;
-            return false;
-        }
-        // if we get here and we can validate that the frequency term comes from the right subontology,
-        // then the item is valid
-        TermId id = TermId.constructWithPrefix(freq);
-        //boolean OK = frequencySubontology.getTermMap().containsKey(id);
-        if (existsPath(ontology,id,FREQUENCY_ROOT)) {
-            n_good_frequency++;
-            return true;
-        }else {
-            errors.add(String.format("Could not find term %s [%s] in frequency subontology (see next line)",
-                    ontology.getTermMap().get(id).getName(),
-                    ontology.getTermMap().get(id).getId().getIdWithPrefix()));
-            n_bad_frequency++;
+            bad();
+            record(this,QcFindingCode.INVALID_FREQUENCY,freq);
             return false;
         }
     }
 
+    public void incrementGoodAspect() { aspectCounter.good();}
+    public void incrementBadAspect() { aspectCounter.bad(); }
 
 
+    /** @return the number of annotations per biocurator, sorted by biocurator */
+    public Map<String,Integer> getAssignedByCounts() {
+        Map<String,Integer> assignedBy = new TreeMap<>();
+        for (Map.Entry<String,int[]> e : biocurationFieldCounts.entrySet()) {
+            for (BiocurationEntry entry : BiocurationEntry.getBiocurationList(e.getKey())) {
+                assignedBy.merge(entry.getBiocurator(),e.getValue()[0],Integer::sum);
+            }
+        }
+        return assignedBy;
+    }
+
     public void dumpAssignedByMap() {
         System.out.println("### Biocurated annotations ###");
-        for (String ab : assignedByMap.keySet()) {
-            System.out.println(ab +": n="+assignedByMap.get(ab));
+        Map<String,Integer> assignedBy = getAssignedByCounts();
+        for (String ab : assignedBy.keySet()) {
+            System.out.println(ab +": n="+assignedBy.get(ab));
         }
     }
 
 
+    /** @return the findings that were kept for the report, in the order in which they were found */
+    public List<QcFinding> getFindings() {
+        return Collections.unmodifiableList(findings);
+    }
+
+    /** @return the rendered findings and the number of findings per check that were not kept */
     public List<String> getErrors() {
-        return this.errors;
+        List<String> errors = new ArrayList<>();
+        for (QcFinding finding : findings) {
+            errors.add(finding.render());
+        }
+        for (QcRule rule : rules) {
+            if (rule.getNumberOfDroppedFindings()>0) {
+                errors.add(renderDroppedFindings(rule.getNumberOfDroppedFindings(),rule.getName(),maxFindingsPerCheck));
+            }
+        }
+        return errors;
     }
 
+    /** @return the message for the findings of a check that were not kept, which follows the kept findings */
+    public static String renderDroppedFindings(int n, String check, int max) {
+        return String.format("%d further %s findings were not kept (maximum: %d per check)",n,check,max);
+    }
+
+    /** @return the number of findings of the check that were not kept because of the maximum number of findings */
+    public int getNumberOfDroppedFindings(String check) {
+        QcRule rule = rulesByName.get(check);
+        return rule==null ? 0 : rule.getNumberOfDroppedFindings();
+    }
 
 
-    public boolean checkV2entry(V2SmallFileEntry entry) {
+    /** Check a line whose location is not known. */
+    public boolean checkV2entry(V2AnnotationLine entry) {
+        return checkV2entry(entry,-1,0);
+    }
+
+    /**
+     * Check one line.
+     * @param entry the line
+     * @param diseaseIndex index of the disease in the order in which the diseases are checked
+     * @param lineNumber 1-based number of the line in the small file (not counting the header)
+     * @return true if the line passed all checks
+     */
+    public boolean checkV2entry(V2AnnotationLine entry, int diseaseIndex, int lineNumber) {
+        currentDiseaseIndex=diseaseIndex;
+        currentDiseaseId=entry.getDiseaseID();
+        currentLineNumber=lineNumber;
         boolean clean=true;
-        if (! checkDB(entry.getDB())) {
-            errors.add(String.format("Bad DB: %s",entry.toString()));
-            clean = false;
-        }
-        if (! checkDiseaseName(entry.getDiseaseName())) {
-            errors.add(String.format("Bad disease name: %s",entry.toString()));
-            clean = false;
-        }
-        if (! checkNegation(entry.getNegation())) {
-            errors.add(String.format("Bad negation: %s",entry.toString()));
-        clean = false;
-        }
-        if (! checkPhenotypeId(entry.getPhenotypeId())) {
-            errors.add(String.format("Bad phenotypeId: %s",entry.toString()));
-            clean = false;
-        }
-        if (! checkPhenotypeLabel(entry.getPhenotypeId(),entry.getPhenotypeName())) {
-            errors.add(String.format("Bad phenotype label: %s",entry.toString()));
-            clean = false;
-        }
-        if (! checkPublication(entry.getPublication())) {
-            errors.add(String.format("Bad publication [%s]: %s",
-                    entry.getPublication(),
-                    entry.toString()));
-            clean = false;
-        }
-        if (! checkAgeOfOnsetId(entry.getAgeOfOnsetId())) {
-            errors.add(String.format("Bad age of onset id: %s",entry.toString()));
-            clean = false;
-        }
-        if (! checkAgeOfOnsetLabel(entry.getAgeOfOnsetId(),entry.getAgeOfOnsetName())) {
-            errors.add(String.format("Bad age of onset label: %s",entry.toString()));
-            clean = false;
-        }
-        if (! checkEvidence(entry.getEvidenceCode())) {
-            errors.add(String.format("Bad evidence code: \"%s\" for entry %s",
-                    entry.getEvidenceCode(),entry.toString()));
-            logger.error(String.format("Bad evidence code: \"%s\" for entry %s",
-                    entry.getEvidenceCode(),entry.toString()));
-            clean = false;
-        }
-        if (! checkBiocuration(entry.getBiocuration())) {
-            errors.add(String.format("Bad data created: %s",entry.toString()));
-            clean = false;
-        }
-        if (! checkFrequency(entry.getFrequencyModifier())) {
-            errors.add(String.format("Bad frequency [%s]: %s",
-                    entry.getFrequencyModifier(),
-                    entry.toString()));
-            clean = false;
+        for (QcRule rule : rules) {
+            clean &= rule.check(entry);
         }
         return clean; // returns true if there were zero errors with this line
     }
 
-
-
-
     public void dumpQCtoLog() {
-        logger.info("#####   V2 Conversion Quality Control   #####");
-        logger.info("#####   Lines with errors   #####");
-        if (errors.size()>0) {
-        for (String err : errors) {
-            logger.error(err);
+        getSummary().dumpToLog();
+    }
+
+    /** @return the counters and errors of this Q/C, which can be merged with those of other Q/C runs */
+    public QualityControlSummary getSummary() {
+        QualityControlSummary summary = new QualityControlSummary();
+        for (QcCounter counter : counters) {
+            summary.addCount(counter.getName(),counter.getGood(),counter.getBad());
         }
-        } else {
-            logger.info("No errors detected");
+        for (String err : getErrors()) {
+            summary.addError(err);
         }
-
-        logger.info("#####   Q/C Summary   #####");
-        logger.info(qcDB());
-        logger.info(qcDiseasename());
-        logger.info(qcNegation());
-        logger.info(qcPhenotypeID());
-        logger.info(qcPhenotypeLabel());
-        logger.info(qcPublication());
-        logger.info(qcAgeOfOnsetID());
-        logger.info(qcAgeOfOnsetLabel());
-        logger.info(qcEvidence());
-        logger.info(qcDateCreated());
-        logger.info(qcAssignedBy());
-        logger.info(qcFrequency());
-        logger.info(qcAspect());
+        return summary;
     }
 
 }
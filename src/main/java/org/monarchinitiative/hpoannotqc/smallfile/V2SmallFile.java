@@ -44,11 +44,28 @@ public class V2SmallFile {
     public V2SmallFile(String name, List<V2SmallFileEntry> entries) {
         basename=name;
         originalEntryList = ImmutableList.copyOf(entries);
-        if (basename.contains("OMIM")) this.database=Database.OMIM;
-        else if (basename.contains("DECIPHER")) this.database=Database.DECIPHER;
-        else this.database=Database.UNKNOWN;
+        this.database=getDatabase(basename);
     }
 
+    /** The database of a small file is derived from its name, e.g., OMIM-600123.tab. */
+    private static Database getDatabase(String basename) {
+        if (basename.contains("OMIM")) return Database.OMIM;
+        else if (basename.contains("DECIPHER")) return Database.DECIPHER;
+        else return Database.UNKNOWN;
+    }
+
+    /**
+     * This allows the database of a small file to be determined without parsing the file.
+     * @param basename name of a small file, e.g., OMIM-600123.tab
+     * @return true if the small file represents an OMIM entry
+     */
+    public static boolean isOMIMFile(String basename) { return getDatabase(basename).equals(Database.OMIM); }
+    /**
+     * @param basename name of a small file, e.g., DECIPHER-17.tab
+     * @return true if the small file represents a DECIPHER entry
+     */
+    public static boolean isDECIPHERFile(String basename) { return getDatabase(basename).equals(Database.DECIPHER); }
+
 
     public boolean isOMIM(){ return this.database.equals(Database.OMIM); }
     public boolean isDECIPHER() { return this.database.equals(Database.DECIPHER);}
@@ -13,7 +13,7 @@ import java.util.stream.Collectors;
  * Created by peter on 1/20/2018.
  * This class represents the contents of a single annotation line.
  */
-public class  V2SmallFileEntry {
+public class  V2SmallFileEntry implements V2AnnotationLine {
     private static final Logger logger = LogManager.getLogger();
 
     private final static String EMPTY_STRING="";
@@ -107,7 +107,7 @@ public class  V2SmallFileEntry {
     }
 
     public String getDescription() {
-        return description!=null?modifier:EMPTY_STRING;
+        return description!=null?description:EMPTY_STRING;
     }
 
     public String getPublication() {
@@ -121,25 +121,16 @@ public class  V2SmallFileEntry {
 
     /** @return true iff this entry has an N/M style frequency entry */
     boolean isNofM() {
-        int i = this.frequencyModifier.indexOf('/');
-        int len=this.frequencyModifier.length();
-        // 1. The string must contain the character '/'
-        // 2. The / cannot be on the first (0th) position of the string
-        // 3. The / cannot be the last character of the string
-        return (i>0 && i<len-1);
+        return FieldGrammar.isFraction(this.frequencyModifier);
     }
 
+    /** @return true iff this entry has a frequency such as 32% or 32.6% */
     boolean isPercentage() {
-        int i=this.frequencyModifier.indexOf('%');
-        // percentage symbol must be present and cannot be at the first (0th) position
-        if (i<1) return false;
-        String regex="\\d{1,3}\\.?\\d?%";
-        return this.frequencyModifier.matches(regex);
+        return FieldGrammar.isPercentage(this.frequencyModifier);
     }
 
     boolean isFrequencyTerm() {
-        String regex="HP:\\d{7}";
-        return this.frequencyModifier.matches(regex);
+        return FieldGrammar.isHpoId(this.frequencyModifier);
     }
 
 
@@ -232,21 +223,22 @@ public class  V2SmallFileEntry {
      * @return One row of the "big" file corresponding to this entry
      */
     public String getRow() {
-        return String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s",
-                diseaseID,
-                diseaseName,
-                phenotypeId.getIdWithPrefix(),
-                phenotypeName,
-                ageOfOnsetId!=null?ageOfOnsetId:EMPTY_STRING,
-                ageOfOnsetName!=null?ageOfOnsetName:EMPTY_STRING,
-                frequencyModifier !=null? frequencyModifier:EMPTY_STRING,
-                sex!=null?sex:EMPTY_STRING,
-                negation!=null?negation:EMPTY_STRING,
-                modifier!=null?modifier:EMPTY_STRING,
-                description!=null?description:EMPTY_STRING,
-                publication!=null?publication:EMPTY_STRING,
-                evidenceCode!=null?evidenceCode:"",
-                biocuration!=null?biocuration:EMPTY_STRING);
+        return TsvEmitter.forThread()
+                .field(diseaseID)
+                .field(diseaseName)
+                .field(phenotypeId.getIdWithPrefix())
+                .field(phenotypeName)
+                .field(ageOfOnsetId!=null?ageOfOnsetId:EMPTY_STRING)
+                .field(ageOfOnsetName!=null?ageOfOnsetName:EMPTY_STRING)
+                .field(frequencyModifier !=null? frequencyModifier:EMPTY_STRING)
+                .field(sex!=null?sex:EMPTY_STRING)
+                .field(negation!=null?negation:EMPTY_STRING)
+                .field(modifier!=null?modifier:EMPTY_STRING)
+                .field(description!=null?description:EMPTY_STRING)
+                .field(publication!=null?publication:EMPTY_STRING)
+                .field(evidenceCode!=null?evidenceCode:EMPTY_STRING)
+                .field(biocuration!=null?biocuration:EMPTY_STRING)
+                .toLineString();
     }
 
     public static class Builder {
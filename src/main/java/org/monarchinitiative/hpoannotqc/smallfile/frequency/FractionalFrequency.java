@@ -1,17 +1,15 @@
 package org.monarchinitiative.hpoannotqc.smallfile.frequency;
 
+import org.monarchinitiative.hpoannotqc.smallfile.FieldGrammar;
+
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Conveniece class for working with frequencies with the format M/N
  */
 public class FractionalFrequency {
 
-    private static final String REGEX = "(\\d+)/(\\d+)";
-
     private final int numerator;
 
     private final int denominator;
@@ -33,24 +31,19 @@ public class FractionalFrequency {
 
 
 
+    /** @return the frequency for a string such as 4/7, or empty if it is not a fraction (see {@link FieldGrammar}) */
     public static Optional<FractionalFrequency> create(String freq) {
-        Pattern pattern = Pattern.compile(REGEX);
-        Matcher matcher = pattern.matcher(freq);
-        if (matcher.find()) {
-            String M = matcher.group(1);
-            String N = matcher.group(2);
-            try {
-                Integer m = Integer.parseInt(M);
-                Integer n = Integer.parseInt(N);
-                FractionalFrequency ff = new FractionalFrequency(m,n);
-                return Optional.of(ff);
-            } catch (NumberFormatException nfe) {
-                nfe.printStackTrace();
-                return Optional.empty();
-            }
-        } else {
+        if (! FieldGrammar.isFraction(freq)) {
+            return Optional.empty();
+        }
+        int slash = freq.indexOf('/');
+        int m = FieldGrammar.parseNonNegativeInt(freq,0,slash);
+        int n = FieldGrammar.parseNonNegativeInt(freq,slash+1,freq.length());
+        if (m<0 || n<0) {
+            // too large for an int
             return Optional.empty();
         }
+        return Optional.of(new FractionalFrequency(m,n));
     }
 
     public String getMofN() { return String.format("%d/%d",this.numerator,this.denominator); }
@@ -0,0 +1,47 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+
+import static org.junit.Assert.assertEquals;
+
+public class AspectTableTest {
+
+    private static AspectTable aspectTable;
+
+    @BeforeClass
+    public static void init() throws IOException {
+        ClassLoader classLoader = AspectTableTest.class.getClassLoader();
+        String hpOboPath =classLoader.getResource("hp.obo").getFile();
+        Objects.requireNonNull(hpOboPath);
+        HpoTermIndex ontology = HpoTermIndex.of(new HpoOboParser(new File(hpOboPath)).parse());
+        aspectTable = new AspectTable(ontology);
+    }
+
+    @Test
+    public void testAspects() throws HPOException {
+        assertEquals("P", aspectTable.getAspect(TermId.constructWithPrefix("HP:0004872"))); // Incisional hernia
+        assertEquals("I", aspectTable.getAspect(TermId.constructWithPrefix("HP:0000006"))); // Autosomal dominant inheritance
+        assertEquals("C", aspectTable.getAspect(TermId.constructWithPrefix("HP:0003577"))); // Congenital onset
+        assertEquals("M", aspectTable.getAspect(TermId.constructWithPrefix("HP:0012825"))); // Mild
+    }
+
+    /** The subontology roots themselves do not have an aspect. */
+    @Test(expected = HPOException.class)
+    public void testRootHasNoAspect() throws HPOException {
+        aspectTable.getAspect(TermId.constructWithPrefix("HP:0000118")); // Phenotypic abnormality
+    }
+
+    @Test
+    public void testUnknownTerm() throws HPOException {
+        assertEquals(AspectTable.UNKNOWN_TERM, aspectTable.getAspect(TermId.constructWithPrefix("HP:9999999")));
+    }
+}
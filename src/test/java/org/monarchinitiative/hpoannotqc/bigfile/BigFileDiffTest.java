@@ -0,0 +1,117 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.io.ParallelGzipOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BigFileDiffTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String line(String db, String qualifier, String hpo, String ref, String frequency, String biocuration) {
+        return String.join("\t", db, "Some disease", qualifier, hpo, ref, "PCS", "", frequency, "", "", "P", biocuration);
+    }
+
+    private String bigFile(String name, String... lines) throws IOException {
+        List<String> all = new ArrayList<>();
+        all.add("#description: HPO annotations for rare diseases [2: OMIM; 0: DECIPHER; 1 ORPHANET]");
+        all.add("#date: 2018-10-01");
+        all.add(V2BigFile.getHeaderV2());
+        all.addAll(Arrays.asList(lines));
+        File f = new File(folder.getRoot(), name);
+        Files.write(f.toPath(), all, StandardCharsets.UTF_8);
+        return f.getAbsolutePath();
+    }
+
+    private String oldFile() throws IOException {
+        return bigFile("old.hpoa",
+                line("OMIM:200000", "", "HP:0000478", "PMID:1", "3/7", "HPO:probinson[2018-06-01]"),
+                line("OMIM:100000", "", "HP:0000478", "PMID:1", "", "HPO:probinson[2018-06-01]"),
+                line("OMIM:100000", "NOT", "HP:0000478", "PMID:1", "", "HPO:probinson[2018-06-01]"),
+                line("ORPHA:5", "", "HP:0000006", "ORPHA:5", "HP:0040283", "ORPHA:orphadata[2018-06-01]"),
+                line("OMIM:100000", "", "HP:0000118", "PMID:2", "", "HPO:probinson[2018-06-01]"),
+                line("OMIM:100000", "", "HP:0000118", "PMID:2", "1/2", "HPO:probinson[2018-06-01]"));
+    }
+
+    private String newFile() throws IOException {
+        return bigFile("new.hpoa",
+                line("OMIM:100000", "", "HP:0000478", "PMID:1", "", "HPO:probinson[2018-06-01]"),
+                line("OMIM:100000", "", "HP:0000118", "PMID:2", "1/2", "HPO:probinson[2018-06-01]"),
+                line("ORPHA:5", "", "HP:0000006", "ORPHA:5", "HP:0040283", "ORPHA:orphadata[2018-10-01]"),
+                line("OMIM:200000", "", "HP:0000478", "PMID:1", "4/7", "HPO:skoehler[2018-09-22]"),
+                line("OMIM:300000", "", "HP:0000478", "PMID:3", "", "HPO:probinson[2018-10-01]"));
+    }
+
+    private String diff(String oldPath, String newPath, int maxLinesInMemory) throws IOException, HPOException {
+        BigFileDiff diff = new BigFileDiff(oldPath, newPath);
+        diff.setMaxLinesInMemory(maxLinesInMemory);
+        StringWriter sw = new StringWriter();
+        diff.diff(sw);
+        return sw.toString();
+    }
+
+    @Test
+    public void testDiff() throws IOException, HPOException {
+        BigFileDiff diff = new BigFileDiff(oldFile(), newFile());
+        StringWriter sw = new StringWriter();
+        diff.diff(sw);
+        List<String> records = new ArrayList<>();
+        for (String s : sw.toString().split("\n")) {
+            if (!s.startsWith("#")) records.add(s);
+        }
+        assertEquals(Arrays.asList(
+                "removed\tOMIM:100000\tHP:0000118\t\tPMID:2",
+                "removed\tOMIM:100000\tHP:0000478\tNOT\tPMID:1",
+                "changed\tOMIM:200000\tHP:0000478\t\tPMID:1\tFrequency\t3/7\t4/7",
+                "changed\tOMIM:200000\tHP:0000478\t\tPMID:1\tBiocuration\tHPO:probinson[2018-06-01]\tHPO:skoehler[2018-09-22]",
+                "added\tOMIM:300000\tHP:0000478\t\tPMID:3",
+                "changed\tORPHA:5\tHP:0000006\t\tORPHA:5\tBiocuration\tORPHA:orphadata[2018-06-01]\tORPHA:orphadata[2018-10-01]",
+                "summary\tOMIM\t1\t2\t1\t2",
+                "summary\tORPHA\t0\t0\t1\t0"), records);
+        assertArrayEquals(new int[]{1, 2, 1, 2}, diff.getSummaries().get("OMIM"));
+        assertEquals(Integer.valueOf(2), diff.getFieldChangeCounts().get("Biocuration"));
+        assertEquals(Integer.valueOf(1), diff.getFieldChangeCounts().get("Frequency"));
+    }
+
+    /** The result must not depend on the number of lines sorted in memory or on the compression. */
+    @Test
+    public void testExternalSortAndCompressedInput() throws IOException, HPOException {
+        String oldPath = oldFile();
+        String newPath = newFile();
+        String expected = diff(oldPath, newPath, 1000);
+        String gzPath = new File(folder.getRoot(), "new.hpoa.gz").getAbsolutePath();
+        try (OutputStream out = new ParallelGzipOutputStream(new FileOutputStream(gzPath), 6, 100, 2)) {
+            out.write(Files.readAllBytes(new File(newPath).toPath()));
+        }
+        assertEquals(expected, diff(oldPath, newPath, 2));
+        assertEquals(expected, diff(oldPath, gzPath, 1));
+    }
+
+    @Test
+    public void testIdenticalSortedFiles() throws IOException, HPOException {
+        String path = bigFile("sorted.hpoa",
+                line("OMIM:100000", "", "HP:0000118", "PMID:2", "", "HPO:probinson[2018-06-01]"),
+                line("OMIM:100000", "", "HP:0000478", "PMID:1", "", "HPO:probinson[2018-06-01]"));
+        BigFileDiff diff = new BigFileDiff(path, path);
+        diff.diff(new StringWriter());
+        assertArrayEquals(new int[]{0, 0, 0, 2}, diff.getSummaries().get("OMIM"));
+    }
+
+    @Test(expected = HPOException.class)
+    public void testMalformedLine() throws IOException, HPOException {
+        diff(oldFile(), bigFile("bad.hpoa", "OMIM:100000\tSome disease\t"), 10);
+    }
+}
@@ -0,0 +1,179 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.ontology.TestOntology;
+import org.monarchinitiative.hpoannotqc.orphanet.OrphanetDisorder;
+import org.monarchinitiative.hpoannotqc.smallfile.QualityControlSummary;
+import org.monarchinitiative.hpoannotqc.smallfile.V2LineQualityController;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BigFileShardMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String writeShard(String name, String... lines) throws IOException {
+        File f = new File(folder.getRoot(), name);
+        Files.write(f.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return f.getAbsolutePath();
+    }
+
+    private List<String> twoShards() throws IOException {
+        List<String> shards = new ArrayList<>();
+        shards.add(writeShard("shard1.tsv",
+                "#shard\t1\t2",
+                "#max-findings\t1000",
+                "#meta\tdata-version\thp/releases/2018-06-01",
+                "#diseases\tOMIM\t1",
+                "#diseases\tDECIPHER\t1",
+                "#diseases\tORPHA\t1",
+                "#diseases\tUNKNOWN\t0",
+                "0|DECIPHER-17.tab\tDECIPHER:17\tline d1",
+                "0|OMIM-300000.tab\tOMIM:300000\tline c1",
+                "1|00000002\tORPHA:5\tline o2",
+                "#qc\tdatabase\t3\t0",
+                "#qc\tphenotypeID\t2\t1",
+                "#qc-finding\t0|OMIM-300000.tab\tOMIM:300000\t1\tPHENOTYPE_ALT_ID\tHP:0001105",
+                "#qc-assigned-by\tHPO:probinson\t2"));
+        shards.add(writeShard("shard0.tsv",
+                "#shard\t0\t2",
+                "#max-findings\t1000",
+                "#meta\tdata-version\thp/releases/2018-06-01",
+                "#diseases\tOMIM\t1",
+                "#diseases\tDECIPHER\t0",
+                "#diseases\tORPHA\t2",
+                "#diseases\tUNKNOWN\t0",
+                "0|OMIM-100000.tab\tOMIM:100000\tline a1",
+                "0|OMIM-100000.tab\tOMIM:100000\tline a2",
+                "1|00000000\tORPHA:1\tline o0",
+                "1|00000001\tORPHA:3\tline o1",
+                "#qc\tdatabase\t2\t0",
+                "#qc\tphenotypeID\t2\t0",
+                "#qc-assigned-by\tHPO:probinson\t1",
+                "#qc-assigned-by\tHPO:skoehler\t1"));
+        return shards;
+    }
+
+    @Test
+    public void testMergeOrderHeaderAndQc() throws IOException, HPOException {
+        String out = new File(folder.getRoot(), "phenotype.hpoa").getAbsolutePath();
+        BigFileShardMerger merger = new BigFileShardMerger(twoShards(), out);
+        merger.merge();
+        List<String> lines = Files.readAllLines(new File(out).toPath(), StandardCharsets.UTF_8);
+        assertTrue(lines.get(0).startsWith("#description: HPO annotations for rare diseases [2: OMIM; 1: DECIPHER; 3 ORPHANET]"));
+        assertEquals("#HPO-version: hp/releases/2018-06-01", lines.get(3));
+        assertEquals(V2BigFile.getHeaderV2(), lines.get(4));
+        List<String> body = lines.subList(5, lines.size());
+        assertEquals(Arrays.asList("DECIPHER:17\tline d1",
+                "OMIM:100000\tline a1",
+                "OMIM:100000\tline a2",
+                "OMIM:300000\tline c1",
+                "ORPHA:1\tline o0",
+                "ORPHA:3\tline o1",
+                "ORPHA:5\tline o2"), body);
+        assertEquals(7, merger.getNumberOfLinesWritten());
+        QualityControlSummary qc = merger.getQualityControlSummary();
+        assertEquals(5, qc.getGood("database"));
+        assertEquals(4, qc.getGood("phenotypeID"));
+        assertEquals(1, qc.getBad("phenotypeID"));
+        assertEquals(Arrays.asList("Found usage of alt_id for phenotype [HP:0001105]: OMIM:300000 line 1"), qc.getErrors());
+        assertEquals(3, (int) merger.getAssignedByCounts().get("HPO:probinson"));
+        assertEquals(1, (int) merger.getAssignedByCounts().get("HPO:skoehler"));
+    }
+
+    @Test(expected = HPOException.class)
+    public void testMissingShard() throws IOException, HPOException {
+        List<String> shards = twoShards().subList(0, 1);
+        new BigFileShardMerger(shards, new File(folder.getRoot(), "out.hpoa").getAbsolutePath()).merge();
+    }
+
+    /** A sharded write followed by a merge gives the same bytes and the same Q/C as a single write. */
+    @Test
+    public void testShardedWriteIsIdenticalToSingleWrite() throws IOException, HPOException {
+        TermId eye = TestOntology.ABNORMALITY_OF_THE_EYE;
+        TermId altId = TestOntology.ALT_ID;
+        TermId occasional = TestOntology.OCCASIONAL;
+        HpoTermIndex ontology = TestOntology.build();
+        List<V2SmallFile> smallFiles = new ArrayList<>();
+        for (int d = 0; d < 60; d++) {
+            String diseaseId = (d % 10 == 0 ? "DECIPHER:" : "OMIM:") + (100000 + d);
+            List<V2SmallFileEntry> entries = new ArrayList<>();
+            for (int j = 0; j <= d % 3; j++) {
+                // some lines use an alt_id, an invalid frequency or a second biocurator
+                entries.add(new V2SmallFileEntry.Builder(diseaseId, "Disease " + d, (d + j) % 4 == 0 ? altId : eye,
+                        "Abnormality of the eye", "PCS", "PMID:" + d,
+                        (d + j) % 5 == 0 ? "HPO:skoehler[2018-06-01]" : "HPO:probinson[2018-06-01]")
+                        .frequencyString((d + j) % 7 == 0 ? "often" : j + "/5")
+                        .build());
+            }
+            smallFiles.add(new V2SmallFile(diseaseId.replace(':', '-') + ".tab", entries));
+        }
+        smallFiles.sort(Comparator.comparing(V2SmallFile::getBasename));
+        List<OrphanetDisorder> disorders = new ArrayList<>();
+        for (int d = 0; d < 20; d++) {
+            OrphanetDisorder disorder = new OrphanetDisorder();
+            disorder.setOrphaNumber(1000 + 7 * d);
+            disorder.setName("Disorder " + d);
+            disorder.setFrequency(occasional);
+            disorder.setHPO(eye, "Abnormality of the eye");
+            disorders.add(disorder);
+        }
+        Map<String,String> meta = new HashMap<>();
+        meta.put("data-version", "hp/releases/2018-06-01");
+        int maxFindings = 3;
+
+        File single = new File(folder.getRoot(), "single.hpoa");
+        BigFileWriter writer = new BigFileWriter(ontology, smallFiles, single.getAbsolutePath());
+        writer.initializeV2filehandle();
+        writer.setNumberOfDiseasesForHeader(disorders.size());
+        writer.setOntologyMetadata(meta);
+        writer.setQualityControlFindings(maxFindings, null);
+        writer.outputBigFileV2();
+        writer.appendOrphanetV2(disorders);
+        writer.closeFileHandle();
+
+        List<String> shards = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            // one shard is compressed
+            File shard = new File(folder.getRoot(), i == 1 ? "shard1.tsv.gz" : "shard" + i + ".tsv");
+            BigFileShardWriter shardWriter = new BigFileShardWriter(ontology, shard.getAbsolutePath(), i, 3);
+            shardWriter.setMaxFindingsPerCheck(maxFindings);
+            shardWriter.write(smallFiles, disorders, meta);
+            shards.add(shard.getAbsolutePath());
+        }
+        Collections.reverse(shards);
+        File merged = new File(folder.getRoot(), "merged.hpoa");
+        BigFileShardMerger merger = new BigFileShardMerger(shards, merged.getAbsolutePath());
+        merger.merge();
+
+        assertArrayEquals(Files.readAllBytes(single.toPath()), Files.readAllBytes(merged.toPath()));
+        V2LineQualityController expected = writer.getLineQualityController();
+        QualityControlSummary expectedSummary = expected.getSummary();
+        QualityControlSummary actualSummary = merger.getQualityControlSummary();
+        assertEquals(expectedSummary.getChecks(), actualSummary.getChecks());
+        for (String check : expectedSummary.getChecks()) {
+            assertEquals(check, expectedSummary.getGood(check), actualSummary.getGood(check));
+            assertEquals(check, expectedSummary.getBad(check), actualSummary.getBad(check));
+        }
+        // the maximum applies to all shards together, and the findings are in the order of the diseases
+        assertTrue(expectedSummary.getBad("frequency") > maxFindings);
+        assertEquals(expectedSummary.getErrors(), actualSummary.getErrors());
+        assertEquals(expected.getAssignedByCounts(), merger.getAssignedByCounts());
+    }
+}
@@ -6,7 +6,7 @@ import org.junit.Test;
 import org.monarchinitiative.hpoannotqc.exception.HPOException;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
 import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
@@ -24,7 +24,7 @@ public class BigFileWriterTest {
 
 
     private static V2SmallFileEntry entry;
-    private static HpoOntology ontology;
+    private static HpoTermIndex ontology;
 
     @BeforeClass
     public static void init() throws IOException {
@@ -33,7 +33,7 @@ public class BigFileWriterTest {
         String hpOboPath =classLoader.getResource("hp.obo").getFile();
         Objects.requireNonNull(hpOboPath);
         HpoOboParser oboparser = new HpoOboParser(new File(hpOboPath));
-        ontology = oboparser.parse();
+        ontology = HpoTermIndex.of(oboparser.parse());
         // Make a typical entry. All other fields are emtpy.
         String diseaseID="OMIM:154700";
         String diseaseName="MARFAN SYNDROME";
@@ -0,0 +1,108 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.exception.HPOException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedBigFileReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String line(String diseaseId, String name, String hpo) {
+        return String.join("\t", diseaseId, name, "", hpo, diseaseId, "TAS", "", "", "", "", "P", "HPO:probinson[2018-06-01]");
+    }
+
+    private static final String A1 = line("OMIM:200000", "Disease A", "HP:0000478");
+    private static final String A2 = line("OMIM:200000", "Disease A", "HP:0000118");
+    /** A name with characters that take more than one byte in UTF-8 (if the default charset can encode them). */
+    private static final String B1 = line("OMIM:100000",
+            Charset.defaultCharset().newEncoder().canEncode("Sj\u00f6gren\u2013Larsson") ? "Sj\u00f6gren\u2013Larsson syndrome" : "Sjogren-Larsson syndrome",
+            "HP:0000478");
+    private static final String C1 = line("ORPHA:5", "Disorder", "HP:0000006");
+    private static final String D1 = line("DECIPHER:17", "Deletion", "HP:0000478");
+
+    private String writeSorted() throws IOException {
+        return writeSorted("phenotype.hpoa", SortedAnnotationReader.DEFAULT_MAX_LINES_IN_MEMORY);
+    }
+
+    private String writeSorted(String name, int maxLinesInMemory) throws IOException {
+        String path = new File(folder.getRoot(), name).getAbsolutePath();
+        try (BufferedWriter writer = new BufferedWriter(new DiseaseSortingWriter(path, path + IndexedBigFileReader.INDEX_SUFFIX, maxLinesInMemory))) {
+            writer.write("#description: HPO annotations for rare diseases\n");
+            writer.write(V2BigFile.getHeaderV2() + "\n");
+            for (String line : Arrays.asList(A1, B1, C1, A2, D1)) {
+                writer.write(line + "\n");
+            }
+        }
+        return path;
+    }
+
+    @Test
+    public void testSortedFile() throws IOException {
+        String path = writeSorted();
+        List<String> lines = Files.readAllLines(new File(path).toPath(), Charset.defaultCharset());
+        assertEquals(Arrays.asList("#description: HPO annotations for rare diseases", V2BigFile.getHeaderV2(),
+                D1, B1, A1, A2, C1), lines);
+    }
+
+    /** Lines sorted in several runs on disk give the same file and index as lines sorted in memory. */
+    @Test
+    public void testSortedInRuns() throws IOException {
+        String path = writeSorted();
+        String runs = writeSorted("runs.hpoa", 2);
+        assertEquals(Files.readAllLines(new File(path).toPath(), Charset.defaultCharset()),
+                Files.readAllLines(new File(runs).toPath(), Charset.defaultCharset()));
+        List<String> index = Files.readAllLines(new File(path + IndexedBigFileReader.INDEX_SUFFIX).toPath(), Charset.defaultCharset());
+        assertEquals(index, Files.readAllLines(new File(runs + IndexedBigFileReader.INDEX_SUFFIX).toPath(), Charset.defaultCharset()));
+    }
+
+    /** The runs are written to temporary files while lines are received. */
+    @Test
+    public void testNumberOfRuns() throws IOException {
+        String path = new File(folder.getRoot(), "phenotype.hpoa").getAbsolutePath();
+        DiseaseSortingWriter writer = new DiseaseSortingWriter(path, path + IndexedBigFileReader.INDEX_SUFFIX, 2);
+        for (String line : Arrays.asList(A1, B1, C1, A2, D1)) {
+            writer.write(line + "\n");
+        }
+        assertEquals(2, writer.getNumberOfRuns());
+        writer.close();
+        assertEquals(Arrays.asList(D1, B1, A1, A2, C1), Files.readAllLines(new File(path).toPath(), Charset.defaultCharset()));
+    }
+
+    @Test
+    public void testLookup() throws IOException, HPOException {
+        try (IndexedBigFileReader reader = new IndexedBigFileReader(writeSorted())) {
+            assertEquals(4, reader.size());
+            assertEquals(Arrays.asList("DECIPHER:17", "OMIM:100000", "OMIM:200000", "ORPHA:5"), reader.getDiseaseIds());
+            assertEquals(Arrays.asList(A1, A2), reader.getRows("OMIM:200000"));
+            assertEquals(Collections.singletonList(B1), reader.getRows("OMIM:100000"));
+            assertEquals(Collections.singletonList(C1), reader.getRows("ORPHA:5"));
+            assertEquals(Collections.singletonList(D1), reader.getRows("DECIPHER:17"));
+            assertTrue(reader.getRows("OMIM:150000").isEmpty());
+            assertFalse(reader.contains("OMIM:150000"));
+        }
+    }
+
+    /** An index that does not belong to the big file must be rejected. */
+    @Test(expected = HPOException.class)
+    public void testStaleIndex() throws IOException, HPOException {
+        String path = writeSorted();
+        Files.write(new File(path).toPath(), Collections.singletonList(A1), Charset.defaultCharset());
+        new IndexedBigFileReader(path);
+    }
+}
@@ -0,0 +1,127 @@
+package org.monarchinitiative.hpoannotqc.bigfile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.ontology.TestOntology;
+import org.monarchinitiative.hpoannotqc.orphanet.OrphanetDisorder;
+import org.monarchinitiative.hpoannotqc.smallfile.QcReportWriter;
+import org.monarchinitiative.hpoannotqc.smallfile.QualityControlSummary;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.monarchinitiative.hpoannotqc.ontology.TestOntology.*;
+
+public class OrderedChunkWriterTest {
+
+    /** Diseases are annotated to these terms in turn; ALL has no aspect, and so its lines are not written. */
+    private static final TermId[] PHENOTYPES = {ABNORMALITY_OF_THE_EYE, AUTOSOMAL_DOMINANT, ALL, PHENOTYPIC_ABNORMALITY};
+    /** Frequencies used in turn, including an invalid one for the Q/C. */
+    private static final String[] FREQUENCIES = {"", "3/7", "often", "HP:0040283", "45%"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HpoTermIndex ontology;
+
+    @Before
+    public void init() {
+        ontology = TestOntology.build();
+    }
+
+    private List<V2SmallFile> smallFiles(int n) {
+        List<V2SmallFile> smallFiles = new ArrayList<>();
+        int k = 0;
+        for (int d = 0; d < n; d++) {
+            String diseaseId = "OMIM:" + (100000 + d);
+            List<V2SmallFileEntry> entries = new ArrayList<>();
+            for (int j = 0; j < d % 5 + 1; j++, k++) {
+                TermId tid = PHENOTYPES[k % PHENOTYPES.length];
+                entries.add(new V2SmallFileEntry.Builder(diseaseId, "Disease " + d, tid, ontology.getName(tid),
+                        "PCS", "PMID:" + k, "HPO:probinson[2018-06-01]")
+                        .frequencyString(FREQUENCIES[k % FREQUENCIES.length])
+                        .build());
+            }
+            smallFiles.add(new V2SmallFile("OMIM-" + (100000 + d) + ".tab", entries));
+        }
+        return smallFiles;
+    }
+
+    /** Write the small files with the given number of render threads, and the findings to the report. */
+    private String render(V2BigFile bigFile, int threads, File report) throws IOException {
+        StringWriter sw = new StringWriter();
+        QcReportWriter reportWriter = new QcReportWriter(report.getAbsolutePath(), QcReportWriter.Format.TSV);
+        bigFile.setQualityControlFindings(5, reportWriter);
+        bigFile.setRenderThreads(threads, 7);
+        try (BufferedWriter writer = new BufferedWriter(sw)) {
+            bigFile.outputBigFileV2(writer);
+        }
+        reportWriter.close();
+        return sw.toString();
+    }
+
+    @Test
+    public void testParallelSmallFilesAreIdentical() throws IOException {
+        List<V2SmallFile> smallFiles = smallFiles(100);
+        File report1 = folder.newFile("report1.tsv");
+        File report4 = folder.newFile("report4.tsv");
+        V2BigFile sequential = new V2BigFile(ontology, smallFiles);
+        V2BigFile parallel = new V2BigFile(ontology, smallFiles);
+        String expected = render(sequential, 1, report1);
+        String actual = render(parallel, 4, report4);
+        assertEquals(expected, actual);
+        assertEquals(sequential.getNumberOfLinesWritten(), parallel.getNumberOfLinesWritten());
+        QualityControlSummary qc1 = sequential.getQualityControlSummary();
+        QualityControlSummary qc4 = parallel.getQualityControlSummary();
+        for (String check : qc1.getChecks()) {
+            assertEquals(check, qc1.getGood(check), qc4.getGood(check));
+            assertEquals(check, qc1.getBad(check), qc4.getBad(check));
+        }
+        assertTrue(qc1.getBad("frequency") > 5);
+        // only 5 findings per check are kept, but all of them are written to the report
+        assertEquals(qc1.getErrors(), qc4.getErrors());
+        assertEquals(Files.readAllLines(report1.toPath()), Files.readAllLines(report4.toPath()));
+    }
+
+    @Test
+    public void testParallelOrphanetIsIdentical() throws IOException {
+        List<OrphanetDisorder> disorders = new ArrayList<>();
+        for (int d = 0; d < 50; d++) {
+            OrphanetDisorder disorder = new OrphanetDisorder();
+            disorder.setOrphaNumber(1000 + d);
+            disorder.setName("Disorder " + d);
+            disorder.setFrequency(OCCASIONAL);
+            for (int j = 0; j <= d % 4; j++) {
+                TermId tid = PHENOTYPES[(d + j) % PHENOTYPES.length];
+                disorder.setHPO(tid, ontology.getName(tid));
+            }
+            disorders.add(disorder);
+        }
+        StringWriter sequential = new StringWriter();
+        StringWriter parallel = new StringWriter();
+        AspectTable aspects = new AspectTable(ontology);
+        try (BufferedWriter writer = new BufferedWriter(sequential)) {
+            new Orphanet2BigFile(disorders, writer, ontology, aspects).writeOrphanetV2();
+        }
+        try (BufferedWriter writer = new BufferedWriter(parallel)) {
+            Orphanet2BigFile orph2big = new Orphanet2BigFile(disorders, writer, ontology, aspects);
+            orph2big.setRenderThreads(3, 4);
+            orph2big.writeOrphanetV2();
+        }
+        assertTrue(sequential.toString().startsWith("ORPHA:1000\tDisorder 0\t"));
+        assertEquals(sequential.toString(), parallel.toString());
+    }
+}
@@ -0,0 +1,84 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.ontology.TestOntology;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ServeCommandTest {
+
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void init() throws IOException {
+        HpoTermIndex ontology = TestOntology.phenotypeBuilder().build();
+        ServeCommand cmd = new ServeCommand("hp.obo", 0);
+        cmd.setNumberOfThreads(2);
+        server = cmd.start(ontology);
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stop() {
+        ServeCommand.stop(server);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String post(String name, String content) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + "/validate?name=" + name).openConnection();
+        con.setRequestMethod("POST");
+        con.setDoOutput(true);
+        try (OutputStream os = con.getOutputStream()) {
+            os.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(200, con.getResponseCode());
+        return read(con.getInputStream());
+    }
+
+    @Test
+    public void testValidateAndMetrics() throws IOException {
+        String content = V2SmallFileEntry.getHeaderV2() + "\n" +
+                "OMIM:123456\tSome disease\tHP:0000478\tAbnormality of the eye\t\t\toften\t\t\t\t\tPMID:123\tPCS\tHPO:probinson[2018-06-01]\n";
+        String json = post("OMIM-123456.tab", content);
+        assertTrue(json, json.startsWith("{\"name\":\"OMIM-123456.tab\",\"valid\":false,\"parsed\":true,\"lines\":1,\"skipped\":0,\"findings\":[{\"type\":\"finding\""));
+        assertTrue(json, json.contains("\"code\":\"INVALID_FREQUENCY\""));
+        assertTrue(json, json.contains("{\"check\":\"frequency\",\"good\":0,\"bad\":1}"));
+
+        json = post("OMIM-123456.tab", content.replace("often", "3/7"));
+        assertTrue(json, json.contains("\"valid\":true"));
+
+        HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + "/metrics").openConnection();
+        assertTrue(read(con.getInputStream()).startsWith("{\"requests\":2,\"failed\":0,"));
+    }
+
+    @Test
+    public void testGetIsRejected() throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + "/validate").openConnection();
+        assertEquals(405, con.getResponseCode());
+    }
+}
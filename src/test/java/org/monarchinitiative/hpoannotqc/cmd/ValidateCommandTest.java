@@ -0,0 +1,79 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.ontology.TestOntology;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ValidateCommandTest {
+
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HpoTermIndex ontology;
+
+    @Before
+    public void init() {
+        ontology = TestOntology.phenotypeBuilder().build();
+    }
+
+    private String smallFile(String name, String... lines) throws IOException {
+        File f = folder.newFile(name);
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)) {
+            w.write(V2SmallFileEntry.getHeaderV2() + "\n");
+            for (String line : lines) {
+                w.write(line + "\n");
+            }
+        }
+        return f.getAbsolutePath();
+    }
+
+    private static String line(String phenotypeId, String frequency) {
+        return "OMIM:123456\tSome disease\t" + phenotypeId + "\tAbnormality of the eye\t\t\t" + frequency +
+                "\t\t\t\t\tPMID:123\tPCS\tHPO:probinson[2018-06-01]";
+    }
+
+    @Test
+    public void testValidFile() throws IOException {
+        String path = smallFile("OMIM-123456.tab", line("HP:0000478", "3/7"), line("HP:0000478", ""));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ValidateCommand cmd = new ValidateCommand("hp.obo", Collections.singletonList(path));
+        assertEquals(0, cmd.validate(ontology, new PrintStream(bytes)));
+        assertTrue(bytes.toString().contains("OK (2 lines)"));
+    }
+
+    @Test
+    public void testInvalidFiles() throws IOException {
+        String good = smallFile("OMIM-100000.tab", line("HP:0000478", ""));
+        String badFrequency = smallFile("OMIM-200000.tab", line("HP:0000478", "often"));
+        // an unknown term is skipped by the parser, which must also count as a failure
+        String unknownTerm = smallFile("OMIM-300000.tab", line("HP:0000002", ""));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ValidateCommand cmd = new ValidateCommand("hp.obo", Arrays.asList(good, badFrequency, unknownTerm));
+        assertEquals(2, cmd.validate(ontology, new PrintStream(bytes)));
+        String out = bytes.toString();
+        assertTrue(out.contains("Invalid frequency [often]: OMIM:123456 line 1"));
+        assertTrue(out.contains("1 lines were skipped"));
+    }
+
+    /** A line with a missing field must not stop the program, since the watch command shares the validator. */
+    @Test
+    public void testMalformedFile() throws IOException {
+        String path = smallFile("OMIM-123456.tab", "OMIM:123456\tSome disease\tHP:0000478");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ValidateCommand cmd = new ValidateCommand("hp.obo", Collections.singletonList(path));
+        assertEquals(1, cmd.validate(ontology, new PrintStream(bytes)));
+        assertTrue(bytes.toString().contains("FAILED (could not be parsed)"));
+    }
+}
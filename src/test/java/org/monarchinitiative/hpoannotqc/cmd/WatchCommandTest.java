@@ -0,0 +1,123 @@
+package org.monarchinitiative.hpoannotqc.cmd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.io.HpoOntologySnapshot;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.ontology.TestOntology;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.monarchinitiative.hpoannotqc.ontology.TestOntology.*;
+
+public class WatchCommandTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Write hp.obo with the data-version and a newer snapshot, so that hp.obo itself is not parsed. */
+    private static void writeOntology(Path obo, String dataVersion, boolean withEar) throws IOException {
+        Files.write(obo, Arrays.asList("format-version: 1.2", "data-version: " + dataVersion, "", "[Term]"),
+                StandardCharsets.UTF_8);
+        Map<String,String> meta = new HashMap<>();
+        meta.put("data-version", dataVersion);
+        HpoTermIndex.Builder builder = TestOntology.phenotypeBuilder().setMetaInfo(meta);
+        if (withEar) {
+            builder.addTerm(ABNORMALITY_OF_THE_EAR, "Abnormality of the ear", false)
+                    .addParent(ABNORMALITY_OF_THE_EAR, PHENOTYPIC_ABNORMALITY);
+        }
+        Path snapshot = HpoOntologySnapshot.getSnapshotPath(obo.toString());
+        HpoOntologySnapshot.write(builder.build(), snapshot.toString());
+        Files.setLastModifiedTime(snapshot, FileTime.fromMillis(Files.getLastModifiedTime(obo).toMillis() + 1000));
+    }
+
+    /** A new term is accepted after hp.obo has changed, and files outside the small file directory are ignored. */
+    @Test
+    public void testReloadOfChangedOntology() throws IOException {
+        Path obo = new File(folder.getRoot(), "hp.obo").toPath();
+        writeOntology(obo, "hp/releases/2018-06-01", false);
+        File dir = folder.newFolder("annotated");
+        Path smallFile = new File(dir, "OMIM-123456.tab").toPath();
+        Files.write(smallFile, Arrays.asList(V2SmallFileEntry.getHeaderV2(),
+                "OMIM:123456\tSome disease\tHP:0000598\tAbnormality of the ear\t\t\t\t\t\t\t\tPMID:123\tPCS\tHPO:probinson[2018-06-01]"),
+                StandardCharsets.UTF_8);
+        Path backup = new File(dir, "OMIM-123456.tab~").toPath();
+        Files.copy(smallFile, backup);
+
+        WatchCommand cmd = new WatchCommand(obo.toString(), dir.getAbsolutePath());
+        cmd.reloadOntology();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cmd.process(new LinkedHashSet<>(Arrays.asList(smallFile, backup)), new PrintStream(bytes));
+        assertTrue(bytes.toString().contains("OMIM-123456.tab: FAILED"));
+        assertFalse(bytes.toString().contains("tab~"));
+
+        writeOntology(obo, "hp/releases/2018-07-01", true);
+        bytes = new ByteArrayOutputStream();
+        cmd.process(new LinkedHashSet<>(Arrays.asList(obo, smallFile)), new PrintStream(bytes));
+        assertTrue(bytes.toString().contains("Reloaded"));
+        assertTrue(bytes.toString().contains("OMIM-123456.tab: OK (1 lines)"));
+    }
+
+    /** A half-written hp.obo does not stop the watch, and the small files are checked with the previous version. */
+    @Test
+    public void testTruncatedOntologyKeepsPreviousVersion() throws IOException {
+        Path obo = new File(folder.getRoot(), "hp.obo").toPath();
+        writeOntology(obo, "hp/releases/2018-06-01", false);
+        File dir = folder.newFolder("annotated");
+        Path smallFile = new File(dir, "OMIM-123456.tab").toPath();
+        Files.write(smallFile, Arrays.asList(V2SmallFileEntry.getHeaderV2(),
+                "OMIM:123456\tSome disease\tHP:0000478\tAbnormality of the eye\t\t\t\t\t\t\t\tPMID:123\tPCS\tHPO:probinson[2018-06-01]"),
+                StandardCharsets.UTF_8);
+
+        WatchCommand cmd = new WatchCommand(obo.toString(), dir.getAbsolutePath());
+        cmd.reloadOntology();
+        // newer than the snapshot, so that hp.obo itself is parsed
+        Files.write(obo, Arrays.asList("format-version: 1.2", "data-version: hp/releases/2018-07-01", "", "[Term]", "id: HP:00"),
+                StandardCharsets.UTF_8);
+        Path snapshot = HpoOntologySnapshot.getSnapshotPath(obo.toString());
+        Files.setLastModifiedTime(obo, FileTime.fromMillis(Files.getLastModifiedTime(snapshot).toMillis() + 1000));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cmd.process(new LinkedHashSet<>(Arrays.asList(obo, smallFile)), new PrintStream(bytes));
+        assertFalse(bytes.toString().contains("Reloaded"));
+        assertTrue(bytes.toString().contains("OMIM-123456.tab: OK (1 lines)"));
+    }
+
+    /** A file whose check throws is reported as failed, and the following files are still checked. */
+    @Test
+    public void testFailedCheckDoesNotStopWatching() throws IOException {
+        Path obo = new File(folder.getRoot(), "hp.obo").toPath();
+        writeOntology(obo, "hp/releases/2018-07-01", true);
+        File dir = folder.newFolder("annotated");
+        // a phenotype id without prefix cannot be made into a term id
+        Path broken = new File(dir, "OMIM-100000.tab").toPath();
+        Files.write(broken, Arrays.asList(V2SmallFileEntry.getHeaderV2(),
+                "OMIM:100000\tSome disease\t0000478\tAbnormality of the eye\t\t\t\t\t\t\t\tPMID:123\tPCS\tHPO:probinson[2018-06-01]"),
+                StandardCharsets.UTF_8);
+        Path smallFile = new File(dir, "OMIM-123456.tab").toPath();
+        Files.write(smallFile, Arrays.asList(V2SmallFileEntry.getHeaderV2(),
+                "OMIM:123456\tSome disease\tHP:0000478\tAbnormality of the eye\t\t\t\t\t\t\t\tPMID:123\tPCS\tHPO:probinson[2018-06-01]"),
+                StandardCharsets.UTF_8);
+
+        WatchCommand cmd = new WatchCommand(obo.toString(), dir.getAbsolutePath());
+        cmd.reloadOntology();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cmd.process(new LinkedHashSet<>(Arrays.asList(broken, smallFile)), new PrintStream(bytes));
+        assertTrue(bytes.toString().contains("OMIM-100000.tab: FAILED ("));
+        assertTrue(bytes.toString().contains("OMIM-123456.tab: OK (1 lines)"));
+        // the next save of the broken file is checked again
+        bytes = new ByteArrayOutputStream();
+        cmd.process(Collections.singleton(broken), new PrintStream(bytes));
+        assertTrue(bytes.toString().contains("OMIM-100000.tab: FAILED ("));
+    }
+}
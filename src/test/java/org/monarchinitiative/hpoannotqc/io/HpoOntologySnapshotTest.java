@@ -0,0 +1,96 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.ontology.TestOntology;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.monarchinitiative.hpoannotqc.ontology.TestOntology.*;
+
+public class HpoOntologySnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private static HpoTermIndex smallOntology(String dataVersion) {
+        Map<String,String> meta = new HashMap<>();
+        meta.put("data-version", dataVersion);
+        meta.put("saved-by", "Peter Robinson");
+        return TestOntology.phenotypeBuilder()
+                .setMetaInfo(meta)
+                .build();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        String path = new File(folder.getRoot(), "hp.obo.snapshot").getAbsolutePath();
+        HpoOntologySnapshot.write(smallOntology("hp/releases/2018-06-01"), path);
+        HpoTermIndex index = HpoOntologySnapshot.read(path, "hp/releases/2018-06-01");
+        assertNotNull(index);
+        assertEquals(3, index.size());
+        assertEquals("Peter Robinson", index.getMetaInfo().get("saved-by"));
+        assertEquals(ABNORMALITY_OF_THE_EYE, index.getPrimaryTermId(ALT_ID));
+        assertEquals("Abnormality of the eye", index.getName(ALT_ID));
+        assertTrue(index.existsPath(ABNORMALITY_OF_THE_EYE, ALL));
+        assertFalse(index.existsPath(ALL, ABNORMALITY_OF_THE_EYE));
+        assertEquals(3, index.getDescendents(ALL).size());
+    }
+
+    @Test
+    public void testOtherDataVersionIsIgnored() throws IOException {
+        String path = new File(folder.getRoot(), "hp.obo.snapshot").getAbsolutePath();
+        HpoOntologySnapshot.write(smallOntology("hp/releases/2018-06-01"), path);
+        assertNull(HpoOntologySnapshot.read(path, "hp/releases/2018-07-01"));
+    }
+
+    /** A snapshot that is newer than hp.obo and has the same data-version is used instead of parsing hp.obo. */
+    @Test
+    public void testLoadUsesSnapshot() throws IOException {
+        Path obo = folder.newFile("hp.obo").toPath();
+        Files.write(obo, Arrays.asList("format-version: 1.2", "data-version: hp/releases/2018-06-01", "", "[Term]"),
+                StandardCharsets.UTF_8);
+        Path snapshot = HpoOntologySnapshot.getSnapshotPath(obo.toString());
+        HpoOntologySnapshot.write(smallOntology("hp/releases/2018-06-01"), snapshot.toString());
+        Files.setLastModifiedTime(snapshot, FileTime.fromMillis(Files.getLastModifiedTime(obo).toMillis() + 1000));
+        HpoTermIndex index = HpoOntologySnapshot.load(obo.toString());
+        assertEquals(3, index.size());
+    }
+
+    /** Without a data-version in hp.obo, the snapshot is used only if the checksum of hp.obo is unchanged. */
+    @Test
+    public void testChecksumWithoutDataVersion() throws IOException {
+        Path obo = folder.newFile("hp.obo").toPath();
+        Files.write(obo, Arrays.asList("format-version: 1.2", "", "[Term]"), StandardCharsets.UTF_8);
+        Path snapshot = HpoOntologySnapshot.getSnapshotPath(obo.toString());
+        HpoOntologySnapshot.write(smallOntology("hp/releases/2018-06-01"), snapshot.toString(), HpoOntologySnapshot.checksum(obo));
+        Files.setLastModifiedTime(snapshot, FileTime.fromMillis(Files.getLastModifiedTime(obo).toMillis() + 1000));
+        assertEquals(3, HpoOntologySnapshot.load(obo.toString()).size());
+
+        Files.write(obo, Arrays.asList("format-version: 1.2", "", "[Term]", "id: HP:0000001"), StandardCharsets.UTF_8);
+        assertNull(HpoOntologySnapshot.read(snapshot.toString(), null, HpoOntologySnapshot.checksum(obo)));
+        // with a data-version, the data-version decides
+        assertNotNull(HpoOntologySnapshot.read(snapshot.toString(), "hp/releases/2018-06-01", HpoOntologySnapshot.checksum(obo)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSnapshot() throws IOException {
+        String path = new File(folder.getRoot(), "hp.obo.snapshot").getAbsolutePath();
+        HpoOntologySnapshot.write(smallOntology("hp/releases/2018-06-01"), path);
+        byte[] bytes = Files.readAllBytes(new File(path).toPath());
+        Files.write(new File(path).toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+        HpoOntologySnapshot.read(path, "hp/releases/2018-06-01");
+    }
+}
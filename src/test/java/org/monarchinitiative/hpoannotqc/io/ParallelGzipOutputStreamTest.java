@@ -0,0 +1,104 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelGzipOutputStreamTest {
+
+    private static byte[] compress(byte[] data, int level, int blockSize, int threads) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gz = new ParallelGzipOutputStream(bytes, level, blockSize, threads)) {
+            // write in pieces of varying size, which do not line up with the blocks
+            Random random = new Random(7);
+            int off = 0;
+            while (off < data.length) {
+                int n = Math.min(data.length - off, random.nextInt(3000));
+                if (n == 1) {
+                    gz.write(data[off]);
+                } else {
+                    gz.write(data, off, n);
+                }
+                off += n;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Lines like those of the big file, so that the data can be compressed. */
+    private static byte[] bigFileLines(int n) {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            sb.append("OMIM:").append(100000 + random.nextInt(1000)).append("\tSome disease\t\tHP:")
+                    .append(String.format("%07d", random.nextInt(20000)))
+                    .append("\tPMID:").append(random.nextInt(1000000)).append("\tPCS\t\t\t\t\tP\tHPO:probinson[2018-06-01]\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = bigFileLines(5000);
+        for (int threads : new int[]{1, 4}) {
+            for (int blockSize : new int[]{1000, 64 * 1024, data.length + 1}) {
+                byte[] compressed = compress(data, 6, blockSize, threads);
+                assertArrayEquals(data, gunzip(compressed));
+                assertTrue(compressed.length < data.length / 2);
+            }
+        }
+    }
+
+    /** The members do not depend on the number of threads. */
+    @Test
+    public void testSameOutputForAnyNumberOfThreads() throws IOException {
+        byte[] data = bigFileLines(2000);
+        assertArrayEquals(compress(data, 9, 4096, 1), compress(data, 9, 4096, 3));
+    }
+
+    @Test
+    public void testLevels() throws IOException {
+        byte[] data = bigFileLines(2000);
+        byte[] stored = compress(data, 0, 32 * 1024, 2);
+        byte[] best = compress(data, 9, 32 * 1024, 2);
+        assertArrayEquals(data, gunzip(stored));
+        assertArrayEquals(data, gunzip(best));
+        assertTrue(best.length < stored.length);
+    }
+
+    /** An empty stream is a valid gzip file with one empty member. */
+    @Test
+    public void testEmpty() throws IOException {
+        byte[] compressed = compress(new byte[0], 6, 1024, 2);
+        assertEquals(0x1f, compressed[0] & 0xff);
+        assertEquals(0x8b, compressed[1] & 0xff);
+        assertEquals(0, gunzip(compressed).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new ParallelGzipOutputStream(new ByteArrayOutputStream(), 10, 1024, 1);
+    }
+}
@@ -0,0 +1,83 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class V2SmallFileBundleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static V2SmallFile smallFile(String diseaseId, int n) {
+        List<V2SmallFileEntry> entries = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            TermId tid = TermId.constructWithPrefix(String.format("HP:%07d", 1000 + i));
+            entries.add(new V2SmallFileEntry.Builder(diseaseId, "Testing only", tid, "Term " + i,
+                    "PCS", "PMID:123", "HPO:probinson[2018-06-01]")
+                    .frequencyString(i % 2 == 0 ? "3/7" : "")
+                    .build());
+        }
+        return new V2SmallFile(diseaseId.replace(':', '-') + ".tab", entries);
+    }
+
+    @Test
+    public void testBundleRoundTrip() throws IOException {
+        List<V2SmallFile> v2files = new ArrayList<>();
+        v2files.add(smallFile("OMIM:300000", 3));
+        v2files.add(smallFile("DECIPHER:17", 1));
+        v2files.add(smallFile("OMIM:100000", 5));
+        String path = new File(folder.getRoot(), "smallfiles.bundle").getAbsolutePath();
+        V2SmallFileBundle.write(path, v2files, "2018-06-01");
+        assertTrue(V2SmallFileBundle.isBundle(path));
+
+        V2SmallFileBundle bundle = new V2SmallFileBundle(path);
+        assertEquals("2018-06-01", bundle.getDataVersion());
+        assertEquals(3, bundle.size());
+        assertEquals("DECIPHER-17.tab", bundle.getBasenames().get(0));
+        assertEquals("OMIM-300000.tab", bundle.getBasenames().get(2));
+        Optional<V2SmallFile> omim = bundle.getDisease("OMIM:100000", null);
+        assertTrue(omim.isPresent());
+        assertEquals(5, omim.get().getNumberOfAnnotations());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(v2files.get(2).getOriginalEntryList().get(i).getRow(), omim.get().getOriginalEntryList().get(i).getRow());
+        }
+        assertFalse(bundle.getDisease("OMIM:999999", null).isPresent());
+    }
+
+    /** The number of lines that the parser skipped is kept for each small file. */
+    @Test
+    public void testSkippedLines() throws IOException {
+        List<V2SmallFile> v2files = new ArrayList<>();
+        v2files.add(smallFile("OMIM:300000", 3));
+        v2files.add(smallFile("OMIM:100000", 5));
+        String path = new File(folder.getRoot(), "smallfiles.bundle").getAbsolutePath();
+        V2SmallFileBundle.write(path, v2files, "2018-06-01", Collections.singletonMap("OMIM-300000.tab", 2));
+
+        V2SmallFileBundle bundle = new V2SmallFileBundle(path);
+        assertEquals(2, bundle.getNumberOfSkippedLines("OMIM-300000.tab"));
+        assertEquals(0, bundle.getNumberOfSkippedLines("OMIM-100000.tab"));
+        assertEquals(0, bundle.getNumberOfSkippedLines("OMIM-999999.tab"));
+        assertEquals(2, bundle.getNumberOfSkippedLines());
+        assertEquals(3, bundle.getDisease("OMIM:300000", null).get().getNumberOfAnnotations());
+    }
+
+    @Test
+    public void testDirectoryIsNotABundle() {
+        assertFalse(V2SmallFileBundle.isBundle(folder.getRoot().getAbsolutePath()));
+    }
+}
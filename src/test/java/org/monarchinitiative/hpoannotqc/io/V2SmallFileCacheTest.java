@@ -0,0 +1,81 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class V2SmallFileCacheTest {
+
+    private static HpoTermIndex ontology;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void init() throws IOException {
+        Path hpOboPath = Paths.get("src","test","resources","hp.obo");
+        HpoOboParser oboparser = new HpoOboParser(new File(hpOboPath.toAbsolutePath().toString()));
+        ontology = HpoTermIndex.of(oboparser.parse());
+    }
+
+    private String copySmallFile() throws IOException {
+        Path omim123456path = Paths.get("src","test","resources","smallfiles","OMIM-123456.tab");
+        File copy = new File(folder.getRoot(),"OMIM-123456.tab");
+        Files.copy(omim123456path, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return copy.getAbsolutePath();
+    }
+
+    @Test
+    public void testCachedSmallFileIsIdentical() throws IOException {
+        String smallFile = copySmallFile();
+        String cachePath = new File(folder.getRoot(),"smallfile.cache").getAbsolutePath();
+        V2SmallFile parsed = new V2SmallFileParser(smallFile,ontology).parse().get();
+        V2SmallFileCache cache = new V2SmallFileCache(cachePath,"2018-06-01");
+        assertFalse(cache.get(smallFile).isPresent());
+        cache.put(smallFile,parsed);
+        cache.save();
+
+        V2SmallFileCache reopened = new V2SmallFileCache(cachePath,"2018-06-01");
+        Optional<V2SmallFile> cached = reopened.get(smallFile);
+        assertTrue(cached.isPresent());
+        assertEquals(parsed.getBasename(),cached.get().getBasename());
+        assertEquals(parsed.getNumberOfAnnotations(),cached.get().getNumberOfAnnotations());
+        for (int i=0;i<parsed.getNumberOfAnnotations();i++) {
+            assertEquals(parsed.getOriginalEntryList().get(i).getRow(),cached.get().getOriginalEntryList().get(i).getRow());
+        }
+        assertEquals(1,reopened.getHits());
+    }
+
+    /** A new version of hp.obo or a modified small file must lead to a cache miss. */
+    @Test
+    public void testCacheMisses() throws IOException {
+        String smallFile = copySmallFile();
+        String cachePath = new File(folder.getRoot(),"smallfile.cache").getAbsolutePath();
+        V2SmallFileCache cache = new V2SmallFileCache(cachePath,"2018-06-01");
+        cache.put(smallFile,new V2SmallFileParser(smallFile,ontology).parse().get());
+        cache.save();
+
+        assertFalse(new V2SmallFileCache(cachePath,"2018-07-01").get(smallFile).isPresent());
+        Files.setLastModifiedTime(Paths.get(smallFile), FileTime.fromMillis(System.currentTimeMillis()+60_000));
+        V2SmallFileCache reopened = new V2SmallFileCache(cachePath,"2018-06-01");
+        assertFalse(reopened.get(smallFile).isPresent());
+        assertEquals(1,reopened.getMisses());
+    }
+}
@@ -0,0 +1,184 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFile;
+import org.monarchinitiative.hpoannotqc.smallfile.V2SmallFileEntry;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
+import org.monarchinitiative.hpoannotqc.ontology.TestOntology;
+import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class V2SmallFileIngestorTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static HpoTermIndex ontology;
+    private static String smallFileDir;
+    private static String omitFile;
+
+    private static final String[] diseaseIds = {"OMIM:300000", "OMIM:100000", "DECIPHER:17", "OMIM:200000", "OMIM:999999"};
+
+
+    @BeforeClass
+    public static void init() throws IOException {
+        Path hpOboPath = Paths.get("src","test","resources","hp.obo");
+        HpoOboParser oboparser = new HpoOboParser(new File(hpOboPath.toAbsolutePath().toString()));
+        ontology = HpoTermIndex.of(oboparser.parse());
+        File dir = folder.newFolder("annotated");
+        for (String id : diseaseIds) {
+            File f = new File(dir, id.replace(':','-') + ".tab");
+            BufferedWriter bw = new BufferedWriter(new FileWriter(f));
+            bw.write(V2SmallFileEntry.getHeaderV2() + "\n");
+            bw.write(id + "\tTesting only\tHP:0000006\tAutosomal dominant inheritance\t\t\t\t\t\t\t\t" + id + "\tTAS\tHPO:probinson[2018-05-28]\n");
+            bw.close();
+        }
+        File omit = new File(dir,"omit-list.txt");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(omit));
+        bw.write("#DiseaseId\tReason\n");
+        bw.write("OMIM:999999\ttrait\n");
+        bw.close();
+        smallFileDir = dir.getAbsolutePath();
+        omitFile = omit.getAbsolutePath();
+    }
+
+    /** The small files must come back sorted by path, and the omitted entry must be skipped. */
+    @Test
+    public void testSequentialIngestionIsSorted() {
+        V2SmallFileIngestor ingestor = new V2SmallFileIngestor(smallFileDir, omitFile, ontology);
+        List<V2SmallFile> v2files = ingestor.getV2SmallFileEntries();
+        assertEquals(4, v2files.size());
+        assertEquals("DECIPHER-17.tab", v2files.get(0).getBasename());
+        assertEquals("OMIM-100000.tab", v2files.get(1).getBasename());
+        assertEquals("OMIM-200000.tab", v2files.get(2).getBasename());
+        assertEquals("OMIM-300000.tab", v2files.get(3).getBasename());
+    }
+
+    /** Parallel ingestion must return the same small files in the same order as sequential ingestion. */
+    @Test
+    public void testParallelIngestionMatchesSequential() {
+        List<V2SmallFile> sequential = new V2SmallFileIngestor(smallFileDir, omitFile, ontology).getV2SmallFileEntries();
+        List<V2SmallFile> parallel = new V2SmallFileIngestor(smallFileDir, omitFile, ontology, 4).getV2SmallFileEntries();
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i).getBasename(), parallel.get(i).getBasename());
+            assertEquals(sequential.get(i).getOriginalEntryList().get(0).getRow(),
+                    parallel.get(i).getOriginalEntryList().get(0).getRow());
+        }
+    }
+
+    /** Streaming must deliver the same small files in the same order as the list, with a queue smaller than the input. */
+    @Test
+    public void testStreamingMatchesList() throws IOException {
+        List<V2SmallFile> sequential = new V2SmallFileIngestor(smallFileDir, omitFile, ontology).getV2SmallFileEntries();
+        List<String> streamed = new ArrayList<>();
+        V2SmallFileIngestor ingestor = new V2SmallFileIngestor(smallFileDir, omitFile, ontology, 2);
+        ingestor.streamV2SmallFiles(1, v2sf -> streamed.add(v2sf.getBasename()));
+        assertEquals(sequential.size(), streamed.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i).getBasename(), streamed.get(i));
+        }
+        assertEquals(0, ingestor.getNumberOfUnparsableFiles());
+    }
+
+    /** Values that are repeated in different small files must be resolved to the same instances. */
+    @Test
+    public void testValuesAreDeduplicated() {
+        V2SmallFileIngestor ingestor = new V2SmallFileIngestor(smallFileDir, omitFile, ontology, 2);
+        List<V2SmallFile> v2files = ingestor.getV2SmallFileEntries();
+        V2SmallFileEntry first = v2files.get(0).getOriginalEntryList().get(0);
+        V2SmallFileEntry second = v2files.get(1).getOriginalEntryList().get(0);
+        assertSame(first.getPhenotypeId(), second.getPhenotypeId());
+        assertSame(first.getPhenotypeName(), second.getPhenotypeName());
+        assertSame(first.getBiocuration(), second.getBiocuration());
+    }
+
+    /** A warm run that reads the small files from the cache must report the same skipped lines as the cold run. */
+    @Test
+    public void testCachedSkippedLineCounts() throws IOException {
+        File dir = folder.newFolder("skipped");
+        Files.write(new File(dir, "OMIM-100000.tab").toPath(), Arrays.asList(V2SmallFileEntry.getHeaderV2(),
+                "OMIM:100000\tTesting only\tHP:0000006\tAutosomal dominant inheritance\t\t\t\t\t\t\t\tOMIM:100000\tTAS\tHPO:probinson[2018-05-28]",
+                "OMIM:100000\tTesting only\tHP:0099999\tNot in the ontology\t\t\t\t\t\t\t\tOMIM:100000\tTAS\tHPO:probinson[2018-05-28]"),
+                StandardCharsets.UTF_8);
+        File omit = new File(dir, "omit-list.txt");
+        Files.write(omit.toPath(), Collections.singletonList("#DiseaseId\tReason"), StandardCharsets.UTF_8);
+        String cachePath = new File(folder.getRoot(), "skipped.cache").getAbsolutePath();
+        HpoTermIndex smallOntology = TestOntology.build();
+
+        V2SmallFileCache cold = new V2SmallFileCache(cachePath, "2018-06-01");
+        V2SmallFileIngestor coldIngestor = new V2SmallFileIngestor(dir.getAbsolutePath(), omit.getAbsolutePath(), smallOntology, 1, cold);
+        coldIngestor.getV2SmallFileEntries();
+        cold.save();
+        V2SmallFileCache warm = new V2SmallFileCache(cachePath, "2018-06-01");
+        V2SmallFileIngestor warmIngestor = new V2SmallFileIngestor(dir.getAbsolutePath(), omit.getAbsolutePath(), smallOntology, 1, warm);
+        warmIngestor.getV2SmallFileEntries();
+
+        assertEquals(0, cold.getHits());
+        assertEquals(1, warm.getHits());
+        assertEquals(Collections.singletonMap("OMIM-100000.tab", 1), coldIngestor.getSkippedLineCounts());
+        assertEquals(coldIngestor.getSkippedLineCounts(), warmIngestor.getSkippedLineCounts());
+    }
+
+    /** Small files in a zip or tar.gz archive must give the same result as the unpacked directory. */
+    @Test
+    public void testArchiveMatchesDirectory() throws IOException {
+        List<V2SmallFile> fromDirectory = new V2SmallFileIngestor(smallFileDir, omitFile, ontology).getV2SmallFileEntries();
+        File[] files = new File(smallFileDir).listFiles();
+        File zip = new File(folder.getRoot(), "snapshot.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (File f : files) {
+                zos.putNextEntry(new ZipEntry("hpo-annotation-data/rare-diseases/annotated/" + f.getName()));
+                zos.write(Files.readAllBytes(f.toPath()));
+                zos.closeEntry();
+            }
+        }
+        File tgz = new File(folder.getRoot(), "snapshot.tar.gz");
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(tgz))) {
+            for (File f : files) {
+                writeTarEntry(os, "hpo-annotation-data/rare-diseases/annotated/" + f.getName(), Files.readAllBytes(f.toPath()));
+            }
+            os.write(new byte[1024]);
+        }
+        for (File archive : new File[]{zip, tgz}) {
+            List<V2SmallFile> fromArchive = new V2SmallFileIngestor(archive.getAbsolutePath(), null, ontology, 2).getV2SmallFileEntries();
+            assertEquals(fromDirectory.size(), fromArchive.size());
+            for (int i = 0; i < fromDirectory.size(); i++) {
+                assertEquals(fromDirectory.get(i).getBasename(), fromArchive.get(i).getBasename());
+                assertEquals(fromDirectory.get(i).getOriginalEntryList().get(0).getRow(),
+                        fromArchive.get(i).getOriginalEntryList().get(0).getRow());
+            }
+        }
+    }
+
+    /** Write a minimal ustar entry for a regular file. */
+    private static void writeTarEntry(OutputStream os, String name, byte[] data) throws IOException {
+        byte[] header = new byte[512];
+        System.arraycopy(name.getBytes(StandardCharsets.UTF_8), 0, header, 0, name.length());
+        byte[] size = String.format("%011o", data.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = '0';
+        System.arraycopy("ustar".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 5);
+        os.write(header);
+        os.write(data);
+        os.write(new byte[(512 - data.length % 512) % 512]);
+    }
+}
@@ -0,0 +1,118 @@
+package org.monarchinitiative.hpoannotqc.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class V2SmallFileTokenizerTest {
+
+    private static final int N_FIELDS = 14;
+
+    @Test
+    public void testEmptyFieldsAreSharedEmptyString() throws IOException {
+        String line = "OMIM:123456\tTesting only\tHP:0000006\tAutosomal dominant inheritance\t\t\t\t\t\t\t\t\tTAS\tHPO:probinson[2018-05-28]\n";
+        V2SmallFileTokenizer tokenizer = new V2SmallFileTokenizer(new StringReader(line), N_FIELDS);
+        assertTrue(tokenizer.nextLine());
+        assertEquals(N_FIELDS, tokenizer.getFieldCount());
+        assertEquals("OMIM:123456", tokenizer.getField(0));
+        assertEquals("HP:0000006", tokenizer.getField(2));
+        assertTrue(tokenizer.isEmpty(6));
+        assertSame("", tokenizer.getField(6));
+        assertEquals("HPO:probinson[2018-05-28]", tokenizer.getField(13));
+        assertFalse(tokenizer.nextLine());
+    }
+
+    /** String.split drops trailing empty fields, the tokenizer does not. */
+    @Test
+    public void testTrailingEmptyField() throws IOException {
+        V2SmallFileTokenizer tokenizer = new V2SmallFileTokenizer(new StringReader("a\tb\t\n"), 3);
+        assertTrue(tokenizer.nextLine());
+        assertEquals(3, tokenizer.getFieldCount());
+        assertEquals("b", tokenizer.getField(1));
+        assertTrue(tokenizer.isEmpty(2));
+    }
+
+    @Test
+    public void testWindowsLineEndingAndMissingFinalNewline() throws IOException {
+        V2SmallFileTokenizer tokenizer = new V2SmallFileTokenizer(new StringReader("#a\tb\r\nc\td"), 2);
+        assertTrue(tokenizer.nextLine());
+        assertTrue(tokenizer.startsWith('#'));
+        assertEquals("b", tokenizer.getField(1));
+        assertTrue(tokenizer.nextLine());
+        assertEquals(2, tokenizer.getLineNumber());
+        assertEquals("c\td", tokenizer.getLine());
+        assertEquals("d", tokenizer.getField(1));
+        assertFalse(tokenizer.nextLine());
+    }
+
+    /**
+     * Tokenize a synthetic corpus with the default buffer and with a tiny buffer (so that lines straddle buffer
+     * refills and the buffer has to grow) and compare each field with the result of {@code String.split}, which the
+     * parser used previously.
+     */
+    @Test
+    public void testSyntheticCorpusAgainstSplit() throws IOException {
+        List<String> lines = makeSyntheticCorpus(20_000);
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        String corpus = sb.toString();
+        assertSameFieldsAsSplit(lines, new V2SmallFileTokenizer(new StringReader(corpus), N_FIELDS));
+        assertSameFieldsAsSplit(lines, new V2SmallFileTokenizer(new StringReader(corpus), N_FIELDS, 64));
+    }
+
+    private static void assertSameFieldsAsSplit(List<String> lines, V2SmallFileTokenizer tokenizer) throws IOException {
+        for (String line : lines) {
+            assertTrue(tokenizer.nextLine());
+            assertEquals(line, tokenizer.getLine());
+            String[] A = line.split("\t");
+            assertEquals(N_FIELDS, tokenizer.getFieldCount());
+            for (int i = 0; i < A.length; i++) {
+                assertEquals(A[i], tokenizer.getField(i));
+            }
+            // split drops trailing empty fields
+            for (int i = A.length; i < N_FIELDS; i++) {
+                assertTrue(tokenizer.isEmpty(i));
+            }
+        }
+        assertFalse(tokenizer.nextLine());
+    }
+
+    private static List<String> makeSyntheticCorpus(int n) {
+        Random random = new Random(42);
+        String[] frequencies = {"", "3/4", "76.3%", "HP:0040283"};
+        String[] evidence = {"IEA", "PCS", "TAS"};
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int omim = 100000 + random.nextInt(500000);
+            String[] fields = {
+                    "OMIM:" + omim,
+                    "SYNTHETIC DISEASE " + omim + (random.nextBoolean() ? "; LONG NAME WITH SEVERAL WORDS" : ""),
+                    String.format("HP:%07d", random.nextInt(3000000)),
+                    "Synthetic phenotype " + random.nextInt(1000),
+                    random.nextInt(5) == 0 ? "HP:0003577" : "",
+                    "",
+                    frequencies[random.nextInt(frequencies.length)],
+                    random.nextInt(10) == 0 ? "FEMALE" : "",
+                    random.nextInt(20) == 0 ? "NOT" : "",
+                    "",
+                    random.nextInt(4) == 0 ? "some free text description" : "",
+                    "PMID:" + random.nextInt(30000000),
+                    evidence[random.nextInt(evidence.length)],
+                    "HPO:probinson[2018-05-28]"
+            };
+            lines.add(String.join("\t", fields));
+        }
+        return lines;
+    }
+}
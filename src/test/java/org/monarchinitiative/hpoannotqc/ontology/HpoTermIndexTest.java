@@ -0,0 +1,99 @@
+package org.monarchinitiative.hpoannotqc.ontology;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.monarchinitiative.hpoannotqc.ontology.TestOntology.*;
+
+public class HpoTermIndexTest {
+
+    private static final TermId ABNORMALITY_OF_THE_FACE = TermId.constructWithPrefix("HP:0000271");
+    /** Child of both eye and face, to test terms with more than one parent. */
+    private static final TermId PERIORBITAL = TermId.constructWithPrefix("HP:0000315");
+    /** The last of a chain of 100 terms below the ear, so that the ancestors span several 64-bit words. */
+    private static TermId deepTerm;
+
+    private static HpoTermIndex index;
+
+    @BeforeClass
+    public static void setup() {
+        HpoTermIndex.Builder builder = TestOntology.phenotypeBuilder()
+                .addTerm(ABNORMALITY_OF_THE_EAR, "Abnormality of the ear", false)
+                .addTerm(ABNORMALITY_OF_THE_FACE, "Abnormality of the face", false)
+                .addTerm(PERIORBITAL, "Abnormality of the orbital region", false)
+                .addParent(ABNORMALITY_OF_THE_EAR, PHENOTYPIC_ABNORMALITY)
+                .addParent(ABNORMALITY_OF_THE_FACE, PHENOTYPIC_ABNORMALITY)
+                .addParent(PERIORBITAL, ABNORMALITY_OF_THE_EYE)
+                .addParent(PERIORBITAL, ABNORMALITY_OF_THE_FACE);
+        TermId parent = ABNORMALITY_OF_THE_EAR;
+        for (int i=0; i<100; i++) {
+            TermId tid = TermId.constructWithPrefix(String.format("HP:99%05d", i));
+            builder.addTerm(tid, "term " + i, false).addParent(tid, parent);
+            parent = tid;
+        }
+        deepTerm = parent;
+        index = builder.build();
+    }
+
+    @Test
+    public void testExistsPath() {
+        assertTrue(index.existsPath(ABNORMALITY_OF_THE_EYE, ALL));
+        assertTrue(index.existsPath(PERIORBITAL, ABNORMALITY_OF_THE_FACE));
+        assertTrue(index.existsPath(ALT_ID, PHENOTYPIC_ABNORMALITY));
+        assertFalse(index.existsPath(ALL, ABNORMALITY_OF_THE_EYE));
+        assertFalse(index.existsPath(PERIORBITAL, ABNORMALITY_OF_THE_EAR));
+        // as in phenol, a term does not have a path to itself
+        assertFalse(index.existsPath(ABNORMALITY_OF_THE_EYE, ABNORMALITY_OF_THE_EYE));
+    }
+
+    @Test
+    public void testIsSubclass() {
+        assertTrue(index.isSubclass(ABNORMALITY_OF_THE_EYE, ABNORMALITY_OF_THE_EYE));
+        assertTrue(index.isSubclass(ALT_ID, ABNORMALITY_OF_THE_EYE));
+        assertTrue(index.isSubclass(deepTerm, ABNORMALITY_OF_THE_EAR));
+        assertTrue(index.isSubclass(deepTerm, ALL));
+        assertFalse(index.isSubclass(deepTerm, ABNORMALITY_OF_THE_EYE));
+        assertFalse(index.isSubclass(ABNORMALITY_OF_THE_EAR, deepTerm));
+        assertFalse(index.isSubclass(TermId.constructWithPrefix("HP:0000002"), ALL));
+    }
+
+    @Test
+    public void testAncestorsOfDeepTerm() {
+        int[] ancestors = index.getAncestors(index.getIndex(deepTerm));
+        // 99 terms of the chain, ear, phenotypic abnormality and all
+        assertEquals(102, ancestors.length);
+        for (int i=1; i<ancestors.length; i++) {
+            assertTrue(ancestors[i-1] < ancestors[i]);
+        }
+    }
+
+    @Test
+    public void testCommonAncestors() {
+        Set<TermId> expected = new HashSet<>(Arrays.asList(ALL, PHENOTYPIC_ABNORMALITY));
+        assertEquals(expected, index.getCommonAncestors(PERIORBITAL, deepTerm));
+        expected = new HashSet<>(Arrays.asList(ALL, PHENOTYPIC_ABNORMALITY, ABNORMALITY_OF_THE_EYE));
+        assertEquals(expected, index.getCommonAncestors(PERIORBITAL, ABNORMALITY_OF_THE_EYE));
+        assertEquals(expected, index.getCommonAncestors(ABNORMALITY_OF_THE_EYE, ABNORMALITY_OF_THE_EYE));
+    }
+
+    @Test
+    public void testSiblings() {
+        assertTrue(index.areSiblings(ABNORMALITY_OF_THE_EYE, ABNORMALITY_OF_THE_EAR));
+        assertTrue(index.areSiblings(ALT_ID, ABNORMALITY_OF_THE_FACE));
+        assertFalse(index.areSiblings(ABNORMALITY_OF_THE_EYE, ABNORMALITY_OF_THE_EYE));
+        assertFalse(index.areSiblings(PERIORBITAL, ABNORMALITY_OF_THE_EAR));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycleIsRejected() {
+        TestOntology.phenotypeBuilder()
+                .addParent(ALL, PHENOTYPIC_ABNORMALITY)
+                .build();
+    }
+}
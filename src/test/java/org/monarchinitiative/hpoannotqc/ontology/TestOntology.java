@@ -0,0 +1,61 @@
+package org.monarchinitiative.hpoannotqc.ontology;
+
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+/**
+ * A small hand-built HPO for the tests that do not need {@code hp.obo}. {@link #phenotypeBuilder()} has the root,
+ * the phenotypic abnormality subontology with the eye and an alt_id of the eye; {@link #builder()} adds the mode of
+ * inheritance, onset and frequency subontologies. Tests can add their own terms to the builders.
+ * @author <a href="mailto:peter.robinson@jax.org">Peter Robinson</a>
+ */
+public final class TestOntology {
+    public static final TermId ALL = TermId.constructWithPrefix("HP:0000001");
+    public static final TermId PHENOTYPIC_ABNORMALITY = TermId.constructWithPrefix("HP:0000118");
+    public static final TermId ABNORMALITY_OF_THE_EYE = TermId.constructWithPrefix("HP:0000478");
+    /** Not in the builders; used by tests that add a term. */
+    public static final TermId ABNORMALITY_OF_THE_EAR = TermId.constructWithPrefix("HP:0000598");
+    /** An alt_id of {@link #ABNORMALITY_OF_THE_EYE}. */
+    public static final TermId ALT_ID = TermId.constructWithPrefix("HP:0001105");
+    public static final TermId MODE_OF_INHERITANCE = TermId.constructWithPrefix("HP:0000005");
+    public static final TermId AUTOSOMAL_DOMINANT = TermId.constructWithPrefix("HP:0000006");
+    public static final TermId ONSET = TermId.constructWithPrefix("HP:0003674");
+    public static final TermId CONGENITAL_ONSET = TermId.constructWithPrefix("HP:0003577");
+    public static final TermId FREQUENCY = TermId.constructWithPrefix("HP:0040279");
+    public static final TermId OCCASIONAL = TermId.constructWithPrefix("HP:0040283");
+
+    private TestOntology() {
+    }
+
+    /** @return a builder with {@link #ALL}, {@link #PHENOTYPIC_ABNORMALITY} and {@link #ABNORMALITY_OF_THE_EYE} */
+    public static HpoTermIndex.Builder phenotypeBuilder() {
+        return new HpoTermIndex.Builder()
+                .addTerm(ALL, "All", false)
+                .addTerm(PHENOTYPIC_ABNORMALITY, "Phenotypic abnormality", false)
+                .addTerm(ABNORMALITY_OF_THE_EYE, "Abnormality of the eye", false)
+                .addParent(PHENOTYPIC_ABNORMALITY, ALL)
+                .addParent(ABNORMALITY_OF_THE_EYE, PHENOTYPIC_ABNORMALITY)
+                .addAltId(ALT_ID, ABNORMALITY_OF_THE_EYE);
+    }
+
+    /** @return a builder with the terms of {@link #phenotypeBuilder()} and the inheritance, onset and frequency terms */
+    public static HpoTermIndex.Builder builder() {
+        return phenotypeBuilder()
+                .addTerm(MODE_OF_INHERITANCE, "Mode of inheritance", false)
+                .addTerm(AUTOSOMAL_DOMINANT, "Autosomal dominant inheritance", false)
+                .addTerm(ONSET, "Onset", false)
+                .addTerm(CONGENITAL_ONSET, "Congenital onset", false)
+                .addTerm(FREQUENCY, "Frequency", false)
+                .addTerm(OCCASIONAL, "Occasional", false)
+                .addParent(MODE_OF_INHERITANCE, ALL)
+                .addParent(AUTOSOMAL_DOMINANT, MODE_OF_INHERITANCE)
+                .addParent(ONSET, ALL)
+                .addParent(CONGENITAL_ONSET, ONSET)
+                .addParent(FREQUENCY, ALL)
+                .addParent(OCCASIONAL, FREQUENCY);
+    }
+
+    /** @return the ontology of {@link #builder()} */
+    public static HpoTermIndex build() {
+        return builder().build();
+    }
+}
@@ -0,0 +1,76 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarAnnotationStoreTest {
+
+    private static List<V2SmallFile> v2files;
+    private static ColumnarAnnotationStore store;
+
+    @BeforeClass
+    public static void init() {
+        v2files = new ArrayList<>();
+        ColumnarAnnotationStore.Builder builder = new ColumnarAnnotationStore.Builder();
+        for (int d = 0; d < 200; d++) {
+            String diseaseId = String.format("OMIM:%d", 100000 + d);
+            List<V2SmallFileEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                TermId tid = TermId.constructWithPrefix(String.format("HP:%07d", 1000 + (d * 7 + i) % 300));
+                entries.add(new V2SmallFileEntry.Builder(diseaseId, "Testing disease " + d, tid, "Term " + tid.getId(),
+                        "PCS", "PMID:" + (d * 20 + i), "HPO:probinson[2018-06-01]")
+                        .ageOfOnsetId(i % 2 == 0 ? "HP:0003577" : "")
+                        .ageOfOnsetName(i % 2 == 0 ? "Congenital onset" : "")
+                        .frequencyString(i % 3 == 0 ? "HP:0040283" : "3/7")
+                        .description(i % 5 == 0 ? "Description " + i : "")
+                        .build());
+            }
+            V2SmallFile v2sf = new V2SmallFile(diseaseId.replace(':', '-') + ".tab", entries);
+            v2files.add(v2sf);
+            builder.add(v2sf);
+        }
+        store = builder.build();
+    }
+
+    /** Each row of the store must reproduce the corresponding small file line. */
+    @Test
+    public void testRowsMatchEntries() {
+        assertEquals(200, store.getNumberOfDiseases());
+        assertEquals(4000, store.size());
+        ColumnarAnnotationStore.Row row = store.row();
+        for (int d = 0; d < v2files.size(); d++) {
+            V2SmallFile v2sf = v2files.get(d);
+            assertEquals(v2sf.getBasename(), store.getDiseaseSource(d));
+            assertEquals(v2sf.getNumberOfAnnotations(), store.getDiseaseEnd(d) - store.getDiseaseStart(d));
+            for (int i = 0; i < v2sf.getNumberOfAnnotations(); i++) {
+                V2SmallFileEntry entry = v2sf.getOriginalEntryList().get(i);
+                row.moveTo(store.getDiseaseStart(d) + i);
+                assertEquals(entry.getRow(), row.getRow());
+                assertEquals(entry.getDB(), row.getDB());
+                assertEquals(entry.getPhenotypeId(), row.getPhenotypeId());
+            }
+        }
+    }
+
+    /** Repeated values are stored once, and the phenotype id is stored as an integer. */
+    @Test
+    public void testDictionaryEncoding() {
+        ColumnarAnnotationStore.Row row = store.row();
+        String evidence = row.moveTo(0).getEvidenceCode();
+        assertSame(evidence, row.moveTo(store.size() - 1).getEvidenceCode());
+        assertEquals(1000, store.getPhenotypeNumber(0));
+    }
+
+    @Test
+    public void testColumnarStoreIsSmallerThanObjects() {
+        assertTrue(store.estimateHeapBytes() < store.estimateObjectModelHeapBytes());
+    }
+}
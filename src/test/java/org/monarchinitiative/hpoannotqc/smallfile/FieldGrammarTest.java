@@ -0,0 +1,100 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * The scanners of {@link FieldGrammar} must accept exactly the strings that the regular expressions they replaced
+ * accept. Besides a few hand-picked cases, random strings over the characters that occur in the grammars are compared.
+ */
+public class FieldGrammarTest {
+
+    private static final Pattern FRACTION = Pattern.compile("\\d+/\\d+");
+    private static final Pattern PERCENTAGE = Pattern.compile("\\d{1,3}%");
+    private static final Pattern DECIMAL_PERCENTAGE = Pattern.compile("\\d{1,3}\\.\\d+%");
+    private static final Pattern HPO_ID = Pattern.compile("HP:\\d{7}");
+    private static final Pattern BIOCURATION = Pattern.compile("(\\w+:\\w+)\\[(\\d{4}-\\d{2}-\\d{2})\\]");
+
+    /** Random strings with many digits and the separators of the grammars. */
+    private static List<String> randomStrings(long seed, String alphabet, int n, int maxLength) {
+        Random random = new Random(seed);
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int len = random.nextInt(maxLength + 1);
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < len; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            strings.add(sb.toString());
+        }
+        return strings;
+    }
+
+    @Test
+    public void testFrequencies() {
+        assertTrue(FieldGrammar.isFraction("4/7"));
+        assertFalse(FieldGrammar.isFraction("4/"));
+        assertTrue(FieldGrammar.isPercentage("32.6%"));
+        assertFalse(FieldGrammar.isPercentage("32.%"));
+        assertFalse(FieldGrammar.isPercentage("1234%"));
+        assertTrue(FieldGrammar.isHpoId("HP:0040283"));
+        assertFalse(FieldGrammar.isHpoId("HP:004028"));
+        for (String s : randomStrings(42, "0123456789/.%HP:", 200000, 12)) {
+            assertEquals(s, FRACTION.matcher(s).matches(), FieldGrammar.isFraction(s));
+            assertEquals(s, PERCENTAGE.matcher(s).matches() || DECIMAL_PERCENTAGE.matcher(s).matches(),
+                    FieldGrammar.isPercentage(s));
+            assertEquals(s, HPO_ID.matcher(s).matches(), FieldGrammar.isHpoId(s));
+        }
+    }
+
+    @Test
+    public void testCurie() {
+        assertEquals(4, FieldGrammar.curieColon("PMID:123"));
+        assertEquals(4, FieldGrammar.curieColon("http://www.ncbi.nlm.nih.gov"));
+        assertEquals(-1, FieldGrammar.curieColon(":123"));
+        assertEquals(-1, FieldGrammar.curieColon("PMID::123"));
+        assertEquals(-1, FieldGrammar.curieColon("PMID: 123"));
+        assertEquals(-1, FieldGrammar.curieColon("PMID123"));
+    }
+
+    @Test
+    public void testParseNonNegativeInt() {
+        assertEquals(2147483647, FieldGrammar.parseNonNegativeInt("2147483647", 0, 10));
+        assertEquals(-1, FieldGrammar.parseNonNegativeInt("2147483648", 0, 10));
+        assertEquals(-1, FieldGrammar.parseNonNegativeInt("12a", 0, 3));
+        assertEquals(12, FieldGrammar.parseNonNegativeInt("12a", 0, 2));
+    }
+
+    @Test
+    public void testBiocurationEntries() {
+        String field = " HPO:probinson[2013-01-09] ;x;HPO:skoehler[2017-01-19";
+        long e = FieldGrammar.findBiocurationEntry(field, 0, FieldGrammar.itemEnd(field, 0));
+        assertEquals("HPO:probinson", field.substring(FieldGrammar.curatorStart(e), FieldGrammar.curatorEnd(e)));
+        assertEquals("2013-01-09", field.substring(FieldGrammar.dateStart(e), FieldGrammar.dateEnd(e)));
+        assertTrue(FieldGrammar.hasBiocurationEntry(field));
+        assertFalse(FieldGrammar.hasBiocurationEntry("HPO:skoehler[2017-01-19"));
+        assertFalse(FieldGrammar.hasBiocurationEntry(""));
+        for (String s : randomStrings(7, "aH_:[]-0123456789", 200000, 16)) {
+            String t = s.length() > 3 ? s.substring(0, 2) + ":" + s.substring(2) + "[2018-01-0" + s.charAt(0) + "]" + s : s;
+            for (String candidate : new String[]{s, t}) {
+                Matcher m = BIOCURATION.matcher(candidate);
+                long found = FieldGrammar.findBiocurationEntry(candidate, 0, candidate.length());
+                if (m.find()) {
+                    assertTrue(candidate, found >= 0);
+                    assertEquals(candidate, m.start(1), FieldGrammar.curatorStart(found));
+                    assertEquals(candidate, m.end(1), FieldGrammar.curatorEnd(found));
+                    assertEquals(candidate, m.start(2), FieldGrammar.dateStart(found));
+                } else {
+                    assertEquals(candidate, -1L, found);
+                }
+            }
+        }
+    }
+}
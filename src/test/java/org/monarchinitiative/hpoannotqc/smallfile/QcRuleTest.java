@@ -0,0 +1,221 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monarchinitiative.hpoannotqc.ontology.TestOntology;
+import org.monarchinitiative.phenol.ontology.data.TermId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.monarchinitiative.hpoannotqc.ontology.TestOntology.*;
+
+/**
+ * Checks the rules of {@link V2LineQualityController} with a small ontology that has the onset and frequency
+ * subontologies, so that hp.obo is not needed.
+ */
+public class QcRuleTest {
+
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private V2LineQualityController qc;
+
+    @Before
+    public void init() {
+        qc = new V2LineQualityController(TestOntology.build());
+    }
+
+    private static V2SmallFileEntry.Builder entry(TermId phenotype, String evidence, String publication) {
+        return new V2SmallFileEntry.Builder("OMIM:123456", "Some disease", phenotype, "Abnormality of the eye",
+                evidence, publication, "HPO:probinson[2018-06-01]");
+    }
+
+    @Test
+    public void testCleanLine() {
+        V2SmallFileEntry e = entry(ABNORMALITY_OF_THE_EYE, "PCS", "PMID:123")
+                .ageOfOnsetId(CONGENITAL_ONSET.getIdWithPrefix())
+                .ageOfOnsetName("Congenital onset")
+                .frequencyString(OCCASIONAL.getIdWithPrefix())
+                .build();
+        assertTrue(qc.checkV2entry(e));
+        assertTrue(qc.getErrors().isEmpty());
+        QualityControlSummary summary = qc.getSummary();
+        assertEquals(1, summary.getGood("frequency"));
+        assertEquals(1, summary.getGood("age of onset ID"));
+    }
+
+    @Test
+    public void testFrequencyFormats() {
+        String[] good = {"", "4/7", "32%", "32.6%", OCCASIONAL.getIdWithPrefix()};
+        for (String f : good) {
+            assertTrue(f, qc.checkV2entry(entry(ABNORMALITY_OF_THE_EYE, "PCS", "PMID:123").frequencyString(f).build()));
+        }
+        // the frequency root itself and onset terms are not frequencies
+        String[] bad = {"4/", "1234%", "32.%", "1/2%", "occasional", FREQUENCY.getIdWithPrefix(),
+                CONGENITAL_ONSET.getIdWithPrefix()};
+        for (String f : bad) {
+            assertFalse(f, qc.checkV2entry(entry(ABNORMALITY_OF_THE_EYE, "PCS", "PMID:123").frequencyString(f).build()));
+        }
+        QualityControlSummary summary = qc.getSummary();
+        assertEquals(good.length, summary.getGood("frequency"));
+        assertEquals(bad.length, summary.getBad("frequency"));
+    }
+
+    /** A well-formed onset id that is not in the ontology is a finding of both onset rules, not an exception. */
+    @Test
+    public void testUnknownOnsetId() {
+        V2SmallFileEntry e = entry(ABNORMALITY_OF_THE_EYE, "PCS", "PMID:123")
+                .ageOfOnsetId("HP:0099999")
+                .ageOfOnsetName("Some onset")
+                .build();
+        assertFalse(qc.checkV2entry(e, 0, 1));
+        List<QcFinding> findings = qc.getFindings();
+        assertEquals(2, findings.size());
+        assertEquals(QcFindingCode.UNKNOWN_ONSET_ID, findings.get(0).getCode());
+        assertEquals(QcFindingCode.ONSET_LABEL_OF_UNKNOWN_ID, findings.get(1).getCode());
+        assertEquals("HP:0099999", findings.get(1).getValue());
+        assertEquals(1, qc.getSummary().getBad("age of onset label"));
+    }
+
+    /** An onset label without an onset id is a finding; the label is not compared with anything. */
+    @Test
+    public void testOnsetLabelWithoutId() {
+        V2SmallFileEntry e = entry(ABNORMALITY_OF_THE_EYE, "PCS", "PMID:123")
+                .ageOfOnsetId("")
+                .ageOfOnsetName("Congenital onset")
+                .build();
+        assertFalse(qc.checkV2entry(e, 0, 1));
+        List<QcFinding> findings = qc.getFindings();
+        assertEquals(1, findings.size());
+        assertEquals(QcFindingCode.ONSET_LABEL_WITHOUT_ID, findings.get(0).getCode());
+        assertEquals("Congenital onset", findings.get(0).getValue());
+        assertEquals(1, qc.getSummary().getGood("age of onset ID"));
+    }
+
+    /** A phenotype id that is not in the ontology is a finding of the id and of the label rule. */
+    @Test
+    public void testUnknownPhenotypeId() {
+        TermId unknown = TermId.constructWithPrefix("HP:0099999");
+        assertFalse(qc.checkV2entry(entry(unknown, "PCS", "PMID:123").build(), 0, 1));
+        List<QcFinding> findings = qc.getFindings();
+        assertEquals(2, findings.size());
+        assertEquals(QcFindingCode.UNKNOWN_PHENOTYPE_ID, findings.get(0).getCode());
+        assertEquals(QcFindingCode.PHENOTYPE_LABEL_OF_UNKNOWN_ID, findings.get(1).getCode());
+        assertEquals(1, qc.getSummary().getBad("phenotype label"));
+    }
+
+    @Test
+    public void testFindingsAreReportedInColumnOrder() {
+        V2SmallFileEntry e = entry(ALT_ID, "XYZ", "FOO:123").frequencyString("often").build();
+        assertFalse(qc.checkV2entry(e, 4, 2));
+        List<QcFinding> findings = qc.getFindings();
+        assertEquals(4, findings.size());
+        assertEquals(QcFindingCode.PHENOTYPE_ALT_ID, findings.get(0).getCode());
+        assertEquals(QcFindingCode.UNKNOWN_PUBLICATION_PREFIX, findings.get(1).getCode());
+        assertEquals(QcFindingCode.BAD_EVIDENCE, findings.get(2).getCode());
+        assertEquals(QcFindingCode.INVALID_FREQUENCY, findings.get(3).getCode());
+        assertEquals("often", findings.get(3).getValue());
+        assertEquals(4, findings.get(3).getDiseaseIndex());
+        assertEquals(2, findings.get(3).getLineNumber());
+        assertEquals("Invalid frequency [often]: OMIM:123456 line 2", qc.getErrors().get(3));
+    }
+
+    @Test
+    public void testMaximumNumberOfFindings() throws IOException {
+        File tsv = folder.newFile("findings.tsv");
+        QcReportWriter writer = new QcReportWriter(tsv.getAbsolutePath(), QcReportWriter.Format.TSV);
+        qc.setMaxFindingsPerCheck(2);
+        qc.setReportWriter(writer);
+        for (int i=0; i<5; i++) {
+            qc.checkV2entry(entry(ABNORMALITY_OF_THE_EYE, "PCS", "PMID:123").frequencyString("often").build(), i, 1);
+        }
+        writer.close();
+        assertEquals(2, qc.getFindings().size());
+        assertEquals(5, qc.getSummary().getBad("frequency"));
+        List<String> errors = qc.getErrors();
+        assertEquals(3, errors.size());
+        assertEquals("3 further frequency findings were not kept (maximum: 2 per check)", errors.get(2));
+        // the file has all findings
+        List<String> lines = Files.readAllLines(tsv.toPath());
+        assertEquals(8, lines.size());
+        assertEquals("finding\t4\tOMIM:123456\t1\tINVALID_FREQUENCY\tfrequency\toften", lines.get(7));
+    }
+
+    @Test
+    public void testJsonReportWithSummary() throws IOException {
+        File json = folder.newFile("qc.json");
+        QcReportWriter writer = new QcReportWriter(json.getAbsolutePath(), QcReportWriter.Format.fromPath(json.getName()));
+        qc.setReportWriter(writer);
+        qc.checkV2entry(entry(ABNORMALITY_OF_THE_EYE, "PCS", "PMID:123").frequencyString("\"often\"").build(), 0, 3);
+        qc.checkV2entry(entry(ABNORMALITY_OF_THE_EYE, "PCS", "PMID:123").build(), 0, 4);
+        writer.writeSummary(qc.getSummary(), qc.getAssignedByCounts());
+        writer.close();
+        List<String> lines = Files.readAllLines(json.toPath());
+        // one finding, 13 counts and one biocurator
+        assertEquals(15, lines.size());
+        assertEquals("{\"type\":\"finding\",\"diseaseIndex\":0,\"diseaseId\":\"OMIM:123456\",\"line\":3," +
+                "\"code\":\"INVALID_FREQUENCY\",\"check\":\"frequency\",\"value\":\"\\\"often\\\"\"}", lines.get(0));
+        assertEquals("{\"type\":\"count\",\"check\":\"frequency\",\"good\":1,\"bad\":1}", lines.get(12));
+        assertEquals("{\"type\":\"assigned-by\",\"biocurator\":\"HPO:probinson\",\"n\":2}", lines.get(14));
+    }
+
+    @Test
+    public void testReportOrder() {
+        qc.checkV2entry(entry(ABNORMALITY_OF_THE_EYE, "", "PMID:123").build());
+        QualityControlSummary summary = qc.getSummary();
+        assertEquals(13, summary.getChecks().size());
+        assertEquals("database", summary.getChecks().get(0));
+        assertEquals("assigned-by", summary.getChecks().get(10));
+        assertEquals("aspect", summary.getChecks().get(12));
+        // a missing evidence code is counted as a bad publication, as it always was
+        assertEquals(1, summary.getBad("publication"));
+        assertEquals(0, summary.getBad("evidence"));
+    }
+
+    @Test
+    public void testMergedWorkersMatchSequentialCheck() {
+        // with 500 diseases and 64 diseases per worker, the maximum is reached in a later worker
+        qc.setMaxFindingsPerCheck(30);
+        List<V2SmallFile> smallFiles = new ArrayList<>();
+        for (int i=0; i<500; i++) {
+            // every seventh disease has a bad publication and every eleventh a bad frequency
+            V2SmallFileEntry e = entry(i%3==0 ? ALT_ID : ABNORMALITY_OF_THE_EYE, "PCS", i%7==0 ? "FOO:" + i : "PMID:" + i)
+                    .frequencyString(i%11==0 ? "often" : i + "/1000")
+                    .build();
+            smallFiles.add(new V2SmallFile("OMIM-" + (100000 + i) + ".tab", Collections.singletonList(e)));
+        }
+        for (V2SmallFile v2 : smallFiles) {
+            for (V2SmallFileEntry e : v2.getOriginalEntryList()) {
+                qc.checkV2entry(e, smallFiles.indexOf(v2), 1);
+            }
+        }
+        QualityControlSummary sequential = qc.getSummary();
+        assertEquals(3, sequential.getErrors().size() - qc.getFindings().size());
+        V2LineQualityController parallelQc = qc.newWorker();
+        boolean clean = true;
+        for (int from=0; from<smallFiles.size(); from+=64) {
+            V2LineQualityController worker = qc.newWorker();
+            for (int i=from; i<Math.min(from+64, smallFiles.size()); i++) {
+                clean &= worker.checkV2entry(smallFiles.get(i).getOriginalEntryList().get(0), i, 1);
+            }
+            parallelQc.merge(worker);
+        }
+        assertFalse(clean);
+        QualityControlSummary parallel = parallelQc.getSummary();
+        assertEquals(sequential.getChecks(), parallel.getChecks());
+        for (String check : sequential.getChecks()) {
+            assertEquals(check, sequential.getGood(check), parallel.getGood(check));
+            assertEquals(check, sequential.getBad(check), parallel.getBad(check));
+        }
+        assertEquals(sequential.getErrors(), parallel.getErrors());
+    }
+}
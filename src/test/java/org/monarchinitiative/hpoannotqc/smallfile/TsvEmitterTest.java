@@ -0,0 +1,49 @@
+package org.monarchinitiative.hpoannotqc.smallfile;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class TsvEmitterTest {
+
+    @Test
+    public void testFields() {
+        TsvEmitter emitter = new TsvEmitter();
+        String line = emitter.field("OMIM:123456").field("").field(null).field("HP:0000478").toLineString();
+        assertEquals(String.join("\t", "OMIM:123456", "", "null", "HP:0000478"), line);
+        // the emitter starts a new line after toLineString
+        assertEquals("a\tb", emitter.field("a").field("b").toLineString());
+    }
+
+    @Test
+    public void testNumberedField() {
+        TsvEmitter emitter = new TsvEmitter();
+        String line = emitter.field("ORPHA", 0).field("ORPHA", 123).field("ORPHA", Integer.MAX_VALUE)
+                .field("X", -42).toLineString();
+        assertEquals("ORPHA:0\tORPHA:123\tORPHA:" + Integer.MAX_VALUE + "\tX:-42", line);
+    }
+
+    @Test
+    public void testCharRangeAndRaw() {
+        char[] chars = "xxSome diseaseyy".toCharArray();
+        String line = new TsvEmitter().raw("key\t").field(chars, 2, 12).field("end").toLineString();
+        assertEquals("key\tSome disease\tend", line);
+    }
+
+    @Test
+    public void testEndLineAndGrowth() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        TsvEmitter emitter = new TsvEmitter();
+        StringWriter writer = new StringWriter();
+        for (int i = 0; i < 200; i++) {
+            emitter.field("field" + i);
+            expected.append(i == 0 ? "" : "\t").append("field").append(i);
+        }
+        emitter.endLine(writer);
+        emitter.field("next").endLine(writer);
+        assertEquals(expected + "\nnext\n", writer.toString());
+    }
+}
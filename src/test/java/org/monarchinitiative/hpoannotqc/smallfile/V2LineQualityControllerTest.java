@@ -6,7 +6,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.monarchinitiative.hpoannotqc.bigfile.BigFileWriterTest;
 import org.monarchinitiative.hpoannotqc.io.V2SmallFileParser;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
@@ -26,7 +26,7 @@ import static junit.framework.TestCase.assertTrue;
 public class V2LineQualityControllerTest {
 
 
-    private static HpoOntology ontology;
+    private static HpoTermIndex ontology;
     private static V2LineQualityController qc;
     @Rule
     public TemporaryFolder folder= new TemporaryFolder();
@@ -38,7 +38,7 @@ public class V2LineQualityControllerTest {
         String hpOboPath = classLoader.getResource("hp.obo").getFile();
         Objects.requireNonNull(hpOboPath);
         HpoOboParser oboparser = new HpoOboParser(new File(hpOboPath));
-        ontology = oboparser.parse();
+        ontology = HpoTermIndex.of(oboparser.parse());
         qc = new V2LineQualityController(ontology);
     }
 
@@ -2,7 +2,7 @@ package org.monarchinitiative.hpoannotqc.smallfile;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
 import org.monarchinitiative.phenol.ontology.data.TermId;
 
@@ -14,7 +14,7 @@ import static junit.framework.TestCase.assertEquals;
 
 public class V2SmallFileEntryTest {
 
-    private static HpoOntology ontology;
+    private static HpoTermIndex ontology;
 
 
     @BeforeClass
@@ -23,7 +23,7 @@ public class V2SmallFileEntryTest {
         String hpOboPath=resourceDirectory.toAbsolutePath().toString();
         try {
             HpoOboParser oboparser = new HpoOboParser(new File(hpOboPath));
-            ontology = oboparser.parse();
+            ontology = HpoTermIndex.of(oboparser.parse());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -3,7 +3,7 @@ package org.monarchinitiative.hpoannotqc.smallfile;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.monarchinitiative.hpoannotqc.io.V2SmallFileParser;
-import org.monarchinitiative.phenol.formats.hpo.HpoOntology;
+import org.monarchinitiative.hpoannotqc.ontology.HpoTermIndex;
 import org.monarchinitiative.phenol.io.obo.hpo.HpoOboParser;
 
 import java.io.File;
@@ -17,7 +17,7 @@ import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertNotNull;
 
 public class V2SmallFileTest {
-    private static HpoOntology ontology;
+    private static HpoTermIndex ontology;
     private static V2SmallFile v2sf=null;
 
 
@@ -26,7 +26,7 @@ public class V2SmallFileTest {
         Path hpOboPath = Paths.get("src","test","resources","hp.obo");
         String hpOboFile=hpOboPath.toAbsolutePath().toString();
         HpoOboParser oboparser = new HpoOboParser(new File(hpOboFile));
-        ontology = oboparser.parse();
+        ontology = HpoTermIndex.of(oboparser.parse());
         Path omim123456path = Paths.get("src","test","resources","smallfiles","OMIM-123456.tab");
         String omim123456file = omim123456path.toAbsolutePath().toString();
         V2SmallFileParser parser = new V2SmallFileParser(omim123456file,ontology);